@@ -32,6 +32,7 @@ import javax.management.relation.Relation;
 
 import org.eclipse.jdt.annotation.Nullable;
 import org.fusesource.jansi.Ansi.Color;
+import org.geogig.osm.internal.BulkImportProfile;
 import org.geogig.osm.internal.history.Change;
 import org.geogig.osm.internal.history.Changeset;
 import org.geogig.osm.internal.history.HistoryDownloader;
@@ -145,9 +146,12 @@ public class OSMHistoryImport extends AbstractCommand implements CLICommand {
         Envelope env = parseBbox();
         Predicate<Changeset> filter = parseFilter(env);
         downloader.setChangesetFilter(filter);
+        BulkImportProfile profile = BulkImportProfile
+                .enable(cli.getGeogig().getRepository().configDatabase());
         try {
             importOsmHistory(cli, console, downloader, env);
         } finally {
+            profile.restore();
             executor.shutdownNow();
             try {
                 executor.awaitTermination(30, TimeUnit.SECONDS);
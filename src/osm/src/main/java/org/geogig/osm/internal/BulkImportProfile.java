@@ -0,0 +1,86 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.osm.internal;
+
+import java.lang.reflect.Method;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.locationtech.geogig.storage.ConfigDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Switches the repository's storage backend to its bulk import tuning while an import runs.
+ * <p>
+ * Only the Berkeley DB JE backend has workload profiles. The bulk import profile is set as a
+ * process local override of the one in the repository config, so other processes using the
+ * repository are not affected, and nothing is left behind if this one dies before restoring it.
+ * The JE plugin is looked up at runtime since it's optional; other backends are left untouched.
+ *
+ * <pre>
+ * <code>
+ * BulkImportProfile profile = BulkImportProfile.enable(config);
+ * try {
+ *     ...
+ * } finally {
+ *     profile.restore();
+ * }
+ * </code>
+ * </pre>
+ */
+public class BulkImportProfile {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkImportProfile.class);
+
+    static final String PROFILES_CLASS = "org.geogig.storage.bdbje.WorkloadProfile";
+
+    static final String BULK_IMPORT = "BULK_IMPORT";
+
+    private final @Nullable AutoCloseable override;
+
+    private BulkImportProfile(@Nullable AutoCloseable override) {
+        this.override = override;
+    }
+
+    /**
+     * Overrides the workload profile of the repository the config belongs to with the bulk import
+     * one, if its objects are stored in Berkeley DB JE
+     */
+    public static BulkImportProfile enable(ConfigDatabase config) {
+        if (!"bdbje".equals(config.get("storage.objects").orNull())) {
+            return new BulkImportProfile(null);
+        }
+        AutoCloseable override;
+        try {
+            Class<?> profiles = Class.forName(PROFILES_CLASS);
+            Object bulkImport = profiles.getField(BULK_IMPORT).get(null);
+            Method method = profiles.getMethod("override", ConfigDatabase.class, profiles);
+            override = (AutoCloseable) method.invoke(null, config, bulkImport);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.warn("Unable to set the bulk import profile: {}", e.getMessage());
+            override = null;
+        }
+        return new BulkImportProfile(override);
+    }
+
+    /**
+     * Restores the profile the repository had before {@link #enable}
+     */
+    public void restore() {
+        if (override == null) {
+            return;
+        }
+        try {
+            override.close();
+        } catch (Exception e) {
+            LOGGER.warn("Unable to restore the workload profile: {}", e.getMessage());
+        }
+    }
+}
@@ -228,9 +228,11 @@ public class OSMImportOp extends AbstractGeoGigOp<Optional<OSMReport>> {
         EntityConverter converter = new EntityConverter();
 
         OSMReport report;
+        BulkImportProfile profile = BulkImportProfile.enable(configDatabase());
         try {
             report = parseDataFileAndInsert(osmDataFile, osmDataStream, converter);
         } finally {
+            profile.restore();
             Closeables.closeQuietly(osmDataStream);
         }
 
@@ -0,0 +1,61 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje.benchmarks;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks matching the JMH command line arguments, always with the GC profiler so
+ * the allocation rate per operation is reported along with the timings.
+ * <p>
+ * For example, to compare the read performance of both formats with a 256MB cache:
+ *
+ * <pre>
+ * java -jar benchmarks.jar ObjectDatabaseReadBenchmark -p cacheSizeMB=256
+ * </pre>
+ *
+ * or the graph traversals of all the graph formats on a deep, cold history:
+ *
+ * <pre>
+ * java -jar benchmarks.jar GraphReadBenchmark -p history=linear -p numCommits=1000000 -p cache=cold
+ * </pre>
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        CommandLineOptions cmdOptions;
+        try {
+            cmdOptions = new CommandLineOptions(args);
+        } catch (CommandLineOptionException e) {
+            System.err.println("Error parsing command line: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        if (cmdOptions.shouldHelp()) {
+            try {
+                cmdOptions.showHelp();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+        Options options = new OptionsBuilder().parent(cmdOptions).addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,181 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje.benchmarks;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.geogig.storage.bdbje.EnvironmentBuilder;
+import org.geogig.storage.bdbje.JEGraphDatabase_v0_1;
+import org.geogig.storage.bdbje.JEGraphDatabase_v0_2;
+import org.geogig.storage.bdbje.JEGraphDatabase_v0_3;
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.model.impl.DefaultPlatform;
+import org.locationtech.geogig.repository.Hints;
+import org.locationtech.geogig.storage.ConfigDatabase;
+import org.locationtech.geogig.storage.GraphDatabase;
+import org.locationtech.geogig.storage.fs.IniFileConfigDatabase;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.sleepycat.je.Durability;
+import com.sleepycat.je.EnvironmentConfig;
+
+/**
+ * A graph database in a throw away repository, preloaded with a synthetic history of
+ * {@link #numCommits} commits and shared by all the benchmark threads of a trial.
+ */
+@State(Scope.Benchmark)
+public class GraphDatabaseState {
+
+    /**
+     * Storage format, {@code v0.1}, {@code v0.2} or {@code v0.3}
+     */
+    @Param({ "v0.1", "v0.2", "v0.3" })
+    public String format;
+
+    /**
+     * Shape of the history, {@code linear} or {@code branched}
+     *
+     * @see HistoryGenerator
+     */
+    @Param({ "linear", "branched" })
+    public String history;
+
+    @Param({ "100000" })
+    public int numCommits;
+
+    /**
+     * JE cache size in megabytes
+     */
+    @Param({ "64" })
+    public int cacheSizeMB;
+
+    /**
+     * {@code warm} to read the whole graph once after loading it, so it's in the JE cache if it
+     * fits, or {@code cold} to reopen the database before each iteration, dropping the JE cache.
+     * The operating system's file cache is not dropped.
+     */
+    @Param({ "warm", "cold" })
+    public String cache;
+
+    /**
+     * Whether to serve reads from the in memory commit graph index
+     */
+    @Param({ "false" })
+    public boolean memoryIndex;
+
+    private File repositoryDirectory;
+
+    GraphDatabase db;
+
+    HistoryGenerator generator;
+
+    /**
+     * The ids of the preloaded commits, in topological order
+     */
+    List<ObjectId> commits;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        repositoryDirectory = Files.createTempDir();
+        File geogigDir = new File(repositoryDirectory, ".geogig");
+        Preconditions.checkState(geogigDir.mkdir());
+
+        DefaultPlatform platform = new DefaultPlatform();
+        platform.setWorkingDir(repositoryDirectory);
+        ConfigDatabase config = new IniFileConfigDatabase(platform);
+        config.put("bdbje.graph.memory_index", Boolean.valueOf(memoryIndex));
+
+        EnvironmentBuilder envBuilder = new EnvironmentBuilder(platform, null);
+        envBuilder.setConfig(environmentConfig());
+
+        switch (format) {
+        case "v0.1":
+            db = new JEGraphDatabase_v0_1(config, envBuilder, new Hints());
+            break;
+        case "v0.2":
+            db = new JEGraphDatabase_v0_2(config, envBuilder, new Hints());
+            break;
+        case "v0.3":
+            db = new JEGraphDatabase_v0_3(config, envBuilder, new Hints());
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown format: " + format);
+        }
+        db.open();
+
+        generator = new HistoryGenerator(history, 1L);
+        for (Entry<ObjectId, ImmutableList<ObjectId>> commit : generator.next(numCommits)) {
+            db.put(commit.getKey(), commit.getValue());
+        }
+        commits = generator.commits();
+        if ("warm".equals(cache)) {
+            for (ObjectId commit : commits) {
+                db.getParents(commit);
+            }
+        } else {
+            Preconditions.checkArgument("cold".equals(cache), "Unknown cache state: %s", cache);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void dropCache() {
+        if ("cold".equals(cache)) {
+            db.close();
+            db.open();
+        }
+    }
+
+    /**
+     * The defaults {@link EnvironmentBuilder} uses for new environments, but with a fixed cache
+     * size instead of a share of the heap, for the results not to depend on {@code -Xmx}
+     */
+    private EnvironmentConfig environmentConfig() {
+        EnvironmentConfig envCfg = new EnvironmentConfig();
+        envCfg.setAllowCreate(true);
+        envCfg.setLockTimeout(5, TimeUnit.SECONDS);
+        envCfg.setDurability(Durability.COMMIT_SYNC);
+        envCfg.setCacheSize(cacheSizeMB * 1024L * 1024L);
+        return envCfg;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        try {
+            if (db != null) {
+                db.close();
+            }
+        } finally {
+            if (repositoryDirectory != null) {
+                delete(repositoryDirectory);
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
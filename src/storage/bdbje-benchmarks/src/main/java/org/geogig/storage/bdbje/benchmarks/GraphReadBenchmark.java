@@ -0,0 +1,145 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje.benchmarks;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.storage.GraphDatabase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Traversal queries on a preloaded {@link GraphDatabaseState graph database}: parent and child
+ * look ups, depth, and common ancestor search between commits close in the history, as for a
+ * merge of a recent branch. On the {@code linear} history every commit is on the longest path,
+ * so {@code getDepth} scores are for deep histories.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class GraphReadBenchmark {
+
+    private static final int NUM_QUERIES = 10_000;
+
+    /**
+     * Maximum distance, in topological order, between the commits to find a common ancestor for
+     */
+    private static final int MAX_DISTANCE = 1000;
+
+    private List<ObjectId> ids;
+
+    private List<ObjectId[]> pairs;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp(GraphDatabaseState state) {
+        final List<ObjectId> commits = state.commits;
+        final Random random = new Random(2);
+        ids = new ArrayList<>(NUM_QUERIES);
+        pairs = new ArrayList<>(NUM_QUERIES);
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            ids.add(commits.get(random.nextInt(commits.size())));
+            int left = random.nextInt(commits.size());
+            int right = Math.min(commits.size() - 1, left + 1 + random.nextInt(MAX_DISTANCE));
+            pairs.add(new ObjectId[] { commits.get(left), commits.get(right) });
+        }
+    }
+
+    private ObjectId nextId() {
+        return ids.get(next++ % ids.size());
+    }
+
+    @Benchmark
+    public ImmutableList<ObjectId> getParents(GraphDatabaseState state) {
+        return state.db.getParents(nextId());
+    }
+
+    @Benchmark
+    public ImmutableList<ObjectId> getChildren(GraphDatabaseState state) {
+        return state.db.getChildren(nextId());
+    }
+
+    @Benchmark
+    public int getDepth(GraphDatabaseState state) {
+        return state.db.getDepth(nextId());
+    }
+
+    @Benchmark
+    public ObjectId findCommonAncestor(GraphDatabaseState state) {
+        ObjectId[] pair = pairs.get(next++ % pairs.size());
+        return findCommonAncestor(state.db, pair[0], pair[1]);
+    }
+
+    /**
+     * Walks the parents of both commits breadth first, a level of each side at a time, until
+     * reaching a commit from both sides.
+     */
+    static ObjectId findCommonAncestor(GraphDatabase db, ObjectId left, ObjectId right) {
+        Set<ObjectId> leftVisited = new HashSet<>();
+        Set<ObjectId> rightVisited = new HashSet<>();
+        Deque<ObjectId> leftQueue = new ArrayDeque<>();
+        Deque<ObjectId> rightQueue = new ArrayDeque<>();
+        leftVisited.add(left);
+        rightVisited.add(right);
+        leftQueue.add(left);
+        rightQueue.add(right);
+        if (left.equals(right)) {
+            return left;
+        }
+        while (!leftQueue.isEmpty() || !rightQueue.isEmpty()) {
+            ObjectId found = visitLevel(db, leftQueue, leftVisited, rightVisited);
+            if (found == null) {
+                found = visitLevel(db, rightQueue, rightVisited, leftVisited);
+            }
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    private static ObjectId visitLevel(GraphDatabase db, Deque<ObjectId> queue,
+            Set<ObjectId> visited, Set<ObjectId> otherVisited) {
+        for (int i = queue.size(); i > 0; i--) {
+            for (ObjectId parent : db.getParents(queue.poll())) {
+                if (otherVisited.contains(parent)) {
+                    return parent;
+                }
+                if (visited.add(parent)) {
+                    queue.add(parent);
+                }
+            }
+        }
+        return null;
+    }
+}
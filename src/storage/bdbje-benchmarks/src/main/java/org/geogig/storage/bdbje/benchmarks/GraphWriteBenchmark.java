@@ -0,0 +1,67 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje.benchmarks;
+
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.locationtech.geogig.model.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Adds batches of new commits to a preloaded {@link GraphDatabaseState graph database},
+ * extending its history with the same shape. The commits are created before each invocation,
+ * outside of the measured time; scores are per commit.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class GraphWriteBenchmark {
+
+    static final int BATCH_SIZE = 1000;
+
+    /**
+     * The next commits of the history, created anew for each invocation
+     */
+    @State(Scope.Thread)
+    public static class Batch {
+
+        List<Entry<ObjectId, ImmutableList<ObjectId>>> commits;
+
+        @Setup(Level.Invocation)
+        public void create(GraphDatabaseState state) {
+            commits = state.generator.next(BATCH_SIZE);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void put(GraphDatabaseState state, Batch batch) {
+        for (Entry<ObjectId, ImmutableList<ObjectId>> commit : batch.commits) {
+            state.db.put(commit.getKey(), commit.getValue());
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.locationtech.geogig.model.ObjectId;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+/**
+ * Creates a synthetic commit history, one commit at a time in topological order (parents
+ * first), from a fixed seed so runs are repeatable. Commit ids are random, as SHA-1 hashes are.
+ * <p>
+ * Supported shapes:
+ * <ul>
+ * <li>{@code linear}: every commit has the previous one as its only parent, so the depth of the
+ * history is the number of commits
+ * <li>{@code branched}: up to {@link #MAX_BRANCHES} branches fork off the trunk, grow in
+ * parallel and are merged back into it, as in a repository with many concurrent editors
+ * </ul>
+ */
+final class HistoryGenerator {
+
+    static final int MAX_BRANCHES = 64;
+
+    /**
+     * Chance, one in this many, of a commit on a branch being a merge into the trunk instead
+     */
+    private static final int MERGE_ONE_IN = 20;
+
+    private final boolean branched;
+
+    private final Random random;
+
+    /**
+     * Branch tips, the trunk's first
+     */
+    private final List<ObjectId> tips = new ArrayList<>();
+
+    private final List<ObjectId> commits = new ArrayList<>();
+
+    /**
+     * @param shape {@code "linear"} or {@code "branched"}
+     */
+    HistoryGenerator(String shape, long seed) {
+        switch (shape) {
+        case "linear":
+            branched = false;
+            break;
+        case "branched":
+            branched = true;
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown history shape: " + shape);
+        }
+        this.random = new Random(seed);
+    }
+
+    synchronized List<Entry<ObjectId, ImmutableList<ObjectId>>> next(int count) {
+        List<Entry<ObjectId, ImmutableList<ObjectId>>> next = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            next.add(next());
+        }
+        return next;
+    }
+
+    /**
+     * @return the next commit and its parents
+     */
+    synchronized Entry<ObjectId, ImmutableList<ObjectId>> next() {
+        final ObjectId id = randomId();
+        final ImmutableList<ObjectId> parents;
+        if (tips.isEmpty()) {
+            parents = ImmutableList.of();
+            tips.add(id);
+        } else if (!branched) {
+            parents = ImmutableList.of(tips.get(0));
+            tips.set(0, id);
+        } else {
+            final int branch = random.nextInt(MAX_BRANCHES + 1);
+            if (branch >= tips.size()) {
+                parents = ImmutableList.of(tips.get(0));
+                tips.add(id);
+            } else if (branch > 0 && random.nextInt(MERGE_ONE_IN) == 0) {
+                parents = ImmutableList.of(tips.get(0), tips.get(branch));
+                tips.set(0, id);
+                tips.remove(branch);
+            } else {
+                parents = ImmutableList.of(tips.get(branch));
+                tips.set(branch, id);
+            }
+        }
+        commits.add(id);
+        return Maps.immutableEntry(id, parents);
+    }
+
+    synchronized List<ObjectId> commits() {
+        return new ArrayList<>(commits);
+    }
+
+    private ObjectId randomId() {
+        byte[] raw = new byte[ObjectId.NUM_BYTES];
+        random.nextBytes(raw);
+        return ObjectId.createNoClone(raw);
+    }
+}
@@ -0,0 +1,79 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje.benchmarks;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.model.RevObject;
+import org.locationtech.geogig.storage.BulkOpListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Single object and bulk reads from a preloaded {@link ObjectDatabaseState object database}, for
+ * the {@link QueryState#hitRatio hit ratios} given.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class ObjectDatabaseReadBenchmark {
+
+    private int next;
+
+    @Benchmark
+    public RevObject getIfPresent(ObjectDatabaseState state, QueryState queries) {
+        return state.db.getIfPresent(queries.id(next++));
+    }
+
+    @Benchmark
+    public boolean exists(ObjectDatabaseState state, QueryState queries) {
+        return state.db.exists(queries.id(next++));
+    }
+
+    /**
+     * Looks up the stored objects by an 8 characters abbreviated id, as resolving a
+     * {@code refspec} does
+     */
+    @Benchmark
+    public List<ObjectId> lookUp(ObjectDatabaseState state, QueryState queries) {
+        return state.db.lookUp(queries.id(next++).toString().substring(0, 8));
+    }
+
+    @Benchmark
+    public void getAllUnsorted(ObjectDatabaseState state, QueryState queries, Blackhole bh) {
+        getAll(state, queries.batch(next++, false), bh);
+    }
+
+    @Benchmark
+    public void getAllSorted(ObjectDatabaseState state, QueryState queries, Blackhole bh) {
+        getAll(state, queries.batch(next++, true), bh);
+    }
+
+    private void getAll(ObjectDatabaseState state, List<ObjectId> ids, Blackhole bh) {
+        Iterator<RevObject> objects = state.db.getAll(ids, BulkOpListener.NOOP_LISTENER);
+        while (objects.hasNext()) {
+            bh.consume(objects.next());
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje.benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.geogig.storage.bdbje.EnvironmentBuilder;
+import org.geogig.storage.bdbje.JEObjectDatabase_v0_1;
+import org.geogig.storage.bdbje.JEObjectDatabase_v0_2;
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.model.RevObject;
+import org.locationtech.geogig.model.impl.DefaultPlatform;
+import org.locationtech.geogig.storage.BulkOpListener;
+import org.locationtech.geogig.storage.ConfigDatabase;
+import org.locationtech.geogig.storage.ObjectDatabase;
+import org.locationtech.geogig.storage.fs.IniFileConfigDatabase;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.Files;
+import com.sleepycat.je.Durability;
+import com.sleepycat.je.EnvironmentConfig;
+
+/**
+ * An object database in a throw away repository, preloaded with {@link #numObjects} synthetic
+ * objects and shared by all the benchmark threads of a trial.
+ */
+@State(Scope.Benchmark)
+public class ObjectDatabaseState {
+
+    /**
+     * Storage format, {@code v0.1} or {@code v0.2}
+     */
+    @Param({ "v0.1", "v0.2" })
+    public String format;
+
+    /**
+     * JE cache size in megabytes
+     */
+    @Param({ "64" })
+    public int cacheSizeMB;
+
+    /**
+     * Type of the stored objects, {@code feature} or {@code tree}
+     */
+    @Param({ "feature" })
+    public String objectType;
+
+    /**
+     * Approximate serialized size of the stored objects, in bytes
+     */
+    @Param({ "256", "4096" })
+    public int objectSize;
+
+    @Param({ "100000" })
+    public int numObjects;
+
+    private static final int LOAD_BATCH_SIZE = 10_000;
+
+    private File repositoryDirectory;
+
+    ObjectDatabase db;
+
+    ObjectGenerator generator;
+
+    /**
+     * The ids of the preloaded objects, in insertion order
+     */
+    List<ObjectId> stored;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        repositoryDirectory = Files.createTempDir();
+        File geogigDir = new File(repositoryDirectory, ".geogig");
+        Preconditions.checkState(geogigDir.mkdir());
+
+        DefaultPlatform platform = new DefaultPlatform();
+        platform.setWorkingDir(repositoryDirectory);
+        ConfigDatabase config = new IniFileConfigDatabase(platform);
+
+        EnvironmentBuilder envBuilder = new EnvironmentBuilder(platform, null);
+        envBuilder.setConfig(environmentConfig());
+
+        switch (format) {
+        case "v0.1":
+            db = new JEObjectDatabase_v0_1(config, envBuilder, false, "objects");
+            break;
+        case "v0.2":
+            db = new JEObjectDatabase_v0_2(config, envBuilder, false, "objects");
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown format: " + format);
+        }
+        db.open();
+
+        generator = new ObjectGenerator(1L);
+        stored = new ArrayList<>(numObjects);
+        for (int loaded = 0; loaded < numObjects; loaded += LOAD_BATCH_SIZE) {
+            int count = Math.min(LOAD_BATCH_SIZE, numObjects - loaded);
+            List<RevObject> batch = generator.create(objectType, count, objectSize);
+            db.putAll(batch.iterator(), BulkOpListener.NOOP_LISTENER);
+            for (RevObject o : batch) {
+                stored.add(o.getId());
+            }
+        }
+    }
+
+    /**
+     * The defaults {@link EnvironmentBuilder} uses for new environments, but with a fixed cache
+     * size instead of a share of the heap, for the results not to depend on {@code -Xmx}
+     */
+    private EnvironmentConfig environmentConfig() {
+        EnvironmentConfig envCfg = new EnvironmentConfig();
+        envCfg.setAllowCreate(true);
+        envCfg.setLockTimeout(5, TimeUnit.SECONDS);
+        envCfg.setDurability(Durability.COMMIT_SYNC);
+        envCfg.setCacheSize(cacheSizeMB * 1024L * 1024L);
+        return envCfg;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        try {
+            if (db != null) {
+                db.close();
+            }
+        } finally {
+            if (repositoryDirectory != null) {
+                delete(repositoryDirectory);
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
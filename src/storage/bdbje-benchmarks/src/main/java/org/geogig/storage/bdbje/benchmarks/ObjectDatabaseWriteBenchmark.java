@@ -0,0 +1,129 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.model.RevObject;
+import org.locationtech.geogig.storage.BulkOpListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Inserts and deletes batches of new objects on a preloaded {@link ObjectDatabaseState object
+ * database}. The objects are created before each invocation, outside of the measured time; scores
+ * are per object.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class ObjectDatabaseWriteBenchmark {
+
+    static final int BATCH_SIZE = 1000;
+
+    /**
+     * A batch of objects not yet in the database, created anew for each invocation
+     */
+    @State(Scope.Thread)
+    public static class Batch {
+
+        private static final AtomicLong SEEDS = new AtomicLong(1000);
+
+        private ObjectGenerator generator;
+
+        List<RevObject> objects;
+
+        List<ObjectId> ids;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            generator = new ObjectGenerator(SEEDS.incrementAndGet());
+        }
+
+        @Setup(Level.Invocation)
+        public void create(ObjectDatabaseState state) {
+            objects = generator.create(state.objectType, BATCH_SIZE, state.objectSize);
+            ids = new ArrayList<>(BATCH_SIZE);
+            for (RevObject o : objects) {
+                ids.add(o.getId());
+            }
+        }
+    }
+
+    /**
+     * A batch of objects inserted right before each invocation, for it to delete them
+     */
+    @State(Scope.Thread)
+    public static class Inserted {
+
+        /**
+         * Whether the ids are given to {@code deleteAll} sorted or in insertion order
+         */
+        @Param({ "true", "false" })
+        public boolean sorted;
+
+        private final Batch batch = new Batch();
+
+        List<ObjectId> ids;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            batch.setUp();
+        }
+
+        @Setup(Level.Invocation)
+        public void insert(ObjectDatabaseState state) {
+            batch.create(state);
+            state.db.putAll(batch.objects.iterator(), BulkOpListener.NOOP_LISTENER);
+            ids = batch.ids;
+            if (sorted) {
+                Collections.sort(ids);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void put(ObjectDatabaseState state, Batch batch) {
+        for (RevObject o : batch.objects) {
+            state.db.put(o);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void putAll(ObjectDatabaseState state, Batch batch) {
+        state.db.putAll(batch.objects.iterator(), BulkOpListener.NOOP_LISTENER);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public long deleteAll(ObjectDatabaseState state, Inserted inserted) {
+        return state.db.deleteAll(inserted.ids.iterator(), BulkOpListener.NOOP_LISTENER);
+    }
+}
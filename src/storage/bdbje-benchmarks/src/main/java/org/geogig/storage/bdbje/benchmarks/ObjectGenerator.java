@@ -0,0 +1,117 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.locationtech.geogig.model.Node;
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.model.RevFeature;
+import org.locationtech.geogig.model.RevObject;
+import org.locationtech.geogig.model.RevObject.TYPE;
+import org.locationtech.geogig.model.RevTree;
+import org.locationtech.geogig.model.impl.RevFeatureBuilder;
+import org.locationtech.geogig.model.impl.RevTreeBuilder;
+import org.locationtech.geogig.storage.memory.HeapObjectStore;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Creates synthetic, unique {@link RevFeature features} and leaf {@link RevTree trees} of about a
+ * given serialized size, from a fixed seed so runs are repeatable.
+ */
+final class ObjectGenerator {
+
+    /**
+     * Approximate serialized size of a feature node in a leaf tree
+     */
+    private static final int NODE_SIZE = 40;
+
+    /**
+     * Leaf trees only, the canonical builder splits larger ones into buckets
+     */
+    private static final int MAX_NODES = 512;
+
+    private static final char[] CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789"
+            .toCharArray();
+
+    private final Random random;
+
+    private final HeapObjectStore treeStore;
+
+    private long sequence;
+
+    ObjectGenerator(long seed) {
+        this.random = new Random(seed);
+        this.treeStore = new HeapObjectStore();
+        this.treeStore.open();
+    }
+
+    /**
+     * @param type {@code "feature"} or {@code "tree"}
+     */
+    List<RevObject> create(String type, int count, int size) {
+        List<RevObject> objects = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            objects.add(create(type, size));
+        }
+        return objects;
+    }
+
+    RevObject create(String type, int size) {
+        switch (type) {
+        case "feature":
+            return feature(size);
+        case "tree":
+            return tree(size);
+        default:
+            throw new IllegalArgumentException("Unknown object type: " + type);
+        }
+    }
+
+    RevFeature feature(int size) {
+        final long id = sequence++;
+        StringBuilder text = new StringBuilder(size);
+        for (int i = 0; i < Math.max(1, size - 32); i++) {
+            text.append(CHARS[random.nextInt(CHARS.length)]);
+        }
+        return RevFeatureBuilder.builder().addValue(Long.valueOf(id))
+                .addValue(Integer.valueOf(random.nextInt())).addValue(random.nextDouble())
+                .addValue(Boolean.valueOf(random.nextBoolean())).addValue(text.toString())
+                .build();
+    }
+
+    RevTree tree(int size) {
+        final int numNodes = Math.min(MAX_NODES, Math.max(1, size / NODE_SIZE));
+        RevTreeBuilder builder = RevTreeBuilder.canonical(treeStore);
+        for (int i = 0; i < numNodes; i++) {
+            double x = random.nextDouble() * 360 - 180;
+            double y = random.nextDouble() * 180 - 90;
+            builder.put(Node.create("f" + (sequence++), randomId(), ObjectId.NULL, TYPE.FEATURE,
+                    new Envelope(x, x, y, y)));
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return an id that, with overwhelming probability, matches no stored object
+     */
+    ObjectId randomId() {
+        byte[] raw = new byte[ObjectId.NUM_BYTES];
+        random.nextBytes(raw);
+        return ObjectId.createNoClone(raw);
+    }
+
+    Random random() {
+        return random;
+    }
+}
@@ -0,0 +1,79 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.locationtech.geogig.model.ObjectId;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * A shuffled mix of stored and missing ids to query the {@link ObjectDatabaseState database} for,
+ * split in batches for the bulk operations, which get each batch either as is or sorted.
+ */
+@State(Scope.Benchmark)
+public class QueryState {
+
+    private static final int NUM_QUERIES = 10_000;
+
+    /**
+     * Ratio of the queried ids that are present in the database
+     */
+    @Param({ "1.0", "0.5" })
+    public double hitRatio;
+
+    /**
+     * Number of ids per bulk query
+     */
+    @Param({ "1000" })
+    public int batchSize;
+
+    List<ObjectId> ids;
+
+    List<List<ObjectId>> batches;
+
+    List<List<ObjectId>> sortedBatches;
+
+    @Setup(Level.Trial)
+    public void setUp(ObjectDatabaseState state) {
+        Preconditions.checkArgument(hitRatio >= 0 && hitRatio <= 1, "hitRatio: %s", hitRatio);
+        ids = new ArrayList<>(NUM_QUERIES);
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            boolean hit = state.generator.random().nextDouble() < hitRatio;
+            ids.add(hit ? state.stored.get(state.generator.random().nextInt(state.stored.size()))
+                    : state.generator.randomId());
+        }
+        Collections.shuffle(ids, state.generator.random());
+        batches = Lists.partition(ids, batchSize);
+        sortedBatches = new ArrayList<>(batches.size());
+        for (List<ObjectId> batch : batches) {
+            List<ObjectId> sorted = new ArrayList<>(batch);
+            Collections.sort(sorted);
+            sortedBatches.add(sorted);
+        }
+    }
+
+    ObjectId id(int index) {
+        return ids.get(index % ids.size());
+    }
+
+    List<ObjectId> batch(int index, boolean sorted) {
+        return (sorted ? sortedBatches : batches).get(index % batches.size());
+    }
+}
@@ -67,9 +67,10 @@ public class BDBJEDeduplicator implements Deduplicator {
         ec.setTransactional(false);
 
         this.environment = new Environment(dbdir, ec);
+        EnvironmentMetrics.register(environment, "deduplicator");
     }
 
-    private Database getDatabase() {
+    private synchronized Database getDatabase() {
         if (this.database == null) {
             this.database = environment.openDatabase(null, databaseName, dbConfig);
         }
@@ -108,6 +109,7 @@ public class BDBJEDeduplicator implements Deduplicator {
                 }
             } finally {
                 try {
+                    EnvironmentMetrics.unregister(environment);
                     this.environment.close();
                 } finally {
                     deleteRecursive(this.dbdir);
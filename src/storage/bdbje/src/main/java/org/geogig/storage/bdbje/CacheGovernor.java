@@ -0,0 +1,389 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.locationtech.geogig.storage.ConfigDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sleepycat.je.CacheMode;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentMutableConfig;
+import com.sleepycat.je.EnvironmentStats;
+import com.sleepycat.je.StatsConfig;
+
+/**
+ * Governs how the environments of the repositories open in a JVM share the JE cache.
+ * <p>
+ * All the repository environments use JE's shared cache ({@code je.sharedCache=true}), so without
+ * governance a single large import can evict the working set of every other repository. When
+ * enabled with the {@code bdbje.cache_governor} system property, the databases register their
+ * environments, and the cache usage of each one is checked every
+ * {@code bdbje.cache_governor.interval} seconds (10 by default):
+ * <ul>
+ * <li>An environment using more cache than its soft quota, set with the {@code bdbje.cache.quota}
+ * repository config key (in bytes), is throttled: its cache mode is set to
+ * {@link CacheMode#EVICT_LN} so that the records it reads and writes are evicted right away, until
+ * its usage falls below 90% of the quota.
+ * <li>When the shared cache is more than 90% full, the environments with the lowest
+ * {@code bdbje.cache.priority} (0 by default, higher values are kept longer) and the largest
+ * usage are throttled until the excess is covered, memory is evicted, and the idle environments of
+ * the {@link EnvironmentPool} are closed. Those are released once usage drops below 75%.
+ * <li>Environments with no cache activity since the previous check get memory evicted when the
+ * cache is under pressure.
+ * </ul>
+ * Throttling changes the environment's default cache mode, which applies to the operations that
+ * don't set their own.
+ */
+class CacheGovernor implements CacheGovernorMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheGovernor.class);
+
+    static final String ENABLED_PROPERTY = "bdbje.cache_governor";
+
+    static final String INTERVAL_PROPERTY = "bdbje.cache_governor.interval";
+
+    static final String QUOTA_CONFIG_KEY = "bdbje.cache.quota";
+
+    static final String PRIORITY_CONFIG_KEY = "bdbje.cache.priority";
+
+    private static final double HIGH_WATERMARK = 0.9;
+
+    private static final double LOW_WATERMARK = 0.75;
+
+    private static CacheGovernor INSTANCE;
+
+    static class Governed {
+
+        final Environment env;
+
+        final String name;
+
+        final long quota;
+
+        final int priority;
+
+        int references;
+
+        long cacheBytes;
+
+        long lastActivity = -1;
+
+        boolean idle;
+
+        boolean overQuota;
+
+        boolean underPressure;
+
+        /**
+         * The cache mode to restore when the throttle is released
+         */
+        CacheMode releasedCacheMode = CacheMode.DEFAULT;
+
+        Governed(Environment env, long quota, int priority) {
+            this.env = env;
+            this.name = env.getHome().getAbsolutePath();
+            this.quota = quota;
+            this.priority = priority;
+        }
+
+        boolean isThrottled() {
+            return overQuota || underPressure;
+        }
+    }
+
+    private final Map<Environment, Governed> environments = new IdentityHashMap<>();
+
+    /**
+     * The throttled environments, for {@link #isThrottled} to be checked on every read without
+     * locking
+     */
+    private final Set<Environment> throttledEnvs = Collections
+            .newSetFromMap(new ConcurrentHashMap<Environment, Boolean>());
+
+    private final AtomicLong throttleCount = new AtomicLong();
+
+    private volatile long sharedCacheBytes, sharedCacheMaxBytes;
+
+    static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    /**
+     * @return the process wide governor, created and registered with JMX on first use
+     */
+    static synchronized CacheGovernor get() {
+        if (INSTANCE == null) {
+            final CacheGovernor governor = new CacheGovernor();
+            final long interval = Long.getLong(INTERVAL_PROPERTY, 10L).longValue();
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setDaemon(true)
+                            .setNameFormat("BDBJE-CACHE-GOVERNOR-%d").build());
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        governor.check();
+                    } catch (RuntimeException e) {
+                        LOGGER.warn("Error checking JE cache usage", e);
+                    }
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                server.registerMBean(governor,
+                        new ObjectName("org.geogig.storage.bdbje:type=CacheGovernor"));
+            } catch (Exception e) {
+                LOGGER.warn("Unable to register cache governor with JMX", e);
+            }
+            INSTANCE = governor;
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Starts governing the environment's cache usage with the quota and priority of the
+     * repository config. An environment shared by several databases is registered once per
+     * database.
+     */
+    synchronized void register(Environment env, ConfigDatabase config) {
+        Governed governed = environments.get(env);
+        if (governed == null) {
+            long quota = getConfig(config, QUOTA_CONFIG_KEY, Long.class).or(0L).longValue();
+            int priority = getConfig(config, PRIORITY_CONFIG_KEY, Integer.class).or(0).intValue();
+            governed = new Governed(env, quota, priority);
+            environments.put(env, governed);
+        }
+        governed.references++;
+    }
+
+    synchronized void unregister(Environment env) {
+        Governed governed = environments.get(env);
+        if (governed != null && --governed.references == 0) {
+            environments.remove(env);
+            if (governed.isThrottled() && env.isValid()) {
+                setThrottled(governed, false);
+            }
+            throttledEnvs.remove(env);
+        }
+    }
+
+    private static <T> Optional<T> getConfig(ConfigDatabase config, String key, Class<T> type) {
+        Optional<T> value = config.get(key, type);
+        if (!value.isPresent()) {
+            value = config.getGlobal(key, type);
+        }
+        return value;
+    }
+
+    @Override
+    public synchronized void check() {
+        final StatsConfig statsConfig = new StatsConfig();
+        statsConfig.setFast(true);
+
+        long shared = 0, max = 0;
+        final List<Governed> governed = new ArrayList<>();
+        for (Governed g : environments.values()) {
+            if (!g.env.isValid()) {
+                continue;
+            }
+            EnvironmentStats stats = g.env.getStats(statsConfig);
+            g.cacheBytes = stats.getCacheTotalBytes();
+            long activity = stats.getNLNsFetch() + stats.getNBINsFetch();
+            g.idle = activity == g.lastActivity;
+            g.lastActivity = activity;
+            shared = Math.max(shared, stats.getSharedCacheTotalBytes());
+            max = Math.max(max, g.env.getMutableConfig().getCacheSize());
+            governed.add(g);
+        }
+        this.sharedCacheBytes = shared;
+        this.sharedCacheMaxBytes = max;
+
+        for (Governed g : governed) {
+            if (g.quota > 0) {
+                if (!g.overQuota && g.cacheBytes > g.quota) {
+                    LOGGER.info("Throttling JE cache usage of {}: {} bytes, quota is {}", g.name,
+                            g.cacheBytes, g.quota);
+                    updateThrottle(g, true, g.underPressure);
+                } else if (g.overQuota && g.cacheBytes < g.quota * HIGH_WATERMARK) {
+                    updateThrottle(g, false, g.underPressure);
+                }
+            }
+        }
+
+        if (max <= 0) {
+            return;
+        }
+        if (shared > max * HIGH_WATERMARK) {
+            relievePressure(governed, shared - (long) (max * LOW_WATERMARK));
+        } else if (shared < max * LOW_WATERMARK) {
+            for (Governed g : governed) {
+                if (g.underPressure) {
+                    updateThrottle(g, g.overQuota, false);
+                }
+            }
+        }
+    }
+
+    private void relievePressure(List<Governed> governed, final long excess) {
+        // lowest priority first, then largest usage
+        Collections.sort(governed, new Comparator<Governed>() {
+            @Override
+            public int compare(Governed g1, Governed g2) {
+                if (g1.priority != g2.priority) {
+                    return g1.priority < g2.priority ? -1 : 1;
+                }
+                return Long.compare(g2.cacheBytes, g1.cacheBytes);
+            }
+        });
+        long covered = 0;
+        for (Governed g : governed) {
+            if (covered >= excess) {
+                break;
+            }
+            if (!g.underPressure) {
+                LOGGER.info("JE shared cache under pressure, throttling {} ({} bytes, priority {})",
+                        g.name, g.cacheBytes, g.priority);
+                updateThrottle(g, g.overQuota, true);
+            }
+            covered += g.cacheBytes;
+        }
+        evict();
+    }
+
+    @Override
+    public void evict() {
+        List<Governed> governed;
+        synchronized (this) {
+            governed = new ArrayList<>(environments.values());
+        }
+        if (EnvironmentPool.isEnabled()) {
+            EnvironmentPool.get().evictIdle();
+        }
+        // with a shared cache evicting from any environment evicts from the shared cache, but
+        // idle environments get their own call so their cold data goes first
+        boolean evicted = false;
+        for (Governed g : governed) {
+            if (g.idle && g.env.isValid()) {
+                g.env.evictMemory();
+                evicted = true;
+            }
+        }
+        if (!evicted && !governed.isEmpty() && governed.get(0).env.isValid()) {
+            governed.get(0).env.evictMemory();
+        }
+    }
+
+    private void updateThrottle(Governed g, boolean overQuota, boolean underPressure) {
+        final boolean wasThrottled = g.isThrottled();
+        g.overQuota = overQuota;
+        g.underPressure = underPressure;
+        if (wasThrottled != g.isThrottled()) {
+            setThrottled(g, g.isThrottled());
+        }
+    }
+
+    private void setThrottled(Governed g, boolean throttled) {
+        EnvironmentMutableConfig config = g.env.getMutableConfig();
+        if (throttled) {
+            CacheMode current = config.getCacheMode();
+            g.releasedCacheMode = current == null ? CacheMode.DEFAULT : current;
+        }
+        config.setCacheMode(throttled ? CacheMode.EVICT_LN : g.releasedCacheMode);
+        g.env.setMutableConfig(config);
+        if (throttled) {
+            throttledEnvs.add(g.env);
+        } else {
+            throttledEnvs.remove(g.env);
+        }
+        if (throttled) {
+            throttleCount.incrementAndGet();
+        } else {
+            LOGGER.debug("Released JE cache throttle on {}", g.name);
+        }
+    }
+
+    /**
+     * Records the cache mode to restore once the environment's throttle is released, if it's
+     * throttled, so a {@link WorkloadProfile} switch doesn't override the throttle
+     *
+     * @return {@code true} if the environment is throttled and the mode was deferred
+     */
+    synchronized boolean deferCacheMode(Environment env, CacheMode mode) {
+        Governed g = environments.get(env);
+        if (g == null || !g.isThrottled()) {
+            return false;
+        }
+        g.releasedCacheMode = mode;
+        return true;
+    }
+
+    /**
+     * @return whether the environment's cache usage is being throttled
+     */
+    boolean isThrottled(Environment env) {
+        return throttledEnvs.contains(env);
+    }
+
+    @Override
+    public long getSharedCacheBytes() {
+        return sharedCacheBytes;
+    }
+
+    @Override
+    public long getSharedCacheMaxBytes() {
+        return sharedCacheMaxBytes;
+    }
+
+    @Override
+    public synchronized Map<String, Long> getCacheUsage() {
+        Map<String, Long> usage = new TreeMap<>();
+        for (Governed g : environments.values()) {
+            usage.put(g.name, Long.valueOf(g.cacheBytes));
+        }
+        return usage;
+    }
+
+    @Override
+    public synchronized String[] getThrottledEnvironments() {
+        List<String> throttled = new ArrayList<>();
+        for (Governed g : environments.values()) {
+            if (g.isThrottled()) {
+                throttled.add(g.name);
+            }
+        }
+        return throttled.toArray(new String[throttled.size()]);
+    }
+
+    @Override
+    public long getThrottleCount() {
+        return throttleCount.get();
+    }
+}
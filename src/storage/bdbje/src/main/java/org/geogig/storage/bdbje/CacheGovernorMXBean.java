@@ -0,0 +1,55 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link CacheGovernor}, registered as
+ * {@code org.geogig.storage.bdbje:type=CacheGovernor}
+ */
+public interface CacheGovernorMXBean {
+
+    /**
+     * @return bytes of the shared JE cache in use, as of the last check
+     */
+    long getSharedCacheBytes();
+
+    /**
+     * @return the size of the shared JE cache
+     */
+    long getSharedCacheMaxBytes();
+
+    /**
+     * @return bytes of cache used by each governed environment, keyed by environment directory, as
+     *         of the last check
+     */
+    Map<String, Long> getCacheUsage();
+
+    /**
+     * @return the directories of the environments whose cache usage is currently being throttled
+     */
+    String[] getThrottledEnvironments();
+
+    /**
+     * @return number of times an environment was throttled
+     */
+    long getThrottleCount();
+
+    /**
+     * Checks the cache usage and enforces quotas right away
+     */
+    void check();
+
+    /**
+     * Evicts memory from the shared cache and closes the idle pooled environments
+     */
+    void evict();
+}
@@ -0,0 +1,807 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.locationtech.geogig.model.ObjectId;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Compact in memory copy of the commit graph, so ancestry walks don't read and deserialize a
+ * {@link NodeData} per visited commit.
+ * <p>
+ * Every commit is assigned an int. The ids are packed in a single {@code byte[]} and found through
+ * an open addressing hash table, and the parents and children of the commits are held as int
+ * arrays in compressed sparse row layout: the edges of commit {@code i} are
+ * {@code edges[start[i]..start[i + 1])}. Edges added after the last compaction are kept in linked
+ * lists of int arrays, and folded into the CSR arrays once they grow past a fraction of them. The
+ * depth of every commit, as {@link JEGraphDatabase#getDepth} defines it, and its generation and
+ * chain, as {@link ReachabilityIndex} defines them, are kept up to date as edges are added. Chains
+ * are identified by the index of their first commit.
+ * <p>
+ * Enabled with the {@code bdbje.graph.memory_index} config key. Queries hold a read lock, so they
+ * run concurrently with each other, and allocate nothing but their results.
+ */
+final class CommitGraphIndex {
+
+    static final String CONFIG_KEY = "bdbje.graph.memory_index";
+
+    private static final int NONE = -1;
+
+    private static final int ID_SIZE = ObjectId.NUM_BYTES;
+
+    private static final int MIN_COMPACTION = 1024;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Per thread work arrays for the walks
+     */
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private static class Scratch {
+
+        final byte[] id = new byte[ID_SIZE];
+
+        int[] queue = new int[0];
+
+        int[] found = new int[0];
+
+        int[][] marks = { new int[0], new int[0], new int[0] };
+
+        int epoch;
+
+        void ensureCapacity(int size) {
+            if (queue.length < size) {
+                queue = new int[size];
+                found = new int[size];
+                for (int i = 0; i < marks.length; i++) {
+                    marks[i] = new int[size];
+                }
+                epoch = 0;
+            }
+        }
+
+        /**
+         * @return a new mark value, unmarking all the nodes
+         */
+        int nextEpoch() {
+            if (++epoch == Integer.MAX_VALUE) {
+                for (int[] m : marks) {
+                    Arrays.fill(m, 0);
+                }
+                epoch = 1;
+            }
+            return epoch;
+        }
+    }
+
+    private int size;
+
+    private byte[] ids = new byte[16 * ID_SIZE];
+
+    /**
+     * Node index plus one, {@code 0} for empty slots
+     */
+    private int[] table = new int[32];
+
+    private int[] depths = new int[16];
+
+    private int[] generations = new int[16];
+
+    private int[] chains = new int[16];
+
+    private int[] positions = new int[16];
+
+    /**
+     * Last commit of each chain, by chain
+     */
+    private int[] chainEnds = new int[16];
+
+    /**
+     * Number of nodes whose edges start in the CSR arrays
+     */
+    private int compacted;
+
+    private int[] parentStart = { 0 };
+
+    private int[] parentEdges = new int[0];
+
+    private int[] childStart = { 0 };
+
+    private int[] childEdges = new int[0];
+
+    /**
+     * Edges added since the last compaction: first and last edge per node, target and next edge
+     * per edge
+     */
+    private int[] extraParentHead = new int[16], extraParentTail = new int[16];
+
+    private int[] extraChildHead = new int[16], extraChildTail = new int[16];
+
+    private int[] extraTarget = new int[64], extraNext = new int[64];
+
+    private int extraSize;
+
+    CommitGraphIndex() {
+        Arrays.fill(extraParentHead, NONE);
+        Arrays.fill(extraChildHead, NONE);
+    }
+
+    /**
+     * Adds a node as read from the graph database while loading the index, before
+     * {@link #loaded()}
+     */
+    void load(NodeData node) {
+        final int n = getOrAdd(node.id);
+        // added before reading the edge arrays, which adding a node may grow
+        for (ObjectId parent : node.outgoing) {
+            final int p = getOrAdd(parent);
+            addEdge(extraParentHead, extraParentTail, n, p);
+        }
+        for (ObjectId child : node.incoming) {
+            final int c = getOrAdd(child);
+            addEdge(extraChildHead, extraChildTail, n, c);
+        }
+    }
+
+    /**
+     * Compacts the loaded edges and computes the depths and generations of all the nodes
+     */
+    void loaded() {
+        compact();
+        final int[] queue = new int[size];
+        computeDepths(queue);
+        final int ordered = computeGenerations(queue);
+        computeChains(queue, ordered);
+    }
+
+    private void computeDepths(final int[] queue) {
+        int tail = 0;
+        Arrays.fill(depths, 0, size, NONE);
+        for (int n = 0; n < size; n++) {
+            if (parentStart[n] == parentStart[n + 1]) {
+                depths[n] = 0;
+                queue[tail++] = n;
+            }
+        }
+        // breadth first from the roots, so the first depth a node gets is the smallest
+        for (int head = 0; head < tail; head++) {
+            final int n = queue[head];
+            for (int e = childStart[n]; e < childStart[n + 1]; e++) {
+                int child = childEdges[e];
+                if (depths[child] == NONE) {
+                    depths[child] = depths[n] + 1;
+                    queue[tail++] = child;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of nodes left in topological order in the queue
+     */
+    private int computeGenerations(final int[] queue) {
+        // in topological order, counting down the parents not visited yet in generations
+        int tail = 0;
+        for (int n = 0; n < size; n++) {
+            generations[n] = parentStart[n + 1] - parentStart[n];
+            if (generations[n] == 0) {
+                queue[tail++] = n;
+            }
+        }
+        final int[] maxParent = new int[size];
+        for (int head = 0; head < tail; head++) {
+            final int n = queue[head];
+            generations[n] = maxParent[n] + 1;
+            for (int e = childStart[n]; e < childStart[n + 1]; e++) {
+                final int child = childEdges[e];
+                maxParent[child] = Math.max(maxParent[child], generations[n]);
+                if (--generations[child] == 0) {
+                    queue[tail++] = child;
+                }
+            }
+        }
+        return tail;
+    }
+
+    private void computeChains(final int[] queue, final int ordered) {
+        for (int n = 0; n < size; n++) {
+            chains[n] = n;
+            positions[n] = 0;
+            chainEnds[n] = n;
+        }
+        // parents before children, so each chain is continued by the first child seen
+        for (int i = 0; i < ordered; i++) {
+            continueChain(queue[i]);
+        }
+    }
+
+    /**
+     * Moves a node that is alone on its own chain to the end of the chain of its first parent, if
+     * that parent is the last commit of its chain
+     */
+    private void continueChain(final int n) {
+        if (chains[n] != n || chainEnds[n] != n) {
+            return;
+        }
+        final int parent = firstParent(n);
+        if (parent == NONE || parent == n || chainEnds[chains[parent]] != parent) {
+            return;
+        }
+        chains[n] = chains[parent];
+        positions[n] = positions[parent] + 1;
+        chainEnds[chains[parent]] = n;
+    }
+
+    private int firstParent(final int n) {
+        if (n < compacted && parentStart[n] < parentStart[n + 1]) {
+            return parentEdges[parentStart[n]];
+        }
+        final int e = extraParentHead[n];
+        return e == NONE ? NONE : extraTarget[e];
+    }
+
+    /**
+     * Adds a commit and its parents, as {@link JEGraphDatabase#put} does to the database
+     */
+    void put(ObjectId commitId, List<ObjectId> parentIds) {
+        lock.writeLock().lock();
+        try {
+            final int n = getOrAdd(commitId);
+            boolean changed = false;
+            for (ObjectId parentId : parentIds) {
+                final int p = getOrAdd(parentId);
+                if (!hasEdge(parentStart, parentEdges, extraParentHead, n, p)) {
+                    addEdge(extraParentHead, extraParentTail, n, p);
+                    changed = true;
+                }
+                // a load racing the write may have seen only one side of the edge
+                if (!hasEdge(childStart, childEdges, extraChildHead, p, n)) {
+                    addEdge(extraChildHead, extraChildTail, p, n);
+                    changed = true;
+                }
+            }
+            if (changed) {
+                updateDepth(n);
+                updateGeneration(n);
+                continueChain(n);
+            }
+            if (extraSize > Math.max(MIN_COMPACTION,
+                    (parentEdges.length + childEdges.length) / 8)) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean contains(ObjectId id) {
+        lock.readLock().lock();
+        try {
+            return find(id) != NONE;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the parents of the commit, or {@code null} if it's not in the graph
+     */
+    @Nullable
+    ImmutableList<ObjectId> getParents(ObjectId id) {
+        lock.readLock().lock();
+        try {
+            final int n = find(id);
+            return n == NONE ? null
+                    : edges(parentStart, parentEdges, extraParentHead, n);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the children of the commit, or {@code null} if it's not in the graph
+     */
+    @Nullable
+    ImmutableList<ObjectId> getChildren(ObjectId id) {
+        lock.readLock().lock();
+        try {
+            final int n = find(id);
+            return n == NONE ? null : edges(childStart, childEdges, extraChildHead, n);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the depth of the commit, or {@code -1} if it's not in the graph
+     */
+    int getDepth(ObjectId id) {
+        lock.readLock().lock();
+        try {
+            final int n = find(id);
+            return n == NONE ? NONE : depths[n];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the generation and chain of the commit, the chain being one plus the index of its
+     *         first commit, or {@code null} if it's not in the graph
+     */
+    @Nullable
+    ReachabilityIndex.Label getLabel(ObjectId id) {
+        lock.readLock().lock();
+        try {
+            final int n = find(id);
+            return n == NONE ? null
+                    : new ReachabilityIndex.Label(generations[n], chains[n] + 1L, positions[n]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Answered in constant time if {@code ancestor} is before {@code descendant} on its chain,
+     * or isn't of a lower generation, and by a walk from {@code descendant} that stops once on
+     * the chain of {@code ancestor} past it, and doesn't go below its generation, otherwise.
+     *
+     * @return whether {@code ancestor} is {@code descendant} or reachable from it following
+     *         parents, {@code false} if any of them is not in the graph
+     */
+    boolean isAncestor(ObjectId ancestor, ObjectId descendant) {
+        lock.readLock().lock();
+        try {
+            final int a = find(ancestor);
+            final int d = find(descendant);
+            if (a == NONE || d == NONE) {
+                return false;
+            }
+            if (a == d || precedes(a, d)) {
+                return true;
+            }
+            final int minGeneration = generations[a];
+            if (generations[d] <= minGeneration) {
+                return false;
+            }
+            final Scratch scratch = SCRATCH.get();
+            scratch.ensureCapacity(size);
+            final int[] queue = scratch.queue;
+            final int[] marks = scratch.marks[0];
+            final int epoch = scratch.nextEpoch();
+            queue[0] = d;
+            marks[d] = epoch;
+            for (int head = 0, tail = 1; head < tail;) {
+                final int n = queue[head++];
+                if (precedes(a, n)) {
+                    return true;
+                }
+                // only commits of a higher generation than the ancestor can reach it
+                if (n < compacted) {
+                    for (int e = parentStart[n]; e < parentStart[n + 1]; e++) {
+                        final int p = parentEdges[e];
+                        if (marks[p] != epoch && (p == a || generations[p] > minGeneration)) {
+                            marks[p] = epoch;
+                            queue[tail++] = p;
+                        }
+                    }
+                }
+                for (int e = extraParentHead[n]; e != NONE; e = extraNext[e]) {
+                    final int p = extraTarget[e];
+                    if (marks[p] != epoch && (p == a || generations[p] > minGeneration)) {
+                        marks[p] = epoch;
+                        queue[tail++] = p;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return whether {@code a} is {@code n} or before it on the same chain
+     */
+    private boolean precedes(int a, int n) {
+        return chains[a] == chains[n] && positions[a] <= positions[n];
+    }
+
+    /**
+     * Finds the lowest common ancestor of two commits: of the common ancestors that are not
+     * ancestors of other common ancestors, the deepest one, or the first one found walking back
+     * from {@code right} if several are as deep.
+     *
+     * @return the lowest common ancestor, absent if there's none or any of the commits is not in
+     *         the graph
+     */
+    Optional<ObjectId> findLowestCommonAncestor(ObjectId left, ObjectId right) {
+        lock.readLock().lock();
+        try {
+            final int l = find(left);
+            final int r = find(right);
+            if (l == NONE || r == NONE) {
+                return Optional.absent();
+            }
+            final Scratch scratch = SCRATCH.get();
+            scratch.ensureCapacity(size);
+            final int[] queue = scratch.queue;
+            final int[] found = scratch.found;
+            final int[] leftMarks = scratch.marks[0];
+            final int[] rightMarks = scratch.marks[1];
+            final int[] coveredMarks = scratch.marks[2];
+            final int epoch = scratch.nextEpoch();
+
+            // ancestors of left, itself included
+            leftMarks[l] = epoch;
+            queue[0] = l;
+            for (int head = 0, tail = 1; head < tail;) {
+                tail = pushParents(queue[head++], queue, tail, leftMarks, epoch);
+            }
+
+            // the first common ancestors found walking back from right
+            int numFound = 0;
+            rightMarks[r] = epoch;
+            queue[0] = r;
+            for (int head = 0, tail = 1; head < tail;) {
+                final int n = queue[head++];
+                if (leftMarks[n] == epoch) {
+                    found[numFound++] = n;
+                } else {
+                    tail = pushParents(n, queue, tail, rightMarks, epoch);
+                }
+            }
+            if (numFound == 0) {
+                return Optional.absent();
+            }
+
+            // discard the ones that are ancestors of others
+            int tail = 0;
+            for (int i = 0; i < numFound; i++) {
+                tail = pushParents(found[i], queue, tail, coveredMarks, epoch);
+            }
+            for (int head = 0; head < tail;) {
+                tail = pushParents(queue[head++], queue, tail, coveredMarks, epoch);
+            }
+            int best = NONE;
+            for (int i = 0; i < numFound; i++) {
+                final int n = found[i];
+                if (coveredMarks[n] != epoch && (best == NONE || depths[n] > depths[best])) {
+                    best = n;
+                }
+            }
+            return Optional.of(id(best));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends the parents of {@code n} not marked yet to the queue, marking them
+     *
+     * @return the new queue tail
+     */
+    private int pushParents(final int n, final int[] queue, int tail, final int[] marks,
+            final int epoch) {
+        if (n < compacted) {
+            for (int e = parentStart[n]; e < parentStart[n + 1]; e++) {
+                final int p = parentEdges[e];
+                if (marks[p] != epoch) {
+                    marks[p] = epoch;
+                    queue[tail++] = p;
+                }
+            }
+        }
+        for (int e = extraParentHead[n]; e != NONE; e = extraNext[e]) {
+            final int p = extraTarget[e];
+            if (marks[p] != epoch) {
+                marks[p] = epoch;
+                queue[tail++] = p;
+            }
+        }
+        return tail;
+    }
+
+    private ImmutableList<ObjectId> edges(int[] start, int[] edges, int[] extraHead, int n) {
+        ImmutableList.Builder<ObjectId> builder = ImmutableList.builder();
+        if (n < compacted) {
+            for (int e = start[n]; e < start[n + 1]; e++) {
+                builder.add(id(edges[e]));
+            }
+        }
+        for (int e = extraHead[n]; e != NONE; e = extraNext[e]) {
+            builder.add(id(extraTarget[e]));
+        }
+        return builder.build();
+    }
+
+    private boolean hasEdge(int[] start, int[] edges, int[] extraHead, int from, int to) {
+        if (from < compacted) {
+            for (int e = start[from]; e < start[from + 1]; e++) {
+                if (edges[e] == to) {
+                    return true;
+                }
+            }
+        }
+        for (int e = extraHead[from]; e != NONE; e = extraNext[e]) {
+            if (extraTarget[e] == to) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addEdge(int[] head, int[] tail, int from, int to) {
+        if (extraSize == extraTarget.length) {
+            extraTarget = Arrays.copyOf(extraTarget, extraSize * 2);
+            extraNext = Arrays.copyOf(extraNext, extraSize * 2);
+        }
+        final int e = extraSize++;
+        extraTarget[e] = to;
+        extraNext[e] = NONE;
+        if (head[from] == NONE) {
+            head[from] = e;
+        } else {
+            extraNext[tail[from]] = e;
+        }
+        tail[from] = e;
+    }
+
+    /**
+     * Sets the depth of a node whose parents changed, and of its descendants if it changed
+     */
+    private void updateDepth(final int node) {
+        int[] queue = new int[16];
+        int tail = 0;
+        queue[tail++] = node;
+        for (int head = 0; head < tail;) {
+            final int n = queue[head++];
+            final int depth = computeDepth(n);
+            if (depth == depths[n] && n != node) {
+                continue;
+            }
+            depths[n] = depth;
+            if (n < compacted) {
+                for (int e = childStart[n]; e < childStart[n + 1]; e++) {
+                    if (tail == queue.length) {
+                        queue = Arrays.copyOf(queue, tail * 2);
+                    }
+                    queue[tail++] = childEdges[e];
+                }
+            }
+            for (int e = extraChildHead[n]; e != NONE; e = extraNext[e]) {
+                if (tail == queue.length) {
+                    queue = Arrays.copyOf(queue, tail * 2);
+                }
+                queue[tail++] = extraTarget[e];
+            }
+        }
+    }
+
+    /**
+     * Sets the generation of a node whose parents changed, and of its descendants if it grew
+     */
+    private void updateGeneration(final int node) {
+        int[] queue = new int[16];
+        int tail = 0;
+        queue[tail++] = node;
+        for (int head = 0; head < tail;) {
+            final int n = queue[head++];
+            int generation = 1;
+            if (n < compacted) {
+                for (int e = parentStart[n]; e < parentStart[n + 1]; e++) {
+                    generation = Math.max(generation, generations[parentEdges[e]] + 1);
+                }
+            }
+            for (int e = extraParentHead[n]; e != NONE; e = extraNext[e]) {
+                generation = Math.max(generation, generations[extraTarget[e]] + 1);
+            }
+            if (generation <= generations[n]) {
+                continue;
+            }
+            generations[n] = generation;
+            if (n < compacted) {
+                for (int e = childStart[n]; e < childStart[n + 1]; e++) {
+                    if (tail == queue.length) {
+                        queue = Arrays.copyOf(queue, tail * 2);
+                    }
+                    queue[tail++] = childEdges[e];
+                }
+            }
+            for (int e = extraChildHead[n]; e != NONE; e = extraNext[e]) {
+                if (tail == queue.length) {
+                    queue = Arrays.copyOf(queue, tail * 2);
+                }
+                queue[tail++] = extraTarget[e];
+            }
+        }
+    }
+
+    /**
+     * @return one plus the smallest depth of the node parents, {@code 0} if it has none
+     */
+    private int computeDepth(final int n) {
+        int depth = Integer.MAX_VALUE;
+        boolean hasParents = false;
+        if (n < compacted) {
+            for (int e = parentStart[n]; e < parentStart[n + 1]; e++) {
+                depth = Math.min(depth, depths[parentEdges[e]] + 1);
+                hasParents = true;
+            }
+        }
+        for (int e = extraParentHead[n]; e != NONE; e = extraNext[e]) {
+            depth = Math.min(depth, depths[extraTarget[e]] + 1);
+            hasParents = true;
+        }
+        return hasParents ? depth : 0;
+    }
+
+    /**
+     * Folds the edges added since the last compaction into the CSR arrays
+     */
+    private void compact() {
+        int[][] parents = compact(parentStart, parentEdges, extraParentHead);
+        int[][] children = compact(childStart, childEdges, extraChildHead);
+        parentStart = parents[0];
+        parentEdges = parents[1];
+        childStart = children[0];
+        childEdges = children[1];
+        compacted = size;
+        Arrays.fill(extraParentHead, NONE);
+        Arrays.fill(extraChildHead, NONE);
+        extraSize = 0;
+    }
+
+    private int[][] compact(int[] start, int[] edges, int[] extraHead) {
+        int[] newStart = new int[size + 1];
+        for (int n = 0; n < size; n++) {
+            int count = n < compacted ? start[n + 1] - start[n] : 0;
+            for (int e = extraHead[n]; e != NONE; e = extraNext[e]) {
+                count++;
+            }
+            newStart[n + 1] = newStart[n] + count;
+        }
+        int[] newEdges = new int[newStart[size]];
+        for (int n = 0; n < size; n++) {
+            int pos = newStart[n];
+            if (n < compacted) {
+                int count = start[n + 1] - start[n];
+                System.arraycopy(edges, start[n], newEdges, pos, count);
+                pos += count;
+            }
+            for (int e = extraHead[n]; e != NONE; e = extraNext[e]) {
+                newEdges[pos++] = extraTarget[e];
+            }
+        }
+        return new int[][] { newStart, newEdges };
+    }
+
+    private int find(ObjectId id) {
+        final byte[] raw = SCRATCH.get().id;
+        id.getRawValue(raw);
+        final int mask = table.length - 1;
+        for (int slot = slot(id, mask);; slot = (slot + 1) & mask) {
+            final int entry = table[slot];
+            if (entry == 0) {
+                return NONE;
+            }
+            if (equals(entry - 1, raw)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    private int getOrAdd(ObjectId id) {
+        final int existing = find(id);
+        if (existing != NONE) {
+            return existing;
+        }
+        if ((size + 1) * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        if (size == depths.length) {
+            final int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity * ID_SIZE);
+            depths = Arrays.copyOf(depths, capacity);
+            generations = Arrays.copyOf(generations, capacity);
+            chains = Arrays.copyOf(chains, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            chainEnds = Arrays.copyOf(chainEnds, capacity);
+            extraParentHead = grow(extraParentHead, capacity);
+            extraParentTail = Arrays.copyOf(extraParentTail, capacity);
+            extraChildHead = grow(extraChildHead, capacity);
+            extraChildTail = Arrays.copyOf(extraChildTail, capacity);
+        }
+        final int n = size++;
+        id.getRawValue(SCRATCH.get().id);
+        System.arraycopy(SCRATCH.get().id, 0, ids, n * ID_SIZE, ID_SIZE);
+        depths[n] = 0;
+        generations[n] = 1;
+        chains[n] = n;
+        positions[n] = 0;
+        chainEnds[n] = n;
+        final int mask = table.length - 1;
+        int slot = slot(id, mask);
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = n + 1;
+        return n;
+    }
+
+    private static int[] grow(int[] heads, int capacity) {
+        int[] grown = Arrays.copyOf(heads, capacity);
+        Arrays.fill(grown, heads.length, capacity, NONE);
+        return grown;
+    }
+
+    private void rehash(int capacity) {
+        final int[] newTable = new int[capacity];
+        final int mask = capacity - 1;
+        for (int n = 0; n < size; n++) {
+            int slot = slot(ids, n * ID_SIZE, mask);
+            while (newTable[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newTable[slot] = n + 1;
+        }
+        table = newTable;
+    }
+
+    /**
+     * Ids are SHA-1 hashes, so their first four bytes are as good a hash as any
+     */
+    private static int slot(ObjectId id, int mask) {
+        return id.hashCode() & mask;
+    }
+
+    private static int slot(byte[] ids, int offset, int mask) {
+        return ObjectId.createNoClone(Arrays.copyOfRange(ids, offset, offset + ID_SIZE))
+                .hashCode() & mask;
+    }
+
+    private boolean equals(int n, byte[] raw) {
+        final int offset = n * ID_SIZE;
+        for (int i = 0; i < ID_SIZE; i++) {
+            if (ids[offset + i] != raw[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ObjectId id(int n) {
+        final int offset = n * ID_SIZE;
+        return ObjectId.createNoClone(Arrays.copyOfRange(ids, offset, offset + ID_SIZE));
+    }
+}
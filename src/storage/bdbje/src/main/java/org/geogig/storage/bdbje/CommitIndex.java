@@ -0,0 +1,311 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import static com.sleepycat.je.OperationStatus.SUCCESS;
+
+import java.util.Arrays;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.storage.ConfigDatabase;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Longs;
+import com.sleepycat.je.Cursor;
+import com.sleepycat.je.CursorConfig;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.Transaction;
+
+/**
+ * Commit ids indexed by committer timestamp and by the value of some numeric node properties,
+ * e.g. the OSM changeset a commit was imported from, so commits can be looked up by time or
+ * property value with a range scan instead of walking the history. Lives in its own database of
+ * the graph environment named after the graph database followed by {@code CommitIndex}.
+ * <p>
+ * Keys are the UTF-8 name of the indexed value, a zero byte, the value as a big endian long with
+ * its sign bit flipped, so keys sort by value, and the commit id. Data is empty. Timestamps are
+ * indexed under the empty name, and also recorded by commit id, under a {@code 0xFF} byte no
+ * UTF-8 name starts with, so the graph database can tell whether a commit is indexed.
+ * <p>
+ * Once enabled with {@link #CONFIG_KEY}, commits are indexed by timestamp when stored in the
+ * object database of the repository, before it adds them to the graph through the
+ * {@code GraphDatabase} interface, or in the same transaction as the graph when put with their
+ * timestamp by {@link JEGraphDatabase#put(ObjectId, ImmutableList, long)}. Properties are indexed
+ * when set. A marker record, with the names of the indexed properties, tells whether the index
+ * covers the whole graph: it's written when the index is created for an empty graph or completed
+ * by {@link JEGraphRebuildOp}, and removed when a commit whose timestamp is not indexed is put in
+ * the graph, e.g. one stored while the graph database was closed. An incomplete index is not
+ * used.
+ */
+class CommitIndex {
+
+    /**
+     * Repository or global config key that, when {@code true}, enables the index
+     */
+    static final String CONFIG_KEY = "bdbje.graph.commit_index";
+
+    /**
+     * Repository or global config key with the comma separated names of the node properties to
+     * index, whose values are parsed as longs, properties with other values not being indexed
+     */
+    static final String PROPERTIES_CONFIG_KEY = "bdbje.graph.commit_index.properties";
+
+    static final String TIMESTAMP = "";
+
+    private static final int VALUE_SIZE = 8;
+
+    /**
+     * Key of the marker record, shorter than any entry
+     */
+    private static final byte[] COMPLETE_KEY = { 0 };
+
+    /**
+     * Prefix of the commit timestamps keyed by commit id
+     */
+    private static final byte TIMESTAMP_BY_ID = (byte) 0xFF;
+
+    private final Database database;
+
+    /**
+     * The properties indexed for the whole graph, or {@code null} if the index is incomplete
+     */
+    @Nullable
+    private volatile ImmutableSet<String> complete;
+
+    private CommitIndex(Database database) {
+        this.database = database;
+        DatabaseEntry data = new DatabaseEntry();
+        if (SUCCESS == database.get(null, new DatabaseEntry(COMPLETE_KEY), data,
+                LockMode.READ_UNCOMMITTED)) {
+            this.complete = decodeProperties(data);
+        }
+    }
+
+    static boolean isEnabled(ConfigDatabase config) {
+        Optional<Boolean> enabled = config.get(CONFIG_KEY, Boolean.class);
+        if (!enabled.isPresent()) {
+            enabled = config.getGlobal(CONFIG_KEY, Boolean.class);
+        }
+        return enabled.or(Boolean.FALSE).booleanValue();
+    }
+
+    static ImmutableSet<String> indexedProperties(ConfigDatabase config) {
+        Optional<String> names = config.get(PROPERTIES_CONFIG_KEY);
+        if (!names.isPresent()) {
+            names = config.getGlobal(PROPERTIES_CONFIG_KEY);
+        }
+        if (!names.isPresent()) {
+            return ImmutableSet.of();
+        }
+        return ImmutableSet.copyOf(Splitter.on(',').trimResults().omitEmptyStrings()
+                .split(names.get()));
+    }
+
+    /**
+     * @return the index, or {@code null} if it doesn't exist and can't be created
+     * @see JEGraphDatabase#openCompanionDatabase
+     */
+    @Nullable
+    static CommitIndex open(Environment env, String databaseName, DatabaseConfig graphConfig) {
+        Database database = JEGraphDatabase.openCompanionDatabase(env, databaseName, graphConfig);
+        return database == null ? null : new CommitIndex(database);
+    }
+
+    /**
+     * @return whether all the commits in the graph are indexed by timestamp
+     */
+    boolean isComplete() {
+        return complete != null;
+    }
+
+    /**
+     * @return whether all the commits in the graph are indexed by the given value, the timestamp
+     *         or a property
+     */
+    boolean isComplete(String name) {
+        final ImmutableSet<String> complete = this.complete;
+        return complete != null && (TIMESTAMP.equals(name) || complete.contains(name));
+    }
+
+    /**
+     * @return whether all the commits in the graph are indexed by timestamp and by the given
+     *         properties
+     */
+    boolean isComplete(ImmutableSet<String> properties) {
+        final ImmutableSet<String> complete = this.complete;
+        return complete != null && complete.containsAll(properties);
+    }
+
+    /**
+     * Marks the index as covering the whole graph, by timestamp and by the given properties
+     */
+    void markComplete(@Nullable Transaction transaction, ImmutableSet<String> properties) {
+        byte[] names = Joiner.on(',').join(properties).getBytes(Charsets.UTF_8);
+        database.put(transaction, new DatabaseEntry(COMPLETE_KEY), new DatabaseEntry(names));
+        complete = properties;
+    }
+
+    /**
+     * Marks the index as not to be used until completed again, e.g. when a commit is put without
+     * its timestamp
+     */
+    void markIncomplete(@Nullable Transaction transaction) {
+        complete = null;
+        database.delete(transaction, new DatabaseEntry(COMPLETE_KEY));
+    }
+
+    private static ImmutableSet<String> decodeProperties(DatabaseEntry data) {
+        String names = new String(data.getData(), data.getOffset(), data.getSize(),
+                Charsets.UTF_8);
+        return ImmutableSet.copyOf(Splitter.on(',').omitEmptyStrings().split(names));
+    }
+
+    /**
+     * @return the value as indexed, or absent if it's not a number
+     */
+    static Optional<Long> parse(@Nullable String value) {
+        if (value == null) {
+            return Optional.absent();
+        }
+        return Optional.fromNullable(Longs.tryParse(value.trim()));
+    }
+
+    void put(@Nullable Transaction transaction, String name, long value, ObjectId id) {
+        database.put(transaction, key(name, value, id), new DatabaseEntry(new byte[0]));
+        if (TIMESTAMP.equals(name)) {
+            database.put(transaction, timestampKey(id),
+                    new DatabaseEntry(Longs.toByteArray(value)));
+        }
+    }
+
+    /**
+     * @return whether the commit is indexed by timestamp
+     */
+    boolean hasTimestamp(ObjectId id) {
+        DatabaseEntry data = new DatabaseEntry();
+        data.setPartial(0, 0, true);
+        return SUCCESS == database.get(null, timestampKey(id), data, LockMode.READ_UNCOMMITTED);
+    }
+
+    private static DatabaseEntry timestampKey(ObjectId id) {
+        byte[] key = new byte[1 + ObjectId.NUM_BYTES];
+        key[0] = TIMESTAMP_BY_ID;
+        System.arraycopy(id.getRawValue(), 0, key, 1, ObjectId.NUM_BYTES);
+        return new DatabaseEntry(key);
+    }
+
+    void delete(@Nullable Transaction transaction, String name, long value, ObjectId id) {
+        database.delete(transaction, key(name, value, id));
+    }
+
+    /**
+     * @return the commits whose value is in the {@code [from, to)} range, by value and id
+     */
+    ImmutableList<ObjectId> find(String name, long from, long to) {
+        ImmutableList.Builder<ObjectId> ids = ImmutableList.builder();
+        if (from >= to) {
+            return ids.build();
+        }
+        final byte[] prefix = prefix(name);
+        try (Cursor cursor = database.openCursor(null, CursorConfig.READ_UNCOMMITTED)) {
+            DatabaseEntry key = new DatabaseEntry(key(prefix, from, ObjectId.NULL));
+            DatabaseEntry data = new DatabaseEntry();
+            data.setPartial(0, 0, true);
+            boolean found = SUCCESS == cursor.getSearchKeyRange(key, data,
+                    LockMode.READ_UNCOMMITTED);
+            while (found && key.getSize() == prefix.length + VALUE_SIZE + ObjectId.NUM_BYTES) {
+                final byte[] raw = key.getData();
+                final int offset = key.getOffset();
+                if (!Arrays.equals(prefix,
+                        Arrays.copyOfRange(raw, offset, offset + prefix.length))) {
+                    break;
+                }
+                final long value = Longs.fromByteArray(Arrays.copyOfRange(raw,
+                        offset + prefix.length, offset + prefix.length + VALUE_SIZE))
+                        ^ Long.MIN_VALUE;
+                if (value >= to) {
+                    break;
+                }
+                final int idOffset = offset + prefix.length + VALUE_SIZE;
+                ids.add(ObjectId.createNoClone(
+                        Arrays.copyOfRange(raw, idOffset, idOffset + ObjectId.NUM_BYTES)));
+                found = SUCCESS == cursor.getNext(key, data, LockMode.READ_UNCOMMITTED);
+            }
+        }
+        return ids.build();
+    }
+
+    /**
+     * Copies all the entries to another index, e.g. the one of a graph database being migrated,
+     * which is then as complete as this one
+     *
+     * @return the number of entries copied
+     */
+    int copyTo(CommitIndex target, @Nullable Transaction transaction) {
+        int count = 0;
+        try (Cursor cursor = database.openCursor(null, CursorConfig.READ_UNCOMMITTED)) {
+            DatabaseEntry key = new DatabaseEntry();
+            DatabaseEntry data = new DatabaseEntry();
+            while (cursor.getNext(key, data, LockMode.READ_UNCOMMITTED) == SUCCESS) {
+                if (key.getSize() != COMPLETE_KEY.length) {
+                    target.database.put(transaction, key, data);
+                    if (key.getData()[key.getOffset()] != TIMESTAMP_BY_ID) {
+                        count++;
+                    }
+                }
+            }
+        }
+        final ImmutableSet<String> complete = this.complete;
+        if (complete == null) {
+            target.markIncomplete(transaction);
+        } else {
+            target.markComplete(transaction, complete);
+        }
+        return count;
+    }
+
+    void sync() {
+        if (database.getConfig().getDeferredWrite()) {
+            database.sync();
+        }
+    }
+
+    void close() {
+        database.close();
+    }
+
+    private static byte[] prefix(String name) {
+        byte[] nameBytes = name.getBytes(Charsets.UTF_8);
+        return Arrays.copyOf(nameBytes, nameBytes.length + 1);
+    }
+
+    private static DatabaseEntry key(String name, long value, ObjectId id) {
+        return new DatabaseEntry(key(prefix(name), value, id));
+    }
+
+    private static byte[] key(byte[] prefix, long value, ObjectId id) {
+        byte[] key = Arrays.copyOf(prefix, prefix.length + VALUE_SIZE + ObjectId.NUM_BYTES);
+        System.arraycopy(Longs.toByteArray(value ^ Long.MIN_VALUE), 0, key, prefix.length,
+                VALUE_SIZE);
+        System.arraycopy(id.getRawValue(), 0, key, prefix.length + VALUE_SIZE,
+                ObjectId.NUM_BYTES);
+        return key;
+    }
+}
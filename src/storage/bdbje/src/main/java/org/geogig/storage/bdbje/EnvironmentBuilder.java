@@ -12,6 +12,7 @@ package org.geogig.storage.bdbje;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jdt.annotation.Nullable;
@@ -34,6 +35,15 @@ import com.sleepycat.je.EnvironmentConfig;
 
 public class EnvironmentBuilder implements Provider<Environment> {
 
+    /**
+     * {@link Hints} key, or system property, that when {@code true} opens the JE environments in
+     * secondary mode: read only, tolerating a writer in another process, and periodically reopened
+     * to see its changes.
+     *
+     * @see SecondaryRefresher
+     */
+    public static final String SECONDARY_HINT = "bdbje.secondary";
+
     private Platform platform;
 
     private String[] path;
@@ -48,6 +58,11 @@ public class EnvironmentBuilder implements Provider<Environment> {
 
     private Hints hints;
 
+    /**
+     * The repository directory, resolved once as it doesn't change for a given repository
+     */
+    private File geogigDirectory;
+
     @Inject
     public EnvironmentBuilder(Platform platform, @Nullable Hints hints) {
         this.platform = platform;
@@ -66,15 +81,41 @@ public class EnvironmentBuilder implements Provider<Environment> {
         return this;
     }
 
-    File getGeoGigDirectory() {
-        final Optional<URI> repoUrl = new ResolveGeogigURI(platform, hints).call();
-        if (!repoUrl.isPresent()) {
-            throw new IllegalStateException("Can't find geogig repository home");
+    synchronized File getGeoGigDirectory() {
+        if (geogigDirectory == null) {
+            final Optional<URI> repoUrl = new ResolveGeogigURI(platform, hints).call();
+            if (!repoUrl.isPresent()) {
+                throw new IllegalStateException("Can't find geogig repository home");
+            }
+            URI uri = repoUrl.get();
+            Preconditions.checkState("file".equals(uri.getScheme()),
+                    "Can't create BDB JE Environment on a non file repository URI: %s", uri);
+            geogigDirectory = new File(uri);
+        }
+        return geogigDirectory;
+    }
+
+    /**
+     * @return whether the environment directory at the given path relative to the repository
+     *         directory exists
+     */
+    boolean environmentExists(String... path) {
+        File dir = getGeoGigDirectory();
+        for (String subdir : path) {
+            dir = new File(dir, subdir);
         }
-        URI uri = repoUrl.get();
-        Preconditions.checkState("file".equals(uri.getScheme()),
-                "Can't create BDB JE Environment on a non file repository URI: %s", uri);
-        return new File(uri);
+        return dir.exists();
+    }
+
+    /**
+     * @return whether environments are to be open in secondary mode, as set by the
+     *         {@link #SECONDARY_HINT} hint or system property
+     */
+    public boolean isSecondary() {
+        if (hints != null && hints.getBoolean(SECONDARY_HINT)) {
+            return true;
+        }
+        return Boolean.getBoolean(SECONDARY_HINT);
     }
 
     /**
@@ -84,26 +125,56 @@ public class EnvironmentBuilder implements Provider<Environment> {
     @Override
     public synchronized Environment get() {
 
-        final Optional<URI> repoUrl = new ResolveGeogigURI(platform, hints).call();
-        if (!repoUrl.isPresent() && absolutePath == null) {
-            throw new IllegalStateException("Can't find geogig repository home");
-        }
         final File storeDirectory;
 
         if (absolutePath != null) {
             storeDirectory = absolutePath;
         } else {
-            URI uri = repoUrl.get();
-            Preconditions.checkState("file".equals(uri.getScheme()),
-                    "Can't create BDB JE Environment on a non file repository URI: %s", uri);
-            File currDir = new File(uri);
-            File dir = currDir;
+            File dir = getGeoGigDirectory();
             for (String subdir : path) {
                 dir = new File(dir, subdir);
             }
             storeDirectory = dir;
         }
 
+        final boolean secondary = isSecondary();
+        if (secondary) {
+            // a secondary process never creates nor writes to the environment
+            Preconditions.checkState(storeDirectory.exists(),
+                    "Environment directory does not exist: %s", storeDirectory);
+            EnvironmentConfig envCfg = this.forceConfig == null ? new EnvironmentConfig()
+                    : this.forceConfig.clone();
+            envCfg.setAllowCreate(false);
+            envCfg.setReadOnly(true);
+            envCfg.setLockTimeout(5, TimeUnit.SECONDS);
+            return new Environment(storeDirectory, envCfg);
+        }
+
+        if (EnvironmentPool.isEnabled()) {
+            return EnvironmentPool.get().acquire(storeDirectory, readOnly,
+                    new Callable<Environment>() {
+                        @Override
+                        public Environment call() {
+                            return open(storeDirectory);
+                        }
+                    });
+        }
+        return open(storeDirectory);
+    }
+
+    /**
+     * Releases an environment obtained through {@link #get()}, returning it to the
+     * {@link EnvironmentPool} if it came from there, or closing it otherwise. Databases shall call
+     * this method instead of {@link Environment#close()}.
+     */
+    public void release(Environment env) {
+        if (EnvironmentPool.isEnabled() && EnvironmentPool.get().release(env)) {
+            return;
+        }
+        env.close();
+    }
+
+    private Environment open(final File storeDirectory) {
         if (!storeDirectory.exists() && !storeDirectory.mkdirs()) {
             throw new IllegalStateException("Unable to create Environment directory: '"
                     + storeDirectory.getAbsolutePath() + "'");
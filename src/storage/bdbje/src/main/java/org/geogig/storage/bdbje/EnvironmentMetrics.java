@@ -0,0 +1,401 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.lang.management.ManagementFactory;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentStats;
+import com.sleepycat.je.StatsConfig;
+
+/**
+ * Statistics of an open JE environment, shared by all the databases living in it.
+ * <p>
+ * The databases {@link #register} their environment when they open it. The JE
+ * {@link EnvironmentStats} are sampled every {@code bdbje.metrics.interval} seconds (60 by
+ * default) using the fast, non blocking, statistics, and each environment is exposed through JMX
+ * as an {@link EnvironmentMetricsMXBean}. Setting the {@code bdbje.metrics} system property to
+ * {@code false} disables sampling and JMX registration; the plugin counters are kept anyway as
+ * they're cheap.
+ */
+class EnvironmentMetrics implements EnvironmentMetricsMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EnvironmentMetrics.class);
+
+    static final String ENABLED_PROPERTY = "bdbje.metrics";
+
+    static final String INTERVAL_PROPERTY = "bdbje.metrics.interval";
+
+    private static final long DEFAULT_INTERVAL_SECONDS = 60;
+
+    private static final Map<Environment, EnvironmentMetrics> REGISTRY = new IdentityHashMap<>();
+
+    private static ScheduledExecutorService SAMPLER;
+
+    private final Environment env;
+
+    private final String home;
+
+    private final Set<String> databases = new TreeSet<>();
+
+    private int references;
+
+    private ObjectName objectName;
+
+    // last sample
+    private volatile long sampleTime;
+
+    private long fetches, fetchMisses, evicted, checkpoints, lockWaits, fsyncs;
+
+    private volatile double cacheHitRatio = -1;
+
+    private volatile long cacheBytes, evictedNodes, logSize, checkpointsDelta, lockWaitsDelta,
+            fsyncsDelta;
+
+    private volatile int cleanerBacklog, fileDeletionBacklog;
+
+    // plugin counters
+    private final AtomicLong insertedObjects = new AtomicLong(), insertedBytes = new AtomicLong(),
+            insertNanos = new AtomicLong();
+
+    private final AtomicLong logFlushes = new AtomicLong(), logFlushNanos = new AtomicLong(),
+            maxLogFlushNanos = new AtomicLong();
+
+    private volatile long lastForcedCheckpointNanos;
+
+    private final AtomicLong idleCleanedLogFiles = new AtomicLong();
+
+    private volatile int logUtilization = -1;
+
+    EnvironmentMetrics(Environment env) {
+        this.env = env;
+        this.home = env.getHome().getAbsolutePath();
+    }
+
+    static boolean isEnabled() {
+        return Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"));
+    }
+
+    /**
+     * Registers a database living in the environment
+     *
+     * @param database the kind of database, e.g. {@code objects}
+     * @return the environment's metrics
+     */
+    static EnvironmentMetrics register(Environment env, String database) {
+        synchronized (REGISTRY) {
+            EnvironmentMetrics metrics = REGISTRY.get(env);
+            if (metrics == null) {
+                metrics = new EnvironmentMetrics(env);
+                REGISTRY.put(env, metrics);
+                if (isEnabled()) {
+                    startSampler();
+                    metrics.registerMBean();
+                }
+            }
+            metrics.references++;
+            metrics.databases.add(database);
+            return metrics;
+        }
+    }
+
+    /**
+     * Unregisters a database from the environment, removing the environment's metrics once no
+     * database uses it
+     */
+    static void unregister(Environment env) {
+        synchronized (REGISTRY) {
+            EnvironmentMetrics metrics = REGISTRY.get(env);
+            if (metrics != null && --metrics.references == 0) {
+                REGISTRY.remove(env);
+                metrics.unregisterMBean();
+            }
+        }
+    }
+
+    private static void startSampler() {
+        if (SAMPLER != null) {
+            return;
+        }
+        final long interval = Long.getLong(INTERVAL_PROPERTY, DEFAULT_INTERVAL_SECONDS)
+                .longValue();
+        SAMPLER = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("BDBJE-METRICS-%d").build());
+        SAMPLER.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                EnvironmentMetrics[] all;
+                synchronized (REGISTRY) {
+                    all = REGISTRY.values().toArray(new EnvironmentMetrics[REGISTRY.size()]);
+                }
+                for (EnvironmentMetrics metrics : all) {
+                    try {
+                        metrics.sample();
+                    } catch (RuntimeException e) {
+                        LOGGER.debug("Error sampling statistics of {}", metrics.home, e);
+                    }
+                }
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    private void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("org.geogig.storage.bdbje:type=Environment,name="
+                    + ObjectName.quote(home));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                this.objectName = name;
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Unable to register statistics of {} with JMX", home, e);
+        }
+    }
+
+    private void unregisterMBean() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception e) {
+                LOGGER.debug("Unable to unregister {} from JMX", objectName, e);
+            }
+            objectName = null;
+        }
+    }
+
+    @Override
+    public synchronized void sample() {
+        if (!env.isValid()) {
+            return;
+        }
+        StatsConfig config = new StatsConfig();
+        config.setFast(true);
+        final EnvironmentStats stats = env.getStats(config);
+
+        final long fetches = stats.getNLNsFetch() + stats.getNBINsFetch()
+                + stats.getNUpperINsFetch();
+        final long fetchMisses = stats.getNLNsFetchMiss() + stats.getNBINsFetchMiss()
+                + stats.getNUpperINsFetchMiss();
+        final long evicted = stats.getNBINsEvictedEvictorThread() + stats.getNBINsEvictedManual()
+                + stats.getNBINsEvictedCritical() + stats.getNBINsEvictedCacheMode()
+                + stats.getNBINsEvictedDaemon() + stats.getNUpperINsEvictedEvictorThread()
+                + stats.getNUpperINsEvictedManual() + stats.getNUpperINsEvictedCritical()
+                + stats.getNUpperINsEvictedCacheMode() + stats.getNUpperINsEvictedDaemon();
+
+        final long intervalFetches = fetches - this.fetches;
+        this.cacheHitRatio = intervalFetches <= 0 ? -1
+                : 1d - ((double) (fetchMisses - this.fetchMisses) / intervalFetches);
+        this.evictedNodes = evicted - this.evicted;
+        this.checkpointsDelta = stats.getNCheckpoints() - this.checkpoints;
+        this.lockWaitsDelta = stats.getNWaits() - this.lockWaits;
+        this.fsyncsDelta = stats.getNLogFSyncs() - this.fsyncs;
+
+        this.fetches = fetches;
+        this.fetchMisses = fetchMisses;
+        this.evicted = evicted;
+        this.checkpoints = stats.getNCheckpoints();
+        this.lockWaits = stats.getNWaits();
+        this.fsyncs = stats.getNLogFSyncs();
+
+        this.cacheBytes = stats.getCacheTotalBytes();
+        this.logSize = logSize(env.getHome());
+        this.cleanerBacklog = stats.getCleanerBacklog();
+        this.fileDeletionBacklog = stats.getFileDeletionBacklog();
+        this.sampleTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the total size of the log files of the environment at the given directory. The fast
+     *         JE statistics don't compute it, and the full ones are expensive.
+     */
+    static long logSize(File envHome) {
+        File[] logFiles = envHome.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".jdb");
+            }
+        });
+        long size = 0;
+        if (logFiles != null) {
+            for (File f : logFiles) {
+                size += f.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Records a batch of bulk inserted objects
+     */
+    void recordInsert(int objects, long bytes, long nanos) {
+        insertedObjects.addAndGet(objects);
+        insertedBytes.addAndGet(bytes);
+        insertNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Records the duration of a log flush of a deferred write database
+     */
+    void recordLogFlush(long nanos) {
+        logFlushes.incrementAndGet();
+        logFlushNanos.addAndGet(nanos);
+        long max;
+        while ((max = maxLogFlushNanos.get()) < nanos
+                && !maxLogFlushNanos.compareAndSet(max, nanos)) {
+            // retry
+        }
+    }
+
+    /**
+     * Records the duration of a checkpoint forced by the plugin
+     */
+    void recordForcedCheckpoint(long nanos) {
+        lastForcedCheckpointNanos = nanos;
+    }
+
+    /**
+     * Records a run of the {@link IdleLogCleaner}
+     *
+     * @param utilization the log utilization after cleaning, as a percentage
+     */
+    void recordIdleClean(int files, int utilization) {
+        idleCleanedLogFiles.addAndGet(files);
+        logUtilization = utilization;
+    }
+
+    @Override
+    public String getEnvironmentHome() {
+        return home;
+    }
+
+    @Override
+    public String getDatabases() {
+        synchronized (REGISTRY) {
+            return Joiner.on(',').join(databases);
+        }
+    }
+
+    @Override
+    public long getSampleAgeMillis() {
+        long sampleTime = this.sampleTime;
+        return sampleTime == 0 ? -1 : System.currentTimeMillis() - sampleTime;
+    }
+
+    @Override
+    public double getCacheHitRatio() {
+        return cacheHitRatio;
+    }
+
+    @Override
+    public long getCacheBytes() {
+        return cacheBytes;
+    }
+
+    @Override
+    public long getEvictedNodes() {
+        return evictedNodes;
+    }
+
+    @Override
+    public int getCleanerBacklog() {
+        return cleanerBacklog;
+    }
+
+    @Override
+    public int getFileDeletionBacklog() {
+        return fileDeletionBacklog;
+    }
+
+    @Override
+    public long getLogSize() {
+        return logSize;
+    }
+
+    @Override
+    public long getCheckpoints() {
+        return checkpointsDelta;
+    }
+
+    @Override
+    public long getLockWaits() {
+        return lockWaitsDelta;
+    }
+
+    @Override
+    public long getLogFSyncs() {
+        return fsyncsDelta;
+    }
+
+    @Override
+    public long getInsertedObjects() {
+        return insertedObjects.get();
+    }
+
+    @Override
+    public long getInsertedBytes() {
+        return insertedBytes.get();
+    }
+
+    @Override
+    public double getInsertThroughput() {
+        long nanos = insertNanos.get();
+        return nanos == 0 ? 0 : insertedObjects.get() / (nanos / 1e9);
+    }
+
+    @Override
+    public long getLogFlushes() {
+        return logFlushes.get();
+    }
+
+    @Override
+    public double getAverageLogFlushMillis() {
+        long count = logFlushes.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(logFlushNanos.get()) / 1000d / count;
+    }
+
+    @Override
+    public long getMaxLogFlushMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLogFlushNanos.get());
+    }
+
+    @Override
+    public long getLastForcedCheckpointMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastForcedCheckpointNanos);
+    }
+
+    @Override
+    public long getIdleCleanedLogFiles() {
+        return idleCleanedLogFiles.get();
+    }
+
+    @Override
+    public int getLogUtilization() {
+        return logUtilization;
+    }
+}
@@ -0,0 +1,134 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+/**
+ * JMX view of the statistics of an open JE environment, registered as
+ * {@code org.geogig.storage.bdbje:type=Environment,name=<environment directory>}.
+ * <p>
+ * The JE statistics are sampled periodically, so they're as old as
+ * {@link #getSampleAgeMillis()}; rates and ratios refer to the last sampling interval. The plugin
+ * counters are live.
+ */
+public interface EnvironmentMetricsMXBean {
+
+    /**
+     * @return the environment directory
+     */
+    String getEnvironmentHome();
+
+    /**
+     * @return the databases living in the environment, e.g. {@code objects}, {@code graph}, or
+     *         {@code deduplicator}
+     */
+    String getDatabases();
+
+    /**
+     * @return milliseconds since the JE statistics were last sampled
+     */
+    long getSampleAgeMillis();
+
+    /**
+     * @return the ratio of node fetches served from the cache during the last interval, or
+     *         {@code -1} if there were no fetches
+     */
+    double getCacheHitRatio();
+
+    /**
+     * @return bytes of the cache used by the environment
+     */
+    long getCacheBytes();
+
+    /**
+     * @return nodes evicted from the cache during the last interval
+     */
+    long getEvictedNodes();
+
+    /**
+     * @return number of log files waiting to be cleaned
+     */
+    int getCleanerBacklog();
+
+    /**
+     * @return number of cleaned log files waiting to be deleted
+     */
+    int getFileDeletionBacklog();
+
+    /**
+     * @return total size of the log files, in bytes
+     */
+    long getLogSize();
+
+    /**
+     * @return checkpoints run during the last interval
+     */
+    long getCheckpoints();
+
+    /**
+     * @return lock requests that had to wait during the last interval
+     */
+    long getLockWaits();
+
+    /**
+     * @return fsyncs of the log during the last interval
+     */
+    long getLogFSyncs();
+
+    /**
+     * @return objects inserted through bulk inserts since the environment was open
+     */
+    long getInsertedObjects();
+
+    /**
+     * @return bytes inserted through bulk inserts since the environment was open
+     */
+    long getInsertedBytes();
+
+    /**
+     * @return average bulk insert throughput, in objects per second of insert time
+     */
+    double getInsertThroughput();
+
+    /**
+     * @return number of log flushes of deferred write databases run
+     */
+    long getLogFlushes();
+
+    /**
+     * @return average duration of the log flushes, in milliseconds
+     */
+    double getAverageLogFlushMillis();
+
+    /**
+     * @return the longest log flush, in milliseconds
+     */
+    long getMaxLogFlushMillis();
+
+    /**
+     * @return duration of the last checkpoint forced by the plugin, in milliseconds
+     */
+    long getLastForcedCheckpointMillis();
+
+    /**
+     * @return log files cleaned by the idle log cleaner since the environment was open
+     */
+    long getIdleCleanedLogFiles();
+
+    /**
+     * @return the percentage of the log holding live data after the last idle log cleaning, or
+     *         {@code -1} if the idle log cleaner didn't run
+     */
+    int getLogUtilization();
+
+    /**
+     * Samples the JE statistics right away
+     */
+    void sample();
+}
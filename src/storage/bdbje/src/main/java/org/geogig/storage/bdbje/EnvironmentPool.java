@@ -0,0 +1,399 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.sleepycat.je.Environment;
+
+/**
+ * A process wide pool of JE {@link Environment}s, keyed by canonical directory and reference
+ * counted, for servers that open and close many repositories, where opening an environment would
+ * otherwise dominate the latency of each request.
+ * <p>
+ * Enabled with the {@code bdbje.environment_pool} system property. {@link EnvironmentBuilder}
+ * then {@link #acquire acquires} environments from the pool and the databases
+ * {@link EnvironmentBuilder#release release} them instead of closing them. Environments no longer
+ * in use are kept open for {@code bdbje.environment_pool.idle_timeout} seconds (5 minutes by
+ * default) in case they're requested again, and closed afterwards.
+ * <p>
+ * Environments open in {@link EnvironmentBuilder#isSecondary() secondary} mode are not pooled, as
+ * they're reopened periodically.
+ */
+class EnvironmentPool implements EnvironmentPoolMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EnvironmentPool.class);
+
+    static final String ENABLED_PROPERTY = "bdbje.environment_pool";
+
+    static final String IDLE_TIMEOUT_PROPERTY = "bdbje.environment_pool.idle_timeout";
+
+    static final long DEFAULT_IDLE_TIMEOUT_SECONDS = 300;
+
+    private static EnvironmentPool INSTANCE;
+
+    /**
+     * A pooled environment, or the placeholder of one being opened, in which case {@link #env} is
+     * {@code null} and other requests for the same directory wait on {@link #opened}
+     */
+    private static class Entry {
+
+        final File directory;
+
+        final SettableFuture<Environment> opened = SettableFuture.create();
+
+        Environment env;
+
+        int references;
+
+        long lastReleased;
+
+        Entry(File directory) {
+            this.directory = directory;
+        }
+    }
+
+    private final Map<File, Entry> byDirectory = new HashMap<>();
+
+    private final Map<Environment, Entry> byEnvironment = new IdentityHashMap<>();
+
+    private final long idleTimeoutMillis;
+
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(),
+            evictions = new AtomicLong(), openTimeNanos = new AtomicLong(),
+            maxOpenTimeNanos = new AtomicLong();
+
+    EnvironmentPool(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    /**
+     * @return the process wide pool, created and registered with JMX on first use
+     */
+    static synchronized EnvironmentPool get() {
+        if (INSTANCE == null) {
+            long idleTimeout = TimeUnit.SECONDS.toMillis(
+                    Long.getLong(IDLE_TIMEOUT_PROPERTY, DEFAULT_IDLE_TIMEOUT_SECONDS).longValue());
+            final EnvironmentPool pool = new EnvironmentPool(idleTimeout);
+            ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setDaemon(true)
+                            .setNameFormat("BDBJE-ENVIRONMENT-POOL-EVICTOR-%d").build());
+            final long period = Math.max(1000, idleTimeout / 2);
+            evictor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    pool.evictExpired();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread("BDBJE-ENVIRONMENT-POOL-SHUTDOWN") {
+                @Override
+                public void run() {
+                    pool.evictIdle();
+                }
+            });
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                server.registerMBean(pool,
+                        new ObjectName("org.geogig.storage.bdbje:type=EnvironmentPool"));
+            } catch (Exception e) {
+                LOGGER.warn("Unable to register environment pool with JMX", e);
+            }
+            INSTANCE = pool;
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the pooled environment for the directory, or opens and pools a new one.
+     * <p>
+     * Environments are opened, which includes running recovery, outside of the pool's lock, so
+     * that opening one doesn't hold back requests for other directories. Concurrent requests for
+     * the same directory wait for the one opening it.
+     * <p>
+     * A pooled read only environment (open so because another process holds the write lock) can't
+     * serve a read write request. If it's idle it's reopened, otherwise an environment outside the
+     * pool is returned.
+     */
+    Environment acquire(final File directory, final boolean readOnly,
+            final Callable<Environment> opener) {
+        final File key = canonical(directory);
+        Environment stale = null;
+        final Entry entry;
+        final boolean opening;
+        synchronized (this) {
+            Entry pooled = byDirectory.get(key);
+            if (pooled != null && pooled.env != null && (!pooled.env.isValid()
+                    || (!readOnly && pooled.references == 0 && isReadOnly(pooled.env)))) {
+                remove(pooled);
+                stale = pooled.references == 0 ? pooled.env : null;
+                pooled = null;
+            }
+            if (pooled != null && pooled.env != null && !readOnly && isReadOnly(pooled.env)) {
+                // read write requested but the pooled one is read only and in use
+                entry = null;
+                opening = false;
+            } else if (pooled != null) {
+                pooled.references++;
+                hits.incrementAndGet();
+                entry = pooled;
+                opening = false;
+            } else {
+                entry = new Entry(key);
+                entry.references = 1;
+                byDirectory.put(key, entry);
+                opening = true;
+            }
+        }
+        if (entry == null) {
+            return open(opener);
+        }
+        if (opening) {
+            closeQuietly(stale);
+            return open(entry, opener);
+        }
+        final Environment env;
+        try {
+            env = Futures.getUnchecked(entry.opened);
+        } catch (UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+        if (!readOnly && isReadOnly(env)) {
+            // the concurrent open found the write lock taken
+            release(env);
+            return open(opener);
+        }
+        return env;
+    }
+
+    private Environment open(final Entry entry, final Callable<Environment> opener) {
+        final Environment env;
+        try {
+            env = open(opener);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                byDirectory.remove(entry.directory);
+            }
+            entry.opened.setException(e);
+            throw e;
+        }
+        synchronized (this) {
+            entry.env = env;
+            byEnvironment.put(env, entry);
+        }
+        entry.opened.set(env);
+        return env;
+    }
+
+    /**
+     * Releases an environment obtained from {@link #acquire}
+     *
+     * @return {@code false} if the environment is not pooled, and hence should be closed by the
+     *         caller
+     */
+    synchronized boolean release(Environment env) {
+        Entry entry = byEnvironment.get(env);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.references > 0) {
+            entry.references--;
+        }
+        if (entry.references == 0) {
+            entry.lastReleased = System.currentTimeMillis();
+        }
+        return true;
+    }
+
+    private Environment open(Callable<Environment> opener) {
+        misses.incrementAndGet();
+        final long start = System.nanoTime();
+        Environment env;
+        try {
+            env = opener.call();
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+        final long time = System.nanoTime() - start;
+        openTimeNanos.addAndGet(time);
+        long max;
+        while (time > (max = maxOpenTimeNanos.get())
+                && !maxOpenTimeNanos.compareAndSet(max, time)) {
+            // retry
+        }
+        LOGGER.debug("Opened environment {} in {} ms", env.getHome(),
+                TimeUnit.NANOSECONDS.toMillis(time));
+        return env;
+    }
+
+    void evictExpired() {
+        final long now = System.currentTimeMillis();
+        final List<Environment> expired = new ArrayList<>();
+        synchronized (this) {
+            for (Iterator<Entry> it = byDirectory.values().iterator(); it.hasNext();) {
+                Entry entry = it.next();
+                if (entry.references == 0 && now - entry.lastReleased >= idleTimeoutMillis) {
+                    it.remove();
+                    byEnvironment.remove(entry.env);
+                    expired.add(entry.env);
+                }
+            }
+        }
+        close(expired);
+    }
+
+    @Override
+    public int evictIdle() {
+        final List<Environment> idle = new ArrayList<>();
+        synchronized (this) {
+            for (Iterator<Entry> it = byDirectory.values().iterator(); it.hasNext();) {
+                Entry entry = it.next();
+                if (entry.references == 0) {
+                    it.remove();
+                    byEnvironment.remove(entry.env);
+                    idle.add(entry.env);
+                }
+            }
+        }
+        close(idle);
+        return idle.size();
+    }
+
+    /**
+     * Closes the environment at the given directory if it's pooled and idle
+     *
+     * @return whether an environment was closed
+     */
+    boolean evict(File directory) {
+        Environment env = null;
+        synchronized (this) {
+            Entry entry = byDirectory.get(canonical(directory));
+            if (entry != null && entry.references == 0) {
+                remove(entry);
+                env = entry.env;
+            }
+        }
+        if (env != null) {
+            close(Collections.singletonList(env));
+        }
+        return env != null;
+    }
+
+    private void remove(Entry entry) {
+        byDirectory.remove(entry.directory);
+        byEnvironment.remove(entry.env);
+    }
+
+    private void close(List<Environment> envs) {
+        for (Environment env : envs) {
+            LOGGER.debug("Closing idle environment {}", env.getHome());
+            evictions.incrementAndGet();
+            closeQuietly(env);
+        }
+    }
+
+    private static void closeQuietly(Environment env) {
+        if (env == null) {
+            return;
+        }
+        try {
+            env.close();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Error closing environment {}", env.getHome(), e);
+        }
+    }
+
+    private static boolean isReadOnly(Environment env) {
+        return env.getConfig().getReadOnly();
+    }
+
+    private static File canonical(File directory) {
+        try {
+            return directory.getCanonicalFile();
+        } catch (IOException e) {
+            return directory.getAbsoluteFile();
+        }
+    }
+
+    @Override
+    public synchronized int getPooledEnvironments() {
+        return byDirectory.size();
+    }
+
+    @Override
+    public synchronized int getActiveEnvironments() {
+        int active = 0;
+        for (Entry entry : byDirectory.values()) {
+            if (entry.references > 0) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public double getAverageOpenTimeMillis() {
+        long opens = misses.get();
+        return opens == 0 ? 0D : openTimeNanos.get() / 1_000_000D / opens;
+    }
+
+    @Override
+    public long getMaxOpenTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxOpenTimeNanos.get());
+    }
+
+    @Override
+    public long getIdleTimeoutSeconds() {
+        return TimeUnit.MILLISECONDS.toSeconds(idleTimeoutMillis);
+    }
+}
@@ -0,0 +1,64 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+/**
+ * JMX view of the {@link EnvironmentPool}, registered as
+ * {@code org.geogig.storage.bdbje:type=EnvironmentPool}
+ */
+public interface EnvironmentPoolMXBean {
+
+    /**
+     * @return number of environments in the pool, in use or idle
+     */
+    int getPooledEnvironments();
+
+    /**
+     * @return number of pooled environments currently in use
+     */
+    int getActiveEnvironments();
+
+    /**
+     * @return number of acquisitions served by an already open environment
+     */
+    long getHits();
+
+    /**
+     * @return number of acquisitions that had to open a new environment
+     */
+    long getMisses();
+
+    /**
+     * @return number of idle environments closed by the pool
+     */
+    long getEvictions();
+
+    /**
+     * @return average time it took to open a new environment, in milliseconds
+     */
+    double getAverageOpenTimeMillis();
+
+    /**
+     * @return the longest time it took to open a new environment, in milliseconds
+     */
+    long getMaxOpenTimeMillis();
+
+    /**
+     * @return the time after which an unused environment is closed, in seconds
+     */
+    long getIdleTimeoutSeconds();
+
+    /**
+     * Closes all the idle environments right away
+     *
+     * @return the number of environments closed
+     */
+    int evictIdle();
+}
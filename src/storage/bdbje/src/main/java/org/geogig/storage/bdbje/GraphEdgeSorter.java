@@ -0,0 +1,336 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.locationtech.geogig.model.ObjectId;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.primitives.UnsignedBytes;
+
+/**
+ * Sorts the edges of a commit graph too big to fit in memory, as (commit, parents) pairs come in
+ * any order, and hands them back as the {@link NodeData nodes} of the graph in key order, with
+ * their parents and children.
+ * <p>
+ * Each parent edge is recorded twice, as a parent of the commit and as a child of the parent,
+ * so a node is a run of consecutive records once sorted. Records are sorted in memory in runs of
+ * a fixed size, spilled to temporary files, and merged while iterating the {@link #nodes()}, which
+ * can be iterated several times. Commits added more than once, e.g. both in the database and in a
+ * pack file, are merged.
+ * <p>
+ * {@link #add} is thread safe, the rest is not.
+ */
+final class GraphEdgeSorter implements Closeable {
+
+    /**
+     * Record of a commit, so commits with no parents nor children are kept
+     */
+    private static final byte NODE = 0;
+
+    private static final byte PARENT = 1;
+
+    private static final byte CHILD = 2;
+
+    /**
+     * Key id, record type, parent index and the id of the other end of the edge
+     */
+    private static final int RECORD_SIZE = ObjectId.NUM_BYTES + 1 + 2 + ObjectId.NUM_BYTES;
+
+    private static final int TYPE_OFFSET = ObjectId.NUM_BYTES;
+
+    private static final int INDEX_OFFSET = TYPE_OFFSET + 1;
+
+    private static final int OTHER_OFFSET = INDEX_OFFSET + 2;
+
+    private static final Comparator<byte[]> ORDER = UnsignedBytes.lexicographicalComparator();
+
+    private final int runSize;
+
+    private final File directory;
+
+    private final List<File> runs = new ArrayList<>();
+
+    private byte[][] buffer;
+
+    private int buffered;
+
+    private long records;
+
+    /**
+     * @param runSize the number of records sorted in memory before spilling them to a file, each
+     *        taking about 100 bytes of heap
+     */
+    GraphEdgeSorter(int runSize) {
+        Preconditions.checkArgument(runSize > 0, "runSize must be positive");
+        this.runSize = runSize;
+        this.buffer = new byte[runSize][];
+        try {
+            this.directory = Files.createTempDirectory("geogig-graph-edges").toFile();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Adds a commit and the edges to its parents
+     */
+    synchronized void add(ObjectId commitId, List<ObjectId> parentIds) {
+        Preconditions.checkState(buffer != null, "Sorter already finished");
+        Preconditions.checkArgument(parentIds.size() <= 0xFFFF, "Too many parents: %s",
+                parentIds.size());
+        append(record(commitId, NODE, 0, ObjectId.NULL));
+        for (int i = 0; i < parentIds.size(); i++) {
+            ObjectId parentId = parentIds.get(i);
+            append(record(commitId, PARENT, i, parentId));
+            append(record(parentId, CHILD, 0, commitId));
+        }
+    }
+
+    /**
+     * @return the number of records added, that is, commits plus twice the edges
+     */
+    synchronized long size() {
+        return records;
+    }
+
+    private void append(byte[] record) {
+        buffer[buffered++] = record;
+        records++;
+        if (buffered == runSize) {
+            spill();
+        }
+    }
+
+    /**
+     * Spills the records still in memory, to be called once all the commits are added
+     */
+    synchronized void finish() {
+        if (buffer != null) {
+            if (buffered > 0) {
+                spill();
+            }
+            buffer = null;
+        }
+    }
+
+    private void spill() {
+        Arrays.sort(buffer, 0, buffered, ORDER);
+        File run = new File(directory, "run-" + runs.size());
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(run), 64 * 1024))) {
+            for (int i = 0; i < buffered; i++) {
+                out.write(buffer[i]);
+                buffer[i] = null;
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        runs.add(run);
+        buffered = 0;
+    }
+
+    /**
+     * @return the nodes in key order, merging the sorted runs anew on each iteration. Their ids
+     *         are the keys, and they have no mapping, properties nor depth.
+     */
+    Iterable<NodeData> nodes() {
+        Preconditions.checkState(buffer == null, "finish() not called");
+        return new Iterable<NodeData>() {
+            @Override
+            public Iterator<NodeData> iterator() {
+                return new NodeIterator(new MergingIterator(runs));
+            }
+        };
+    }
+
+    /**
+     * Deletes the run files
+     */
+    @Override
+    public void close() {
+        for (File run : runs) {
+            run.delete();
+        }
+        runs.clear();
+        directory.delete();
+    }
+
+    private static byte[] record(ObjectId id, byte type, int index, ObjectId other) {
+        byte[] record = new byte[RECORD_SIZE];
+        System.arraycopy(id.getRawValue(), 0, record, 0, ObjectId.NUM_BYTES);
+        record[TYPE_OFFSET] = type;
+        record[INDEX_OFFSET] = (byte) (index >>> 8);
+        record[INDEX_OFFSET + 1] = (byte) index;
+        System.arraycopy(other.getRawValue(), 0, record, OTHER_OFFSET, ObjectId.NUM_BYTES);
+        return record;
+    }
+
+    private static boolean sameKey(byte[] a, byte[] b) {
+        for (int i = 0; i < ObjectId.NUM_BYTES; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ObjectId id(byte[] record, int offset) {
+        return ObjectId.createNoClone(
+                Arrays.copyOfRange(record, offset, offset + ObjectId.NUM_BYTES));
+    }
+
+    /**
+     * Groups the sorted records by key id
+     */
+    private static class NodeIterator extends AbstractIterator<NodeData> {
+
+        private final MergingIterator records;
+
+        @Nullable
+        private byte[] next;
+
+        NodeIterator(MergingIterator records) {
+            this.records = records;
+            this.next = records.hasNext() ? records.next() : null;
+        }
+
+        @Override
+        protected NodeData computeNext() {
+            if (next == null) {
+                return endOfData();
+            }
+            final byte[] first = next;
+            final NodeData node = new NodeData(id(first, 0), ObjectId.NULL,
+                    new ArrayList<ObjectId>(2), new ArrayList<ObjectId>(2),
+                    new HashMap<String, String>());
+            byte[] previous = null;
+            byte[] record = first;
+            while (record != null && sameKey(first, record)) {
+                // duplicates of a commit added more than once are next to each other
+                if (previous == null || ORDER.compare(previous, record) != 0) {
+                    if (record[TYPE_OFFSET] == PARENT) {
+                        node.outgoing.add(id(record, OTHER_OFFSET));
+                    } else if (record[TYPE_OFFSET] == CHILD) {
+                        node.incoming.add(id(record, OTHER_OFFSET));
+                    }
+                }
+                previous = record;
+                record = records.hasNext() ? records.next() : null;
+            }
+            next = record;
+            return node;
+        }
+    }
+
+    /**
+     * Merges the sorted run files, closing them once exhausted
+     */
+    private static class MergingIterator extends AbstractIterator<byte[]> {
+
+        private final PriorityQueue<RunReader> queue;
+
+        MergingIterator(List<File> runs) {
+            queue = new PriorityQueue<>(Math.max(1, runs.size()), new Comparator<RunReader>() {
+                @Override
+                public int compare(RunReader r1, RunReader r2) {
+                    return ORDER.compare(r1.current, r2.current);
+                }
+            });
+            try {
+                for (File run : runs) {
+                    RunReader reader = new RunReader(run);
+                    if (reader.advance()) {
+                        queue.add(reader);
+                    }
+                }
+            } catch (IOException e) {
+                for (RunReader reader : queue) {
+                    reader.close();
+                }
+                throw Throwables.propagate(e);
+            }
+        }
+
+        @Override
+        protected byte[] computeNext() {
+            final RunReader reader = queue.poll();
+            if (reader == null) {
+                return endOfData();
+            }
+            final byte[] record = reader.current;
+            try {
+                if (reader.advance()) {
+                    queue.add(reader);
+                }
+            } catch (IOException e) {
+                reader.close();
+                throw Throwables.propagate(e);
+            }
+            return record;
+        }
+    }
+
+    private static class RunReader {
+
+        private final DataInputStream in;
+
+        private byte[] current;
+
+        RunReader(File run) throws IOException {
+            this.in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(run), 64 * 1024));
+        }
+
+        /**
+         * @return {@code false} and closes the file if there are no more records
+         */
+        boolean advance() throws IOException {
+            byte[] record = new byte[RECORD_SIZE];
+            try {
+                in.readFully(record);
+            } catch (EOFException e) {
+                close();
+                return false;
+            }
+            current = record;
+            return true;
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+}
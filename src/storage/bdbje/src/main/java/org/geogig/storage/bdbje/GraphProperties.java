@@ -0,0 +1,118 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import static com.sleepycat.je.OperationStatus.SUCCESS;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.locationtech.geogig.model.ObjectId;
+
+import com.google.common.base.Charsets;
+import com.sleepycat.je.Cursor;
+import com.sleepycat.je.CursorConfig;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.Transaction;
+
+/**
+ * Properties of the nodes of a {@link JEGraphDatabase} kept apart from the nodes, one record per
+ * property keyed by the commit id followed by the UTF-8 property name, so setting a property
+ * doesn't rewrite the node adjacency lists. Used by the {@link JEGraphDatabase_v0_3} format.
+ */
+class GraphProperties {
+
+    private final Database database;
+
+    private GraphProperties(Database database) {
+        this.database = database;
+    }
+
+    /**
+     * @return the properties, or {@code null} if they don't exist and can't be created
+     * @see JEGraphDatabase#openCompanionDatabase
+     */
+    @Nullable
+    static GraphProperties open(Environment env, String databaseName, DatabaseConfig graphConfig) {
+        Database database = JEGraphDatabase.openCompanionDatabase(env, databaseName, graphConfig);
+        return database == null ? null : new GraphProperties(database);
+    }
+
+    @Nullable
+    String get(ObjectId id, String name) {
+        DatabaseEntry data = new DatabaseEntry();
+        if (SUCCESS != database.get(null, key(id, name), data, LockMode.READ_UNCOMMITTED)) {
+            return null;
+        }
+        return new String(data.getData(), data.getOffset(), data.getSize(), Charsets.UTF_8);
+    }
+
+    /**
+     * @return all the properties of the commit
+     */
+    Map<String, String> getAll(ObjectId id) {
+        Map<String, String> properties = new HashMap<>();
+        final byte[] prefix = id.getRawValue();
+        try (Cursor cursor = database.openCursor(null, CursorConfig.READ_UNCOMMITTED)) {
+            DatabaseEntry key = new DatabaseEntry(prefix);
+            DatabaseEntry data = new DatabaseEntry();
+            boolean found = SUCCESS == cursor.getSearchKeyRange(key, data,
+                    LockMode.READ_UNCOMMITTED);
+            while (found && hasPrefix(key, prefix)) {
+                String name = new String(key.getData(), key.getOffset() + prefix.length,
+                        key.getSize() - prefix.length, Charsets.UTF_8);
+                properties.put(name, new String(data.getData(), data.getOffset(),
+                        data.getSize(), Charsets.UTF_8));
+                found = SUCCESS == cursor.getNext(key, data, LockMode.READ_UNCOMMITTED);
+            }
+        }
+        return properties;
+    }
+
+    void put(@Nullable Transaction transaction, ObjectId id, String name, String value) {
+        database.put(transaction, key(id, name), new DatabaseEntry(value.getBytes(Charsets.UTF_8)));
+    }
+
+    void sync() {
+        if (database.getConfig().getDeferredWrite()) {
+            database.sync();
+        }
+    }
+
+    void close() {
+        database.close();
+    }
+
+    private static DatabaseEntry key(ObjectId id, String name) {
+        byte[] nameBytes = name.getBytes(Charsets.UTF_8);
+        byte[] key = new byte[ObjectId.NUM_BYTES + nameBytes.length];
+        id.getRawValue(key);
+        System.arraycopy(nameBytes, 0, key, ObjectId.NUM_BYTES, nameBytes.length);
+        return new DatabaseEntry(key);
+    }
+
+    private static boolean hasPrefix(DatabaseEntry key, byte[] prefix) {
+        if (key.getSize() < prefix.length) {
+            return false;
+        }
+        final byte[] data = key.getData();
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[key.getOffset() + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,269 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sleepycat.je.CheckpointConfig;
+import com.sleepycat.je.DbInternal;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.cleaner.FileSummary;
+import com.sleepycat.je.dbi.EnvironmentImpl;
+
+/**
+ * Cleans the JE log of the open environments while they're idle, so disk space is reclaimed
+ * without competing with foreground operations.
+ * <p>
+ * Enabled with the {@code bdbje.idle_cleaner} system property. Every
+ * {@code bdbje.idle_cleaner.interval} seconds (10 by default) the operation rate of each writable
+ * environment, as recorded by the {@link OperationMetrics} of the databases living in it, is
+ * checked. If it's at most {@code bdbje.idle_cleaner.max_rate} operations per second (1 by
+ * default), log files are cleaned one at a time for up to {@code bdbje.idle_cleaner.slice_ms}
+ * milliseconds (500 by default), stopping as soon as an operation is recorded, and a checkpoint is
+ * forced for the cleaned files to be deleted. The log utilization before and after is logged and
+ * reported through the {@link EnvironmentMetricsMXBean}.
+ * <p>
+ * While enabled, the object database no longer cleans the log after flushing deferred writes.
+ */
+class IdleLogCleaner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IdleLogCleaner.class);
+
+    static final String ENABLED_PROPERTY = "bdbje.idle_cleaner";
+
+    static final String INTERVAL_PROPERTY = "bdbje.idle_cleaner.interval";
+
+    static final String MAX_RATE_PROPERTY = "bdbje.idle_cleaner.max_rate";
+
+    static final String SLICE_PROPERTY = "bdbje.idle_cleaner.slice_ms";
+
+    private static IdleLogCleaner INSTANCE;
+
+    static class Cleaned {
+
+        final Environment env;
+
+        final EnvironmentMetrics metrics;
+
+        final List<OperationMetrics> sources = new CopyOnWriteArrayList<>();
+
+        long lastOperations;
+
+        long lastCheck;
+
+        /**
+         * Set when the environment is being released, for a slice in progress to stop
+         */
+        volatile boolean closing;
+
+        Cleaned(Environment env, EnvironmentMetrics metrics) {
+            this.env = env;
+            this.metrics = metrics;
+        }
+
+        long operations() {
+            long operations = 0;
+            for (OperationMetrics source : sources) {
+                operations += source.getTotalOperations();
+            }
+            return operations;
+        }
+    }
+
+    private final Map<Environment, Cleaned> environments = new IdentityHashMap<>();
+
+    private final double maxRate;
+
+    private final long sliceNanos;
+
+    IdleLogCleaner(double maxRate, long sliceMillis) {
+        this.maxRate = maxRate;
+        this.sliceNanos = TimeUnit.MILLISECONDS.toNanos(sliceMillis);
+    }
+
+    static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    /**
+     * @return the process wide cleaner, created on first use
+     */
+    static synchronized IdleLogCleaner get() {
+        if (INSTANCE == null) {
+            final double maxRate = Double
+                    .parseDouble(System.getProperty(MAX_RATE_PROPERTY, "1"));
+            final long slice = Long.getLong(SLICE_PROPERTY, 500L).longValue();
+            final IdleLogCleaner cleaner = new IdleLogCleaner(maxRate, slice);
+            final long interval = Long.getLong(INTERVAL_PROPERTY, 10L).longValue();
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setDaemon(true)
+                            .setNameFormat("BDBJE-IDLE-CLEANER-%d").build());
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        cleaner.check();
+                    } catch (RuntimeException e) {
+                        LOGGER.warn("Error cleaning JE logs", e);
+                    }
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+            INSTANCE = cleaner;
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Starts cleaning the log of the environment when the database, whose operations are
+     * recorded by {@code operations}, and the others living in the same environment are idle.
+     * Read only environments are ignored.
+     */
+    void register(Environment env, OperationMetrics operations, EnvironmentMetrics metrics) {
+        if (env.getConfig().getReadOnly()) {
+            return;
+        }
+        synchronized (this) {
+            Cleaned cleaned = environments.get(env);
+            if (cleaned == null) {
+                cleaned = new Cleaned(env, metrics);
+                cleaned.lastCheck = System.nanoTime();
+                environments.put(env, cleaned);
+            }
+            // operations recorded before registering count as activity on the next check
+            cleaned.sources.add(operations);
+        }
+    }
+
+    /**
+     * Stops cleaning the log of the environment once none of its databases is registered, waiting
+     * for a slice in progress to stop
+     */
+    void unregister(Environment env, OperationMetrics operations) {
+        Cleaned cleaned;
+        synchronized (this) {
+            cleaned = environments.get(env);
+            if (cleaned == null) {
+                return;
+            }
+            cleaned.sources.remove(operations);
+            if (!cleaned.sources.isEmpty()) {
+                return;
+            }
+            environments.remove(env);
+            cleaned.closing = true;
+        }
+        // wait for a slice in progress to stop
+        synchronized (cleaned) {
+            LOGGER.trace("Stopped cleaning the log of {}", env.getHome());
+        }
+    }
+
+    /**
+     * Cleans the log of the idle environments
+     */
+    void check() {
+        List<Cleaned> all;
+        synchronized (this) {
+            all = new ArrayList<>(environments.values());
+        }
+        for (Cleaned cleaned : all) {
+            synchronized (cleaned) {
+                if (cleaned.closing || !cleaned.env.isValid()) {
+                    continue;
+                }
+                final long now = System.nanoTime();
+                final long operations = cleaned.operations();
+                final double seconds = (now - cleaned.lastCheck) / 1e9;
+                final double rate = seconds <= 0 ? Double.MAX_VALUE
+                        : (operations - cleaned.lastOperations) / seconds;
+                if (rate <= maxRate) {
+                    clean(cleaned);
+                }
+                cleaned.lastOperations = cleaned.operations();
+                cleaned.lastCheck = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Cleans log files one at a time until there are none left to clean, the slice is over, or a
+     * foreground operation is recorded
+     *
+     * @return the number of log files cleaned
+     */
+    private int clean(final Cleaned cleaned) {
+        final Environment env = cleaned.env;
+        final EnvironmentImpl envImpl = DbInternal.getEnvironmentImpl(env);
+        final long start = System.nanoTime();
+        final long deadline = start + sliceNanos;
+        final long operations = cleaned.operations();
+        final int utilizationBefore = logUtilization(env);
+
+        int files = 0;
+        boolean backedOff = false;
+        while (System.nanoTime() < deadline) {
+            if (cleaned.closing || cleaned.operations() != operations) {
+                backedOff = true;
+                break;
+            }
+            // a single file, not all the ones below the minimum utilization as cleanLog() does
+            int count = envImpl.getCleaner().doClean(false, false);
+            if (count == 0) {
+                break;
+            }
+            files += count;
+        }
+        if (files == 0) {
+            return 0;
+        }
+        if (!cleaned.closing) {
+            // the cleaned files can only be deleted after a checkpoint
+            CheckpointConfig force = new CheckpointConfig();
+            force.setForce(true);
+            final long checkpointStart = System.nanoTime();
+            env.checkpoint(force);
+            cleaned.metrics.recordForcedCheckpoint(System.nanoTime() - checkpointStart);
+        }
+        final int utilizationAfter = logUtilization(env);
+        cleaned.metrics.recordIdleClean(files, utilizationAfter);
+        LOGGER.info("Cleaned {} log files of {} in {} ms{}, log utilization {}% -> {}%", files,
+                env.getHome(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                backedOff ? " (backed off)" : "", utilizationBefore, utilizationAfter);
+        return files;
+    }
+
+    /**
+     * @return the percentage of the log holding live data, as JE's {@code DbSpace} utility
+     *         computes it
+     */
+    static int logUtilization(Environment env) {
+        SortedMap<Long, FileSummary> files = DbInternal.getEnvironmentImpl(env)
+                .getUtilizationProfile().getFileSummaryMap(true);
+        long totalSize = 0;
+        long obsoleteSize = 0;
+        for (FileSummary summary : files.values()) {
+            totalSize += summary.totalSize;
+            obsoleteSize += summary.getObsoleteSize();
+        }
+        return FileSummary.utilization(obsoleteSize, totalSize);
+    }
+}
@@ -0,0 +1,247 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.locationtech.geogig.repository.AbstractGeoGigOp;
+import org.locationtech.geogig.storage.GraphDatabase;
+import org.locationtech.geogig.storage.ObjectDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.sleepycat.je.CheckpointConfig;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.util.DbBackup;
+
+/**
+ * Makes a consistent copy of a BDB JE backed repository directory on the local file system, to be
+ * used as a backup or as a fast local clone.
+ * <p>
+ * Instead of streaming every object through the generic clone path, the JE log files are copied
+ * as a whole: each environment is checkpointed and put in {@link DbBackup backup mode}, which
+ * provides a consistent set of log files that JE won't modify or delete until the copy is done.
+ * Since JE log files are append only, all the files in the set but the last one are hard linked
+ * to the target, falling back to a copy if the file system doesn't support hard links (e.g. the
+ * target is on a different volume). Only the last file is copied. Pack files, being immutable as
+ * well, are hard linked too, and the rest of the repository files (refs, config, conflicts, blobs)
+ * are copied.
+ * <p>
+ * The copy is a plain repository directory that can be opened as is. No remote pointing to the
+ * original repository is configured.
+ */
+public class JEBackupOp extends AbstractGeoGigOp<File> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JEBackupOp.class);
+
+    private File target;
+
+    private int linked, copied;
+
+    /**
+     * @param target the directory to copy the repository directory ({@code .geogig}) to. Must not
+     *        exist or be empty.
+     */
+    public JEBackupOp setTarget(File target) {
+        this.target = target;
+        return this;
+    }
+
+    /**
+     * @return the target directory
+     */
+    @Override
+    protected File _call() {
+        Preconditions.checkState(target != null, "target directory not provided");
+        final ObjectDatabase objectDatabase = objectDatabase();
+        Preconditions.checkState(objectDatabase instanceof JEObjectDatabase,
+                "Repository is not backed by a BDB JE object database: %s", objectDatabase);
+        final JEObjectDatabase objects = (JEObjectDatabase) objectDatabase;
+        final Environment objectsEnv = objects.getEnvironment();
+        Preconditions.checkState(objectsEnv != null, "Object database is not open");
+
+        final File repoDir = objectsEnv.getHome().getParentFile().getAbsoluteFile();
+        final File targetDir = target.getAbsoluteFile();
+        Preconditions.checkArgument(!targetDir.toPath().startsWith(repoDir.toPath()),
+                "Target directory can't be inside the repository directory: %s", targetDir);
+        String[] contents = targetDir.list();
+        Preconditions.checkArgument(contents == null || contents.length == 0,
+                "Target directory is not empty: %s", targetDir);
+
+        // environment home -> environment, as the graph may share the objects environment
+        final Map<File, Environment> environments = new LinkedHashMap<>();
+        objects.sync();
+        environments.put(objectsEnv.getHome().getAbsoluteFile(), objectsEnv);
+        GraphDatabase graphDatabase = graphDatabase();
+        if (graphDatabase instanceof JEGraphDatabase) {
+            JEGraphDatabase graph = (JEGraphDatabase) graphDatabase;
+            Environment graphEnv = graph.getEnvironment();
+            if (graphEnv != null) {
+                graph.sync();
+                environments.put(graphEnv.getHome().getAbsoluteFile(), graphEnv);
+            }
+        }
+
+        final Stopwatch sw = Stopwatch.createStarted();
+        getProgressListener().setDescription("Copying repository to " + targetDir);
+        try {
+            // refs are copied before the object snapshot is taken, so that it contains all the
+            // objects they point to
+            copyFiles(repoDir.toPath(), targetDir.toPath(), environments.keySet());
+
+            final List<Environment> envs = new ArrayList<>(environments.values());
+            final List<DbBackup> backups = new ArrayList<>();
+            try {
+                for (Environment env : envs) {
+                    backups.add(startBackup(env));
+                }
+                // after the object snapshot, so that objects moved to packs meanwhile are in it
+                linkPacks(objects.getPackedObjectStore(), repoDir, targetDir);
+                for (int i = 0; i < envs.size(); i++) {
+                    File envHome = envs.get(i).getHome().getAbsoluteFile();
+                    File envTarget = targetDir.toPath()
+                            .resolve(repoDir.toPath().relativize(envHome.toPath())).toFile();
+                    copyLogFiles(backups.get(i), envHome, envTarget);
+                }
+            } finally {
+                for (DbBackup backup : backups) {
+                    backup.endBackup();
+                }
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        LOGGER.info("Copied {} to {} in {}. Files linked: {}, copied: {}", repoDir, targetDir,
+                sw.stop(), linked, copied);
+        getProgressListener().setDescription(String.format(
+                "Repository copied to %s. Files linked: %d, copied: %d", targetDir, linked, copied));
+        return targetDir;
+    }
+
+    private DbBackup startBackup(Environment env) {
+        if (!env.getConfig().getReadOnly()) {
+            CheckpointConfig force = new CheckpointConfig();
+            force.setForce(true);
+            env.checkpoint(force);
+        }
+        DbBackup backup = new DbBackup(env);
+        backup.startBackup();
+        return backup;
+    }
+
+    private void copyLogFiles(DbBackup backup, File envHome, File envTarget) throws IOException {
+        String[] logFiles = backup.getLogFilesInBackupSet();
+        // log file names are fixed width hex numbers, so the last one sorts last
+        Arrays.sort(logFiles);
+        envTarget.mkdirs();
+        for (int i = 0; i < logFiles.length; i++) {
+            Path source = new File(envHome, logFiles[i]).toPath();
+            Path target = new File(envTarget, logFiles[i]).toPath();
+            if (i < logFiles.length - 1) {
+                link(source, target);
+            } else {
+                copy(source, target);
+            }
+        }
+    }
+
+    private void linkPacks(PackedObjectStore packs, File repoDir, File targetDir)
+            throws IOException {
+        for (PackFile pack : packs.getPacks()) {
+            File file = pack.getFile().getAbsoluteFile();
+            Path target = targetDir.toPath().resolve(repoDir.toPath().relativize(file.toPath()));
+            Files.createDirectories(target.getParent());
+            link(file.toPath(), target);
+        }
+        // not immutable, so copied rather than linked
+        File deletions = packs.getDeletionsFile().getAbsoluteFile();
+        if (deletions.exists()) {
+            Path target = targetDir.toPath()
+                    .resolve(repoDir.toPath().relativize(deletions.toPath()));
+            Files.createDirectories(target.getParent());
+            Files.copy(deletions.toPath(), target);
+        }
+    }
+
+    /**
+     * Copies all the repository files but the JE log files and the pack files
+     */
+    private void copyFiles(final Path repoDir, final Path targetDir,
+            final Iterable<File> environmentHomes) throws IOException {
+
+        final List<Path> envDirs = new ArrayList<>();
+        for (File home : environmentHomes) {
+            envDirs.add(home.getAbsoluteFile().toPath());
+        }
+        Files.walkFileTree(repoDir, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                    throws IOException {
+                if (dir.getFileName().toString().equals(PackedObjectStore.PACKS_DIRECTORY)
+                        && envDirs.contains(dir.getParent())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                Files.createDirectories(targetDir.resolve(repoDir.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                if (envDirs.contains(file.getParent()) && isEnvironmentFile(file)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                copy(file, targetDir.resolve(repoDir.relativize(file)));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * @return whether the file is a JE log, lock, or stats file, which are not to be copied
+     *         verbatim. {@code je.properties} is.
+     */
+    private static boolean isEnvironmentFile(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(".jdb") || name.equals("je.lck") || name.startsWith("je.info")
+                || name.startsWith("je.stat") || name.startsWith("je.config");
+    }
+
+    private void link(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+            linked++;
+        } catch (UnsupportedOperationException | IOException e) {
+            LOGGER.debug("Unable to hard link {}, copying it instead: {}", source, e.getMessage());
+            copy(source, target);
+        }
+    }
+
+    private void copy(Path source, Path target) throws IOException {
+        Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES);
+        copied++;
+    }
+}
@@ -0,0 +1,480 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.locationtech.geogig.model.Bucket;
+import org.locationtech.geogig.model.Node;
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.model.Ref;
+import org.locationtech.geogig.model.RevCommit;
+import org.locationtech.geogig.model.RevObject;
+import org.locationtech.geogig.model.RevTag;
+import org.locationtech.geogig.model.RevTree;
+import org.locationtech.geogig.plumbing.RefParse;
+import org.locationtech.geogig.repository.AbstractGeoGigOp;
+import org.locationtech.geogig.repository.ProgressListener;
+import org.locationtech.geogig.repository.impl.Deduplicator;
+import org.locationtech.geogig.storage.BulkOpListener;
+import org.locationtech.geogig.storage.ConfigDatabase;
+import org.locationtech.geogig.storage.ObjectDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Deletes the objects of a BDB JE backed repository that can't be reached from any ref, and
+ * compacts the JE log afterwards.
+ * <p>
+ * Aborted imports, re-imports and rebased branches leave unreachable objects behind. The collection
+ * runs in three phases:
+ * <ul>
+ * <li><b>mark</b>: walks the commits, tags and trees reachable from all the refs, recording every
+ * reachable object id in a disk backed {@link BDBJEDeduplicator}. Feature and feature type ids are
+ * recorded from the tree nodes without loading the objects.
+ * <li><b>sweep</b>: scans the JE database in parallel, split in {@link #NUM_RANGES} key ranges by
+ * the first id byte, deleting the unmarked objects. Pack files holding unreachable objects are
+ * rewritten without them.
+ * <li><b>compact</b>: runs the JE log cleaner and forces a checkpoint so that the log files freed
+ * by the sweep are deleted.
+ * </ul>
+ * <p>
+ * With a {@link #setTimeBudget time budget} the sweep and compaction stop once it's exhausted and
+ * the next key range to sweep is saved in the {@code bdbje.gc.next_range} config key, so the next
+ * run resumes from there. The mark phase always runs to completion, as it's required for the sweep
+ * to be safe.
+ * <p>
+ * Objects written to the database while the collection runs are never deleted. Still, it is not
+ * meant to run concurrently with commands that write objects before the refs pointing to them are
+ * updated, like an import in progress.
+ */
+public class JEGarbageCollectOp extends AbstractGeoGigOp<JEGarbageCollectOp.Report> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JEGarbageCollectOp.class);
+
+    static final String NEXT_RANGE_CONFIG_KEY = "bdbje.gc.next_range";
+
+    /**
+     * Number of key ranges the sweep is split in, each covering 16 values of the ids first byte
+     */
+    static final int NUM_RANGES = 16;
+
+    private static final int RANGE_WIDTH = 256 / NUM_RANGES;
+
+    private static final int DELETE_BATCH_SIZE = 10_000;
+
+    private static final String[] SPECIAL_REFS = { Ref.HEAD, Ref.WORK_HEAD, Ref.STAGE_HEAD,
+            Ref.ORIG_HEAD, Ref.MERGE_HEAD, Ref.CHERRY_PICK_HEAD };
+
+    private long timeBudgetNanos = Long.MAX_VALUE;
+
+    private int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Summary of a garbage collection run
+     */
+    public static final class Report {
+
+        private long reachableObjects;
+
+        private final AtomicLong deletedObjects = new AtomicLong();
+
+        private final AtomicLong reclaimedBytes = new AtomicLong();
+
+        private int rewrittenPacks;
+
+        private long logSizeBefore;
+
+        private long logSizeAfter;
+
+        private int cleanedLogFiles;
+
+        private boolean complete;
+
+        /**
+         * @return the number of reachable objects found by the mark phase
+         */
+        public long getReachableObjects() {
+            return reachableObjects;
+        }
+
+        public long getDeletedObjects() {
+            return deletedObjects.get();
+        }
+
+        /**
+         * @return the serialized size of the deleted objects, plus the bytes freed by rewriting
+         *         pack files
+         */
+        public long getReclaimedBytes() {
+            return reclaimedBytes.get();
+        }
+
+        public int getRewrittenPacks() {
+            return rewrittenPacks;
+        }
+
+        public long getLogSizeBefore() {
+            return logSizeBefore;
+        }
+
+        public long getLogSizeAfter() {
+            return logSizeAfter;
+        }
+
+        public int getCleanedLogFiles() {
+            return cleanedLogFiles;
+        }
+
+        /**
+         * @return {@code false} if the time budget ran out before the whole database was swept
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "reachable: %,d, deleted: %,d, reclaimed: %,d bytes, rewritten packs: %d, log size: %,d -> %,d bytes (%d files cleaned), complete: %s",
+                    reachableObjects, getDeletedObjects(), getReclaimedBytes(), rewrittenPacks,
+                    logSizeBefore, logSizeAfter, cleanedLogFiles, complete);
+        }
+    }
+
+    /**
+     * Limits the time spent sweeping and compacting, defaults to no limit
+     */
+    public JEGarbageCollectOp setTimeBudget(long time, TimeUnit unit) {
+        Preconditions.checkArgument(time > 0, "time budget must be positive");
+        this.timeBudgetNanos = unit.toNanos(time);
+        return this;
+    }
+
+    /**
+     * Number of key ranges swept concurrently, defaults to the number of processors, up to 4
+     */
+    public JEGarbageCollectOp setThreads(int threads) {
+        Preconditions.checkArgument(threads > 0, "threads must be positive");
+        this.threads = threads;
+        return this;
+    }
+
+    @Override
+    protected Report _call() {
+        final ObjectDatabase objectDatabase = objectDatabase();
+        Preconditions.checkState(objectDatabase instanceof JEObjectDatabase,
+                "Repository is not backed by a BDB JE object database: %s", objectDatabase);
+        Preconditions.checkState(!conflictsDatabase().hasConflicts(null),
+                "Cannot collect garbage while there are unresolved conflicts");
+        final JEObjectDatabase db = (JEObjectDatabase) objectDatabase;
+        db.checkWritable();
+
+        final Stopwatch sw = Stopwatch.createStarted();
+        final long deadline = timeBudgetNanos == Long.MAX_VALUE ? Long.MAX_VALUE
+                : System.nanoTime() + timeBudgetNanos;
+        final ProgressListener progress = getProgressListener();
+        final Report report = new Report();
+        report.logSizeBefore = db.getLogSize();
+
+        final BDBJEDeduplicationService deduplicationService = new BDBJEDeduplicationService();
+        final Deduplicator marked = deduplicationService.createDeduplicator();
+        // kept apart from the marks, or the mark phase would skip the children of rewritten trees
+        final Deduplicator written = deduplicationService.createDeduplicator();
+        final Predicate<ObjectId> reachable = new Predicate<ObjectId>() {
+            @Override
+            public boolean apply(ObjectId id) {
+                return marked.isDuplicate(id) || written.isDuplicate(id);
+            }
+        };
+        db.setWriteTracker(written);
+        try {
+            progress.setDescription("Marking reachable objects...");
+            report.reachableObjects = mark(db, marked);
+            LOGGER.debug("Marked {} reachable objects in {}", report.reachableObjects, sw);
+
+            progress.setDescription("Deleting unreachable objects...");
+            report.complete = sweep(db, reachable, deadline, report);
+            if (report.complete) {
+                report.rewrittenPacks = repack(db.getPackedObjectStore(), reachable, report);
+            }
+        } finally {
+            db.setWriteTracker(null);
+            marked.release();
+            written.release();
+        }
+
+        progress.setDescription("Compacting database log...");
+        report.cleanedLogFiles = db.cleanLog(deadline);
+        report.logSizeAfter = db.getLogSize();
+
+        LOGGER.info("Garbage collection of {} finished in {}: {}", db, sw.stop(), report);
+        progress.setDescription("Garbage collection finished: " + report);
+        return report;
+    }
+
+    private long mark(final ObjectDatabase db, final Deduplicator reachable) {
+        Set<String> refNames = new TreeSet<>(refDatabase().getAll().keySet());
+        for (String name : SPECIAL_REFS) {
+            refNames.add(name);
+        }
+        return mark(db, resolve(refNames), reachable);
+    }
+
+    /**
+     * @return the ids the existing refs of the given names point to
+     */
+    private Deque<ObjectId> resolve(Iterable<String> refNames) {
+        final Deque<ObjectId> ids = new ArrayDeque<>();
+        for (String name : refNames) {
+            Optional<Ref> ref = command(RefParse.class).setName(name).call();
+            if (ref.isPresent()) {
+                ids.push(ref.get().getObjectId());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Visits the ids of all the objects reachable from {@code pending} with {@code reachable}
+     *
+     * @return the number of objects visited for the first time
+     */
+    static long mark(final ObjectDatabase db, final Deque<ObjectId> pending,
+            final Deduplicator reachable) {
+        long count = 0;
+        while (!pending.isEmpty()) {
+            final ObjectId id = pending.pop();
+            if (id.isNull() || reachable.visit(id)) {
+                continue;
+            }
+            count++;
+            // objects referenced but missing, as in shallow clones, are ignored
+            RevObject object = db.getIfPresent(id);
+            if (object == null) {
+                continue;
+            }
+            switch (object.getType()) {
+            case COMMIT:
+                RevCommit commit = (RevCommit) object;
+                pending.push(commit.getTreeId());
+                for (ObjectId parentId : commit.getParentIds()) {
+                    pending.push(parentId);
+                }
+                break;
+            case TAG:
+                pending.push(((RevTag) object).getCommitId());
+                break;
+            case TREE:
+                RevTree tree = (RevTree) object;
+                for (Node node : tree.trees()) {
+                    pending.push(node.getObjectId());
+                    count += markMetadata(node, reachable);
+                }
+                for (Node node : tree.features()) {
+                    if (!reachable.visit(node.getObjectId())) {
+                        count++;
+                    }
+                    count += markMetadata(node, reachable);
+                }
+                for (Bucket bucket : tree.buckets().values()) {
+                    pending.push(bucket.getObjectId());
+                }
+                break;
+            default:
+                break;
+            }
+        }
+        return count;
+    }
+
+    private static int markMetadata(Node node, Deduplicator reachable) {
+        Optional<ObjectId> metadataId = node.getMetadataId();
+        if (metadataId.isPresent() && !metadataId.get().isNull()
+                && !reachable.visit(metadataId.get())) {
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * @return {@code true} if all the key ranges were swept
+     */
+    private boolean sweep(final JEObjectDatabase db, final Predicate<ObjectId> reachable,
+            final long deadline, final Report report) {
+
+        final ConfigDatabase config = configDatabase();
+        final int firstRange = config.get(NEXT_RANGE_CONFIG_KEY, Integer.class).or(0) % NUM_RANGES;
+        final boolean[] swept = new boolean[NUM_RANGES];
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("geogig-gc-%d").setDaemon(true).build());
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < NUM_RANGES; i++) {
+                final int range = (firstRange + i) % NUM_RANGES;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        if (System.nanoTime() >= deadline) {
+                            return Boolean.FALSE;
+                        }
+                        sweep(db, reachable, range, report);
+                        return Boolean.TRUE;
+                    }
+                }));
+            }
+            for (int i = 0; i < NUM_RANGES; i++) {
+                swept[(firstRange + i) % NUM_RANGES] = results.get(i).get().booleanValue();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw Throwables.propagate(Throwables.getRootCause(e));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (int i = 0; i < NUM_RANGES; i++) {
+            final int range = (firstRange + i) % NUM_RANGES;
+            if (!swept[range]) {
+                config.put(NEXT_RANGE_CONFIG_KEY, Integer.valueOf(range));
+                return false;
+            }
+        }
+        if (config.get(NEXT_RANGE_CONFIG_KEY).isPresent()) {
+            config.remove(NEXT_RANGE_CONFIG_KEY);
+        }
+        return true;
+    }
+
+    private void sweep(final JEObjectDatabase db, final Predicate<ObjectId> reachable,
+            final int range, final Report report) {
+
+        final int fromByte = range * RANGE_WIDTH;
+        final int toByte = fromByte + RANGE_WIDTH;
+        final List<ObjectId> garbage = new ArrayList<>();
+        final List<Integer> sizes = new ArrayList<>();
+        final JEObjectDatabase.RangeVisitor visitor = new JEObjectDatabase.RangeVisitor() {
+            @Override
+            public boolean visit(ObjectId id, byte[] data, int offset, int length) {
+                if (!reachable.apply(id)) {
+                    garbage.add(id);
+                    sizes.add(Integer.valueOf(length));
+                    if (garbage.size() == DELETE_BATCH_SIZE) {
+                        delete(db, garbage, sizes, report);
+                    }
+                }
+                return true;
+            }
+        };
+        db.scanRange(fromByte, toByte, visitor);
+        delete(db, garbage, sizes, report);
+        LOGGER.trace("Swept key range [{}, {})", fromByte, toByte);
+    }
+
+    private void delete(final JEObjectDatabase db, final List<ObjectId> garbage,
+            final List<Integer> sizes, final Report report) {
+        if (garbage.isEmpty()) {
+            return;
+        }
+        final List<ObjectId> deleted = new ArrayList<>();
+        db.deleteAll(garbage.iterator(), new BulkOpListener() {
+            @Override
+            public void deleted(ObjectId id) {
+                deleted.add(id);
+            }
+        });
+        long bytes = 0;
+        for (int i = 0, j = 0; i < garbage.size() && j < deleted.size(); i++) {
+            if (garbage.get(i).equals(deleted.get(j))) {
+                bytes += sizes.get(i).intValue();
+                j++;
+            }
+        }
+        report.deletedObjects.addAndGet(deleted.size());
+        report.reclaimedBytes.addAndGet(bytes);
+        garbage.clear();
+        sizes.clear();
+    }
+
+    /**
+     * Rewrites the pack files that contain unreachable or deleted objects
+     *
+     * @return the number of packs rewritten
+     */
+    private int repack(final PackedObjectStore packs, final Predicate<ObjectId> reachable,
+            final Report report) {
+        int rewritten = 0;
+        for (PackFile pack : packs.getPacks()) {
+            int unreachable = 0;
+            for (int i = 0; i < pack.size(); i++) {
+                if (!keep(packs, reachable, pack.idAt(i))) {
+                    unreachable++;
+                }
+            }
+            if (unreachable == 0) {
+                continue;
+            }
+            try {
+                File replacement = null;
+                if (unreachable < pack.size()) {
+                    try (PackWriter writer = new PackWriter(packs.newPackFile())) {
+                        for (int i = 0; i < pack.size(); i++) {
+                            ObjectId id = pack.idAt(i);
+                            if (keep(packs, reachable, id)) {
+                                byte[] data = pack.dataAt(i);
+                                writer.add(id, data, 0, data.length);
+                            }
+                        }
+                        replacement = writer.finish();
+                    }
+                }
+                final long sizeBefore = pack.sizeInBytes();
+                final long sizeAfter = replacement == null ? 0 : replacement.length();
+                packs.replace(pack, replacement);
+                report.deletedObjects.addAndGet(unreachable);
+                report.reclaimedBytes.addAndGet(sizeBefore - sizeAfter);
+                rewritten++;
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        return rewritten;
+    }
+
+    /**
+     * @return whether a packed object is to be kept when rewriting its pack, being reachable and
+     *         not deleted
+     */
+    private static boolean keep(PackedObjectStore packs, Predicate<ObjectId> reachable,
+            ObjectId id) {
+        return reachable.apply(id) && !packs.isDeleted(id);
+    }
+}
@@ -14,33 +14,57 @@ import static com.sleepycat.je.OperationStatus.SUCCESS;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jdt.annotation.Nullable;
+import org.geogig.storage.bdbje.ReachabilityIndex.Label;
 import org.locationtech.geogig.model.ObjectId;
 import org.locationtech.geogig.repository.Hints;
 import org.locationtech.geogig.repository.RepositoryConnectionException;
 import org.locationtech.geogig.storage.ConfigDatabase;
 import org.locationtech.geogig.storage.GraphDatabase;
 import org.locationtech.geogig.storage.StorageType;
-import org.locationtech.geogig.storage.impl.SynchronizedGraphDatabase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Predicate;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sleepycat.bind.tuple.TupleBinding;
-import com.sleepycat.je.CacheMode;
+import com.sleepycat.je.Cursor;
+import com.sleepycat.je.CursorConfig;
 import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseConfig;
 import com.sleepycat.je.DatabaseEntry;
@@ -55,21 +79,407 @@ import com.sleepycat.je.TransactionConfig;
 /**
  * Implementation of {@link GraphDatabase} backed by a BerkeleyDB Java Edition database.
  * <p>
- * Implementation note: Since this is the only kind of mutable state we maintain, this
- * implementation extends {@link SynchronizedGraphDatabase} to avoid concurrent threads stepping
- * over each other's feet and overriding graph relations. An alternate solution would be to
- * serialize writes and have free threaded reads.
+ * Implementation note: Since this is the only kind of mutable state we maintain, writes
+ * ({@link #put}, {@link #map}, {@link #setProperty}) are queued to a single writer thread, to
+ * avoid concurrent threads stepping over each other's feet and overriding graph relations, while
+ * reads are free threaded, as JE reads with {@link LockMode#READ_UNCOMMITTED} are thread safe and
+ * don't block on the writer.
  * </p>
  */
-abstract class JEGraphDatabase extends SynchronizedGraphDatabase {
+abstract class JEGraphDatabase implements GraphDatabase {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(JEGraphDatabase.class);
 
     static final String ENVIRONMENT_NAME = "graph";
 
+    /**
+     * Repository config key that, when {@code true}, makes the graph database be hosted in the same
+     * BDB JE {@link Environment} as the objects database instead of in its own {@code graph}
+     * environment. It only takes effect for repositories that don't have a {@code graph}
+     * environment yet, so it is meant to be set at repository creation time (e.g.
+     * {@code geogig init --config bdbje.shared_environment=true}).
+     */
+    static final String SHARED_ENVIRONMENT_CONFIG_KEY = "bdbje.shared_environment";
+
+    /**
+     * Repository or global config key for the number of commits {@link #putAll} writes per
+     * transaction, {@link #DEFAULT_BATCH_SIZE} if unset
+     */
+    static final String BATCH_SIZE_CONFIG_KEY = "bdbje.graph.batch_size";
+
+    static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /**
+     * Name of the database the nodes of the v0.1 and v0.2 formats are stored in
+     */
+    static final String DATABASE_NAME = "GraphDatabase";
+
+    /**
+     * The open graph databases with a {@link CommitIndex}, by repository directory
+     */
+    private static final ConcurrentMap<File, Impl> COMMIT_INDEXES = new ConcurrentHashMap<>();
+
+    private final Impl impl;
+
     public JEGraphDatabase(final ConfigDatabase config, final EnvironmentBuilder envProvider,
             final TupleBinding<NodeData> binding, final String formatVersion, final Hints hints) {
-        super(new Impl(config, envProvider, binding, formatVersion, hints));
+        this(config, envProvider, binding, formatVersion, hints, DATABASE_NAME, false, false);
+    }
+
+    /**
+     * @param databaseName the name of the database the nodes are stored in, the reachability
+     *        index and properties databases being named after it
+     * @param separateProperties whether the node properties are stored in their own database
+     *        instead of along with the nodes, in which case the binding doesn't write them
+     * @param storesDepths whether the binding stores the {@link NodeData#depth depths} of the
+     *        nodes, which are then kept up to date as commits are added
+     */
+    protected JEGraphDatabase(final ConfigDatabase config, final EnvironmentBuilder envProvider,
+            final TupleBinding<NodeData> binding, final String formatVersion, final Hints hints,
+            final String databaseName, final boolean separateProperties,
+            final boolean storesDepths) {
+        this(new Impl(config, envProvider, binding, formatVersion, hints, databaseName,
+                separateProperties, storesDepths));
+    }
+
+    private JEGraphDatabase(Impl impl) {
+        this.impl = impl;
+    }
+
+    @Override
+    public synchronized void open() {
+        impl.open();
+    }
+
+    @Override
+    public synchronized void configure() throws RepositoryConnectionException {
+        impl.configure();
+    }
+
+    @Override
+    public synchronized void checkConfig() throws RepositoryConnectionException {
+        impl.checkConfig();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return impl.isOpen();
+    }
+
+    @Override
+    public synchronized void close() {
+        impl.close();
+    }
+
+    @Override
+    public boolean exists(ObjectId commitId) {
+        return impl.exists(commitId);
+    }
+
+    @Override
+    public ImmutableList<ObjectId> getParents(ObjectId commitId) throws IllegalArgumentException {
+        return impl.getParents(commitId);
+    }
+
+    @Override
+    public ImmutableList<ObjectId> getChildren(ObjectId commitId)
+            throws IllegalArgumentException {
+        return impl.getChildren(commitId);
+    }
+
+    @Override
+    public boolean put(ObjectId commitId, ImmutableList<ObjectId> parentIds) {
+        return impl.put(commitId, parentIds);
+    }
+
+    /**
+     * Adds a commit as {@link #put(ObjectId, ImmutableList)} does, and indexes it by its
+     * committer timestamp if the {@link CommitIndex} is enabled. Commits put without their
+     * timestamp that were not {@link #indexCommits indexed} by the object database leave the
+     * index incomplete until {@link JEGraphRebuildOp rebuilt}.
+     */
+    public boolean put(ObjectId commitId, ImmutableList<ObjectId> parentIds,
+            long committerTimestamp) {
+        return impl.put(commitId, parentIds, Long.valueOf(committerTimestamp));
+    }
+
+    @Override
+    public void map(ObjectId mapped, ObjectId original) {
+        impl.map(mapped, original);
+    }
+
+    @Override
+    public ObjectId getMapping(ObjectId commitId) {
+        return impl.getMapping(commitId);
+    }
+
+    @Override
+    public int getDepth(ObjectId commitId) {
+        return impl.getDepth(commitId);
+    }
+
+    @Override
+    public void setProperty(ObjectId commitId, String propertyName, String propertyValue) {
+        impl.setProperty(commitId, propertyName, propertyValue);
+    }
+
+    /**
+     * Adds the given commits and their parents to the graph as {@link #put} would, but in batches
+     * of {@link #BATCH_SIZE_CONFIG_KEY} commits, each written in a single transaction, with every
+     * node touched by the batch read and written once, in key order.
+     *
+     * @return the number of commits that changed the graph
+     */
+    public int putAll(Iterator<? extends Entry<ObjectId, ? extends List<ObjectId>>> commits) {
+        return impl.putAll(commits);
+    }
+
+    /**
+     * Stores the depth of every node of a graph in a format that stores depths, e.g. one
+     * {@link JEGraphMigration migrated} from a format that didn't, so {@link #getDepth} doesn't
+     * need to walk the history. Until then, nodes added to such a graph have no stored depth
+     * either, and their depth is computed by walking the history. Does nothing for the formats
+     * that don't store depths.
+     *
+     * @return the number of nodes whose depth was updated
+     */
+    public int rebuildDepths() {
+        return impl.rebuildDepths();
+    }
+
+    /**
+     * Tells whether a commit is reachable from another following parents, without walking the
+     * history if {@code ancestor} is before {@code descendant} on one of the first parent chains
+     * of the {@link ReachabilityIndex}, and pruning the walk with the commit generations
+     * otherwise. Served by the in memory index if {@link CommitGraphIndex#CONFIG_KEY} is set.
+     *
+     * @return whether {@code ancestor} is {@code descendant} or one of its ancestors,
+     *         {@code false} if any of them is not in the graph
+     */
+    public boolean isAncestor(ObjectId ancestor, ObjectId descendant) {
+        return impl.isAncestor(ancestor, descendant);
+    }
+
+    /**
+     * Finds the lowest common ancestor of two commits: of their common ancestors that are not
+     * ancestors of other common ancestors, the deepest one. Served by the in memory index if
+     * {@link CommitGraphIndex#CONFIG_KEY} is set.
+     *
+     * @return the lowest common ancestor, absent if there's none or any of the commits is not in
+     *         the graph
+     */
+    public Optional<ObjectId> findLowestCommonAncestor(ObjectId left, ObjectId right) {
+        return impl.findLowestCommonAncestor(left, right);
+    }
+
+    /**
+     * Waits for the in memory index to be loaded, if {@link CommitGraphIndex#CONFIG_KEY} is set
+     *
+     * @return whether it is loaded
+     */
+    boolean awaitMemoryIndex() {
+        return impl.awaitMemoryIndex();
+    }
+
+    /**
+     * Finds the commits with a committer timestamp in the given range using the
+     * {@link CommitIndex}, which must be {@link CommitIndex#CONFIG_KEY enabled}.
+     *
+     * @param from lowest timestamp, inclusive
+     * @param to highest timestamp, exclusive
+     * @return the commits, by timestamp
+     * @throws IllegalStateException if the index is not enabled or not complete
+     */
+    public ImmutableList<ObjectId> findCommitsByTimestamp(long from, long to) {
+        return impl.findCommits(CommitIndex.TIMESTAMP, from, to);
+    }
+
+    /**
+     * Finds the commits whose numeric property, one of the
+     * {@link CommitIndex#PROPERTIES_CONFIG_KEY indexed ones}, is in the given range using the
+     * {@link CommitIndex}, e.g. the commits imported from a range of OSM changesets.
+     *
+     * @param from lowest value, inclusive
+     * @param to highest value, exclusive
+     * @return the commits, by property value
+     * @throws IllegalStateException if the index is not enabled or not complete
+     */
+    public ImmutableList<ObjectId> findCommitsByProperty(String propertyName, long from,
+            long to) {
+        Preconditions.checkArgument(!CommitIndex.TIMESTAMP.equals(propertyName),
+                "Invalid property name");
+        return impl.findCommits(propertyName, from, to);
+    }
+
+    /**
+     * Reads the parents of the given commits in key order.
+     *
+     * @return the parents of each of the given commits, in key order, commits not in the graph
+     *         being left out
+     */
+    public ImmutableMap<ObjectId, ImmutableList<ObjectId>> getParentsAll(
+            Iterable<ObjectId> commitIds) {
+        return impl.getParentsAll(commitIds);
+    }
+
+    @Override
+    public GraphNode getNode(ObjectId id) {
+        return impl.getNode(id);
+    }
+
+    /**
+     * Waits for the pending writes and empties the database. Not to be called while other threads
+     * are using it.
+     */
+    @Override
+    public synchronized void truncate() {
+        impl.truncate();
+    }
+
+    /**
+     * Copies all the nodes of this graph, with their properties, to an empty graph database, e.g.
+     * one of a newer format to migrate this one to it, and builds its reachability index.
+     *
+     * @return the number of nodes copied
+     * @see JEGraphMigration
+     */
+    public int copyTo(JEGraphDatabase target) {
+        return impl.copyTo(target.impl);
+    }
+
+    /**
+     * Replaces the graph with the given nodes, loaded into a new database that takes the place of
+     * the current one once complete. The mappings of the current nodes, and their properties, are
+     * kept. Not to be called while other threads are using the database.
+     *
+     * @param nodes the nodes in key order, with their parents and children, iterated once, or
+     *        twice if {@code computeDepths}
+     * @param computeDepths whether to compute the depths and generations of the nodes in memory
+     *        and store them along with the nodes, depths only if the format stores them, instead
+     *        of building the reachability index afterwards and leaving the depths unknown
+     * @param timestampsIndexed whether the timestamps of all the commits were
+     *        {@link #indexTimestamps indexed}, in which case the {@link CommitIndex} is completed
+     *        with the indexed properties of the nodes
+     * @return the number of nodes loaded
+     * @see JEGraphRebuildOp
+     */
+    int rebuild(Iterable<NodeData> nodes, boolean computeDepths, boolean timestampsIndexed) {
+        return impl.rebuild(nodes, computeDepths, timestampsIndexed);
+    }
+
+    /**
+     * @return whether the {@link CommitIndex} is enabled and open
+     */
+    boolean isCommitIndexEnabled() {
+        impl.lazyOpen.await();
+        return impl.commitIndex != null;
+    }
+
+    /**
+     * Indexes commits already in the graph by committer timestamp, in a single transaction, e.g.
+     * while {@link JEGraphRebuildOp rebuilding} the graph
+     */
+    void indexTimestamps(Map<ObjectId, Long> timestamps) {
+        Preconditions.checkState(isCommitIndexEnabled(), "Commit index not enabled");
+        impl.indexTimestamps(timestamps);
+    }
+
+    /**
+     * Indexes commits by committer timestamp in the {@link CommitIndex} of the graph database of
+     * the repository at the given directory, if it's open with the index enabled, called by the
+     * object database as it stores them. The graph is updated afterwards through the
+     * {@code GraphDatabase} interface, which doesn't give the timestamps, and keeps the index
+     * complete as long as the commits it's given were indexed this way.
+     */
+    static void indexCommits(File geogigDirectory, Map<ObjectId, Long> timestamps) {
+        final Impl impl = COMMIT_INDEXES.get(geogigDirectory.getAbsoluteFile());
+        if (impl == null || timestamps.isEmpty()) {
+            return;
+        }
+        try {
+            impl.indexTimestamps(timestamps);
+        } catch (RuntimeException e) {
+            // the graph database marks the index incomplete when given the commits
+            LOGGER.warn("Error indexing commit timestamps", e);
+        }
+    }
+
+    /**
+     * Closes the database and removes it and its companion databases from the environment
+     */
+    void remove() {
+        impl.remove();
+    }
+
+    /**
+     * @return the environment the graph database lives in, or {@code null} if not open
+     */
+    @Nullable
+    Environment getEnvironment() {
+        impl.lazyOpen.await();
+        return impl.env;
+    }
+
+    /**
+     * @return whether this database is open in secondary mode
+     * @see EnvironmentBuilder#SECONDARY_HINT
+     */
+    public boolean isSecondary() {
+        return impl.secondary;
+    }
+
+    /**
+     * @return the number of milliseconds since a secondary database last reopened its environment,
+     *         or {@code 0} if not open in secondary mode
+     */
+    public long getStalenessMillis() {
+        SecondaryRefresher refresher = impl.refresher;
+        return refresher == null ? 0L : refresher.getStalenessMillis();
+    }
+
+    /**
+     * Makes the writes to a non transactional (deferred write) graph database durable
+     */
+    void sync() {
+        impl.sync();
+    }
+
+    /**
+     * Opens a database companion to the graph one, e.g. an index, in the environment the graph
+     * database is open in, with the same transactional, deferred write and read only settings, and
+     * creating it unless read only.
+     *
+     * @return the database, or {@code null} if it doesn't exist and can't be created
+     */
+    @Nullable
+    static Database openCompanionDatabase(Environment env, String databaseName,
+            DatabaseConfig graphConfig) {
+        final boolean create = !env.getDatabaseNames().contains(databaseName);
+        if (create && graphConfig.getReadOnly()) {
+            return null;
+        }
+        DatabaseConfig dbConfig = new DatabaseConfig();
+        dbConfig.setTransactional(graphConfig.getTransactional());
+        dbConfig.setDeferredWrite(graphConfig.getDeferredWrite());
+        dbConfig.setReadOnly(graphConfig.getReadOnly());
+        dbConfig.setAllowCreate(create);
+        return env.openDatabase(null, databaseName, dbConfig);
+    }
+
+    static boolean isMemoryIndexEnabled(ConfigDatabase configDb) {
+        Optional<Boolean> enabled = configDb.get(CommitGraphIndex.CONFIG_KEY, Boolean.class);
+        if (!enabled.isPresent()) {
+            enabled = configDb.getGlobal(CommitGraphIndex.CONFIG_KEY, Boolean.class);
+        }
+        return enabled.or(Boolean.FALSE).booleanValue();
+    }
+
+    static boolean isSharedEnvironment(ConfigDatabase configDb) {
+        Optional<Boolean> shared = configDb.get(SHARED_ENVIRONMENT_CONFIG_KEY, Boolean.class);
+        if (!shared.isPresent()) {
+            shared = configDb.getGlobal(SHARED_ENVIRONMENT_CONFIG_KEY, Boolean.class);
+        }
+        return shared.or(Boolean.FALSE).booleanValue();
     }
 
     private static class Impl implements GraphDatabase {
@@ -85,36 +495,326 @@ abstract class JEGraphDatabase extends SynchronizedGraphDatabase {
 
         protected Database graphDb;
 
-        private final String envName;
+        private String envName;
 
         private final ConfigDatabase configDb;
 
-        private final String databaseName = "GraphDatabase";
+        private final String databaseName;
+
+        private final String reachabilityDatabaseName;
+
+        @Nullable
+        private final String propertiesDatabaseName;
+
+        /**
+         * Whether the format stores node depths, otherwise they're computed when asked for
+         */
+        private final boolean storesDepths;
+
+        private final String commitIndexDatabaseName;
+
+        /**
+         * The database a {@link #rebuild} writes to
+         */
+        private final String rebuildDatabaseName;
+
+        /**
+         * The name of the current database while it's replaced by the rebuilt one, in an
+         * environment that is not transactional
+         */
+        private final String backupDatabaseName;
 
         private final boolean readOnly;
 
+        private final boolean secondary;
+
+        @Nullable
+        private volatile SecondaryRefresher refresher;
+
         private final String formatVersion;
 
+        private final WorkloadProfile.Selector profiles;
+
+        private final LazyOpen lazyOpen = new LazyOpen();
+
+        /**
+         * Single thread all the writes are queued to
+         */
+        private volatile ExecutorService writerService;
+
+        private boolean memoryIndexEnabled;
+
+        /**
+         * In memory copy of the graph, loaded in the background by {@link #memoryIndexLoader} when
+         * the database is open if {@link CommitGraphIndex#CONFIG_KEY} is set, and updated by the
+         * writer thread after each write. {@code null} until loaded, reads going to the database
+         * meanwhile.
+         */
+        @Nullable
+        private volatile CommitGraphIndex memoryIndex;
+
+        @Nullable
+        private volatile ExecutorService memoryIndexLoader;
+
+        /**
+         * Guards the hand over of a loaded memory index from the loader to the writer thread
+         */
+        private final Object memoryIndexLock = new Object();
+
+        /**
+         * Commits written while the memory index loads, replayed on it once loaded, as the scan
+         * may or may not see them. Guarded by {@link #memoryIndexLock}, {@code null} if no load
+         * is in progress.
+         */
+        @Nullable
+        private List<Entry<ObjectId, ? extends List<ObjectId>>> memoryIndexPending;
+
+        /**
+         * Incremented each time the memory index is dropped, so a load started before doesn't
+         * publish an outdated index. Guarded by {@link #memoryIndexLock}.
+         */
+        private int memoryIndexEpoch;
+
+        /**
+         * Generations of the commits, {@code null} if open read only before it was created
+         */
+        @Nullable
+        private volatile ReachabilityIndex reachability;
+
+        /**
+         * Node properties, if stored apart from the nodes and not open read only before they were
+         * created
+         */
+        @Nullable
+        private volatile GraphProperties properties;
+
+        private boolean commitIndexEnabled;
+
+        private ImmutableSet<String> indexedProperties = ImmutableSet.of();
+
+        /**
+         * Commits by timestamp and indexed property values, if {@link CommitIndex#CONFIG_KEY} is
+         * set and not open read only before the index was created
+         */
+        @Nullable
+        private volatile CommitIndex commitIndex;
+
+        /**
+         * The repository directory the database is registered under in {@link #COMMIT_INDEXES},
+         * if it has a commit index
+         */
+        @Nullable
+        private File geogigDirectory;
+
+        private final OperationMetrics operations = new OperationMetrics(
+                JEGraphDatabase.ENVIRONMENT_NAME, "exists", "getParents", "getParentsAll",
+                "getChildren", "put", "putAll", "map", "getMapping", "getDepth", "setProperty",
+                "getNode", "isAncestor", "findLowestCommonAncestor", "findCommits");
+
         public Impl(final ConfigDatabase config, final EnvironmentBuilder envProvider,
                 final TupleBinding<NodeData> binding, final String formatVersion,
-                final Hints hints) {
+                final Hints hints, final String databaseName, final boolean separateProperties,
+                final boolean storesDepths) {
             this.configDb = config;
+            this.databaseName = databaseName;
+            this.reachabilityDatabaseName = databaseName + "Reachability";
+            this.propertiesDatabaseName = separateProperties ? databaseName + "Properties" : null;
+            this.storesDepths = storesDepths;
+            this.commitIndexDatabaseName = databaseName + "CommitIndex";
+            this.rebuildDatabaseName = databaseName + "Rebuild";
+            this.backupDatabaseName = databaseName + "Backup";
+            this.profiles = new WorkloadProfile.Selector(config);
             this.envProvider = envProvider;
             this.BINDING = binding;
             this.formatVersion = formatVersion;
             this.envName = JEGraphDatabase.ENVIRONMENT_NAME;
-            this.readOnly = hints.getBoolean(Hints.OBJECTS_READ_ONLY);
+            this.secondary = envProvider.isSecondary();
+            this.readOnly = hints.getBoolean(Hints.OBJECTS_READ_ONLY) || secondary;
         }
 
+        /**
+         * Opens the database, or starts opening it in the background if
+         * {@link LazyOpen#CONFIG_KEY} is set, in which case the first access waits for it to be
+         * open
+         */
         @Override
         public void open() {
             if (isOpen()) {
-                LOGGER.trace("Environment {} already open", env.getHome());
+                LOGGER.trace("Graph database {} already open", envName);
+                return;
+            }
+            if (LazyOpen.isEnabled(configDb)) {
+                lazyOpen.start(new Runnable() {
+                    @Override
+                    public void run() {
+                        openInternal();
+                    }
+                });
                 return;
             }
+            openInternal();
+        }
+
+        private void openInternal() {
+            this.envName = resolveEnvironmentName();
             this.graphDb = createDatabase();
-            LOGGER.debug("Graph database opened at {}. Transactional: {}", env.getHome(),
-                    graphDb.getConfig().getTransactional());
+            commitIndexEnabled = CommitIndex.isEnabled(configDb);
+            indexedProperties = CommitIndex.indexedProperties(configDb);
+            openCompanionDatabases();
+            if (commitIndex != null && !readOnly && !commitIndex.isComplete(indexedProperties)
+                    && isEmpty()) {
+                // nothing to index yet
+                commitIndex.markComplete(null, indexedProperties);
+            }
+            if (commitIndex != null && !readOnly) {
+                geogigDirectory = envProvider.getGeoGigDirectory().getAbsoluteFile();
+                COMMIT_INDEXES.put(geogigDirectory, this);
+            }
+            environmentOpened();
+            operations.register(env.getHome(), configDb);
+            memoryIndexEnabled = isMemoryIndexEnabled(configDb);
+            writerService = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("BDBJE-" + env.getHome().getName() + "-GRAPH-WRITE-THREAD-%d")
+                    .build());
+            if (memoryIndexEnabled) {
+                memoryIndexLoader = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                        .setNameFormat(
+                                "BDBJE-" + env.getHome().getName() + "-GRAPH-INDEX-LOADER-%d")
+                        .setDaemon(true).build());
+                loadMemoryIndex();
+            }
+            if (reachability != null && !reachability.isComplete() && !readOnly) {
+                final int batchSize = getBatchSize();
+                // queued before any write, which keeps it up to date afterwards
+                writerService.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            buildReachability(batchSize);
+                        } catch (RuntimeException e) {
+                            LOGGER.error("Error building the graph reachability index", e);
+                        }
+                    }
+                });
+            }
+            if (secondary) {
+                this.refresher = SecondaryRefresher.register(env.getHome(),
+                        SecondaryRefresher.getRefreshIntervalMillis(configDb), reopenable);
+            }
+            LOGGER.debug("Graph database opened at {}. Transactional: {}, secondary: {}",
+                    env.getHome(), graphDb.getConfig().getTransactional(), secondary);
+        }
+
+        /**
+         * Reopens the environment of a secondary database to see the changes made by the writer
+         * process, called by the {@link SecondaryRefresher} with no reads in progress
+         */
+        private final SecondaryRefresher.Reopenable reopenable = new SecondaryRefresher.Reopenable() {
+
+            @Override
+            public void closeEnvironment() {
+                closeCompanionDatabases();
+                graphDb.close();
+                releaseEnvironment(env);
+            }
+
+            @Override
+            public void openEnvironment() {
+                graphDb = createDatabase();
+                openCompanionDatabases();
+                environmentOpened();
+                // reloaded to see the changes made by the writer process
+                loadMemoryIndex();
+            }
+        };
+
+        /**
+         * Opens the reachability index and properties databases next to the graph database
+         */
+        private void openCompanionDatabases() {
+            final DatabaseConfig config = graphDb.getConfig();
+            reachability = ReachabilityIndex.open(env, reachabilityDatabaseName, config);
+            if (propertiesDatabaseName != null) {
+                properties = GraphProperties.open(env, propertiesDatabaseName, config);
+            }
+            if (commitIndexEnabled) {
+                commitIndex = CommitIndex.open(env, commitIndexDatabaseName, config);
+            }
+        }
+
+        private void closeCompanionDatabases() {
+            if (reachability != null) {
+                reachability.close();
+                reachability = null;
+            }
+            if (properties != null) {
+                properties.close();
+                properties = null;
+            }
+            if (commitIndex != null) {
+                commitIndex.close();
+                commitIndex = null;
+            }
+        }
+
+        /**
+         * Registers the environment the graph database was just open in with the cache governor
+         * and metrics, and applies the workload profile to it
+         */
+        private void environmentOpened() {
+            if (CacheGovernor.isEnabled()) {
+                CacheGovernor.get().register(env, configDb);
+            }
+            EnvironmentMetrics metrics = EnvironmentMetrics.register(env,
+                    JEGraphDatabase.ENVIRONMENT_NAME);
+            if (IdleLogCleaner.isEnabled()) {
+                IdleLogCleaner.get().register(env, operations, metrics);
+            }
+            profiles.apply(env);
+        }
+
+        /**
+         * Releases the environment the graph database was open in
+         */
+        private void releaseEnvironment(Environment env) {
+            if (IdleLogCleaner.isEnabled()) {
+                IdleLogCleaner.get().unregister(env, operations);
+            }
+            if (CacheGovernor.isEnabled()) {
+                CacheGovernor.get().unregister(env);
+            }
+            EnvironmentMetrics.unregister(env);
+            envProvider.release(env);
+        }
+
+        @Nullable
+        private SecondaryRefresher beginRead() {
+            lazyOpen.await();
+            SecondaryRefresher refresher = this.refresher;
+            if (refresher != null) {
+                refresher.beginRead();
+            }
+            return refresher;
+        }
+
+        private void endRead(@Nullable SecondaryRefresher refresher) {
+            if (refresher != null) {
+                refresher.endRead();
+            }
+        }
+
+        /**
+         * @return the name of the environment the graph database lives in, which is the objects
+         *         environment if {@link JEGraphDatabase#SHARED_ENVIRONMENT_CONFIG_KEY} is set,
+         *         unless a stand alone graph environment already exists, in which case it's kept
+         *         where it is.
+         */
+        private String resolveEnvironmentName() {
+            if (isSharedEnvironment(configDb)
+                    && !envProvider.environmentExists(JEGraphDatabase.ENVIRONMENT_NAME)) {
+                return JEObjectDatabase.ENVIRONMENT_NAME;
+            }
+            return JEGraphDatabase.ENVIRONMENT_NAME;
         }
 
         protected Database createDatabase() {
@@ -127,9 +827,16 @@ abstract class JEGraphDatabase extends SynchronizedGraphDatabase {
                         "The repository is already open by another process for writing", e);
             }
 
-            if (!environment.getDatabaseNames().contains(databaseName)) {
-                if (readOnly) {
-                    environment.close();
+            boolean create = !environment.getDatabaseNames().contains(databaseName);
+            if (create) {
+                if (secondary) {
+                    envProvider.release(environment);
+                    throw new IllegalStateException(String.format(
+                            "Database %s does not exist, can't open it in secondary mode",
+                            databaseName));
+                }
+                if (environment.getConfig().getReadOnly()) {
+                    envProvider.release(environment);
                     try {
                         environment = createEnvironment(false);
                     } catch (EnvironmentLockedException e) {
@@ -138,13 +845,10 @@ abstract class JEGraphDatabase extends SynchronizedGraphDatabase {
                                 databaseName));
                     }
                 }
-                DatabaseConfig dbConfig = new DatabaseConfig();
-                dbConfig.setAllowCreate(true);
-                Database openDatabase = environment.openDatabase(null, databaseName, dbConfig);
-                openDatabase.close();
-                environment.flushLog(true);
-                environment.close();
-                environment = createEnvironment(readOnly);
+            }
+            if (!secondary && !environment.getConfig().getReadOnly()) {
+                recoverRebuild(environment);
+                create = !environment.getDatabaseNames().contains(databaseName);
             }
 
             Database database;
@@ -152,18 +856,34 @@ abstract class JEGraphDatabase extends SynchronizedGraphDatabase {
                 LOGGER.debug("Opening GraphDatabase at {}", environment.getHome());
 
                 DatabaseConfig dbConfig = new DatabaseConfig();
-                dbConfig.setCacheMode(CacheMode.MAKE_COLD);
+                // no database cache mode, so the environment's, set by the workload profile,
+                // applies
                 dbConfig.setKeyPrefixing(false);// can result in a slightly smaller db size
 
-                dbConfig.setReadOnly(readOnly);
                 boolean transactional = environment.getConfig().getTransactional();
                 dbConfig.setTransactional(transactional);
                 dbConfig.setDeferredWrite(!transactional);
 
+                // create the database in the same environment handle instead of reopening it
+                dbConfig.setAllowCreate(create);
+                dbConfig.setReadOnly(readOnly && !create);
                 database = environment.openDatabase(null, databaseName, dbConfig);
+                if (create) {
+                    if (dbConfig.getDeferredWrite()) {
+                        database.sync();
+                    } else {
+                        environment.flushLog(true);
+                    }
+                    if (readOnly) {
+                        database.close();
+                        dbConfig.setAllowCreate(false);
+                        dbConfig.setReadOnly(true);
+                        database = environment.openDatabase(null, databaseName, dbConfig);
+                    }
+                }
             } catch (RuntimeException e) {
                 if (environment != null) {
-                    environment.close();
+                    envProvider.release(environment);
                 }
                 throw e;
             }
@@ -177,7 +897,11 @@ abstract class JEGraphDatabase extends SynchronizedGraphDatabase {
          */
         private synchronized Environment createEnvironment(boolean readOnly)
                 throws com.sleepycat.je.EnvironmentLockedException {
-            Environment env = envProvider.setRelativePath(this.envName).setReadOnly(readOnly).get();
+            Environment env;
+            // the builder may be shared with the object database, opening in parallel
+            synchronized (envProvider) {
+                env = envProvider.setRelativePath(this.envName).setReadOnly(readOnly).get();
+            }
 
             return env;
         }
@@ -186,6 +910,11 @@ abstract class JEGraphDatabase extends SynchronizedGraphDatabase {
         public void configure() throws RepositoryConnectionException {
             StorageType.GRAPH.configure(configDb, "bdbje",
                     formatVersion);
+            if (isSharedEnvironment(configDb)
+                    && !configDb.get(SHARED_ENVIRONMENT_CONFIG_KEY).isPresent()) {
+                // pin the global default to the repository so it doesn't change under its feet
+                configDb.put(SHARED_ENVIRONMENT_CONFIG_KEY, Boolean.TRUE);
+            }
         }
 
         @Override
@@ -196,11 +925,12 @@ abstract class JEGraphDatabase extends SynchronizedGraphDatabase {
 
         @Override
         public boolean isOpen() {
-            return graphDb != null;
+            return graphDb != null || lazyOpen.isPending();
         }
 
         @Override
         public void close() {
+            lazyOpen.awaitQuietly();
             if (env == null) {
                 LOGGER.trace("Database already closed.");
                 return;
@@ -208,6 +938,17 @@ abstract class JEGraphDatabase extends SynchronizedGraphDatabase {
             final File envHome = env.getHome();
             try {
                 LOGGER.debug("Closing graph database at {}", envHome);
+                if (geogigDirectory != null) {
+                    COMMIT_INDEXES.remove(geogigDirectory, this);
+                    geogigDirectory = null;
+                }
+                shutDownWriter();
+                shutDownMemoryIndexLoader();
+                if (refresher != null) {
+                    refresher.unregister(reopenable);
+                    refresher = null;
+                }
+                closeCompanionDatabases();
                 if (graphDb != null) {
                     graphDb.close();
                     graphDb = null;
@@ -218,12 +959,51 @@ abstract class JEGraphDatabase extends SynchronizedGraphDatabase {
                     env.cleanLog();
                 }
             } finally {
-                env.close();
+                operations.unregister();
+                releaseEnvironment(env);
                 env = null;
             }
             LOGGER.debug("Database {} closed.", envHome);
         }
 
+        /**
+         * Stops the writer thread once the queued writes are done
+         */
+        private void shutDownWriter() {
+            final ExecutorService writer = this.writerService;
+            if (writer == null) {
+                return;
+            }
+            writer.shutdown();
+            try {
+                while (!writer.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+                    LOGGER.trace("Waiting for pending graph writes");
+                }
+            } catch (InterruptedException e) {
+                LOGGER.warn("Interrupted waiting for pending graph writes", e);
+                Thread.currentThread().interrupt();
+            }
+            this.writerService = null;
+        }
+
+        /**
+         * Runs the write on the writer thread, waiting for it to finish
+         */
+        private <T> T write(final Callable<T> write) {
+            lazyOpen.await();
+            final ExecutorService writer = this.writerService;
+            Preconditions.checkState(writer != null, "Graph database is closed");
+            Future<T> result = writer.submit(write);
+            try {
+                return result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw Throwables.propagate(e);
+            } catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+        }
+
         @Override
         protected void finalize() {
             if (isOpen()) {
@@ -234,6 +1014,15 @@ abstract class JEGraphDatabase extends SynchronizedGraphDatabase {
         }
 
         protected NodeData getNodeInternal(final ObjectId id, final boolean failIfNotFound) {
+            final SecondaryRefresher refresher = beginRead();
+            try {
+                return getNode(id, failIfNotFound);
+            } finally {
+                endRead(refresher);
+            }
+        }
+
+        private NodeData getNode(final ObjectId id, final boolean failIfNotFound) {
             Preconditions.checkNotNull(id, "id");
             DatabaseEntry key = new DatabaseEntry(id.getRawValue());
             DatabaseEntry data = new DatabaseEntry();
@@ -248,7 +1037,21 @@ abstract class JEGraphDatabase extends SynchronizedGraphDatabase {
                 }
                 return null;
             }
+            NodeData node = decode(key, data);
+            return node;
+        }
+
+        /**
+         * Reads a node, taking its id from the key for the formats that don't store it again in
+         * the value
+         */
+        private NodeData decode(DatabaseEntry key, DatabaseEntry data) {
             NodeData node = BINDING.entryToObject(data);
+            if (node.id == null) {
+                final int offset = key.getOffset();
+                node.id = ObjectId.createNoClone(
+                        Arrays.copyOfRange(key.getData(), offset, offset + key.getSize()));
+            }
             return node;
         }
 
@@ -286,17 +1089,20 @@ abstract class JEGraphDatabase extends SynchronizedGraphDatabase {
 
         @Nullable
         private Transaction newTransaction() {
+            lazyOpen.await();
             final boolean transactional = graphDb.getConfig().getTransactional();
             if (transactional) {
                 TransactionConfig txConfig = new TransactionConfig();
                 txConfig.setReadUncommitted(true);
                 Optional<String> durability = configDb.get("bdbje.object_durability");
+                final WorkloadProfile profile = profiles.get(env);
                 if ("safe".equals(durability.orNull())) {
                     txConfig.setDurability(Durability.COMMIT_SYNC);
                 } else {
-                    txConfig.setDurability(Durability.COMMIT_WRITE_NO_SYNC);
+                    txConfig.setDurability(profile.getDurability());
                 }
                 Transaction transaction = env.beginTransaction(null, txConfig);
+                transaction.setLockTimeout(profile.getLockTimeoutMillis(), TimeUnit.MILLISECONDS);
                 return transaction;
             }
             return null;
@@ -304,10 +1110,37 @@ abstract class JEGraphDatabase extends SynchronizedGraphDatabase {
 
         @Override
         public boolean exists(ObjectId commitId) {
-            Preconditions.checkNotNull(commitId, "id");
+            final long start = System.nanoTime();
+            final CommitGraphIndex index = memoryIndex();
+            if (index != null) {
+                boolean exists = index.contains(commitId);
+                operations.record("exists", start, 1, -1);
+                return exists;
+            }
+            final SecondaryRefresher refresher = beginRead();
+            try {
+                boolean exists = existsInternal(commitId);
+                operations.record("exists", start, 1, -1);
+                return exists;
+            } finally {
+                endRead(refresher);
+            }
+        }
 
-            DatabaseEntry key = new DatabaseEntry(commitId.getRawValue());
-            DatabaseEntry data = new DatabaseEntry();
+        private boolean isEmpty() {
+            try (Cursor cursor = graphDb.openCursor(null, CursorConfig.READ_UNCOMMITTED)) {
+                DatabaseEntry key = new DatabaseEntry();
+                DatabaseEntry data = new DatabaseEntry();
+                data.setPartial(0, 0, true);
+                return SUCCESS != cursor.getNext(key, data, LockMode.READ_UNCOMMITTED);
+            }
+        }
+
+        private boolean existsInternal(ObjectId commitId) {
+            Preconditions.checkNotNull(commitId, "id");
+
+            DatabaseEntry key = new DatabaseEntry(commitId.getRawValue());
+            DatabaseEntry data = new DatabaseEntry();
             // tell db not to retrieve data
             data.setPartial(0, 0, true);
 
@@ -320,62 +1153,639 @@ abstract class JEGraphDatabase extends SynchronizedGraphDatabase {
         @Override
         public ImmutableList<ObjectId> getParents(ObjectId commitId)
                 throws IllegalArgumentException {
-            Builder<ObjectId> listBuilder = new ImmutableList.Builder<ObjectId>();
-            NodeData node = getNodeInternal(commitId, false);
-            if (node != null) {
-                return listBuilder.addAll(node.outgoing).build();
+            final long start = System.nanoTime();
+            final CommitGraphIndex index = memoryIndex();
+            ImmutableList<ObjectId> parents;
+            if (index != null) {
+                parents = index.getParents(commitId);
+                if (parents == null) {
+                    parents = ImmutableList.of();
+                }
+            } else {
+                Builder<ObjectId> listBuilder = new ImmutableList.Builder<ObjectId>();
+                NodeData node = getNodeInternal(commitId, false);
+                if (node != null) {
+                    listBuilder.addAll(node.outgoing);
+                }
+                parents = listBuilder.build();
             }
-            return listBuilder.build();
+            operations.record("getParents", start, 1 + parents.size(), -1);
+            return parents;
         }
 
         @Override
         public ImmutableList<ObjectId> getChildren(ObjectId commitId)
                 throws IllegalArgumentException {
-            Builder<ObjectId> listBuilder = new ImmutableList.Builder<ObjectId>();
-            NodeData node = getNodeInternal(commitId, false);
-            if (node != null) {
-                return listBuilder.addAll(node.incoming).build();
+            final long start = System.nanoTime();
+            final CommitGraphIndex index = memoryIndex();
+            ImmutableList<ObjectId> children;
+            if (index != null) {
+                children = index.getChildren(commitId);
+                if (children == null) {
+                    children = ImmutableList.of();
+                }
+            } else {
+                Builder<ObjectId> listBuilder = new ImmutableList.Builder<ObjectId>();
+                NodeData node = getNodeInternal(commitId, false);
+                if (node != null) {
+                    listBuilder.addAll(node.incoming);
+                }
+                children = listBuilder.build();
             }
-            return listBuilder.build();
+            operations.record("getChildren", start, 1 + children.size(), -1);
+            return children;
         }
 
         @Override
-        public boolean put(ObjectId commitId, ImmutableList<ObjectId> parentIds) {
-            NodeData node = getNodeInternal(commitId, false);
-            boolean updated = false;
-            final Transaction transaction = newTransaction();
-            try {
+        public boolean put(final ObjectId commitId, final ImmutableList<ObjectId> parentIds) {
+            return put(commitId, parentIds, null);
+        }
+
+        boolean put(final ObjectId commitId, final ImmutableList<ObjectId> parentIds,
+                @Nullable final Long committerTimestamp) {
+            final long start = System.nanoTime();
+            boolean updated = write(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return Boolean.valueOf(putInternal(commitId, parentIds, committerTimestamp));
+                }
+            }).booleanValue();
+            operations.record("put", start, 1 + parentIds.size(), -1);
+            return updated;
+        }
+
+        private boolean putInternal(ObjectId commitId, ImmutableList<ObjectId> parentIds,
+                @Nullable Long committerTimestamp) {
+            Entry<ObjectId, ? extends List<ObjectId>> commit = Maps.immutableEntry(commitId,
+                    parentIds);
+            return putBatch(Collections.<Entry<ObjectId, ? extends List<ObjectId>>> singletonList(
+                    commit), committerTimestamp == null ? null
+                            : Collections.singletonMap(commitId, committerTimestamp)) > 0;
+        }
+
+        int putAll(final Iterator<? extends Entry<ObjectId, ? extends List<ObjectId>>> commits) {
+            final long start = System.nanoTime();
+            final int batchSize = getBatchSize();
+            // consumed by the writer thread while this one waits
+            final int[] counts = write(new Callable<int[]>() {
+                @Override
+                public int[] call() {
+                    return putAllInternal(commits, batchSize);
+                }
+            });
+            operations.record("putAll", start, counts[0], -1);
+            return counts[1];
+        }
+
+        private int getBatchSize() {
+            Optional<Integer> size = configDb.get(BATCH_SIZE_CONFIG_KEY, Integer.class);
+            if (!size.isPresent()) {
+                size = configDb.getGlobal(BATCH_SIZE_CONFIG_KEY, Integer.class);
+            }
+            final int batchSize = size.or(DEFAULT_BATCH_SIZE).intValue();
+            Preconditions.checkArgument(batchSize > 0, "%s must be positive: %s",
+                    BATCH_SIZE_CONFIG_KEY, batchSize);
+            return batchSize;
+        }
+
+        /**
+         * @return the number of commits given and the number of them that changed the graph
+         */
+        private int[] putAllInternal(
+                Iterator<? extends Entry<ObjectId, ? extends List<ObjectId>>> commits,
+                final int batchSize) {
+            int total = 0;
+            int updated = 0;
+            List<Entry<ObjectId, ? extends List<ObjectId>>> batch = new ArrayList<>(batchSize);
+            while (commits.hasNext()) {
+                batch.clear();
+                while (commits.hasNext() && batch.size() < batchSize) {
+                    batch.add(commits.next());
+                }
+                total += batch.size();
+                updated += putBatch(batch, null);
+            }
+            return new int[] { total, updated };
+        }
+
+        /**
+         * Applies a batch of commits to a write back buffer of the nodes they touch, then writes
+         * the changed nodes in key order in a single transaction
+         *
+         * @return the number of commits that changed the graph
+         */
+        private int putBatch(List<Entry<ObjectId, ? extends List<ObjectId>>> batch,
+                @Nullable Map<ObjectId, Long> timestamps) {
+            final SortedMap<ObjectId, NodeData> nodes = new TreeMap<>();
+            for (Entry<ObjectId, ? extends List<ObjectId>> commit : batch) {
+                nodes.put(commit.getKey(), null);
+                for (ObjectId parent : commit.getValue()) {
+                    nodes.put(parent, null);
+                }
+            }
+            for (Entry<ObjectId, NodeData> node : nodes.entrySet()) {
+                node.setValue(getNodeInternal(node.getKey(), false));
+            }
+
+            final Set<ObjectId> dirty = new HashSet<>();
+            final ReachabilityIndex reachability = this.reachability;
+            final CommitIndex commitIndex = this.commitIndex;
+            final SortedMap<ObjectId, Label> labels = new TreeMap<>();
+            int updated = 0;
+            boolean unindexed = false;
+            for (Entry<ObjectId, ? extends List<ObjectId>> commit : batch) {
+                final ObjectId commitId = commit.getKey();
+                final List<ObjectId> parentIds = commit.getValue();
+                boolean changed = false;
+                NodeData node = nodes.get(commitId);
                 if (node == null) {
                     node = new NodeData(commitId, parentIds);
-                    updated = true;
+                    node.depth = parentIds.isEmpty() ? 0 : NodeData.UNKNOWN_DEPTH;
+                    nodes.put(commitId, node);
+                    dirty.add(commitId);
+                    changed = true;
                 }
                 for (ObjectId parent : parentIds) {
                     if (!node.outgoing.contains(parent)) {
                         node.outgoing.add(parent);
-                        updated = true;
+                        dirty.add(commitId);
+                        changed = true;
                     }
-                    NodeData parentNode = getNodeInternal(parent, false);
+                    NodeData parentNode = nodes.get(parent);
                     if (parentNode == null) {
                         parentNode = new NodeData(parent);
-                        updated = true;
+                        parentNode.depth = 0;
+                        nodes.put(parent, parentNode);
+                        dirty.add(parent);
+                        if (reachability != null) {
+                            labels.put(parent, new Label(1, reachability.newChain(), 0));
+                        }
+                        changed = true;
                     }
                     if (!parentNode.incoming.contains(commitId)) {
                         parentNode.incoming.add(commitId);
-                        updated = true;
+                        dirty.add(parent);
+                        changed = true;
                     }
-                    putNodeInternal(transaction, parent, parentNode);
                 }
-                putNodeInternal(transaction, commitId, node);
+                if (changed) {
+                    updated++;
+                    if (storesDepths) {
+                        updateDepth(node, nodes, dirty);
+                    }
+                    if (reachability != null) {
+                        updateLabel(node, nodes, labels, reachability);
+                    }
+                }
+                // an unchanged commit with parents was indexed when first put, if ever
+                if (!unindexed && (changed || node.outgoing.isEmpty())
+                        && (timestamps == null || !timestamps.containsKey(commitId))) {
+                    // unless indexed when stored in the object database
+                    unindexed = commitIndex != null && commitIndex.isComplete()
+                            && !commitIndex.hasTimestamp(commitId);
+                }
+            }
+            final boolean indexTimestamps = commitIndex != null && timestamps != null;
+            // until rebuilt, as the graph database can't read the commit timestamps itself
+            final boolean incomplete = unindexed;
+            if (dirty.isEmpty() && !indexTimestamps && !incomplete) {
+                return updated;
+            }
+            final Transaction transaction = newTransaction();
+            try {
+                for (Entry<ObjectId, NodeData> node : nodes.entrySet()) {
+                    if (dirty.contains(node.getKey())) {
+                        putNodeInternal(transaction, node.getKey(), node.getValue());
+                    }
+                }
+                for (Entry<ObjectId, Label> label : labels.entrySet()) {
+                    reachability.putLabel(transaction, label.getKey(), label.getValue());
+                }
+                if (indexTimestamps) {
+                    for (Entry<ObjectId, Long> timestamp : timestamps.entrySet()) {
+                        commitIndex.put(transaction, CommitIndex.TIMESTAMP,
+                                timestamp.getValue().longValue(), timestamp.getKey());
+                    }
+                }
+                if (incomplete) {
+                    commitIndex.markIncomplete(transaction);
+                }
                 commit(transaction);
             } catch (Exception e) {
                 abort(transaction);
                 throw Throwables.propagate(e);
             }
+            updateMemoryIndex(batch);
             return updated;
         }
 
+        /**
+         * Recomputes the depth of a node whose parents changed and, if it changed, the depths of
+         * its descendants, e.g. when the parents of a commit that was only known as a parent are
+         * added. The nodes are read into and updated in the write back buffer.
+         */
+        private void updateDepth(NodeData node, Map<ObjectId, NodeData> nodes,
+                Set<ObjectId> dirty) {
+            Queue<NodeData> changed = new ArrayDeque<>();
+            if (recomputeDepth(node, nodes)) {
+                dirty.add(node.id);
+                changed.add(node);
+            }
+            while (!changed.isEmpty()) {
+                NodeData parent = changed.poll();
+                for (ObjectId childId : parent.incoming) {
+                    NodeData child = bufferedNode(childId, nodes);
+                    if (child != null && recomputeDepth(child, nodes)) {
+                        dirty.add(childId);
+                        changed.add(child);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return whether the node depth changed to one plus the minimum depth of its parents,
+         *         or to unknown if any parent depth is unknown
+         */
+        private boolean recomputeDepth(NodeData node, Map<ObjectId, NodeData> nodes) {
+            int depth = node.outgoing.isEmpty() ? 0 : Integer.MAX_VALUE;
+            for (ObjectId parentId : node.outgoing) {
+                NodeData parent = bufferedNode(parentId, nodes);
+                int parentDepth = parent == null ? NodeData.UNKNOWN_DEPTH : parent.depth;
+                if (parentDepth == NodeData.UNKNOWN_DEPTH && parent != null
+                        && parent.outgoing.isEmpty()) {
+                    parentDepth = 0;
+                }
+                if (parentDepth == NodeData.UNKNOWN_DEPTH) {
+                    depth = NodeData.UNKNOWN_DEPTH;
+                    break;
+                }
+                depth = Math.min(depth, parentDepth + 1);
+            }
+            if (depth == node.depth) {
+                return false;
+            }
+            node.depth = depth;
+            return true;
+        }
+
+        /**
+         * Sets the generation of a node whose parents changed to one plus the highest generation
+         * of its parents and, if it grew, the generations of its descendants, in the given buffer.
+         * A node labeled for the first time is also assigned its chain.
+         */
+        private void updateLabel(NodeData node, Map<ObjectId, NodeData> nodes,
+                Map<ObjectId, Label> labels, ReachabilityIndex reachability) {
+            Queue<NodeData> queue = new ArrayDeque<>();
+            queue.add(node);
+            while (!queue.isEmpty()) {
+                final NodeData next = queue.poll();
+                int generation = 1;
+                for (ObjectId parent : next.outgoing) {
+                    Label label = bufferedLabel(parent, labels, reachability);
+                    generation = Math.max(generation,
+                            (label == null ? ReachabilityIndex.UNKNOWN : label.generation) + 1);
+                }
+                final Label label = bufferedLabel(next.id, labels, reachability);
+                if (label == null) {
+                    labels.put(next.id, chainLabel(next, generation, nodes, labels, reachability));
+                } else if (generation > label.generation) {
+                    labels.put(next.id, label.withGeneration(generation));
+                } else {
+                    continue;
+                }
+                for (ObjectId childId : next.incoming) {
+                    NodeData child = bufferedNode(childId, nodes);
+                    if (child != null) {
+                        queue.add(child);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return the label of a node with the given generation, continuing the chain of its
+         *         first parent if no other child does yet, or on a new chain
+         */
+        private Label chainLabel(NodeData node, int generation, Map<ObjectId, NodeData> nodes,
+                Map<ObjectId, Label> labels, ReachabilityIndex reachability) {
+            if (!node.outgoing.isEmpty()) {
+                final ObjectId parentId = node.outgoing.get(0);
+                final Label parent = bufferedLabel(parentId, labels, reachability);
+                final NodeData parentNode = bufferedNode(parentId, nodes);
+                if (parent != null && parent.chain != ReachabilityIndex.NO_CHAIN
+                        && parentNode != null) {
+                    boolean continued = false;
+                    for (ObjectId childId : parentNode.incoming) {
+                        Label child = childId.equals(node.id) ? null
+                                : bufferedLabel(childId, labels, reachability);
+                        continued |= child != null && child.chain == parent.chain
+                                && child.position == parent.position + 1;
+                    }
+                    if (!continued) {
+                        return new Label(generation, parent.chain, parent.position + 1);
+                    }
+                }
+            }
+            return new Label(generation, reachability.newChain(), 0);
+        }
+
+        @Nullable
+        private Label bufferedLabel(ObjectId id, Map<ObjectId, Label> labels,
+                ReachabilityIndex reachability) {
+            Label label = labels.get(id);
+            return label == null ? reachability.getLabel(id) : label;
+        }
+
+        /**
+         * A commit some of whose parents are labeled, while building the reachability index
+         */
+        private static class PendingLabel {
+
+            @Nullable
+            final ObjectId firstParent;
+
+            int parents;
+
+            int generation;
+
+            long chain = ReachabilityIndex.NO_CHAIN;
+
+            int position;
+
+            PendingLabel(NodeData node) {
+                this.firstParent = node.outgoing.isEmpty() ? null : node.outgoing.get(0);
+                this.parents = node.outgoing.size();
+            }
+        }
+
+        /**
+         * Computes the labels of all the commits in topological order, from the nodes with no
+         * parents, for a reachability index created for an existing graph
+         */
+        private void buildReachability(final int batchSize) {
+            final long start = System.nanoTime();
+            final ReachabilityIndex reachability = this.reachability;
+            final Queue<Entry<ObjectId, Label>> queue = new ArrayDeque<>();
+            try (Cursor cursor = graphDb.openCursor(null, CursorConfig.READ_UNCOMMITTED)) {
+                DatabaseEntry key = new DatabaseEntry();
+                DatabaseEntry data = new DatabaseEntry();
+                while (cursor.getNext(key, data, LockMode.READ_UNCOMMITTED) == SUCCESS) {
+                    NodeData node = decode(key, data);
+                    if (node.outgoing.isEmpty()) {
+                        queue.add(Maps.immutableEntry(node.id,
+                                new Label(1, reachability.newChain(), 0)));
+                    }
+                }
+            }
+            final Map<ObjectId, PendingLabel> pending = new HashMap<>();
+            int count = 0;
+            Transaction transaction = newTransaction();
+            try {
+                while (!queue.isEmpty()) {
+                    final Entry<ObjectId, Label> next = queue.poll();
+                    final Label label = next.getValue();
+                    reachability.putLabel(transaction, next.getKey(), label);
+                    if (++count % batchSize == 0) {
+                        commit(transaction);
+                        transaction = newTransaction();
+                    }
+                    boolean continued = false;
+                    for (ObjectId childId : getNodeInternal(next.getKey(), true).incoming) {
+                        PendingLabel state = pending.get(childId);
+                        if (state == null) {
+                            state = new PendingLabel(getNodeInternal(childId, true));
+                            pending.put(childId, state);
+                        }
+                        state.generation = Math.max(state.generation, label.generation);
+                        if (!continued && next.getKey().equals(state.firstParent)) {
+                            // the first child this is the first parent of continues its chain
+                            state.chain = label.chain;
+                            state.position = label.position + 1;
+                            continued = true;
+                        }
+                        if (--state.parents == 0) {
+                            pending.remove(childId);
+                            final long chain = state.chain == ReachabilityIndex.NO_CHAIN
+                                    ? reachability.newChain() : state.chain;
+                            queue.add(Maps.immutableEntry(childId,
+                                    new Label(state.generation + 1, chain, state.position)));
+                        }
+                    }
+                }
+                if (pending.isEmpty()) {
+                    reachability.markComplete(transaction);
+                } else {
+                    LOGGER.warn("{} graph nodes at {} have parents that don't list them as "
+                            + "children, reachability index not used", pending.size(),
+                            env.getHome());
+                }
+                commit(transaction);
+            } catch (Exception e) {
+                abort(transaction);
+                throw Throwables.propagate(e);
+            }
+            LOGGER.info("Built the reachability index of {} graph nodes at {} in {} ms", count,
+                    env.getHome(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+
+        boolean isAncestor(ObjectId ancestor, ObjectId descendant) {
+            Preconditions.checkNotNull(ancestor, "ancestor");
+            Preconditions.checkNotNull(descendant, "descendant");
+            final long start = System.nanoTime();
+            final CommitGraphIndex index = memoryIndex();
+            boolean isAncestor = index == null ? reachable(ancestor, descendant)
+                    : index.isAncestor(ancestor, descendant);
+            operations.record("isAncestor", start, 2, -1);
+            return isAncestor;
+        }
+
+        /**
+         * Walks the parents from {@code descendant} breadth first, if the reachability index is
+         * complete not going below the generation of {@code ancestor}, and stopping once on its
+         * chain past it
+         */
+        private boolean reachable(ObjectId ancestor, ObjectId descendant) {
+            final SecondaryRefresher refresher = beginRead();
+            try {
+                final NodeData node = getNode(descendant, false);
+                if (node == null || !existsInternal(ancestor)) {
+                    return false;
+                }
+                if (ancestor.equals(descendant)) {
+                    return true;
+                }
+                ReachabilityIndex reachability = this.reachability;
+                if (reachability != null && !reachability.isComplete()) {
+                    reachability = null;
+                }
+                final Label ancestorLabel = reachability == null ? null
+                        : reachability.getLabel(ancestor);
+                final int minGeneration = ancestorLabel == null ? ReachabilityIndex.UNKNOWN
+                        : ancestorLabel.generation;
+                if (reachability != null) {
+                    final Label label = reachability.getLabel(descendant);
+                    if (label == null || label.generation <= minGeneration) {
+                        return false;
+                    }
+                    if (ancestorLabel != null && ancestorLabel.precedes(label)) {
+                        return true;
+                    }
+                }
+                final Set<ObjectId> visited = new HashSet<>();
+                final Queue<NodeData> queue = new ArrayDeque<>();
+                queue.add(node);
+                while (!queue.isEmpty()) {
+                    for (ObjectId parent : queue.poll().outgoing) {
+                        if (parent.equals(ancestor)) {
+                            return true;
+                        }
+                        if (!visited.add(parent)) {
+                            continue;
+                        }
+                        if (reachability == null) {
+                            queue.add(getNode(parent, true));
+                            continue;
+                        }
+                        final Label label = reachability.getLabel(parent);
+                        if (label != null && ancestorLabel != null
+                                && ancestorLabel.precedes(label)) {
+                            return true;
+                        }
+                        if (label != null && label.generation > minGeneration) {
+                            queue.add(getNode(parent, true));
+                        }
+                    }
+                }
+                return false;
+            } finally {
+                endRead(refresher);
+            }
+        }
+
+        @Nullable
+        private NodeData bufferedNode(ObjectId id, Map<ObjectId, NodeData> nodes) {
+            NodeData node = nodes.get(id);
+            if (node == null) {
+                node = getNodeInternal(id, false);
+                if (node != null) {
+                    nodes.put(id, node);
+                }
+            }
+            return node;
+        }
+
+        /**
+         * Stores the depth of every node, as computed by a breadth first walk from the nodes with
+         * no parents, for the graphs stored before depths were
+         *
+         * @return the number of nodes whose depth was updated
+         */
+        int rebuildDepths() {
+            if (!storesDepths) {
+                return 0;
+            }
+            final long start = System.nanoTime();
+            final int batchSize = getBatchSize();
+            int updated = write(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return Integer.valueOf(rebuildDepthsInternal(batchSize));
+                }
+            }).intValue();
+            LOGGER.info("Rebuilt the depths of {} graph nodes at {} in {} ms", updated,
+                    env.getHome(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return updated;
+        }
+
+        private int rebuildDepthsInternal(final int batchSize) {
+            final Queue<ObjectId> queue = new ArrayDeque<>();
+            try (Cursor cursor = graphDb.openCursor(null, CursorConfig.READ_UNCOMMITTED)) {
+                DatabaseEntry key = new DatabaseEntry();
+                DatabaseEntry data = new DatabaseEntry();
+                while (cursor.getNext(key, data, LockMode.READ_UNCOMMITTED) == SUCCESS) {
+                    NodeData node = decode(key, data);
+                    if (node.outgoing.isEmpty()) {
+                        queue.add(node.id);
+                    }
+                }
+            }
+            // nearest root first, so the first depth assigned to a node is the smallest one
+            final Map<ObjectId, Integer> depths = new HashMap<>();
+            for (ObjectId root : queue) {
+                depths.put(root, Integer.valueOf(0));
+            }
+            int updated = 0;
+            int pending = 0;
+            Transaction transaction = newTransaction();
+            try {
+                while (!queue.isEmpty()) {
+                    final ObjectId id = queue.poll();
+                    final NodeData node = getNodeInternal(id, true);
+                    final int depth = depths.get(id).intValue();
+                    if (node.depth != depth) {
+                        node.depth = depth;
+                        putNodeInternal(transaction, id, node);
+                        updated++;
+                        if (++pending == batchSize) {
+                            commit(transaction);
+                            transaction = newTransaction();
+                            pending = 0;
+                        }
+                    }
+                    for (ObjectId child : node.incoming) {
+                        if (!depths.containsKey(child)) {
+                            depths.put(child, Integer.valueOf(depth + 1));
+                            queue.add(child);
+                        }
+                    }
+                }
+                commit(transaction);
+            } catch (Exception e) {
+                abort(transaction);
+                throw Throwables.propagate(e);
+            }
+            return updated;
+        }
+
+        ImmutableMap<ObjectId, ImmutableList<ObjectId>> getParentsAll(
+                Iterable<ObjectId> commitIds) {
+            final long start = System.nanoTime();
+            final SortedSet<ObjectId> sorted = new TreeSet<>();
+            Iterables.addAll(sorted, commitIds);
+            ImmutableMap.Builder<ObjectId, ImmutableList<ObjectId>> parents = ImmutableMap
+                    .builder();
+            int objects = 0;
+            final SecondaryRefresher refresher = beginRead();
+            try {
+                for (ObjectId commitId : sorted) {
+                    NodeData node = getNode(commitId, false);
+                    if (node != null) {
+                        parents.put(commitId, ImmutableList.copyOf(node.outgoing));
+                        objects += 1 + node.outgoing.size();
+                    }
+                }
+            } finally {
+                endRead(refresher);
+            }
+            operations.record("getParentsAll", start, objects, -1);
+            return parents.build();
+        }
+
         @Override
-        public void map(ObjectId mapped, ObjectId original) {
+        public void map(final ObjectId mapped, final ObjectId original) {
+            final long start = System.nanoTime();
+            write(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    mapInternal(mapped, original);
+                    return null;
+                }
+            });
+            operations.record("map", start, 1, -1);
+        }
+
+        private void mapInternal(ObjectId mapped, ObjectId original) {
             NodeData node = getNodeInternal(mapped, false);
             if (node == null) {
                 // didn't exist
@@ -385,55 +1795,362 @@ abstract class JEGraphDatabase extends SynchronizedGraphDatabase {
             final Transaction transaction = newTransaction();
             try {
                 putNodeInternal(transaction, mapped, node);
+                final ReachabilityIndex reachability = this.reachability;
+                if (reachability != null && reachability.getLabel(mapped) == null) {
+                    reachability.putLabel(transaction, mapped,
+                            new Label(1, reachability.newChain(), 0));
+                }
                 commit(transaction);
             } catch (Exception e) {
                 abort(transaction);
                 throw Throwables.propagate(e);
             }
+            updateMemoryIndex(Collections.singletonList(
+                    Maps.immutableEntry(mapped, ImmutableList.<ObjectId> of())));
         }
 
         @Override
         public ObjectId getMapping(ObjectId commitId) {
+            final long start = System.nanoTime();
             NodeData node = getNodeInternal(commitId, true);
+            operations.record("getMapping", start, 1, -1);
             return node.mappedTo;
         }
 
         @Override
         public int getDepth(ObjectId commitId) {
-            int depth = 0;
+            final long start = System.nanoTime();
+            final CommitGraphIndex index = memoryIndex();
+            int depth = index == null ? -1 : index.getDepth(commitId);
+            if (depth == -1) {
+                depth = depthInternal(commitId);
+            }
+            operations.record("getDepth", start, depth, -1);
+            return depth;
+        }
 
-            Queue<ObjectId> q = Lists.newLinkedList();
+        /**
+         * @return the stored depth of the node or, for formats or nodes without one, the number of
+         *         levels of a breadth first walk to the nearest node with no parents or with a
+         *         stored depth
+         */
+        private int depthInternal(ObjectId commitId) {
             NodeData node = getNodeInternal(commitId, true);
-            Iterables.addAll(q, node.outgoing);
+            if (storesDepths && node.hasDepth()) {
+                return node.depth;
+            }
+            int best = Integer.MAX_VALUE;
+            Set<ObjectId> visited = new HashSet<>();
+            List<ObjectId> level = Lists.newArrayList(node.outgoing);
+            if (level.isEmpty()) {
+                return 0;
+            }
+            for (int depth = 1; !level.isEmpty() && depth < best; depth++) {
+                List<ObjectId> next = new ArrayList<>();
+                for (ObjectId id : level) {
+                    if (!visited.add(id)) {
+                        continue;
+                    }
+                    NodeData parent = getNodeInternal(id, true);
+                    if (storesDepths && parent.hasDepth()) {
+                        best = Math.min(best, depth + parent.depth);
+                    } else if (parent.outgoing.isEmpty()) {
+                        best = Math.min(best, depth);
+                    } else {
+                        next.addAll(parent.outgoing);
+                    }
+                }
+                level = next;
+            }
+            return best;
+        }
+
+        /**
+         * @return the in memory index of the graph, or {@code null} if not enabled or not loaded
+         *         yet
+         */
+        @Nullable
+        private CommitGraphIndex memoryIndex() {
+            lazyOpen.await();
+            return memoryIndex;
+        }
 
-            List<ObjectId> next = Lists.newArrayList();
-            while (!q.isEmpty()) {
-                depth++;
-                while (!q.isEmpty()) {
-                    ObjectId n = q.poll();
-                    NodeData parentNode = getNodeInternal(n, true);
-                    List<ObjectId> parents = Lists.newArrayList(parentNode.outgoing);
-                    if (parents.size() == 0) {
-                        return depth;
+        /**
+         * Drops the memory index, if enabled, and starts loading it again in the background
+         */
+        private void loadMemoryIndex() {
+            final ExecutorService loader = this.memoryIndexLoader;
+            if (loader == null) {
+                return;
+            }
+            final int epoch;
+            synchronized (memoryIndexLock) {
+                memoryIndex = null;
+                memoryIndexPending = new ArrayList<>();
+                epoch = ++memoryIndexEpoch;
+            }
+            loader.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        loadMemoryIndex(epoch);
+                    } catch (RuntimeException e) {
+                        if (isCurrent(epoch)) {
+                            LOGGER.error("Error loading the graph at {} in memory",
+                                    env.getHome(), e);
+                        }
                     }
+                }
+            });
+        }
 
-                    Iterables.addAll(next, parents);
+        private void loadMemoryIndex(final int epoch) {
+            final long start = System.nanoTime();
+            final CommitGraphIndex index = new CommitGraphIndex();
+            final SecondaryRefresher refresher = beginRead();
+            try (Cursor cursor = graphDb.openCursor(null, CursorConfig.READ_UNCOMMITTED)) {
+                DatabaseEntry key = new DatabaseEntry();
+                DatabaseEntry data = new DatabaseEntry();
+                int count = 0;
+                while (cursor.getNext(key, data, LockMode.READ_UNCOMMITTED) == SUCCESS) {
+                    index.load(decode(key, data));
+                    if (++count % 10_000 == 0 && !isCurrent(epoch)) {
+                        return;
+                    }
+                }
+            } finally {
+                endRead(refresher);
+            }
+            index.loaded();
+            synchronized (memoryIndexLock) {
+                if (epoch != memoryIndexEpoch) {
+                    return;
                 }
+                for (Entry<ObjectId, ? extends List<ObjectId>> commit : memoryIndexPending) {
+                    index.put(commit.getKey(), commit.getValue());
+                }
+                memoryIndexPending = null;
+                memoryIndex = index;
+            }
+            LOGGER.debug("Loaded the {} nodes of the graph at {} in memory in {} ms",
+                    index.size(), env.getHome(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
 
-                q.addAll(next);
-                next.clear();
+        private boolean isCurrent(int epoch) {
+            synchronized (memoryIndexLock) {
+                return epoch == memoryIndexEpoch;
             }
+        }
 
-            return depth;
+        /**
+         * Adds the commits just written to the memory index, or to the ones to replay on it if
+         * it's loading
+         */
+        private void updateMemoryIndex(
+                List<? extends Entry<ObjectId, ? extends List<ObjectId>>> commits) {
+            if (memoryIndexLoader == null) {
+                return;
+            }
+            synchronized (memoryIndexLock) {
+                final CommitGraphIndex index = this.memoryIndex;
+                if (index != null) {
+                    for (Entry<ObjectId, ? extends List<ObjectId>> commit : commits) {
+                        index.put(commit.getKey(), commit.getValue());
+                    }
+                } else if (memoryIndexPending != null) {
+                    memoryIndexPending.addAll(commits);
+                }
+            }
+        }
+
+        /**
+         * Drops the memory index, cancelling any load in progress
+         *
+         * @param await whether to wait for the loader to notice, e.g. before closing the database
+         *        it reads
+         */
+        private void dropMemoryIndex(boolean await) {
+            final ExecutorService loader = this.memoryIndexLoader;
+            if (loader == null) {
+                return;
+            }
+            synchronized (memoryIndexLock) {
+                memoryIndex = null;
+                memoryIndexPending = null;
+                memoryIndexEpoch++;
+            }
+            if (await) {
+                awaitLoader(loader);
+            }
+        }
+
+        private void shutDownMemoryIndexLoader() {
+            dropMemoryIndex(false);
+            final ExecutorService loader = this.memoryIndexLoader;
+            if (loader == null) {
+                return;
+            }
+            this.memoryIndexLoader = null;
+            loader.shutdown();
+            try {
+                while (!loader.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+                    LOGGER.trace("Waiting for the graph memory index loader to stop");
+                }
+            } catch (InterruptedException e) {
+                LOGGER.warn("Interrupted waiting for the graph memory index loader", e);
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Waits for the memory index to be loaded, if enabled
+         *
+         * @return whether it is loaded
+         */
+        boolean awaitMemoryIndex() {
+            lazyOpen.await();
+            final ExecutorService loader = this.memoryIndexLoader;
+            if (loader != null) {
+                awaitLoader(loader);
+            }
+            return memoryIndex != null;
+        }
+
+        private static void awaitLoader(ExecutorService loader) {
+            Future<?> queued = loader.submit(new Runnable() {
+                @Override
+                public void run() {
+                    // runs after the load in progress, if any
+                }
+            });
+            try {
+                queued.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        Optional<ObjectId> findLowestCommonAncestor(ObjectId left, ObjectId right) {
+            Preconditions.checkNotNull(left, "left");
+            Preconditions.checkNotNull(right, "right");
+            final long start = System.nanoTime();
+            final CommitGraphIndex index = memoryIndex();
+            Optional<ObjectId> ancestor = index == null ? lowestCommonAncestor(left, right)
+                    : index.findLowestCommonAncestor(left, right);
+            operations.record("findLowestCommonAncestor", start, 2, -1);
+            return ancestor;
+        }
+
+        /**
+         * Finds the lowest common ancestor reading the nodes from the database, the same way
+         * {@link CommitGraphIndex#findLowestCommonAncestor} does in memory
+         */
+        private Optional<ObjectId> lowestCommonAncestor(ObjectId left, ObjectId right) {
+            if (getNodeInternal(left, false) == null || getNodeInternal(right, false) == null) {
+                return Optional.absent();
+            }
+            // ancestors of left, itself included
+            final Set<ObjectId> leftAncestors = new HashSet<>();
+            Queue<ObjectId> queue = new ArrayDeque<>();
+            leftAncestors.add(left);
+            queue.add(left);
+            while (!queue.isEmpty()) {
+                for (ObjectId parent : getNodeInternal(queue.poll(), true).outgoing) {
+                    if (leftAncestors.add(parent)) {
+                        queue.add(parent);
+                    }
+                }
+            }
+            // the first common ancestors found walking back from right
+            final List<ObjectId> found = new ArrayList<>();
+            final Set<ObjectId> visited = new HashSet<>();
+            visited.add(right);
+            queue.add(right);
+            while (!queue.isEmpty()) {
+                final ObjectId id = queue.poll();
+                if (leftAncestors.contains(id)) {
+                    found.add(id);
+                    continue;
+                }
+                for (ObjectId parent : getNodeInternal(id, true).outgoing) {
+                    if (visited.add(parent)) {
+                        queue.add(parent);
+                    }
+                }
+            }
+            // discard the ones that are ancestors of others
+            final Set<ObjectId> covered = new HashSet<>();
+            for (ObjectId id : found) {
+                queue.addAll(getNodeInternal(id, true).outgoing);
+            }
+            while (!queue.isEmpty()) {
+                final ObjectId id = queue.poll();
+                if (covered.add(id)) {
+                    queue.addAll(getNodeInternal(id, true).outgoing);
+                }
+            }
+            ObjectId best = null;
+            int bestDepth = -1;
+            for (ObjectId id : found) {
+                if (!covered.contains(id)) {
+                    final int depth = depthInternal(id);
+                    if (best == null || depth > bestDepth) {
+                        best = id;
+                        bestDepth = depth;
+                    }
+                }
+            }
+            return Optional.fromNullable(best);
         }
 
         @Override
-        public void setProperty(ObjectId commitId, String propertyName, String propertyValue) {
+        public void setProperty(final ObjectId commitId, final String propertyName,
+                final String propertyValue) {
+            final long start = System.nanoTime();
+            write(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    setPropertyInternal(commitId, propertyName, propertyValue);
+                    return null;
+                }
+            });
+            operations.record("setProperty", start, 1, -1);
+        }
+
+        private void setPropertyInternal(ObjectId commitId, String propertyName,
+                String propertyValue) {
             NodeData node = getNodeInternal(commitId, true);
-            node.properties.put(propertyName, propertyValue);
+            final GraphProperties properties = this.properties;
+            final CommitIndex commitIndex = indexedProperties.contains(propertyName)
+                    ? this.commitIndex : null;
             final Transaction transaction = newTransaction();
             try {
-                putNodeInternal(transaction, commitId, node);
+                if (commitIndex != null) {
+                    String current = node.properties.get(propertyName);
+                    if (propertiesDatabaseName != null) {
+                        current = properties == null ? null
+                                : properties.get(commitId, propertyName);
+                    }
+                    Optional<Long> previous = CommitIndex.parse(current);
+                    if (previous.isPresent()) {
+                        commitIndex.delete(transaction, propertyName,
+                                previous.get().longValue(), commitId);
+                    }
+                    Optional<Long> value = CommitIndex.parse(propertyValue);
+                    if (value.isPresent()) {
+                        commitIndex.put(transaction, propertyName, value.get().longValue(),
+                                commitId);
+                    }
+                }
+                if (propertiesDatabaseName == null) {
+                    node.properties.put(propertyName, propertyValue);
+                    putNodeInternal(transaction, commitId, node);
+                } else {
+                    // the node is left as is
+                    Preconditions.checkState(properties != null, "Graph database is read only");
+                    properties.put(transaction, commitId, propertyName, propertyValue);
+                }
                 commit(transaction);
             } catch (Exception e) {
                 abort(transaction);
@@ -441,78 +2158,521 @@ abstract class JEGraphDatabase extends SynchronizedGraphDatabase {
             }
         }
 
+        ImmutableList<ObjectId> findCommits(String name, long from, long to) {
+            final long start = System.nanoTime();
+            final SecondaryRefresher refresher = beginRead();
+            ImmutableList<ObjectId> commits;
+            try {
+                final CommitIndex commitIndex = this.commitIndex;
+                Preconditions.checkState(commitIndex != null,
+                        "Commit index not enabled, see the %s config key", CommitIndex.CONFIG_KEY);
+                Preconditions.checkArgument(CommitIndex.TIMESTAMP.equals(name)
+                        || indexedProperties.contains(name), "Property %s is not indexed", name);
+                Preconditions.checkState(commitIndex.isComplete(name),
+                        "Commit index incomplete, run %s to complete it",
+                        JEGraphRebuildOp.class.getSimpleName());
+                commits = commitIndex.find(name, from, to);
+            } finally {
+                endRead(refresher);
+            }
+            operations.record("findCommits", start, commits.size(), -1);
+            return commits;
+        }
+
+        void indexTimestamps(final Map<ObjectId, Long> timestamps) {
+            write(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    final CommitIndex commitIndex = Impl.this.commitIndex;
+                    if (commitIndex == null) {
+                        return null;
+                    }
+                    final Transaction transaction = newTransaction();
+                    try {
+                        for (Entry<ObjectId, Long> timestamp : timestamps.entrySet()) {
+                            commitIndex.put(transaction, CommitIndex.TIMESTAMP,
+                                    timestamp.getValue().longValue(), timestamp.getKey());
+                        }
+                        commit(transaction);
+                    } catch (Exception e) {
+                        abort(transaction);
+                        throw Throwables.propagate(e);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        /**
+         * Graph node that reads its neighbours only when asked for the edges in their direction,
+         * and each neighbour's data only when it's traversed in turn
+         */
         private class JEGraphNode extends GraphNode {
-            NodeData node;
 
-            List<GraphEdge> edges;
+            private final ObjectId id;
+
+            @Nullable
+            private NodeData node;
+
+            @Nullable
+            private List<GraphEdge> incoming, outgoing;
 
             public JEGraphNode(NodeData node) {
+                this.id = node.id;
                 this.node = node;
-                this.edges = null;
+            }
+
+            /**
+             * A node whose data is read on first use
+             */
+            JEGraphNode(ObjectId id) {
+                this.id = id;
+            }
+
+            private NodeData node() {
+                if (node == null) {
+                    node = getNodeInternal(id, true);
+                }
+                return node;
             }
 
             @Override
             public ObjectId getIdentifier() {
-                return node.id;
+                return id;
             }
 
             @Override
             public Iterator<GraphEdge> getEdges(final Direction direction) {
-                if (edges == null) {
-                    edges = new LinkedList<GraphEdge>();
-                    Iterator<ObjectId> nodeEdges = node.incoming.iterator();
-                    while (nodeEdges.hasNext()) {
-                        ObjectId otherNode = nodeEdges.next();
-                        edges.add(new GraphEdge(new JEGraphNode(getNodeInternal(otherNode, true)),
-                                this));
-                    }
+                switch (direction) {
+                case OUT:
+                    return outgoing().iterator();
+                case IN:
+                    return incoming().iterator();
+                default:
+                    return Iterators.concat(incoming().iterator(), outgoing().iterator());
+                }
+            }
 
-                    nodeEdges = node.outgoing.iterator();
-                    while (nodeEdges.hasNext()) {
-                        ObjectId otherNode = nodeEdges.next();
-                        edges.add(new GraphEdge(this,
-                                new JEGraphNode(getNodeInternal(otherNode, true))));
+            private List<GraphEdge> incoming() {
+                if (incoming == null) {
+                    List<ObjectId> ids = node().incoming;
+                    List<GraphEdge> edges = new ArrayList<>(ids.size());
+                    for (ObjectId child : ids) {
+                        edges.add(new GraphEdge(new JEGraphNode(child), this));
                     }
+                    incoming = edges;
                 }
+                return incoming;
+            }
 
-                final GraphNode myNode = this;
-
-                return Iterators.filter(edges.iterator(), new Predicate<GraphEdge>() {
-                    @Override
-                    public boolean apply(GraphEdge input) {
-                        switch (direction) {
-                        case OUT:
-                            return input.getFromNode() == myNode;
-                        case IN:
-                            return input.getToNode() == myNode;
-                        default:
-                            break;
-                        }
-                        return true;
+            private List<GraphEdge> outgoing() {
+                if (outgoing == null) {
+                    List<ObjectId> ids = node().outgoing;
+                    List<GraphEdge> edges = new ArrayList<>(ids.size());
+                    for (ObjectId parent : ids) {
+                        edges.add(new GraphEdge(this, new JEGraphNode(parent)));
                     }
-                });
+                    outgoing = edges;
+                }
+                return outgoing;
             }
 
             @Override
             public boolean isSparse() {
-                return node.isSparse();
+                if (propertiesDatabaseName == null) {
+                    return node().isSparse();
+                }
+                return Boolean.parseBoolean(getPropertyInternal(id, SPARSE_FLAG));
             }
 
         }
 
+        @Nullable
+        private String getPropertyInternal(ObjectId id, String name) {
+            final SecondaryRefresher refresher = beginRead();
+            try {
+                final GraphProperties properties = this.properties;
+                return properties == null ? null : properties.get(id, name);
+            } finally {
+                endRead(refresher);
+            }
+        }
+
         @Override
         public GraphNode getNode(ObjectId id) {
-            return new JEGraphNode(getNodeInternal(id, true));
+            final long start = System.nanoTime();
+            GraphNode node = new JEGraphNode(getNodeInternal(id, true));
+            operations.record("getNode", start, 1, -1);
+            return node;
+        }
+
+        void sync() {
+            lazyOpen.await();
+            if (graphDb != null && graphDb.getConfig().getDeferredWrite()) {
+                graphDb.sync();
+            }
+            final ReachabilityIndex reachability = this.reachability;
+            if (reachability != null) {
+                reachability.sync();
+            }
+            final GraphProperties properties = this.properties;
+            if (properties != null) {
+                properties.sync();
+            }
+            final CommitIndex commitIndex = this.commitIndex;
+            if (commitIndex != null) {
+                commitIndex.sync();
+            }
+        }
+
+        /**
+         * @return the names of the graph database and the ones named after it, including those
+         *         left by an interrupted {@link #rebuild}
+         */
+        private List<String> companionDatabaseNames() {
+            List<String> names = Lists.newArrayList(databaseName, reachabilityDatabaseName);
+            if (propertiesDatabaseName != null) {
+                names.add(propertiesDatabaseName);
+            }
+            names.add(commitIndexDatabaseName);
+            names.add(rebuildDatabaseName);
+            names.add(backupDatabaseName);
+            return names;
+        }
+
+        void remove() {
+            lazyOpen.await();
+            shutDownWriter();
+            shutDownMemoryIndexLoader();
+            final Environment env = this.env;
+            Preconditions.checkState(env != null, "Graph database is closed");
+            try {
+                closeCompanionDatabases();
+                graphDb.close();
+                graphDb = null;
+                final List<String> names = env.getDatabaseNames();
+                for (String name : companionDatabaseNames()) {
+                    if (names.contains(name)) {
+                        env.removeDatabase(null, name);
+                    }
+                }
+                LOGGER.info("Removed graph database {} from {}", databaseName, env.getHome());
+            } finally {
+                operations.unregister();
+                releaseEnvironment(env);
+                this.env = null;
+            }
+        }
+
+        int copyTo(final Impl target) {
+            final long start = System.nanoTime();
+            final int batchSize = getBatchSize();
+            final List<NodeData> batch = new ArrayList<>(batchSize);
+            int count = 0;
+            // reads go to the database until the imported nodes are reloaded at the end
+            target.lazyOpen.await();
+            target.dropMemoryIndex(false);
+            final SecondaryRefresher refresher = beginRead();
+            try (Cursor cursor = graphDb.openCursor(null, CursorConfig.READ_UNCOMMITTED)) {
+                DatabaseEntry key = new DatabaseEntry();
+                DatabaseEntry data = new DatabaseEntry();
+                while (cursor.getNext(key, data, LockMode.READ_UNCOMMITTED) == SUCCESS) {
+                    NodeData node = decode(key, data);
+                    if (properties != null) {
+                        node.properties.putAll(properties.getAll(node.id));
+                    }
+                    batch.add(node);
+                    if (batch.size() == batchSize) {
+                        count += target.importNodes(batch);
+                        batch.clear();
+                    }
+                }
+            } finally {
+                endRead(refresher);
+            }
+            count += target.importNodes(batch);
+            target.write(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    target.buildReachability(target.getBatchSize());
+                    final CommitIndex commitIndex = Impl.this.commitIndex;
+                    if (commitIndex != null && target.commitIndex != null) {
+                        final Transaction transaction = target.newTransaction();
+                        try {
+                            commitIndex.copyTo(target.commitIndex, transaction);
+                            target.commit(transaction);
+                        } catch (Exception e) {
+                            target.abort(transaction);
+                            throw Throwables.propagate(e);
+                        }
+                    }
+                    target.loadMemoryIndex();
+                    return null;
+                }
+            });
+            LOGGER.info("Copied {} graph nodes from {} to {} in {} ms", count, databaseName,
+                    target.databaseName,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return count;
+        }
+
+        int rebuild(final Iterable<NodeData> nodes, final boolean computeDepths,
+                final boolean timestampsIndexed) {
+            Preconditions.checkState(!readOnly, "Graph database is read only");
+            final long start = System.nanoTime();
+            final int batchSize = getBatchSize();
+            int count = write(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return Integer.valueOf(
+                            rebuildInternal(nodes, computeDepths, timestampsIndexed, batchSize));
+                }
+            }).intValue();
+            LOGGER.info("Rebuilt {} graph nodes at {} in {} ms", count, env.getHome(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return count;
+        }
+
+        private int rebuildInternal(final Iterable<NodeData> nodes, final boolean computeDepths,
+                final boolean timestampsIndexed, final int batchSize) {
+            CommitGraphIndex index = null;
+            if (computeDepths) {
+                index = new CommitGraphIndex();
+                for (NodeData node : nodes) {
+                    index.load(node);
+                }
+                index.loaded();
+            }
+            dropMemoryIndex(true);
+
+            if (env.getDatabaseNames().contains(rebuildDatabaseName)) {
+                env.removeDatabase(null, rebuildDatabaseName);
+            }
+            // same config, as whether a database is transactional can't change once created
+            final DatabaseConfig dbConfig = graphDb.getConfig();
+            dbConfig.setAllowCreate(true);
+            final Database target = env.openDatabase(null, rebuildDatabaseName, dbConfig);
+            closeCompanionDatabases();
+            if (env.getDatabaseNames().contains(reachabilityDatabaseName)) {
+                env.truncateDatabase(null, reachabilityDatabaseName, false);
+            }
+            openCompanionDatabases();
+            final ReachabilityIndex reachability = this.reachability;
+            final CommitIndex commitIndex = this.commitIndex;
+            if (index != null) {
+                // the chains of the memory index labels
+                reachability.reserveChains(index.size() + 1L);
+            }
+
+            int count = 0;
+            Transaction transaction = newTransaction();
+            try {
+                for (NodeData node : nodes) {
+                    NodeData current = getNode(node.id, false);
+                    if (current != null) {
+                        node.mappedTo = current.mappedTo;
+                        node.properties.putAll(current.properties);
+                        if (commitIndex != null) {
+                            indexProperties(transaction, commitIndex, node);
+                        }
+                    }
+                    if (index != null) {
+                        node.depth = index.getDepth(node.id);
+                        reachability.putLabel(transaction, node.id, index.getLabel(node.id));
+                    }
+                    putNode(target, transaction, node);
+                    if (++count % batchSize == 0) {
+                        commit(transaction);
+                        transaction = newTransaction();
+                    }
+                }
+                // mapped commits not in the repository, as in sparse clones
+                try (Cursor cursor = graphDb.openCursor(null, CursorConfig.READ_UNCOMMITTED)) {
+                    DatabaseEntry key = new DatabaseEntry();
+                    DatabaseEntry data = new DatabaseEntry();
+                    while (cursor.getNext(key, data, LockMode.READ_UNCOMMITTED) == SUCCESS) {
+                        NodeData current = decode(key, data);
+                        if (current.mappedTo == null || current.mappedTo.isNull()
+                                || SUCCESS == target.get(transaction, key, new DatabaseEntry(),
+                                        LockMode.READ_UNCOMMITTED)) {
+                            continue;
+                        }
+                        NodeData node = new NodeData(current.id, current.mappedTo,
+                                new ArrayList<ObjectId>(2), new ArrayList<ObjectId>(2),
+                                current.properties);
+                        if (commitIndex != null) {
+                            indexProperties(transaction, commitIndex, node);
+                        }
+                        if (index != null) {
+                            node.depth = 0;
+                            reachability.putLabel(transaction, node.id,
+                                    new Label(1, reachability.newChain(), 0));
+                        }
+                        putNode(target, transaction, node);
+                        count++;
+                    }
+                }
+                if (index != null) {
+                    reachability.markComplete(transaction);
+                }
+                if (commitIndex != null && timestampsIndexed) {
+                    commitIndex.markComplete(transaction, indexedProperties);
+                }
+                commit(transaction);
+            } catch (Exception e) {
+                abort(transaction);
+                target.close();
+                env.removeDatabase(null, rebuildDatabaseName);
+                throw Throwables.propagate(e);
+            }
+            if (dbConfig.getDeferredWrite()) {
+                target.sync();
+            }
+            target.close();
+            graphDb.close();
+            try {
+                replaceDatabase();
+            } finally {
+                // the rebuilt one, or the current one if it couldn't be replaced
+                dbConfig.setAllowCreate(false);
+                graphDb = env.openDatabase(null, databaseName, dbConfig);
+            }
+            if (index == null) {
+                buildReachability(batchSize);
+            } else {
+                reachability.sync();
+            }
+            loadMemoryIndex();
+            return count;
+        }
+
+        /**
+         * Replaces the database with the {@link #rebuild rebuilt} one, in a single transaction if
+         * the environment is transactional. Otherwise the current database is renamed to a
+         * backup first and removed once the rebuilt one has taken its name, so
+         * {@link #recoverRebuild} can complete the replacement if interrupted.
+         */
+        private void replaceDatabase() {
+            if (env.getConfig().getTransactional()) {
+                TransactionConfig txConfig = new TransactionConfig();
+                txConfig.setDurability(Durability.COMMIT_SYNC);
+                final Transaction transaction = env.beginTransaction(null, txConfig);
+                try {
+                    env.removeDatabase(transaction, databaseName);
+                    env.renameDatabase(transaction, rebuildDatabaseName, databaseName);
+                    transaction.commit();
+                } catch (RuntimeException e) {
+                    transaction.abort();
+                    throw e;
+                }
+            } else {
+                env.renameDatabase(null, databaseName, backupDatabaseName);
+                env.renameDatabase(null, rebuildDatabaseName, databaseName);
+                env.removeDatabase(null, backupDatabaseName);
+                env.flushLog(true);
+            }
+        }
+
+        /**
+         * Cleans up after a {@link #rebuild} interrupted by a crash: completes the replacement of
+         * the database if it was renamed to a backup, whose rebuilt one was complete by then, and
+         * removes the backup and the rebuilt database of an unfinished rebuild
+         */
+        private void recoverRebuild(Environment environment) {
+            List<String> names = environment.getDatabaseNames();
+            if (!names.contains(databaseName) && names.contains(backupDatabaseName)) {
+                final String replacement = names.contains(rebuildDatabaseName)
+                        ? rebuildDatabaseName : backupDatabaseName;
+                LOGGER.warn("Completing the interrupted replacement of graph database {} at {}",
+                        databaseName, environment.getHome());
+                environment.renameDatabase(null, replacement, databaseName);
+                names = environment.getDatabaseNames();
+            }
+            for (String leftover : ImmutableList.of(backupDatabaseName, rebuildDatabaseName)) {
+                if (names.contains(leftover)) {
+                    LOGGER.info("Removing the leftover graph database {} at {}", leftover,
+                            environment.getHome());
+                    environment.removeDatabase(null, leftover);
+                }
+            }
+        }
+
+        private void indexProperties(@Nullable Transaction transaction, CommitIndex commitIndex,
+                NodeData node) {
+            for (String name : indexedProperties) {
+                Optional<Long> value = CommitIndex.parse(node.properties.get(name));
+                if (value.isPresent()) {
+                    commitIndex.put(transaction, name, value.get().longValue(), node.id);
+                }
+            }
+        }
+
+        private void putNode(Database database, @Nullable Transaction transaction,
+                NodeData node) {
+            DatabaseEntry data = new DatabaseEntry();
+            BINDING.objectToEntry(node, data);
+            database.put(transaction, new DatabaseEntry(node.id.getRawValue()), data);
+        }
+
+        /**
+         * Writes the nodes as they are, properties included, in a single transaction. The memory
+         * index is not updated, {@link #copyTo} reloads it once all the nodes are imported.
+         */
+        private int importNodes(final List<NodeData> nodes) {
+            if (nodes.isEmpty()) {
+                return 0;
+            }
+            write(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    final Transaction transaction = newTransaction();
+                    try {
+                        if (reachability != null && reachability.isComplete()) {
+                            // built once all the nodes are imported
+                            reachability.markIncomplete(transaction);
+                        }
+                        if (commitIndex != null && commitIndex.isComplete()) {
+                            // the nodes come without their timestamps
+                            commitIndex.markIncomplete(transaction);
+                        }
+                        for (NodeData node : nodes) {
+                            putNodeInternal(transaction, node.id, node);
+                            if (properties != null) {
+                                for (Entry<String, String> p : node.properties.entrySet()) {
+                                    properties.put(transaction, node.id, p.getKey(),
+                                            p.getValue());
+                                }
+                            }
+                        }
+                        commit(transaction);
+                    } catch (Exception e) {
+                        abort(transaction);
+                        throw Throwables.propagate(e);
+                    }
+                    return null;
+                }
+            });
+            return nodes.size();
         }
 
         @Override
         public void truncate() {
+            lazyOpen.await();
+            shutDownWriter();
+            shutDownMemoryIndexLoader();
             try {
                 final Environment env = this.env;
+                closeCompanionDatabases();
                 graphDb.close();
-                env.truncateDatabase(null, databaseName, false);
+                final List<String> names = env.getDatabaseNames();
+                for (String name : companionDatabaseNames()) {
+                    if (names.contains(name)) {
+                        env.truncateDatabase(null, name, false);
+                    }
+                }
                 this.env = null;
                 this.graphDb = null;
+                releaseEnvironment(env);
                 open();
             } catch (Exception e) {
                 throw Throwables.propagate(e);
@@ -18,8 +18,6 @@ import org.eclipse.jdt.annotation.Nullable;
 import org.locationtech.geogig.model.ObjectId;
 import org.locationtech.geogig.repository.Hints;
 import org.locationtech.geogig.storage.ConfigDatabase;
-import org.locationtech.geogig.storage.GraphDatabase;
-import org.locationtech.geogig.storage.impl.SynchronizedGraphDatabase;
 
 import com.google.common.base.Preconditions;
 import com.google.inject.Inject;
@@ -28,13 +26,8 @@ import com.sleepycat.bind.tuple.TupleInput;
 import com.sleepycat.bind.tuple.TupleOutput;
 
 /**
- * Implementation of {@link GraphDatabase} backed by a BerkeleyDB Java Edition database.
- * <p>
- * Implementation note: Since this is the only kind of mutable state we maintain, this
- * implementation extends {@link SynchronizedGraphDatabase} to avoid concurrent threads stepping
- * over each other's feet and overriding graph relations. An alternate solution would be to
- * serialize writes and have free threaded reads.
- * </p>
+ * {@link JEGraphDatabase} in the {@code 0.1} storage format, storing each node in a single record
+ * with its id, mapped id, parents, children and properties.
  */
 public class JEGraphDatabase_v0_1 extends JEGraphDatabase {
 
@@ -0,0 +1,139 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.repository.Hints;
+import org.locationtech.geogig.storage.ConfigDatabase;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Inject;
+import com.sleepycat.bind.tuple.TupleBinding;
+import com.sleepycat.bind.tuple.TupleInput;
+import com.sleepycat.bind.tuple.TupleOutput;
+
+/**
+ * {@link JEGraphDatabase} in the {@code 0.3} storage format, with a more compact node encoding
+ * than {@link JEGraphDatabase_v0_2}.
+ * <p>
+ * The nodes are stored in the {@code GraphNodes} database without their own id, which is the
+ * key, as a flags byte followed by the mapped id if any, the parents, the children and the depth
+ * if known. Ids are written as their 20 raw bytes and counts as packed ints, and the single parent
+ * of most commits is written without a count. Properties are stored in the
+ * {@code GraphNodesProperties} database, one record per property, so setting one doesn't rewrite
+ * the node.
+ *
+ * @see JEGraphMigration
+ */
+public class JEGraphDatabase_v0_3 extends JEGraphDatabase {
+
+    static final String DATABASE_NAME = "GraphNodes";
+
+    private static final TupleBinding<NodeData> BINDING_V3 = new GraphNodeBinding();
+
+    @Inject
+    public JEGraphDatabase_v0_3(final ConfigDatabase config, final EnvironmentBuilder envProvider,
+            final Hints hints) {
+        super(config, envProvider, BINDING_V3, "0.3", hints, DATABASE_NAME, true, true);
+    }
+
+    static class GraphNodeBinding extends TupleBinding<NodeData> {
+
+        private static final int MAPPED = 0x01;
+
+        private static final int SINGLE_PARENT = 0x02;
+
+        private static final int DEPTH = 0x04;
+
+        /**
+         * @return a node with no id, which is the key, nor properties, which are stored apart
+         */
+        @Override
+        public NodeData entryToObject(TupleInput input) {
+            final int flags = input.read();
+            ObjectId mappedTo = (flags & MAPPED) == 0 ? ObjectId.NULL : readId(input);
+            List<ObjectId> outgoing;
+            if ((flags & SINGLE_PARENT) == 0) {
+                outgoing = readIds(input);
+            } else {
+                outgoing = new ArrayList<>(2);
+                outgoing.add(readId(input));
+            }
+            List<ObjectId> incoming = readIds(input);
+
+            NodeData node = new NodeData(null, mappedTo, outgoing, incoming,
+                    new HashMap<String, String>());
+            if ((flags & DEPTH) != 0) {
+                node.depth = input.readPackedInt();
+            }
+            return node;
+        }
+
+        @Override
+        public void objectToEntry(NodeData node, TupleOutput output) {
+            final boolean mapped = node.mappedTo != null && !node.mappedTo.isNull();
+            final boolean singleParent = node.outgoing.size() == 1;
+            int flags = 0;
+            if (mapped) {
+                flags |= MAPPED;
+            }
+            if (singleParent) {
+                flags |= SINGLE_PARENT;
+            }
+            if (node.hasDepth()) {
+                flags |= DEPTH;
+            }
+            output.write(flags);
+            if (mapped) {
+                writeId(node.mappedTo, output);
+            }
+            if (singleParent) {
+                writeId(node.outgoing.get(0), output);
+            } else {
+                writeIds(node.outgoing, output);
+            }
+            writeIds(node.incoming, output);
+            if (node.hasDepth()) {
+                output.writePackedInt(node.depth);
+            }
+        }
+
+        private static ObjectId readId(TupleInput input) {
+            byte[] raw = new byte[ObjectId.NUM_BYTES];
+            Preconditions.checkState(ObjectId.NUM_BYTES == input.read(raw));
+            return ObjectId.createNoClone(raw);
+        }
+
+        private static void writeId(ObjectId id, TupleOutput output) {
+            output.write(id.getRawValue());
+        }
+
+        private static List<ObjectId> readIds(TupleInput input) {
+            final int size = input.readPackedInt();
+            List<ObjectId> ids = new ArrayList<>(size + 1);
+            for (int i = 0; i < size; i++) {
+                ids.add(readId(input));
+            }
+            return ids;
+        }
+
+        private static void writeIds(List<ObjectId> ids, TupleOutput output) {
+            final int size = ids.size();
+            output.writePackedInt(size);
+            for (int i = 0; i < size; i++) {
+                writeId(ids.get(i), output);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import org.locationtech.geogig.repository.Hints;
+import org.locationtech.geogig.storage.ConfigDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+
+/**
+ * Migrates the graph of a repository in the {@code 0.2} storage format to the {@code 0.3} one.
+ * <p>
+ * The nodes are copied to the {@link JEGraphDatabase_v0_3} databases, which live in the same
+ * environment under different names, and the repository storage version set to {@code 0.3}. Only
+ * then is the {@code 0.2} graph database removed, so an interrupted migration either leaves the
+ * repository in the {@code 0.2} format, to be migrated again, or in the {@code 0.3} one with the
+ * old graph left behind, which migrating again removes. Objects are stored the same way by both
+ * formats, so they are left as they are. The repository must not be open while migrating it.
+ */
+public class JEGraphMigration {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JEGraphMigration.class);
+
+    /**
+     * Repository config key the storage format version is recorded at, by the object and graph
+     * databases {@code configure()}
+     */
+    static final String VERSION_CONFIG_KEY = "bdbje.version";
+
+    /**
+     * @return the number of graph nodes migrated, {@code 0} if the repository was already in the
+     *         {@code 0.3} format
+     */
+    public static int migrate(ConfigDatabase config, EnvironmentBuilder envProvider) {
+        final Optional<String> version = config.get(VERSION_CONFIG_KEY);
+        Preconditions.checkArgument(version.isPresent(), "Not a bdbje repository");
+        final Hints hints = new Hints();
+        int count = 0;
+        if (!"0.3".equals(version.get())) {
+            Preconditions.checkArgument("0.2".equals(version.get()),
+                    "Only repositories in the 0.2 format can be migrated, this one is %s",
+                    version.get());
+            count = copy(config, envProvider, hints);
+            config.put(VERSION_CONFIG_KEY, "0.3");
+            LOGGER.info("Migrated {} graph nodes to the 0.3 format", count);
+        }
+        removeSource(config, envProvider, hints);
+        return count;
+    }
+
+    private static int copy(ConfigDatabase config, EnvironmentBuilder envProvider, Hints hints) {
+        JEGraphDatabase source = new JEGraphDatabase_v0_2(config, envProvider, hints);
+        JEGraphDatabase target = new JEGraphDatabase_v0_3(config, envProvider, hints);
+        source.open();
+        try {
+            target.open();
+            try {
+                return source.copyTo(target);
+            } finally {
+                target.close();
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Removes the {@code 0.2} graph databases, if still there
+     */
+    private static void removeSource(ConfigDatabase config, EnvironmentBuilder envProvider,
+            Hints hints) {
+        JEGraphDatabase source = new JEGraphDatabase_v0_2(config, envProvider, hints);
+        source.open();
+        try {
+            source.remove();
+        } catch (RuntimeException e) {
+            source.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.model.RevCommit;
+import org.locationtech.geogig.model.RevObject;
+import org.locationtech.geogig.repository.AbstractGeoGigOp;
+import org.locationtech.geogig.repository.ProgressListener;
+import org.locationtech.geogig.storage.GraphDatabase;
+import org.locationtech.geogig.storage.ObjectDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Rebuilds the graph database of a BDB JE backed repository from the commits in its object
+ * database, e.g. when it's lost or to migrate it to another format, much faster than truncating
+ * it and adding the commits one by one.
+ * <p>
+ * The rebuild runs in two phases:
+ * <ul>
+ * <li><b>scan</b>: reads the JE database in parallel, split in {@link #NUM_RANGES} key ranges by
+ * the first id byte, and the pack files, recording the parents of every commit in a
+ * {@link GraphEdgeSorter}, which sorts the edges in temporary files.
+ * <li><b>load</b>: writes the sorted nodes, with their parents and children, to a new graph
+ * database in key order, in batches of {@link JEGraphDatabase#BATCH_SIZE_CONFIG_KEY} nodes, which
+ * then replaces the current one. Unless {@link #setComputeDepths disabled}, the depths and
+ * generations of the nodes are computed in memory first and stored along with them, the depths
+ * only in the formats that store them.
+ * </ul>
+ * <p>
+ * The mappings and properties of the nodes already in the graph are kept. If the
+ * {@link CommitIndex} is enabled, the commits are indexed by committer timestamp and the nodes by
+ * their indexed properties, completing the index. It is not meant to run while other commands use
+ * the repository.
+ */
+public class JEGraphRebuildOp extends AbstractGeoGigOp<Integer> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JEGraphRebuildOp.class);
+
+    /**
+     * Number of key ranges the scan is split in, each covering 16 values of the ids first byte
+     */
+    static final int NUM_RANGES = 16;
+
+    private static final int RANGE_WIDTH = 256 / NUM_RANGES;
+
+    /**
+     * Edge records sorted in memory at a time, about 100MB of heap
+     */
+    private static final int RUN_SIZE = 1000 * 1000;
+
+    private int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private boolean computeDepths = true;
+
+    /**
+     * Number of key ranges scanned concurrently, defaults to the number of processors, up to 4
+     */
+    public JEGraphRebuildOp setThreads(int threads) {
+        Preconditions.checkArgument(threads > 0, "threads must be positive");
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Whether to compute the depths and generations of the commits in memory while rebuilding,
+     * about 100 bytes per commit, defaults to {@code true}. Otherwise the reachability index is
+     * built from the rebuilt graph and depths are computed when asked for.
+     */
+    public JEGraphRebuildOp setComputeDepths(boolean computeDepths) {
+        this.computeDepths = computeDepths;
+        return this;
+    }
+
+    /**
+     * @return the number of graph nodes rebuilt
+     */
+    @Override
+    protected Integer _call() {
+        final ObjectDatabase objectDatabase = objectDatabase();
+        Preconditions.checkState(objectDatabase instanceof JEObjectDatabase,
+                "Repository is not backed by a BDB JE object database: %s", objectDatabase);
+        final GraphDatabase graphDatabase = graphDatabase();
+        Preconditions.checkState(graphDatabase instanceof JEGraphDatabase,
+                "Repository is not backed by a BDB JE graph database: %s", graphDatabase);
+        final JEObjectDatabase db = (JEObjectDatabase) objectDatabase;
+        final JEGraphDatabase graph = (JEGraphDatabase) graphDatabase;
+
+        // timestamps are indexed while scanning, the commit index being left as is by the load
+        final boolean indexTimestamps = graph.isCommitIndexEnabled();
+        final Stopwatch sw = Stopwatch.createStarted();
+        final ProgressListener progress = getProgressListener();
+        final int count;
+        try (GraphEdgeSorter sorter = new GraphEdgeSorter(RUN_SIZE)) {
+            progress.setDescription("Scanning commits...");
+            final long commits = scan(db, indexTimestamps ? graph : null, sorter);
+            sorter.finish();
+            LOGGER.debug("Found {} commits and {} edges in {}", commits,
+                    (sorter.size() - commits) / 2, sw);
+
+            progress.setDescription("Loading graph...");
+            count = graph.rebuild(sorter.nodes(), computeDepths, indexTimestamps);
+        }
+        LOGGER.info("Rebuilt the graph of {} with {} nodes in {}", db, count, sw.stop());
+        progress.setDescription(String.format("Graph rebuilt: %,d nodes", count));
+        return Integer.valueOf(count);
+    }
+
+    /**
+     * @param timestampIndex the graph to index the commit timestamps in, if any
+     * @return the number of commits found
+     */
+    private long scan(final JEObjectDatabase db, @Nullable final JEGraphDatabase timestampIndex,
+            final GraphEdgeSorter sorter) {
+        final AtomicLong commits = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("geogig-graph-rebuild-%d").setDaemon(true).build());
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < NUM_RANGES; i++) {
+                final int fromByte = i * RANGE_WIDTH;
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        Collector collector = new Collector(sorter, commits, timestampIndex);
+                        scan(db, fromByte, fromByte + RANGE_WIDTH, collector);
+                        collector.flush();
+                        return null;
+                    }
+                }));
+            }
+            for (final PackFile pack : db.getPackedObjectStore().getPacks()) {
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        Collector collector = new Collector(sorter, commits, timestampIndex);
+                        scan(db, pack, collector);
+                        collector.flush();
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw Throwables.propagate(Throwables.getRootCause(e));
+        } finally {
+            executor.shutdownNow();
+        }
+        return commits.get();
+    }
+
+    private void scan(final JEObjectDatabase db, final int fromByte, final int toByte,
+            final Collector collector) {
+        final JEObjectDatabase.RangeVisitor visitor = new JEObjectDatabase.RangeVisitor() {
+            @Override
+            public boolean visit(ObjectId id, byte[] data, int offset, int length) {
+                collector.add(db.decode(id, data, offset, length));
+                return true;
+            }
+        };
+        db.scanRange(fromByte, toByte, visitor);
+        LOGGER.trace("Scanned key range [{}, {})", fromByte, toByte);
+    }
+
+    private void scan(final JEObjectDatabase db, final PackFile pack, final Collector collector) {
+        for (int i = 0; i < pack.size(); i++) {
+            byte[] data = pack.dataAt(i);
+            collector.add(db.decode(pack.idAt(i), data, 0, data.length));
+        }
+        LOGGER.trace("Scanned pack {}", pack);
+    }
+
+    /**
+     * Records the commits found by a scan task, and their committer timestamps if the graph
+     * {@link CommitIndex} is enabled
+     */
+    private static class Collector {
+
+        private static final int TIMESTAMP_BATCH_SIZE = 10_000;
+
+        private final GraphEdgeSorter sorter;
+
+        private final AtomicLong commits;
+
+        @Nullable
+        private final JEGraphDatabase timestampIndex;
+
+        private final Map<ObjectId, Long> timestamps = new HashMap<>();
+
+        Collector(GraphEdgeSorter sorter, AtomicLong commits,
+                @Nullable JEGraphDatabase timestampIndex) {
+            this.sorter = sorter;
+            this.commits = commits;
+            this.timestampIndex = timestampIndex;
+        }
+
+        void add(RevObject object) {
+            if (!(object instanceof RevCommit)) {
+                return;
+            }
+            RevCommit commit = (RevCommit) object;
+            sorter.add(commit.getId(), commit.getParentIds());
+            commits.incrementAndGet();
+            if (timestampIndex != null) {
+                timestamps.put(commit.getId(), Long.valueOf(commit.getCommitter().getTimestamp()));
+                if (timestamps.size() == TIMESTAMP_BATCH_SIZE) {
+                    flush();
+                }
+            }
+        }
+
+        void flush() {
+            if (!timestamps.isEmpty()) {
+                timestampIndex.indexTimestamps(timestamps);
+                timestamps.clear();
+            }
+        }
+    }
+}
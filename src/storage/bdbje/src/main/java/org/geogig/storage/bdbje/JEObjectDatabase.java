@@ -17,10 +17,12 @@ import static com.sleepycat.je.OperationStatus.SUCCESS;
 import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -36,7 +38,12 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.jdt.annotation.Nullable;
 import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.model.RevCommit;
+import org.locationtech.geogig.model.RevFeatureType;
 import org.locationtech.geogig.model.RevObject;
+import org.locationtech.geogig.model.RevTag;
+import org.locationtech.geogig.model.RevTree;
+import org.locationtech.geogig.repository.impl.Deduplicator;
 import org.locationtech.geogig.storage.BlobStore;
 import org.locationtech.geogig.storage.BulkOpListener;
 import org.locationtech.geogig.storage.ConfigDatabase;
@@ -50,6 +57,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Throwables;
 import com.google.common.collect.AbstractIterator;
@@ -59,6 +67,7 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.UnmodifiableIterator;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sleepycat.je.CacheMode;
+import com.sleepycat.je.CheckpointConfig;
 import com.sleepycat.je.Cursor;
 import com.sleepycat.je.CursorConfig;
 import com.sleepycat.je.Database;
@@ -73,7 +82,12 @@ import com.sleepycat.je.Transaction;
 import com.sleepycat.je.TransactionConfig;
 
 /**
- * 
+ * {@link ObjectDatabase} backed by a BerkeleyDB Java Edition database.
+ * <p>
+ * Objects are written to the JE database. {@link #packObjects} moves the cold ones to immutable
+ * {@link PackedObjectStore pack files} that are consulted after the JE database on reads, so that
+ * read mostly repositories can keep a small JE footprint. Deleting a packed object records its
+ * deletion in the pack store, which hides it from reads.
  */
 abstract class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDatabase {
 
@@ -82,22 +96,19 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
 
     private static final Logger LOGGER = LoggerFactory.getLogger(JEObjectDatabase.class);
 
-    private static final int SYNC_BYTES_LIMIT = 512 * 1024 * 1024;
-
     @Nullable
     private ExecutorService dbSyncService;
 
     private ExecutorService writerService;
 
     /**
-     * The default number of objects bulk operations are partitioned into
+     * Config key for the number of objects bulk operations are partitioned into, overriding the
+     * {@link WorkloadProfile#getBulkPartitionSize() workload profile's}
      * 
      * @see #getAll(Iterable, BulkOpListener)
      * @see #putAll(Iterator, BulkOpListener)
      * @see #deleteAll(Iterator, BulkOpListener)
      */
-    private static final Integer DEFAULT_BULK_PARTITIONING = 10 * 1000;
-
     private static final String BULK_PARTITIONING_CONFIG_KEY = "bdbje.bulkpartition";
 
     private static final String OBJECT_DURABILITY_CONFIG_KEY = "bdbje.object_durability";
@@ -117,21 +128,52 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
 
     private final String envName;
 
+    private final File geoGigDirectory;
+
     private final FileConflictsDatabase conflicts;
 
     private final FileBlobStore blobStore;
 
+    private final PackedObjectStore packs;
+
+    /**
+     * Records the ids of the objects written while a garbage collection is running, so it won't
+     * delete them
+     */
+    private volatile Deduplicator writeTracker;
+
+    private final boolean secondary;
+
+    /**
+     * Reopens the environment periodically when open in secondary mode, {@code null} otherwise
+     */
+    @Nullable
+    private volatile SecondaryRefresher refresher;
+
+    private final WorkloadProfile.Selector profiles;
+
+    private final LazyOpen lazyOpen = new LazyOpen();
+
+    private volatile EnvironmentMetrics metrics;
+
+    private final OperationMetrics operations = new OperationMetrics(ENVIRONMENT_NAME, "lookUp",
+            "exists", "get", "getAll", "put", "putAll", "insertBatch", "delete", "deleteAll");
+
     public JEObjectDatabase(final ObjectSerializingFactory serialization,
             final ConfigDatabase configDB, final EnvironmentBuilder envProvider,
             final boolean readOnly, final String envName) {
         super(serialization);
         this.configDB = configDB;
+        this.profiles = new WorkloadProfile.Selector(configDB);
         this.envProvider = envProvider;
-        this.readOnly = readOnly;
+        this.secondary = envProvider.isSecondary();
+        this.readOnly = readOnly || secondary;
         this.envName = envName;
-        File geoGigDirectory = envProvider.getGeoGigDirectory();
+        this.geoGigDirectory = envProvider.getGeoGigDirectory();
         this.conflicts = new FileConflictsDatabase(geoGigDirectory);
         this.blobStore = new FileBlobStore(geoGigDirectory);
+        this.packs = new PackedObjectStore(new File(new File(geoGigDirectory, envName),
+                PackedObjectStore.PACKS_DIRECTORY));
     }
 
     /**
@@ -140,7 +182,11 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
     private synchronized Environment createEnvironment(boolean readOnly)
             throws com.sleepycat.je.EnvironmentLockedException {
 
-        Environment env = envProvider.setRelativePath(this.envName).setReadOnly(readOnly).get();
+        Environment env;
+        // the builder may be shared with the graph database, opening in parallel
+        synchronized (envProvider) {
+            env = envProvider.setRelativePath(this.envName).setReadOnly(readOnly).get();
+        }
 
         return env;
     }
@@ -151,7 +197,13 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
     }
 
     @Override
-    public synchronized void close() {
+    public void close() {
+        // let a background open finish before closing, outside the lock it needs
+        lazyOpen.awaitQuietly();
+        closeInternal();
+    }
+
+    private synchronized void closeInternal() {
         if (env == null) {
             LOGGER.trace("Database already closed.");
             return;
@@ -160,6 +212,10 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
         final File envHome = env.getHome();
         try {
             LOGGER.debug("Closing object database at {}", envHome);
+            if (refresher != null) {
+                refresher.unregister(reopenable);
+                refresher = null;
+            }
             if (writerService != null) {
                 writerService.shutdown();
                 waitForServiceShutDown(writerService);
@@ -180,7 +236,9 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
         } finally {
             conflicts.close();
             blobStore.close();
-            env.close();
+            packs.close();
+            operations.unregister();
+            releaseEnvironment(env);
             env = null;
         }
         LOGGER.debug("Database {} closed.", envHome);
@@ -198,16 +256,35 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
 
     @Override
     public boolean isOpen() {
-        return objectDb != null;
+        return objectDb != null || lazyOpen.isPending();
     }
 
+    /**
+     * Opens the database, or starts opening it in the background if {@link LazyOpen#CONFIG_KEY}
+     * is set, in which case the first access waits for it to be open
+     */
     @Override
     public synchronized void open() {
         if (isOpen()) {
-            LOGGER.trace("Environment {} already open", env.getHome());
+            LOGGER.trace("Object database {} already open", envName);
             return;
         }
+        if (LazyOpen.isEnabled(configDB)) {
+            lazyOpen.start(new Runnable() {
+                @Override
+                public void run() {
+                    openInternal();
+                }
+            });
+            return;
+        }
+        openInternal();
+    }
+
+    private synchronized void openInternal() {
         this.objectDb = createDatabase();
+        environmentOpened();
+        operations.register(env.getHome(), configDB);
 
         int nWriterThreads = 1;
         writerService = Executors.newFixedThreadPool(nWriterThreads, new ThreadFactoryBuilder()
@@ -218,9 +295,101 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
         }
         this.conflicts.open();
         this.blobStore.open();
-        LOGGER.debug("Object database opened at {}. Transactional: {}", env.getHome(),
-                objectDb.getConfig().getTransactional());
+        this.packs.open();
+        if (secondary) {
+            this.refresher = SecondaryRefresher.register(env.getHome(),
+                    SecondaryRefresher.getRefreshIntervalMillis(configDB), reopenable);
+        }
+        LOGGER.debug("Object database opened at {}. Transactional: {}, secondary: {}",
+                env.getHome(), objectDb.getConfig().getTransactional(), secondary);
+
+    }
 
+    /**
+     * Reopens the environment of a secondary database to see the changes made by the writer
+     * process, called by the {@link SecondaryRefresher} with no reads in progress
+     */
+    private final SecondaryRefresher.Reopenable reopenable = new SecondaryRefresher.Reopenable() {
+
+        @Override
+        public void closeEnvironment() {
+            objectDb.close();
+            releaseEnvironment(env);
+        }
+
+        @Override
+        public void openEnvironment() {
+            objectDb = createDatabase();
+            environmentOpened();
+            packs.open();
+        }
+    };
+
+    /**
+     * Registers the environment the object database was just open in with the cache governor and
+     * metrics, and applies the workload profile to it
+     */
+    private void environmentOpened() {
+        if (CacheGovernor.isEnabled()) {
+            CacheGovernor.get().register(env, configDB);
+        }
+        metrics = EnvironmentMetrics.register(env, ENVIRONMENT_NAME);
+        if (IdleLogCleaner.isEnabled()) {
+            IdleLogCleaner.get().register(env, operations, metrics);
+        }
+        profiles.apply(env);
+    }
+
+    /**
+     * Releases the environment the object database was open in
+     */
+    private void releaseEnvironment(Environment env) {
+        if (IdleLogCleaner.isEnabled()) {
+            IdleLogCleaner.get().unregister(env, operations);
+        }
+        if (CacheGovernor.isEnabled()) {
+            CacheGovernor.get().unregister(env);
+        }
+        EnvironmentMetrics.unregister(env);
+        envProvider.release(env);
+    }
+
+    @Nullable
+    private SecondaryRefresher beginRead() {
+        lazyOpen.await();
+        SecondaryRefresher refresher = this.refresher;
+        if (refresher != null) {
+            refresher.beginRead();
+        }
+        return refresher;
+    }
+
+    private void endRead(@Nullable SecondaryRefresher refresher) {
+        if (refresher != null) {
+            refresher.endRead();
+        }
+    }
+
+    @Nullable
+    SecondaryRefresher getSecondaryRefresher() {
+        return refresher;
+    }
+
+    /**
+     * @return whether this database is open in secondary mode
+     * @see EnvironmentBuilder#SECONDARY_HINT
+     */
+    public boolean isSecondary() {
+        return secondary;
+    }
+
+    /**
+     * @return the number of milliseconds since a secondary database last reopened its environment,
+     *         or {@code 0} if not open in secondary mode
+     */
+    public long getStalenessMillis() {
+        SecondaryRefresher refresher = this.refresher;
+        return refresher == null ? 0L : refresher.getStalenessMillis();
     }
 
     @Override
@@ -244,9 +413,16 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
                     "The repository is already open by another process for writing", e);
         }
 
-        if (!environment.getDatabaseNames().contains(databaseName)) {
-            if (readOnly) {
-                environment.close();
+        final boolean create = !environment.getDatabaseNames().contains(databaseName);
+        if (create) {
+            if (secondary) {
+                envProvider.release(environment);
+                throw new IllegalStateException(String.format(
+                        "Database %s does not exist, can't open it in secondary mode",
+                        databaseName));
+            }
+            if (environment.getConfig().getReadOnly()) {
+                envProvider.release(environment);
                 try {
                     environment = createEnvironment(false);
                 } catch (EnvironmentLockedException e) {
@@ -255,13 +431,6 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
                             databaseName));
                 }
             }
-            DatabaseConfig dbConfig = new DatabaseConfig();
-            dbConfig.setAllowCreate(true);
-            Database openDatabase = environment.openDatabase(null, databaseName, dbConfig);
-            openDatabase.close();
-            environment.flushLog(true);
-            environment.close();
-            environment = createEnvironment(readOnly);
         }
 
         Database database;
@@ -269,18 +438,33 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
             LOGGER.debug("Opening ObjectDatabase at {}", environment.getHome());
 
             DatabaseConfig dbConfig = new DatabaseConfig();
-            dbConfig.setCacheMode(CacheMode.MAKE_COLD);
+            // no database cache mode, so the environment's, set by the workload profile, applies
             dbConfig.setKeyPrefixing(false);// can result in a slightly smaller db size
 
-            dbConfig.setReadOnly(readOnly);
             boolean transactional = environment.getConfig().getTransactional();
             dbConfig.setTransactional(transactional);
             dbConfig.setDeferredWrite(!transactional);
 
+            // create the database in the same environment handle instead of reopening it
+            dbConfig.setAllowCreate(create);
+            dbConfig.setReadOnly(readOnly && !create);
             database = environment.openDatabase(null, databaseName, dbConfig);
+            if (create) {
+                if (dbConfig.getDeferredWrite()) {
+                    database.sync();
+                } else {
+                    environment.flushLog(true);
+                }
+                if (readOnly) {
+                    database.close();
+                    dbConfig.setAllowCreate(false);
+                    dbConfig.setReadOnly(true);
+                    database = environment.openDatabase(null, databaseName, dbConfig);
+                }
+            }
         } catch (RuntimeException e) {
             if (environment != null) {
-                environment.close();
+                envProvider.release(environment);
             }
             throw e;
         }
@@ -291,6 +475,18 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
 
     @Override
     protected List<ObjectId> lookUpInternal(final byte[] partialId) {
+        final long start = System.nanoTime();
+        final SecondaryRefresher refresher = beginRead();
+        try {
+            List<ObjectId> matches = lookUpPartial(partialId);
+            operations.record("lookUp", start, matches.size(), -1);
+            return matches;
+        } finally {
+            endRead(refresher);
+        }
+    }
+
+    private List<ObjectId> lookUpPartial(final byte[] partialId) {
         checkOpen();
 
         DatabaseEntry key;
@@ -312,8 +508,8 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
         try {
             // position cursor at the first closest key to the one looked up
             OperationStatus status = cursor.getSearchKeyRange(key, data, LockMode.READ_UNCOMMITTED);
+            matches = new ArrayList<ObjectId>(2);
             if (SUCCESS.equals(status)) {
-                matches = new ArrayList<ObjectId>(2);
                 final byte[] compKey = new byte[partialId.length];
                 while (SUCCESS.equals(status)) {
                     byte[] keyData = key.getData();
@@ -325,8 +521,15 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
                     }
                     status = cursor.getNext(key, data, LockMode.READ_UNCOMMITTED);
                 }
-            } else {
-                matches = Collections.emptyList();
+            }
+            if (!packs.isEmpty()) {
+                List<ObjectId> packed = new ArrayList<>(2);
+                packs.lookUp(partialId, packed);
+                for (ObjectId id : packed) {
+                    if (!matches.contains(id)) {
+                        matches.add(id);
+                    }
+                }
             }
             return matches;
         } finally {
@@ -339,6 +542,18 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
      */
     @Override
     public boolean exists(final ObjectId id) {
+        final long start = System.nanoTime();
+        final SecondaryRefresher refresher = beginRead();
+        try {
+            boolean exists = existsInternal(id);
+            operations.record("exists", start, 1, -1);
+            return exists;
+        } finally {
+            endRead(refresher);
+        }
+    }
+
+    private boolean existsInternal(final ObjectId id) {
         checkOpen();
 
         Preconditions.checkNotNull(id, "argument id is null");
@@ -351,11 +566,52 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
         final LockMode lockMode = LockMode.READ_UNCOMMITTED;
         Transaction transaction = null;
         OperationStatus status = objectDb.get(transaction, key, data, lockMode);
-        return SUCCESS == status;
+        return SUCCESS == status || (!packs.isEmpty() && packs.contains(id));
+    }
+
+    /**
+     * The type of object requested through {@link #get(ObjectId, Class)} or
+     * {@link #getIfPresent(ObjectId, Class)}, which don't pass it down to
+     * {@link #getRawInternal}, to choose the cache mode of the read
+     */
+    private final ThreadLocal<Class<?>> requestedType = new ThreadLocal<>();
+
+    @Override
+    public <T extends RevObject> T get(final ObjectId id, final Class<T> type) {
+        final Class<?> previous = requestedType.get();
+        requestedType.set(type);
+        try {
+            return super.get(id, type);
+        } finally {
+            requestedType.set(previous);
+        }
+    }
+
+    @Override
+    public <T extends RevObject> T getIfPresent(final ObjectId id, final Class<T> type) {
+        final Class<?> previous = requestedType.get();
+        requestedType.set(type);
+        try {
+            return super.getIfPresent(id, type);
+        } finally {
+            requestedType.set(previous);
+        }
     }
 
     @Override
     protected InputStream getRawInternal(final ObjectId id, final boolean failIfNotFound) {
+        final long start = System.nanoTime();
+        final SecondaryRefresher refresher = beginRead();
+        try {
+            ByteArrayInputStream raw = getRaw(id, failIfNotFound);
+            operations.record("get", start, 1, raw == null ? 0 : raw.available());
+            return raw;
+        } finally {
+            endRead(refresher);
+        }
+    }
+
+    private ByteArrayInputStream getRaw(final ObjectId id, final boolean failIfNotFound) {
         checkOpen();
 
         Preconditions.checkNotNull(id, "id is null");
@@ -364,8 +620,28 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
 
         final LockMode lockMode = LockMode.READ_UNCOMMITTED;
         Transaction transaction = null;
-        OperationStatus operationStatus = objectDb.get(transaction, key, data, lockMode);
+        final WorkloadProfile.Access access = readAccess(requestedType.get(), false);
+        final CacheMode cacheMode = access == null ? null : cacheMode(access);
+        OperationStatus operationStatus;
+        if (cacheMode == null) {
+            operationStatus = objectDb.get(transaction, key, data, lockMode);
+        } else {
+            // JE only allows setting the cache mode of a single read through a cursor
+            CursorConfig cursorConfig = new CursorConfig();
+            cursorConfig.setReadUncommitted(true);
+            Cursor cursor = objectDb.openCursor(transaction, cursorConfig);
+            try {
+                cursor.setCacheMode(cacheMode);
+                operationStatus = cursor.getSearchKey(key, data, lockMode);
+            } finally {
+                cursor.close();
+            }
+        }
         if (NOTFOUND.equals(operationStatus)) {
+            byte[] packed = packs.isEmpty() ? null : packs.get(id);
+            if (packed != null) {
+                return new ByteArrayInputStream(packed);
+            }
             if (failIfNotFound) {
                 throw new IllegalArgumentException("Object does not exist: " + id.toString()
                         + " at " + env.getHome().getAbsolutePath());
@@ -387,11 +663,13 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
             return;
         }
 
+        final long start = System.nanoTime();
         final int buffSize = 256 * 1024;
         BulkInsert task = new BulkInsert(objects, listener, buffSize);
 
         try {
-            task.run();
+            int count = task.run().intValue();
+            operations.record("putAll", start, count, -1);
         } catch (Exception e) {
             throw Throwables.propagate(e);
         }
@@ -405,6 +683,11 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
 
         private Iterator<? extends RevObject> objects;
 
+        /**
+         * Timestamps of the commits serialized since they were last indexed
+         */
+        private Map<ObjectId, Long> commits = new HashMap<>();
+
         public BulkInsert(final Iterator<? extends RevObject> objects,
                 final BulkOpListener listener, final int buffSize) {
             this.objects = objects;
@@ -451,6 +734,7 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
                     LOGGER.debug("Inserted {} objects with a byte buffer of {} KB", objectsInBuffer,
                             (out.size() / 1024));
                 }
+                indexCommits(commits);
                 waitForWrites(pendingWrites);
             } catch (Exception e) {
                 LOGGER.error("Error inserting objects: " + e.getMessage(), e);
@@ -493,6 +777,14 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
             writeObject(o, out);
             int size = out.size() - offset;
             offsets.put(o.getId(), new int[] { offset, size });
+            if (o instanceof RevCommit) {
+                commits.put(o.getId(),
+                        Long.valueOf(((RevCommit) o).getCommitter().getTimestamp()));
+                if (commits.size() >= JEGraphDatabase.DEFAULT_BATCH_SIZE) {
+                    indexCommits(commits);
+                    commits = new HashMap<>();
+                }
+            }
 
             return true;
         }
@@ -519,13 +811,23 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
         @Override
         public Void call() throws Exception {
 
+            final long startTime = System.nanoTime();
             Transaction transaction = newTransaction();
 
             final int numObjects = offsets.size();
+            int insertedObjects = 0;
+            long insertedBytes = 0;
+            Cursor cursor = null;
             try {
+                final CacheMode cacheMode = cacheMode(WorkloadProfile.Access.BULK_WRITE);
+                if (cacheMode != null) {
+                    cursor = objectDb.openCursor(transaction, null);
+                    cursor.setCacheMode(cacheMode);
+                }
                 final int bufferBytes = buffer.size();
                 DatabaseEntry key = new DatabaseEntry(new byte[ObjectId.NUM_BYTES]);
                 final byte[] rawData = buffer.bytes();
+                final boolean packed = !packs.isEmpty();
 
                 for (Iterator<Map.Entry<ObjectId, int[]>> it = offsets.entrySet().iterator(); it
                         .hasNext();) {
@@ -535,17 +837,30 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
                     int offset = e.getValue()[0];
                     int size = e.getValue()[1];
 
+                    trackWrite(objectId);
+                    if (packed && packs.contains(objectId)) {
+                        listener.found(objectId, null);
+                        continue;
+                    }
                     objectId.getRawValue(key.getData());
                     DatabaseEntry data = new DatabaseEntry(rawData, offset, size);
 
-                    OperationStatus status = objectDb.putNoOverwrite(transaction, key, data);
+                    OperationStatus status = cursor == null
+                            ? objectDb.putNoOverwrite(transaction, key, data)
+                            : cursor.putNoOverwrite(key, data);
                     if (OperationStatus.SUCCESS.equals(status)) {
+                        insertedObjects++;
+                        insertedBytes += size;
                         listener.inserted(objectId, size);
                     } else if (OperationStatus.KEYEXIST.equals(status)) {
                         listener.found(objectId, null);
                     }
 
                 }
+                if (cursor != null) {
+                    cursor.close();
+                    cursor = null;
+                }
                 final boolean transactional = objectDb.getConfig().getTransactional();
                 if (transactional) {
                     commit(transaction);
@@ -556,11 +871,17 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
                     synchronized (bytesWritten) {
                         totalWritten = bytesWritten.addAndGet(bufferBytes);
                     }
-                    if (totalWritten >= SYNC_BYTES_LIMIT) {
+                    if (totalWritten >= profile().getSyncBytesLimit()) {
                         writerService.execute(new FlushLogTask(bytesWritten, objectDb));
                     }
                 }
+                metrics.recordInsert(insertedObjects, insertedBytes,
+                        System.nanoTime() - startTime);
+                operations.record("insertBatch", startTime, numObjects, bufferBytes);
             } catch (Exception e) {
+                if (cursor != null) {
+                    cursor.close();
+                }
                 abort(transaction);
                 throw e;
             } finally {
@@ -592,7 +913,7 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
             final int buffSize;
             synchronized (bytesWritten) {
                 buffSize = bytesWritten.get();
-                if (buffSize >= SYNC_BYTES_LIMIT) {
+                if (buffSize >= profile().getSyncBytesLimit()) {
                     doSync = true;
                     bytesWritten.set(0);
                 }
@@ -608,12 +929,15 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
                         if (objectDb.getConfig().getDeferredWrite()) {
                             objectDb.sync();
                             env.evictMemory();
-                            env.cleanLog();
+                            if (!IdleLogCleaner.isEnabled()) {
+                                env.cleanLog();
+                            }
                             // env.sync();
                         } else {
                             env.flushLog(false);
                         }
-                        LOGGER.debug("flushed db log after {} bytes in {}", buffSize, sw.stop());
+                        metrics.recordLogFlush(sw.stop().elapsed(TimeUnit.NANOSECONDS));
+                        LOGGER.debug("flushed db log after {} bytes in {}", buffSize, sw);
                     }
                 });
             }
@@ -621,10 +945,36 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
         }
     }
 
+    /**
+     * Stores the object, indexing commits by timestamp before they're added to the graph
+     */
+    @Override
+    public boolean put(final RevObject object) {
+        final boolean inserted = super.put(object);
+        if (object instanceof RevCommit) {
+            indexCommits(Collections.singletonMap(object.getId(),
+                    Long.valueOf(((RevCommit) object).getCommitter().getTimestamp())));
+        }
+        return inserted;
+    }
+
+    /**
+     * Indexes the committer timestamps of stored commits in the graph database's commit index,
+     * if it's open and enabled
+     *
+     * @see JEGraphDatabase#indexCommits
+     */
+    private void indexCommits(Map<ObjectId, Long> timestamps) {
+        if (!readOnly) {
+            JEGraphDatabase.indexCommits(geoGigDirectory, timestamps);
+        }
+    }
+
     @Override
     protected boolean putInternal(final ObjectId id, final byte[] rawData) {
         checkWritable();
 
+        final long start = System.nanoTime();
         final Transaction transaction = newTransaction();
 
         final OperationStatus status;
@@ -635,6 +985,7 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
             abort(transaction);
             throw e;
         }
+        operations.record("put", start, 1, rawData.length);
         final boolean didntExist = SUCCESS.equals(status);
 
         return didntExist;
@@ -642,6 +993,10 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
 
     private OperationStatus putInternal(final ObjectId id, final byte[] rawData,
             Transaction transaction) {
+        trackWrite(id);
+        if (!packs.isEmpty() && packs.contains(id)) {
+            return OperationStatus.KEYEXIST;
+        }
         OperationStatus status;
         final byte[] rawKey = id.getRawValue();
         DatabaseEntry key = new DatabaseEntry(rawKey);
@@ -658,6 +1013,7 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
         final byte[] rawKey = id.getRawValue();
         final DatabaseEntry key = new DatabaseEntry(rawKey);
 
+        final long start = System.nanoTime();
         final Transaction transaction = newTransaction();
 
         try {
@@ -667,6 +1023,10 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
             abort(transaction);
             throw e;
         }
+        if (!packs.isEmpty()) {
+            packs.delete(id);
+        }
+        operations.record("delete", start, 1, -1);
     }
 
     private void abort(@Nullable Transaction transaction) {
@@ -704,6 +1064,7 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
             List<ObjectId> nextIds = Lists.newArrayList(partition.next());
             Collections.sort(nextIds);
 
+            final long start = System.nanoTime();
             final Transaction transaction = newTransaction();
 
             CursorConfig cconfig = new CursorConfig();
@@ -716,13 +1077,13 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
                     id.getRawValue(key.getData());
 
                     OperationStatus status = cursor.getSearchKey(key, data, LockMode.DEFAULT);
-                    if (OperationStatus.SUCCESS.equals(status)) {
-                        OperationStatus delete = cursor.delete();
-                        if (OperationStatus.SUCCESS.equals(delete)) {
-                            listener.deleted(id);
-                        } else {
-                            listener.notFound(id);
-                        }
+                    boolean deleted = OperationStatus.SUCCESS.equals(status)
+                            && OperationStatus.SUCCESS.equals(cursor.delete());
+                    if (!packs.isEmpty()) {
+                        deleted |= packs.delete(id);
+                    }
+                    if (deleted) {
+                        listener.deleted(id);
                     } else {
                         listener.notFound(id);
                     }
@@ -734,6 +1095,7 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
                 Throwables.propagate(e);
             }
             commit(transaction);
+            operations.record("deleteAll", start, nextIds.size(), -1);
         }
     }
 
@@ -752,7 +1114,8 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
         Preconditions.checkNotNull(type, "type is null");
         checkOpen();
 
-        return (Iterator<T>) new CursorRevObjectIterator(ids.iterator(), listener, type);
+        return (Iterator<T>) new CursorRevObjectIterator(ids.iterator(), listener, type,
+                readAccess(type, true));
 
     }
 
@@ -773,12 +1136,23 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
 
         private final Class<?> filter;
 
+        @Nullable
+        private SecondaryRefresher refresher;
+
+        // time spent, and objects and bytes read, fetching the current partition of ids
+        private long partitionNanos;
+
+        private int partitionSize;
+
+        private long partitionBytes;
+
         /**
          * Uses a transaction to open a read only cursor for it to work when called from a different
          * threads than the one it was created at. The transaction is aborted at {@link #close()}
          */
         public CursorRevObjectIterator(final Iterator<ObjectId> objectIds,
-                final BulkOpListener listener, final Class<?> filter) {
+                final BulkOpListener listener, final Class<?> filter,
+                @Nullable final WorkloadProfile.Access access) {
 
             this.filter = filter;
             this.unsortedIds = Iterators.partition(objectIds, getBulkPartitionSize());
@@ -787,8 +1161,22 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
             this.listener = listener;
             CursorConfig cursorConfig = new CursorConfig();
             cursorConfig.setReadUncommitted(true);
-            transaction = getOrCreateTransaction();
-            this.cursor = objectDb.openCursor(transaction, cursorConfig);
+            final SecondaryRefresher refresher = beginRead();
+            try {
+                transaction = getOrCreateTransaction();
+                this.cursor = objectDb.openCursor(transaction, cursorConfig);
+                final CacheMode cacheMode = access == null ? null : cacheMode(access);
+                if (cacheMode != null) {
+                    cursor.setCacheMode(cacheMode);
+                }
+                if (refresher != null) {
+                    // the environment can't be reopened while the cursor is open
+                    refresher.iteratorOpened();
+                    this.refresher = refresher;
+                }
+            } finally {
+                endRead(refresher);
+            }
         }
 
         private Transaction getOrCreateTransaction() {
@@ -804,11 +1192,35 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
 
         @Override
         protected RevObject computeNext() {
+            final long start = System.nanoTime();
+            try {
+                return fetchNext();
+            } finally {
+                partitionNanos += System.nanoTime() - start;
+            }
+        }
+
+        /**
+         * Records the time spent fetching the objects of the current partition, excluding the time
+         * the caller spent between calls to {@link #next()}
+         */
+        private void partitionFetched() {
+            if (partitionSize > 0) {
+                operations.recordElapsed("getAll", partitionNanos, partitionSize, partitionBytes);
+            }
+            partitionNanos = 0;
+            partitionSize = 0;
+            partitionBytes = 0;
+        }
+
+        private RevObject fetchNext() {
             if (!sortedIds.hasNext()) {
+                partitionFetched();
                 if (unsortedIds.hasNext()) {
                     List<ObjectId> unsorted = unsortedIds.next();
                     List<ObjectId> sorted = ObjectId.NATURAL_ORDER.sortedCopy(unsorted);
                     this.sortedIds = sorted.iterator();
+                    this.partitionSize = sorted.size();
                 } else {
                     close();
                     return endOfData();
@@ -829,11 +1241,14 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
                     // lookup data for the next key
                     OperationStatus status;
                     status = cursor.getSearchKey(key, data, LockMode.READ_UNCOMMITTED);
-                    if (SUCCESS.equals(status)) {
-                        InputStream rawData = new ByteArrayInputStream(data.getData());
+                    byte[] raw = SUCCESS.equals(status) ? data.getData()
+                            : (packs.isEmpty() ? null : packs.get(id));
+                    if (raw != null) {
+                        InputStream rawData = new ByteArrayInputStream(raw);
                         found = reader.read(id, rawData);
+                        partitionBytes += raw.length;
                         if (filter.isAssignableFrom(found.getClass())) {
-                            listener.found(found.getId(), data.getSize());
+                            listener.found(found.getId(), raw.length);
                         } else {
                             found = null;
                             listener.notFound(id);
@@ -843,7 +1258,7 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
                     }
                 }
                 if (found == null) {
-                    return computeNext();
+                    return fetchNext();
                 }
                 return found;
             } catch (Exception e) {
@@ -857,6 +1272,9 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
 
         @Override
         public void close() {
+            if (sortedIds != null) {
+                partitionFetched();
+            }
             sortedIds = null;
             Cursor cursor = this.cursor;
             this.cursor = null;
@@ -867,13 +1285,251 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
                 transaction.abort();
                 transaction = null;
             }
+            SecondaryRefresher refresher = this.refresher;
+            this.refresher = null;
+            if (refresher != null) {
+                refresher.iteratorClosed();
+            }
+        }
+    }
+
+    /**
+     * Moves the cold objects currently in the JE database to new {@link PackFile}s, leaving the
+     * others in the JE database.
+     * <p>
+     * Each pack is made available for reads before its objects are deleted from the JE database,
+     * so objects are never missing for concurrent readers. Objects written while packing is in
+     * progress may or may not be packed, and are otherwise left in the JE database.
+     *
+     * @return the number of objects packed
+     */
+    public long packObjects(final Predicate<ObjectId> cold) {
+        checkNotNull(cold, "cold is null");
+        checkWritable();
+        final Stopwatch sw = Stopwatch.createStarted();
+        long packed = 0;
+        CursorConfig cursorConfig = new CursorConfig();
+        cursorConfig.setReadUncommitted(true);
+        final Cursor cursor = objectDb.openCursor(null, cursorConfig);
+        PackWriter writer = null;
+        try {
+            cursor.setCacheMode(CacheMode.EVICT_LN);
+            DatabaseEntry key = new DatabaseEntry();
+            DatabaseEntry data = new DatabaseEntry();
+            List<ObjectId> ids = new ArrayList<>();
+            while (SUCCESS.equals(cursor.getNext(key, data, LockMode.READ_UNCOMMITTED))) {
+                ObjectId id = new ObjectId(key.getData());
+                if (!cold.apply(id)) {
+                    continue;
+                }
+                if (writer == null) {
+                    writer = new PackWriter(packs.newPackFile());
+                }
+                writer.add(id, data.getData(), data.getOffset(), data.getSize());
+                ids.add(id);
+                if (writer.isFull()) {
+                    packed += finishPack(writer, ids);
+                    writer = null;
+                }
+            }
+            if (writer != null) {
+                packed += finishPack(writer, ids);
+                writer = null;
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        } finally {
+            cursor.close();
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        LOGGER.info("Packed {} objects from {} in {}", packed, env.getHome(), sw.stop());
+        return packed;
+    }
+
+    private int finishPack(PackWriter writer, List<ObjectId> ids) throws IOException {
+        File packFile = writer.finish();
+        packs.add(packFile);
+        final int count = ids.size();
+        deleteAll(ids.iterator(), BulkOpListener.NOOP_LISTENER);
+        ids.clear();
+        LOGGER.debug("Created pack {} with {} objects", packFile.getName(), count);
+        return count;
+    }
+
+    private void trackWrite(ObjectId id) {
+        Deduplicator tracker = this.writeTracker;
+        if (tracker != null) {
+            tracker.visit(id);
+        }
+    }
+
+    /**
+     * Sets the {@link Deduplicator} that gets {@link Deduplicator#visit visited} with the id of
+     * every object written to this database, existing or not, until it's set back to {@code null}
+     */
+    void setWriteTracker(@Nullable Deduplicator tracker) {
+        this.writeTracker = tracker;
+    }
+
+    /**
+     * @return the environment the object database lives in, or {@code null} if not open
+     */
+    @Nullable
+    Environment getEnvironment() {
+        lazyOpen.await();
+        return env;
+    }
+
+    /**
+     * Makes the writes to a non transactional (deferred write) object database durable
+     */
+    void sync() {
+        checkOpen();
+        if (objectDb.getConfig().getDeferredWrite()) {
+            objectDb.sync();
+        }
+    }
+
+    PackedObjectStore getPackedObjectStore() {
+        return packs;
+    }
+
+    /**
+     * Decodes the raw data of an object, as handed to a {@link RangeVisitor} or stored in a pack
+     * file
+     */
+    RevObject decode(ObjectId id, byte[] data, int offset, int length) {
+        return serializer().read(id, new ByteArrayInputStream(data, offset, length));
+    }
+
+    /**
+     * Receives the objects in a key range of the JE database
+     *
+     * @see JEObjectDatabase#scanRange
+     */
+    interface RangeVisitor {
+
+        /**
+         * @param data the object's raw data, valid only for the duration of the call
+         * @return {@code false} to stop the scan
+         */
+        boolean visit(ObjectId id, byte[] data, int offset, int length);
+    }
+
+    /**
+     * Calls the visitor with every object in the JE database whose first id byte is in the
+     * {@code [fromByte, toByte)} range, in key order, without locking and without polluting the
+     * cache. Concurrent scans of disjoint ranges are safe and are the way to walk the whole
+     * database in parallel.
+     *
+     * @param fromByte first id byte of the range, inclusive, {@code 0..255}
+     * @param toByte last id byte of the range, exclusive, {@code 1..256}
+     */
+    void scanRange(final int fromByte, final int toByte, final RangeVisitor visitor) {
+        Preconditions.checkArgument(fromByte >= 0 && fromByte < toByte && toByte <= 256,
+                "Invalid range [%s, %s)", fromByte, toByte);
+        checkOpen();
+        CursorConfig cursorConfig = new CursorConfig();
+        cursorConfig.setReadUncommitted(true);
+        final Cursor cursor = objectDb.openCursor(null, cursorConfig);
+        try {
+            cursor.setCacheMode(CacheMode.EVICT_LN);
+            DatabaseEntry key = new DatabaseEntry(new byte[ObjectId.NUM_BYTES]);
+            key.getData()[0] = (byte) fromByte;
+            DatabaseEntry data = new DatabaseEntry();
+            OperationStatus status = cursor.getSearchKeyRange(key, data, LockMode.READ_UNCOMMITTED);
+            while (SUCCESS.equals(status)) {
+                final byte[] rawKey = key.getData();
+                if ((rawKey[key.getOffset()] & 0xFF) >= toByte) {
+                    break;
+                }
+                ObjectId id = new ObjectId(Arrays.copyOfRange(rawKey, key.getOffset(),
+                        key.getOffset() + ObjectId.NUM_BYTES));
+                if (!visitor.visit(id, data.getData(), data.getOffset(), data.getSize())) {
+                    break;
+                }
+                status = cursor.getNext(key, data, LockMode.READ_UNCOMMITTED);
+            }
+        } finally {
+            cursor.close();
         }
     }
 
+    /**
+     * @return the total size of the environment's log files
+     */
+    long getLogSize() {
+        checkOpen();
+        return EnvironmentMetrics.logSize(env.getHome());
+    }
+
+    /**
+     * Runs the log cleaner until there's nothing left to clean or the deadline is reached, and
+     * forces a checkpoint so that the cleaned files can be deleted.
+     *
+     * @param deadline the {@link System#nanoTime()} at which to stop cleaning
+     * @return the number of log files cleaned
+     */
+    int cleanLog(final long deadline) {
+        checkWritable();
+        int cleaned = 0;
+        int count;
+        while (System.nanoTime() < deadline && (count = env.cleanLog()) > 0) {
+            cleaned += count;
+        }
+        CheckpointConfig force = new CheckpointConfig();
+        force.setForce(true);
+        final long checkpointStart = System.nanoTime();
+        env.checkpoint(force);
+        metrics.recordForcedCheckpoint(System.nanoTime() - checkpointStart);
+        LOGGER.debug("Cleaned {} log files of {}", cleaned, env.getHome());
+        return cleaned;
+    }
+
     private int getBulkPartitionSize() {
         Optional<Integer> configuredSize = configDB.get(BULK_PARTITIONING_CONFIG_KEY,
                 Integer.class);
-        return configuredSize.or(DEFAULT_BULK_PARTITIONING).intValue();
+        if (configuredSize.isPresent()) {
+            return configuredSize.get().intValue();
+        }
+        return profile().getBulkPartitionSize();
+    }
+
+    /**
+     * @return the workload profile in use, switching to the configured one if it changed
+     */
+    WorkloadProfile profile() {
+        return profiles.get(env);
+    }
+
+    /**
+     * @return the cache mode for the given kind of operation, or {@code null} for the environment's
+     *         default to apply, as it does when the cache governor throttles the environment
+     */
+    @Nullable
+    private CacheMode cacheMode(WorkloadProfile.Access access) {
+        if (CacheGovernor.isEnabled() && CacheGovernor.get().isThrottled(env)) {
+            return null;
+        }
+        return profile().getCacheMode(access);
+    }
+
+    /**
+     * @return the kind of read for objects of the given type, {@code null} if unknown
+     */
+    @Nullable
+    private static WorkloadProfile.Access readAccess(@Nullable Class<?> type, boolean bulk) {
+        if (type == null || RevObject.class.equals(type)) {
+            return null;
+        }
+        if (RevTree.class.isAssignableFrom(type) || RevCommit.class.isAssignableFrom(type)
+                || RevFeatureType.class.isAssignableFrom(type)
+                || RevTag.class.isAssignableFrom(type)) {
+            return WorkloadProfile.Access.HOT_READ;
+        }
+        return bulk ? WorkloadProfile.Access.SCAN : WorkloadProfile.Access.POINT_READ;
     }
 
     @Nullable
@@ -886,12 +1542,14 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
             if (!durability.isPresent()) {
                 durability = configDB.getGlobal(OBJECT_DURABILITY_CONFIG_KEY);
             }
+            final WorkloadProfile profile = profile();
             if ("safe".equals(durability.orNull())) {
                 txConfig.setDurability(Durability.COMMIT_SYNC);
             } else {
-                txConfig.setDurability(Durability.COMMIT_WRITE_NO_SYNC);
+                txConfig.setDurability(profile.getDurability());
             }
             Transaction transaction = env.beginTransaction(null, txConfig);
+            transaction.setLockTimeout(profile.getLockTimeoutMillis(), TimeUnit.MILLISECONDS);
             return transaction;
         }
         return null;
@@ -914,7 +1572,8 @@ abstract class JEObjectDatabase extends AbstractObjectDatabase implements Object
     }
 
     private void checkOpen() {
-        Preconditions.checkState(isOpen(), "Database is closed");
+        lazyOpen.await();
+        Preconditions.checkState(objectDb != null, "Database is closed");
     }
 
     @Override
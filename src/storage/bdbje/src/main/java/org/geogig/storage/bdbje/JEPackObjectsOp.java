@@ -0,0 +1,76 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.model.Ref;
+import org.locationtech.geogig.plumbing.RefParse;
+import org.locationtech.geogig.repository.AbstractGeoGigOp;
+import org.locationtech.geogig.repository.impl.Deduplicator;
+import org.locationtech.geogig.storage.ObjectDatabase;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+
+/**
+ * Moves the cold objects of a BDB JE backed repository to immutable pack files.
+ * <p>
+ * Objects are cold once committed: those reachable from the branches, tags and {@code HEAD}.
+ * Objects only reachable from the working tree or the staging area, which are superseded and
+ * collected as the user edits, stay in the JE database.
+ * <p>
+ * Meant to be run on repositories that are mostly read, after large imports or clones, to keep
+ * the JE environment small and serve the bulk of the objects from memory mapped files.
+ *
+ * @see JEObjectDatabase#packObjects(Predicate)
+ */
+public class JEPackObjectsOp extends AbstractGeoGigOp<Long> {
+
+    @Override
+    protected Long _call() {
+        ObjectDatabase objectDatabase = objectDatabase();
+        Preconditions.checkState(objectDatabase instanceof JEObjectDatabase,
+                "Repository is not backed by a BDB JE object database: %s", objectDatabase);
+        final JEObjectDatabase db = (JEObjectDatabase) objectDatabase;
+
+        getProgressListener().setDescription("Finding committed objects...");
+        Set<String> refNames = new TreeSet<>(refDatabase().getAll().keySet());
+        refNames.add(Ref.HEAD);
+        final Deque<ObjectId> commits = new ArrayDeque<>();
+        for (String name : refNames) {
+            Optional<Ref> ref = command(RefParse.class).setName(name).call();
+            if (ref.isPresent()) {
+                commits.push(ref.get().getObjectId());
+            }
+        }
+        final Deduplicator committed = new BDBJEDeduplicationService().createDeduplicator();
+        try {
+            JEGarbageCollectOp.mark(db, commits, committed);
+
+            getProgressListener().setDescription("Packing objects...");
+            long count = db.packObjects(new Predicate<ObjectId>() {
+                @Override
+                public boolean apply(ObjectId id) {
+                    return committed.isDuplicate(id);
+                }
+            });
+            getProgressListener().setDescription(String.format("Packed %,d objects", count));
+            return Long.valueOf(count);
+        } finally {
+            committed.release();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of latencies with fixed, logarithmic buckets.
+ * <p>
+ * Latencies are recorded in microseconds. Values below {@code 2^SUB_BUCKET_BITS} microseconds get
+ * a bucket each; above that, every power of two range is split in {@code 2^SUB_BUCKET_BITS} linear
+ * sub buckets, so the value reported for a percentile is within 1/8th (12.5%) of the recorded
+ * one, in the manner of HdrHistogram. Values above about 2^40 microseconds (12 days) are recorded
+ * in the last bucket.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int MAX_EXPONENT = 40;
+
+    private static final int NUM_BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong totalMicros = new AtomicLong();
+
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * Records a latency
+     */
+    public void record(final long nanos) {
+        final long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(bucketIndex(micros));
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        long max;
+        while ((max = maxMicros.get()) < micros && !maxMicros.compareAndSet(max, micros)) {
+            // retry
+        }
+    }
+
+    static int bucketIndex(final long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        // position of the highest bit, >= SUB_BUCKET_BITS
+        final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return NUM_BUCKETS - 1;
+        }
+        final int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the highest value, in microseconds, of the given bucket
+     */
+    static long bucketUpperBound(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int exponent = index / SUB_BUCKETS - 1 + SUB_BUCKET_BITS;
+        final long subBucket = index % SUB_BUCKETS;
+        final long lower = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getMeanMillis() {
+        long count = this.count.get();
+        return count == 0 ? 0 : totalMicros.get() / 1000d / count;
+    }
+
+    public double getMaxMillis() {
+        return maxMicros.get() / 1000d;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency, in milliseconds, below which the given percentile of the recorded
+     *         values are
+     */
+    public double getPercentileMillis(final double percentile) {
+        final long count = this.count.get();
+        if (count == 0) {
+            return 0;
+        }
+        final long target = Math.max(1, (long) Math.ceil(count * percentile / 100d));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), maxMicros.get()) / 1000d;
+            }
+        }
+        return getMaxMillis();
+    }
+
+    /**
+     * Clears the recorded values. Values recorded concurrently may be partially kept.
+     */
+    public void reset() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        totalMicros.set(0);
+        maxMicros.set(0);
+    }
+}
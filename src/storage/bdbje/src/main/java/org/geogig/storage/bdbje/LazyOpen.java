@@ -0,0 +1,99 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.locationtech.geogig.storage.ConfigDatabase;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Opens a database in the background, so that {@code open()} returns right away and the
+ * environments of the object and graph databases are opened in parallel, while the first access
+ * waits for the opening to finish.
+ * <p>
+ * Enabled with the {@code bdbje.lazy_open} repository or global config key. Errors opening the
+ * database are thrown by the first access instead of by {@code open()}.
+ */
+class LazyOpen {
+
+    static final String CONFIG_KEY = "bdbje.lazy_open";
+
+    private static final ExecutorService EXECUTOR = Executors
+            .newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat("BDBJE-OPEN-%d").build());
+
+    @Nullable
+    private volatile Future<?> pending;
+
+    static boolean isEnabled(ConfigDatabase config) {
+        Optional<Boolean> enabled = config.get(CONFIG_KEY, Boolean.class);
+        if (!enabled.isPresent()) {
+            enabled = config.getGlobal(CONFIG_KEY, Boolean.class);
+        }
+        return enabled.or(Boolean.FALSE).booleanValue();
+    }
+
+    /**
+     * Runs the open task in the background
+     */
+    synchronized void start(Runnable open) {
+        this.pending = EXECUTOR.submit(open);
+    }
+
+    /**
+     * @return whether the database is being opened in the background
+     */
+    boolean isPending() {
+        return pending != null;
+    }
+
+    /**
+     * Waits for the background open, if any, to finish, rethrowing its error
+     */
+    void await() {
+        final Future<?> pending = this.pending;
+        if (pending == null) {
+            return;
+        }
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            synchronized (this) {
+                if (this.pending == pending && pending.isDone()) {
+                    this.pending = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the background open, if any, ignoring its error
+     */
+    void awaitQuietly() {
+        try {
+            await();
+        } catch (RuntimeException e) {
+            // the database didn't open, nothing to close
+        }
+    }
+}
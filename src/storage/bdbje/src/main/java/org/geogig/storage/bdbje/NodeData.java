@@ -18,10 +18,17 @@ import java.util.Map;
 
 import org.eclipse.jdt.annotation.Nullable;
 import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.storage.GraphDatabase;
 
 import com.google.common.collect.ImmutableList;
 
 class NodeData {
+    /**
+     * {@link #depth} of the nodes of the formats that don't store depths, and of the ones stored
+     * before their depth was known, until {@link JEGraphDatabase#rebuildDepths() rebuilt}
+     */
+    static final int UNKNOWN_DEPTH = -1;
+
     public ObjectId id;
 
     public List<ObjectId> outgoing;
@@ -33,6 +40,12 @@ class NodeData {
     @Nullable
     public ObjectId mappedTo;
 
+    /**
+     * Number of edges to the nearest node with no parents, as {@link GraphDatabase#getDepth}
+     * returns it, or {@link #UNKNOWN_DEPTH}
+     */
+    public int depth = UNKNOWN_DEPTH;
+
     public NodeData(ObjectId id, List<ObjectId> parents) {
         this(id, ObjectId.NULL, new ArrayList<ObjectId>(parents), new ArrayList<ObjectId>(2),
                 new HashMap<String, String>());
@@ -51,6 +64,10 @@ class NodeData {
         this(id, ImmutableList.<ObjectId> of());
     }
 
+    public boolean hasDepth() {
+        return depth != UNKNOWN_DEPTH;
+    }
+
     public boolean isSparse() {
         return properties.containsKey(SPARSE_FLAG) ? Boolean.valueOf(properties.get(SPARSE_FLAG))
                 : false;
@@ -0,0 +1,232 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.locationtech.geogig.storage.ConfigDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Latency histograms of the operations of a JE database, and a log of the slow ones.
+ * <p>
+ * Operations slower than the {@code bdbje.slow_op_threshold_ms} repository or global config value
+ * (1000 by default, {@code 0} disables it) are logged at {@code WARN} level to the
+ * {@code org.geogig.storage.bdbje.SlowOperations} logger, with the number of objects and bytes
+ * involved.
+ * <p>
+ * Registered with JMX as an {@link OperationMetricsMXBean} while the database is open, unless the
+ * {@code bdbje.metrics} system property is {@code false}.
+ */
+class OperationMetrics implements OperationMetricsMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OperationMetrics.class);
+
+    private static final Logger SLOW_OPERATIONS = LoggerFactory
+            .getLogger("org.geogig.storage.bdbje.SlowOperations");
+
+    static final String SLOW_OPERATION_THRESHOLD_CONFIG_KEY = "bdbje.slow_op_threshold_ms";
+
+    static final long DEFAULT_SLOW_OPERATION_THRESHOLD_MILLIS = 1000;
+
+    private final String database;
+
+    private final ImmutableMap<String, LatencyHistogram> histograms;
+
+    private final AtomicLong slowOperations = new AtomicLong();
+
+    /**
+     * All the operations recorded, not affected by {@link #reset()}
+     */
+    private final AtomicLong totalOperations = new AtomicLong();
+
+    private volatile long slowThresholdNanos;
+
+    private String envHome;
+
+    private ObjectName objectName;
+
+    /**
+     * @param database the kind of database, e.g. {@code objects}
+     * @param operations the names of the operations to track
+     */
+    OperationMetrics(String database, String... operations) {
+        this.database = database;
+        ImmutableMap.Builder<String, LatencyHistogram> builder = ImmutableMap.builder();
+        for (String op : operations) {
+            builder.put(op, new LatencyHistogram());
+        }
+        this.histograms = builder.build();
+        setSlowOperationThresholdMillis(DEFAULT_SLOW_OPERATION_THRESHOLD_MILLIS);
+    }
+
+    /**
+     * Records an operation that started at {@code startNanos}, as given by
+     * {@link System#nanoTime()}
+     *
+     * @param objects the number of objects involved
+     * @param bytes the number of bytes read or written, {@code -1} if unknown
+     */
+    void record(String operation, long startNanos, int objects, long bytes) {
+        recordElapsed(operation, System.nanoTime() - startNanos, objects, bytes);
+    }
+
+    /**
+     * Records an operation that took {@code nanos}
+     */
+    void recordElapsed(String operation, long nanos, int objects, long bytes) {
+        LatencyHistogram histogram = histograms.get(operation);
+        Preconditions.checkArgument(histogram != null, "Unknown operation %s", operation);
+        histogram.record(nanos);
+        totalOperations.incrementAndGet();
+        final long threshold = slowThresholdNanos;
+        if (threshold > 0 && nanos >= threshold) {
+            slowOperations.incrementAndGet();
+            if (SLOW_OPERATIONS.isWarnEnabled()) {
+                SLOW_OPERATIONS.warn(String.format(
+                        "Slow %s.%s on %s: %,d objects, %,d bytes in %,d ms", database,
+                        operation, envHome, objects, bytes, TimeUnit.NANOSECONDS.toMillis(nanos)));
+            }
+        }
+    }
+
+    /**
+     * @return the number of operations recorded since the database was created, which the
+     *         {@link IdleLogCleaner} uses to tell whether the database is idle
+     */
+    long getTotalOperations() {
+        return totalOperations.get();
+    }
+
+    LatencyHistogram getHistogram(String operation) {
+        return histograms.get(operation);
+    }
+
+    /**
+     * Reads the slow operation threshold from the config and registers with JMX, for the database
+     * just open in the given environment directory
+     */
+    synchronized void register(File envHome, ConfigDatabase config) {
+        this.envHome = envHome.getAbsolutePath();
+        Optional<Long> threshold = config.get(SLOW_OPERATION_THRESHOLD_CONFIG_KEY, Long.class);
+        if (!threshold.isPresent()) {
+            threshold = config.getGlobal(SLOW_OPERATION_THRESHOLD_CONFIG_KEY, Long.class);
+        }
+        if (threshold.isPresent()) {
+            setSlowOperationThresholdMillis(threshold.get().longValue());
+        }
+        if (objectName != null || !EnvironmentMetrics.isEnabled()) {
+            return;
+        }
+        try {
+            ObjectName name = new ObjectName("org.geogig.storage.bdbje:type=Operations,database="
+                    + database + ",name=" + ObjectName.quote(this.envHome));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                this.objectName = name;
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Unable to register operation metrics of {} with JMX", envHome, e);
+        }
+    }
+
+    synchronized void unregister() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception e) {
+                LOGGER.debug("Unable to unregister {} from JMX", objectName, e);
+            }
+            objectName = null;
+        }
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+            values.put(e.getKey(), Long.valueOf(e.getValue().getCount()));
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String, Double> getMeanMillis() {
+        Map<String, Double> values = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+            values.put(e.getKey(), Double.valueOf(e.getValue().getMeanMillis()));
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String, Double> getMedianMillis() {
+        return percentile(50);
+    }
+
+    @Override
+    public Map<String, Double> getP99Millis() {
+        return percentile(99);
+    }
+
+    private Map<String, Double> percentile(double percentile) {
+        Map<String, Double> values = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+            values.put(e.getKey(), Double.valueOf(e.getValue().getPercentileMillis(percentile)));
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String, Double> getMaxMillis() {
+        Map<String, Double> values = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+            values.put(e.getKey(), Double.valueOf(e.getValue().getMaxMillis()));
+        }
+        return values;
+    }
+
+    @Override
+    public long getSlowOperations() {
+        return slowOperations.get();
+    }
+
+    @Override
+    public long getSlowOperationThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(slowThresholdNanos);
+    }
+
+    @Override
+    public void setSlowOperationThresholdMillis(long millis) {
+        this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram h : histograms.values()) {
+            h.reset();
+        }
+        slowOperations.set(0);
+    }
+}
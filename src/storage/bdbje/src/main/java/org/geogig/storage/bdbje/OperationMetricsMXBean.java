@@ -0,0 +1,51 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import java.util.Map;
+
+/**
+ * JMX view of the operation latencies of a JE database, registered as
+ * {@code org.geogig.storage.bdbje:type=Operations,database=<database>,name=<environment directory>}.
+ * <p>
+ * All maps are keyed by operation name.
+ */
+public interface OperationMetricsMXBean {
+
+    /**
+     * @return number of calls of each operation
+     */
+    Map<String, Long> getCounts();
+
+    Map<String, Double> getMeanMillis();
+
+    Map<String, Double> getMedianMillis();
+
+    Map<String, Double> getP99Millis();
+
+    Map<String, Double> getMaxMillis();
+
+    /**
+     * @return number of operations slower than {@link #getSlowOperationThresholdMillis()}
+     */
+    long getSlowOperations();
+
+    /**
+     * @return the latency above which operations are logged, in milliseconds
+     */
+    long getSlowOperationThresholdMillis();
+
+    void setSlowOperationThresholdMillis(long millis);
+
+    /**
+     * Clears the histograms
+     */
+    void reset();
+}
@@ -0,0 +1,205 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.locationtech.geogig.model.ObjectId;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An immutable file of raw serialized objects sorted by id, read through a memory mapped buffer.
+ * <p>
+ * File layout:
+ *
+ * <pre>
+ * <code>
+ * magic   : 4 bytes, "GGPK"
+ * version : int
+ * count   : int, number of objects
+ * fanout  : 256 ints, entry i is the number of objects whose first id byte is <= i
+ * ids     : count * 20 bytes, sorted in unsigned byte order (same order as the JE database)
+ * offsets : count + 1 ints, start of each object's data relative to the data section, the last
+ *           one being the data section size
+ * data    : the concatenated raw objects
+ * </code>
+ * </pre>
+ * <p>
+ * Lookups use the fanout table to narrow the range of candidate ids and then binary search it.
+ * Instances are thread safe, all reads use absolute positions or a duplicate of the mapped buffer.
+ *
+ * @see PackWriter
+ * @see PackedObjectStore
+ */
+final class PackFile {
+
+    static final int MAGIC = 0x4747504B;// "GGPK"
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 4 + 4 + 4;
+
+    static final int FANOUT_SIZE = 256 * 4;
+
+    private final File file;
+
+    private final ByteBuffer buffer;
+
+    private final int count;
+
+    private final int idsOffset;
+
+    private final int offsetsOffset;
+
+    private final int dataOffset;
+
+    private PackFile(File file, ByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+        Preconditions.checkState(MAGIC == buffer.getInt(0), "%s is not a pack file", file);
+        int version = buffer.getInt(4);
+        Preconditions.checkState(VERSION == version, "Unsupported pack file version %s: %s",
+                version, file);
+        this.count = buffer.getInt(8);
+        this.idsOffset = HEADER_SIZE + FANOUT_SIZE;
+        this.offsetsOffset = idsOffset + count * ObjectId.NUM_BYTES;
+        this.dataOffset = offsetsOffset + (count + 1) * 4;
+    }
+
+    public static PackFile open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+            return new PackFile(file, buffer);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public long sizeInBytes() {
+        return buffer.capacity();
+    }
+
+    public boolean contains(ObjectId id) {
+        return indexOf(id.getRawValue()) > -1;
+    }
+
+    @Nullable
+    public byte[] get(ObjectId id) {
+        final int index = indexOf(id.getRawValue());
+        if (index < 0) {
+            return null;
+        }
+        return dataAt(index);
+    }
+
+    public ObjectId idAt(final int index) {
+        byte[] raw = new byte[ObjectId.NUM_BYTES];
+        ByteBuffer ids = buffer.duplicate();
+        ids.position(idsOffset + index * ObjectId.NUM_BYTES);
+        ids.get(raw);
+        return ObjectId.createNoClone(raw);
+    }
+
+    public byte[] dataAt(final int index) {
+        final int start = buffer.getInt(offsetsOffset + index * 4);
+        final int end = buffer.getInt(offsetsOffset + (index + 1) * 4);
+        byte[] data = new byte[end - start];
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(dataOffset + start);
+        dup.get(data);
+        return data;
+    }
+
+    /**
+     * Adds the ids of the objects in this pack whose id starts with {@code partialId} to
+     * {@code target}
+     */
+    public void lookUp(final byte[] partialId, List<ObjectId> target) {
+        Preconditions.checkArgument(partialId.length > 0);
+        final int bucket = partialId[0] & 0xFF;
+        int low = bucket == 0 ? 0 : fanout(bucket - 1);
+        int high = fanout(bucket) - 1;
+        // find the first id >= partialId
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (compare(mid, partialId) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        for (int i = low; i < count && compare(i, partialId) == 0; i++) {
+            target.add(idAt(i));
+        }
+    }
+
+    /**
+     * @return the index of the object with the given raw id, or a negative number if not found
+     */
+    int indexOf(final byte[] rawId) {
+        final int bucket = rawId[0] & 0xFF;
+        int low = bucket == 0 ? 0 : fanout(bucket - 1);
+        int high = fanout(bucket) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compare(mid, rawId);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int fanout(int bucket) {
+        return buffer.getInt(HEADER_SIZE + bucket * 4);
+    }
+
+    /**
+     * Compares the id at {@code index} against {@code key}, up to {@code key.length} bytes
+     */
+    private int compare(final int index, final byte[] key) {
+        final int base = idsOffset + index * ObjectId.NUM_BYTES;
+        for (int i = 0; i < key.length; i++) {
+            int a = buffer.get(base + i) & 0xFF;
+            int b = key[i] & 0xFF;
+            if (a != b) {
+                return a < b ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s, objects: %,d]", getClass().getSimpleName(), file.getName(),
+                count);
+    }
+}
@@ -0,0 +1,169 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.locationtech.geogig.model.ObjectId;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Writes a {@link PackFile}. Objects must be added in ascending id order (the same order a JE
+ * cursor returns them), the index is kept in memory and the object data is spooled to a temporary
+ * file until {@link #finish()} assembles the pack file.
+ */
+class PackWriter implements Closeable {
+
+    /**
+     * Upper bound for the data section of a single pack, so that it can be addressed with int
+     * offsets and mapped by a single {@link java.nio.MappedByteBuffer}
+     */
+    static final int DEFAULT_MAX_DATA_BYTES = 1024 * 1024 * 1024;
+
+    static final int DEFAULT_MAX_OBJECTS = 4 * 1024 * 1024;
+
+    private final File target;
+
+    private final File dataFile;
+
+    private final OutputStream data;
+
+    private final int maxDataBytes;
+
+    private final int maxObjects;
+
+    private byte[] ids = new byte[1024 * ObjectId.NUM_BYTES];
+
+    private int[] offsets = new int[1025];
+
+    private int count;
+
+    private int dataSize;
+
+    private final int[] fanout = new int[256];
+
+    public PackWriter(File target) throws IOException {
+        this(target, DEFAULT_MAX_DATA_BYTES, DEFAULT_MAX_OBJECTS);
+    }
+
+    public PackWriter(File target, int maxDataBytes, int maxObjects) throws IOException {
+        this.target = target;
+        this.maxDataBytes = maxDataBytes;
+        this.maxObjects = maxObjects;
+        this.dataFile = new File(target.getParentFile(), target.getName() + ".data.tmp");
+        this.data = new BufferedOutputStream(new FileOutputStream(dataFile), 64 * 1024);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return {@code true} if no more objects should be added to this pack
+     */
+    public boolean isFull() {
+        return dataSize >= maxDataBytes || count >= maxObjects;
+    }
+
+    public void add(final ObjectId id, final byte[] raw, final int offset, final int length)
+            throws IOException {
+        Preconditions.checkState(!isFull(), "pack is full");
+        final int idOffset = count * ObjectId.NUM_BYTES;
+        if (ids.length < idOffset + ObjectId.NUM_BYTES) {
+            ids = Arrays.copyOf(ids, 2 * ids.length);
+            offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+        }
+        byte[] rawId = id.getRawValue();
+        if (count > 0) {
+            Preconditions.checkArgument(compare(rawId, ids, idOffset - ObjectId.NUM_BYTES) > 0,
+                    "Objects must be added in ascending id order: %s", id);
+        }
+        System.arraycopy(rawId, 0, ids, idOffset, ObjectId.NUM_BYTES);
+        offsets[count] = dataSize;
+        fanout[rawId[0] & 0xFF]++;
+        data.write(raw, offset, length);
+        dataSize += length;
+        count++;
+    }
+
+    /**
+     * Writes the pack index followed by the spooled object data to the target file, atomically
+     * renamed into place once complete
+     *
+     * @return the target file
+     */
+    public File finish() throws IOException {
+        data.close();
+        offsets[count] = dataSize;
+        final File tmp = new File(target.getParentFile(), target.getName() + ".tmp");
+        try (FileOutputStream fout = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fout, 64 * 1024));
+            out.writeInt(PackFile.MAGIC);
+            out.writeInt(PackFile.VERSION);
+            out.writeInt(count);
+            int cumulative = 0;
+            for (int i = 0; i < 256; i++) {
+                cumulative += fanout[i];
+                out.writeInt(cumulative);
+            }
+            out.write(ids, 0, count * ObjectId.NUM_BYTES);
+            for (int i = 0; i <= count; i++) {
+                out.writeInt(offsets[i]);
+            }
+            try (InputStream in = new FileInputStream(dataFile)) {
+                ByteStreams.copy(in, out);
+            }
+            out.flush();
+            fout.getFD().sync();
+        } finally {
+            dataFile.delete();
+        }
+        if (!tmp.renameTo(target)) {
+            tmp.delete();
+            throw new IOException("Unable to rename " + tmp + " to " + target);
+        }
+        return target;
+    }
+
+    /**
+     * Discards a pack that didn't get {@link #finish() finished}
+     */
+    @Override
+    public void close() {
+        try {
+            data.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        dataFile.delete();
+    }
+
+    private static int compare(byte[] id, byte[] ids, int offset) {
+        for (int i = 0; i < ObjectId.NUM_BYTES; i++) {
+            int a = id[i] & 0xFF;
+            int b = ids[offset + i] & 0xFF;
+            if (a != b) {
+                return a < b ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+}
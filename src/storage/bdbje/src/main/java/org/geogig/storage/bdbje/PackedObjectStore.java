@@ -0,0 +1,258 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.locationtech.geogig.model.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+/**
+ * The cold tier of the {@link JEObjectDatabase}: a set of immutable {@link PackFile}s living in the
+ * {@code packs} directory of the objects environment.
+ * <p>
+ * Objects get here through {@link JEObjectDatabase#packObjects}, which moves them out of the JE
+ * database. Since pack files are immutable, {@link #delete deleted} objects are recorded in the
+ * {@code deleted} file of the packs directory, as a list of raw ids, and hidden from reads until
+ * the packs holding them are rewritten.
+ */
+class PackedObjectStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PackedObjectStore.class);
+
+    static final String PACKS_DIRECTORY = "packs";
+
+    private static final String PACK_EXTENSION = ".pack";
+
+    private static final String DELETIONS_FILE = "deleted";
+
+    private final File packsDir;
+
+    private final List<PackFile> packs = new CopyOnWriteArrayList<>();
+
+    private final Set<ObjectId> deleted = Sets.newConcurrentHashSet();
+
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    public PackedObjectStore(File packsDir) {
+        this.packsDir = packsDir;
+    }
+
+    public File getDirectory() {
+        return packsDir;
+    }
+
+    public synchronized void open() {
+        packs.clear();
+        deleted.clear();
+        File[] files = packsDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(PACK_EXTENSION);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        try {
+            for (File file : files) {
+                packs.add(PackFile.open(file));
+            }
+            File deletions = getDeletionsFile();
+            if (deletions.exists()) {
+                byte[] raw = Files.toByteArray(deletions);
+                // ignores a trailing partial id, as left by a crash while appending
+                for (int i = 0; i + ObjectId.NUM_BYTES <= raw.length; i += ObjectId.NUM_BYTES) {
+                    deleted.add(ObjectId.createNoClone(
+                            Arrays.copyOfRange(raw, i, i + ObjectId.NUM_BYTES)));
+                }
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        LOGGER.debug("Opened {} pack files at {}, {} deleted objects", packs.size(), packsDir,
+                deleted.size());
+    }
+
+    public synchronized void close() {
+        // mapped buffers are released when garbage collected
+        packs.clear();
+        deleted.clear();
+    }
+
+    /**
+     * @return the file the ids of the deleted packed objects are recorded in, which may not exist
+     */
+    public File getDeletionsFile() {
+        return new File(packsDir, DELETIONS_FILE);
+    }
+
+    public boolean isEmpty() {
+        return packs.isEmpty();
+    }
+
+    public ImmutableList<PackFile> getPacks() {
+        return ImmutableList.copyOf(packs);
+    }
+
+    public boolean contains(ObjectId id) {
+        return !isDeleted(id) && isPacked(id);
+    }
+
+    @Nullable
+    public byte[] get(ObjectId id) {
+        if (isDeleted(id)) {
+            return null;
+        }
+        for (PackFile pack : packs) {
+            byte[] raw = pack.get(id);
+            if (raw != null) {
+                return raw;
+            }
+        }
+        return null;
+    }
+
+    public void lookUp(byte[] partialId, List<ObjectId> target) {
+        final int from = target.size();
+        for (PackFile pack : packs) {
+            pack.lookUp(partialId, target);
+        }
+        if (!deleted.isEmpty()) {
+            for (Iterator<ObjectId> it = target.listIterator(from); it.hasNext();) {
+                if (deleted.contains(it.next())) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether the object was packed and then {@link #delete deleted}
+     */
+    public boolean isDeleted(ObjectId id) {
+        return !deleted.isEmpty() && deleted.contains(id);
+    }
+
+    /**
+     * Hides a packed object from reads, recording its id in the {@link #getDeletionsFile()
+     * deletions file} so that it stays deleted after reopening.
+     *
+     * @return {@code true} if the object was in a pack and not deleted already
+     */
+    public synchronized boolean delete(ObjectId id) {
+        if (!contains(id)) {
+            return false;
+        }
+        try (OutputStream out = new FileOutputStream(getDeletionsFile(), true)) {
+            out.write(id.getRawValue());
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        deleted.add(id);
+        return true;
+    }
+
+    /**
+     * @return a new, not yet existing, file to write a pack to
+     */
+    public File newPackFile() {
+        if (!packsDir.exists() && !packsDir.mkdirs()) {
+            throw new IllegalStateException("Unable to create packs directory " + packsDir);
+        }
+        return new File(packsDir, String.format("pack-%d-%d%s", System.currentTimeMillis(),
+                sequence.incrementAndGet(), PACK_EXTENSION));
+    }
+
+    /**
+     * Makes a finished pack file available for reads
+     */
+    public synchronized void add(File packFile) throws IOException {
+        PackFile pack = PackFile.open(packFile);
+        packs.add(pack);
+        // objects written again after being deleted, and now packed again
+        pruneDeletions(pack);
+    }
+
+    /**
+     * Replaces {@code pack} by {@code replacement}, or just removes it if {@code replacement} is
+     * {@code null}, deleting the old pack file
+     */
+    public synchronized void replace(PackFile pack, @Nullable File replacement)
+            throws IOException {
+        if (replacement != null) {
+            packs.add(PackFile.open(replacement));
+        }
+        packs.remove(pack);
+        if (!pack.getFile().delete()) {
+            LOGGER.warn("Unable to delete pack file {}", pack.getFile());
+        }
+        pruneDeletions(null);
+    }
+
+    /**
+     * Forgets the deletions of the objects in {@code pack}, if given, or else of those no longer
+     * in any pack
+     */
+    private void pruneDeletions(@Nullable PackFile pack) throws IOException {
+        boolean pruned = false;
+        for (Iterator<ObjectId> it = deleted.iterator(); it.hasNext();) {
+            final ObjectId id = it.next();
+            if (pack == null ? !isPacked(id) : pack.contains(id)) {
+                it.remove();
+                pruned = true;
+            }
+        }
+        if (!pruned) {
+            return;
+        }
+        File deletions = getDeletionsFile();
+        if (deleted.isEmpty()) {
+            if (!deletions.delete()) {
+                LOGGER.warn("Unable to delete {}", deletions);
+            }
+            return;
+        }
+        File tmp = new File(packsDir, DELETIONS_FILE + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            for (ObjectId id : deleted) {
+                out.write(id.getRawValue());
+            }
+        }
+        Files.move(tmp, deletions);
+    }
+
+    private boolean isPacked(ObjectId id) {
+        for (PackFile pack : packs) {
+            if (pack.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,218 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import static com.sleepycat.je.OperationStatus.SUCCESS;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.locationtech.geogig.model.ObjectId;
+
+import com.sleepycat.bind.tuple.TupleInput;
+import com.sleepycat.bind.tuple.TupleOutput;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.Transaction;
+
+/**
+ * Generation numbers and first parent chains of the commits of a {@link JEGraphDatabase}, in
+ * their own database of the graph environment named after the graph database followed by
+ * {@code Reachability}, so "is ancestor" queries prune the walk, or don't need one.
+ * <p>
+ * The generation of a commit with no parents is {@code 1}, and that of any other commit one plus
+ * the highest generation of its parents. A commit can only reach commits of a lower generation, so
+ * a walk looking for an ancestor never needs to go below its generation.
+ * <p>
+ * Commits are also labeled with a chain and their position on it. A commit continues the chain of
+ * its first parent, one position after it, unless another child of the parent already does, and
+ * starts a new chain otherwise. A commit is then an ancestor of every commit further along its
+ * chain, which answers most positive queries, and all of them on a linear history, in constant
+ * time. Labels are assigned once and stay valid as commits are added, since edges are never
+ * removed from the graph.
+ * <p>
+ * The generations are written along with the graph nodes in the same transaction. A database
+ * created for an existing graph is filled in by the graph writer thread, and a marker record
+ * written once it's done, so a partially built index is never used.
+ */
+class ReachabilityIndex {
+
+    /**
+     * Generation of the commits not in the index
+     */
+    static final int UNKNOWN = 0;
+
+    /**
+     * Chain of the commits labeled before chains were
+     */
+    static final long NO_CHAIN = 0;
+
+    /**
+     * Key of the marker record, shorter than any commit id
+     */
+    private static final byte[] COMPLETE_KEY = { 0 };
+
+    /**
+     * Key of the record holding the next chain to assign, shorter than any commit id
+     */
+    private static final byte[] NEXT_CHAIN_KEY = { 1 };
+
+    /**
+     * The generation of a commit and its position on its chain
+     */
+    static final class Label {
+
+        final int generation;
+
+        final long chain;
+
+        final int position;
+
+        Label(int generation, long chain, int position) {
+            this.generation = generation;
+            this.chain = chain;
+            this.position = position;
+        }
+
+        Label withGeneration(int generation) {
+            return new Label(generation, chain, position);
+        }
+
+        /**
+         * @return whether this commit is known to be an ancestor of the one with the given label,
+         *         being before it on the same chain
+         */
+        boolean precedes(Label descendant) {
+            return chain != NO_CHAIN && chain == descendant.chain
+                    && position <= descendant.position;
+        }
+
+        @Override
+        public String toString() {
+            return "Label[generation: " + generation + ", chain: " + chain + ", position: "
+                    + position + "]";
+        }
+    }
+
+    private final Database database;
+
+    private volatile boolean complete;
+
+    private long nextChain;
+
+    private ReachabilityIndex(Database database) {
+        this.database = database;
+        DatabaseEntry data = new DatabaseEntry();
+        data.setPartial(0, 0, true);
+        this.complete = SUCCESS == database.get(null, new DatabaseEntry(COMPLETE_KEY), data,
+                LockMode.READ_UNCOMMITTED);
+        DatabaseEntry next = new DatabaseEntry();
+        this.nextChain = SUCCESS == database.get(null, new DatabaseEntry(NEXT_CHAIN_KEY), next,
+                LockMode.READ_UNCOMMITTED)
+                        ? new TupleInput(next.getData(), next.getOffset(), next.getSize())
+                                .readPackedLong()
+                        : NO_CHAIN + 1;
+    }
+
+    /**
+     * @return the index, or {@code null} if it doesn't exist and can't be created
+     * @see JEGraphDatabase#openCompanionDatabase
+     */
+    @Nullable
+    static ReachabilityIndex open(Environment env, String databaseName,
+            DatabaseConfig graphConfig) {
+        Database database = JEGraphDatabase.openCompanionDatabase(env, databaseName, graphConfig);
+        return database == null ? null : new ReachabilityIndex(database);
+    }
+
+    /**
+     * @return whether the generations of all the commits in the graph are known
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    void markComplete(@Nullable Transaction transaction) {
+        database.put(transaction, new DatabaseEntry(COMPLETE_KEY), new DatabaseEntry(new byte[0]));
+        complete = true;
+    }
+
+    /**
+     * Marks the index as not to be used until built again, e.g. when nodes are imported without
+     * their generations
+     */
+    void markIncomplete(@Nullable Transaction transaction) {
+        complete = false;
+        database.delete(transaction, new DatabaseEntry(COMPLETE_KEY));
+    }
+
+    /**
+     * @return the label of the commit, or {@code null} if it's not in the index
+     */
+    @Nullable
+    Label getLabel(ObjectId id) {
+        DatabaseEntry data = new DatabaseEntry();
+        if (SUCCESS != database.get(null, new DatabaseEntry(id.getRawValue()), data,
+                LockMode.READ_UNCOMMITTED)) {
+            return null;
+        }
+        TupleInput input = new TupleInput(data.getData(), data.getOffset(), data.getSize());
+        final int generation = input.readPackedInt();
+        if (input.available() == 0) {
+            return new Label(generation, NO_CHAIN, 0);
+        }
+        return new Label(generation, input.readPackedLong(), input.readPackedInt());
+    }
+
+    void putLabel(@Nullable Transaction transaction, ObjectId id, Label label) {
+        TupleOutput output = new TupleOutput();
+        output.writePackedInt(label.generation);
+        output.writePackedLong(label.chain);
+        output.writePackedInt(label.position);
+        database.put(transaction, new DatabaseEntry(id.getRawValue()),
+                new DatabaseEntry(output.getBufferBytes(), 0, output.getBufferLength()));
+    }
+
+    /**
+     * @return a chain not assigned yet, recorded as such outside of any transaction so it's never
+     *         assigned twice
+     */
+    synchronized long newChain() {
+        final long chain = nextChain;
+        reserveChains(chain + 1);
+        return chain;
+    }
+
+    /**
+     * Keeps {@link #newChain} from assigning the chains before the given one, e.g. assigned by
+     * the caller when building the index
+     */
+    synchronized void reserveChains(long next) {
+        if (next <= nextChain) {
+            return;
+        }
+        nextChain = next;
+        TupleOutput output = new TupleOutput();
+        output.writePackedLong(next);
+        database.put(null, new DatabaseEntry(NEXT_CHAIN_KEY),
+                new DatabaseEntry(output.getBufferBytes(), 0, output.getBufferLength()));
+    }
+
+    void sync() {
+        if (database.getConfig().getDeferredWrite()) {
+            database.sync();
+        }
+    }
+
+    void close() {
+        database.close();
+    }
+}
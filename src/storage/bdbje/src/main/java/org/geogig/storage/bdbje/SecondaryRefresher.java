@@ -0,0 +1,247 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.locationtech.geogig.storage.ConfigDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Periodically reopens the read only {@link com.sleepycat.je.Environment} of a database open in
+ * {@link EnvironmentBuilder#isSecondary() secondary} mode.
+ * <p>
+ * A read only JE environment only sees the data that was durable when it was opened, so a
+ * secondary process serving reads from a repository another process writes to needs to reopen it
+ * to see the new data. Point reads are bracketed by {@link #beginRead()}/{@link #endRead()} and
+ * block the refresh while they run. Open iterators hold cursors on the current environment, so the
+ * refresh is deferred to the next interval while there are any.
+ * <p>
+ * JE shares the underlying environment among all the handles open on the same directory in a
+ * process, so there's a single refresher per environment directory, obtained through
+ * {@link #register}, that closes the environment handles of all the databases living in it before
+ * reopening them.
+ * <p>
+ * {@link #getStalenessMillis()} tells how old the snapshot being served is.
+ */
+class SecondaryRefresher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SecondaryRefresher.class);
+
+    /**
+     * Config key for the number of seconds between refreshes of a secondary environment
+     */
+    static final String REFRESH_INTERVAL_CONFIG_KEY = "bdbje.secondary.refresh_interval";
+
+    static final int DEFAULT_REFRESH_INTERVAL_SECONDS = 30;
+
+    /**
+     * Number of consecutive deferred refreshes after which a warning is logged, usually meaning an
+     * iterator was not consumed nor closed
+     */
+    private static final int DEFERRED_REFRESHES_WARNING = 10;
+
+    private static final ScheduledExecutorService SCHEDULER = Executors
+            .newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat("BDBJE-SECONDARY-REFRESH-%d").build());
+
+    private static final Map<File, SecondaryRefresher> REFRESHERS = new HashMap<>();
+
+    /**
+     * A database open in secondary mode
+     */
+    interface Reopenable {
+
+        /**
+         * Closes the database and its environment handle
+         */
+        void closeEnvironment();
+
+        /**
+         * Reopens the environment handle and the database
+         */
+        void openEnvironment();
+    }
+
+    private final File envHome;
+
+    private final long intervalMillis;
+
+    private final List<Reopenable> databases = new CopyOnWriteArrayList<>();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final AtomicInteger openIterators = new AtomicInteger();
+
+    private volatile long lastRefresh;
+
+    private int deferredRefreshes;
+
+    private ScheduledFuture<?> task;
+
+    private SecondaryRefresher(File envHome, long intervalMillis) {
+        this.envHome = envHome;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Registers a database living in the environment at {@code envHome} to be reopened
+     * periodically, starting the refresher for that environment if it's the first one
+     *
+     * @param intervalMillis the time between refreshes, ignored if the environment already has a
+     *        refresher
+     * @return the refresher for the environment
+     */
+    static SecondaryRefresher register(File envHome, long intervalMillis, Reopenable database) {
+        final File key = envHome.getAbsoluteFile();
+        SecondaryRefresher refresher;
+        synchronized (REFRESHERS) {
+            refresher = REFRESHERS.get(key);
+            if (refresher == null) {
+                refresher = new SecondaryRefresher(key, intervalMillis);
+                REFRESHERS.put(key, refresher);
+                refresher.start();
+            }
+        }
+        refresher.lock.writeLock().lock();
+        try {
+            refresher.databases.add(database);
+        } finally {
+            refresher.lock.writeLock().unlock();
+        }
+        return refresher;
+    }
+
+    /**
+     * Stops refreshing the database, waiting for a refresh in progress to finish. Stops the
+     * refresher when there are no databases left.
+     */
+    void unregister(Reopenable database) {
+        lock.writeLock().lock();
+        try {
+            databases.remove(database);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        synchronized (REFRESHERS) {
+            if (databases.isEmpty() && REFRESHERS.get(envHome) == this) {
+                REFRESHERS.remove(envHome);
+                stop();
+            }
+        }
+    }
+
+    static long getRefreshIntervalMillis(ConfigDatabase config) {
+        Optional<Integer> seconds = config.get(REFRESH_INTERVAL_CONFIG_KEY, Integer.class);
+        if (!seconds.isPresent()) {
+            seconds = config.getGlobal(REFRESH_INTERVAL_CONFIG_KEY, Integer.class);
+        }
+        return TimeUnit.SECONDS.toMillis(seconds.or(DEFAULT_REFRESH_INTERVAL_SECONDS).intValue());
+    }
+
+    private synchronized void start() {
+        this.lastRefresh = System.currentTimeMillis();
+        if (task == null) {
+            task = SCHEDULER.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refresh();
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Error refreshing secondary environment {}", envHome, e);
+                    }
+                }
+            }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    public void beginRead() {
+        lock.readLock().lock();
+    }
+
+    public void endRead() {
+        lock.readLock().unlock();
+    }
+
+    public void iteratorOpened() {
+        openIterators.incrementAndGet();
+    }
+
+    public void iteratorClosed() {
+        openIterators.decrementAndGet();
+    }
+
+    /**
+     * @return the number of milliseconds since the environment was last (re)opened
+     */
+    public long getStalenessMillis() {
+        return System.currentTimeMillis() - lastRefresh;
+    }
+
+    /**
+     * Closes the environment handles of all the registered databases and reopens them, unless
+     * there are open iterators
+     *
+     * @return whether the environment was reopened
+     */
+    public synchronized boolean refresh() {
+        if (task == null) {
+            return false;
+        }
+        lock.writeLock().lock();
+        try {
+            final int iterators = openIterators.get();
+            if (iterators > 0) {
+                deferredRefreshes++;
+                if (deferredRefreshes == DEFERRED_REFRESHES_WARNING) {
+                    LOGGER.warn("Secondary environment {} was not refreshed for {} ms, "
+                            + "there are {} open iterators", envHome, getStalenessMillis(),
+                            iterators);
+                }
+                return false;
+            }
+            final long staleness = getStalenessMillis();
+            for (Reopenable db : databases) {
+                db.closeEnvironment();
+            }
+            for (Reopenable db : databases) {
+                db.openEnvironment();
+            }
+            deferredRefreshes = 0;
+            lastRefresh = System.currentTimeMillis();
+            LOGGER.debug("Refreshed secondary environment {}, staleness was {} ms", envHome,
+                    staleness);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,343 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.locationtech.geogig.storage.ConfigDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.MapMaker;
+import com.sleepycat.je.CacheMode;
+import com.sleepycat.je.Durability;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentMutableConfig;
+
+/**
+ * Named JE tuning profiles that can be switched while the repository is open.
+ * <p>
+ * The profile is set with the {@code bdbje.workload_profile} repository (or global) config key,
+ * using the lower case profile name (e.g. {@code bulk_import}), and picked up by the open
+ * databases within a second. It's applied to the environment through
+ * {@link Environment#setMutableConfig} (default cache mode and durability) and to the databases'
+ * own operations (transaction durability and lock timeout, bulk partition size, and how often
+ * non transactional writes are flushed).
+ * <p>
+ * Profiles with {@link #getCacheMode(Access) per operation cache modes} let each kind of read or
+ * write pick its own cache mode, so trees and commits stay cached while one-off feature reads and
+ * bulk writes don't push them out. The others apply their default cache mode to all operations.
+ * <p>
+ * Import commands switch to {@link #BULK_IMPORT} while they run through a process local
+ * {@link #override override} that is never written to the config.
+ */
+public enum WorkloadProfile {
+
+    /**
+     * The static tuning used before profiles existed: commits not in a transaction are synced to
+     * disk, transactions are written to the OS without syncing, and records are cached cold
+     */
+    DEFAULT(CacheMode.MAKE_COLD, false, Durability.COMMIT_SYNC,
+            Durability.COMMIT_WRITE_NO_SYNC, 5, 10 * 1000, 512 * 1024 * 1024),
+
+    /**
+     * Large sequential writes: written records are evicted right away so they don't push the
+     * working set out of the cache, commits are not flushed to the OS, and larger batches are
+     * used. Data is made durable when the database is synced or closed.
+     */
+    BULK_IMPORT(CacheMode.EVICT_LN, false, Durability.COMMIT_NO_SYNC, Durability.COMMIT_NO_SYNC,
+            30, 100 * 1000, 1024 * 1024 * 1024),
+
+    /**
+     * Many small reads serving interactive requests: records are kept in the cache, and trees and
+     * commits are kept longer than features
+     */
+    INTERACTIVE(CacheMode.DEFAULT, true, Durability.COMMIT_WRITE_NO_SYNC,
+            Durability.COMMIT_WRITE_NO_SYNC, 5, 10 * 1000, 256 * 1024 * 1024),
+
+    /**
+     * Memory constrained processes: internal nodes are evicted along with the records, batches are
+     * smaller, and the log is flushed more often so deferred writes don't pile up in the cache
+     */
+    LOW_MEMORY(CacheMode.EVICT_BIN, false, Durability.COMMIT_WRITE_NO_SYNC,
+            Durability.COMMIT_WRITE_NO_SYNC, 5, 1000, 64 * 1024 * 1024);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WorkloadProfile.class);
+
+    public static final String CONFIG_KEY = "bdbje.workload_profile";
+
+    /**
+     * Process local overrides, keyed by the config the repository's databases were created with
+     */
+    private static final ConcurrentMap<ConfigDatabase, WorkloadProfile> OVERRIDES = new MapMaker()
+            .weakKeys().makeMap();
+
+    /**
+     * The kinds of operations that set their own cache mode, when the profile uses per operation
+     * cache modes
+     */
+    enum Access {
+        /**
+         * Bulk inserts, written records are not read back soon
+         */
+        BULK_WRITE(CacheMode.EVICT_LN),
+        /**
+         * Reads of many objects that are unlikely to be read again soon, like features
+         */
+        SCAN(CacheMode.MAKE_COLD),
+        /**
+         * Reads of objects that are read over and over, like trees and commits
+         */
+        HOT_READ(CacheMode.KEEP_HOT),
+        /**
+         * Reads of single objects, like features
+         */
+        POINT_READ(CacheMode.DEFAULT);
+
+        private final CacheMode cacheMode;
+
+        private Access(CacheMode cacheMode) {
+            this.cacheMode = cacheMode;
+        }
+    }
+
+    private final CacheMode cacheMode;
+
+    private final boolean perOperationCacheModes;
+
+    private final Durability environmentDurability;
+
+    private final Durability durability;
+
+    private final int lockTimeoutSeconds;
+
+    private final int bulkPartitionSize;
+
+    private final int syncBytesLimit;
+
+    private WorkloadProfile(CacheMode cacheMode, boolean perOperationCacheModes,
+            Durability environmentDurability, Durability durability, int lockTimeoutSeconds,
+            int bulkPartitionSize, int syncBytesLimit) {
+        this.cacheMode = cacheMode;
+        this.perOperationCacheModes = perOperationCacheModes;
+        this.environmentDurability = environmentDurability;
+        this.durability = durability;
+        this.lockTimeoutSeconds = lockTimeoutSeconds;
+        this.bulkPartitionSize = bulkPartitionSize;
+        this.syncBytesLimit = syncBytesLimit;
+    }
+
+    /**
+     * @return the environment's default cache mode
+     */
+    public CacheMode getCacheMode() {
+        return cacheMode;
+    }
+
+    /**
+     * @return the cache mode for the given kind of operation, or {@code null} if the profile
+     *         doesn't use per operation cache modes and the environment's default applies
+     */
+    @Nullable
+    CacheMode getCacheMode(Access access) {
+        return perOperationCacheModes ? access.cacheMode : null;
+    }
+
+    /**
+     * @return the environment's default durability, that of writes not in a transaction
+     */
+    public Durability getEnvironmentDurability() {
+        return environmentDurability;
+    }
+
+    /**
+     * @return the durability of transactions, unless the repository asks for safe durability
+     */
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * @return the lock timeout for transactions, in milliseconds
+     */
+    public long getLockTimeoutMillis() {
+        return TimeUnit.SECONDS.toMillis(lockTimeoutSeconds);
+    }
+
+    /**
+     * @return the number of objects bulk operations are partitioned into
+     */
+    public int getBulkPartitionSize() {
+        return bulkPartitionSize;
+    }
+
+    /**
+     * @return the number of bytes written to a non transactional database after which its log is
+     *         flushed
+     */
+    public int getSyncBytesLimit() {
+        return syncBytesLimit;
+    }
+
+    /**
+     * @return the config value for this profile
+     */
+    public String configValue() {
+        return name().toLowerCase();
+    }
+
+    /**
+     * Applies the environment wide settings of this profile
+     */
+    void apply(Environment env) {
+        EnvironmentMutableConfig config = env.getMutableConfig();
+        if (!env.getConfig().getReadOnly()) {
+            config.setDurability(environmentDurability);
+        }
+        if (!CacheGovernor.isEnabled() || !CacheGovernor.get().deferCacheMode(env, cacheMode)) {
+            config.setCacheMode(cacheMode);
+        }
+        env.setMutableConfig(config);
+    }
+
+    /**
+     * Uses the given profile instead of the configured one for the repository whose databases
+     * were created with {@code config}, in this process only, until the returned handle is closed.
+     * <p>
+     * Nothing is written to the config, so other processes sharing the repository keep the
+     * configured profile, and it is back in effect if this process dies before closing the
+     * handle. The open databases pick up the change within a second.
+     */
+    public static ProfileOverride override(ConfigDatabase config, WorkloadProfile profile) {
+        Preconditions.checkNotNull(config);
+        Preconditions.checkNotNull(profile);
+        return new ProfileOverride(config, profile, OVERRIDES.put(config, profile));
+    }
+
+    /**
+     * A scoped {@link WorkloadProfile#override override}, closing it restores the profile in
+     * effect before it
+     */
+    public static class ProfileOverride implements AutoCloseable {
+
+        private final ConfigDatabase config;
+
+        private final WorkloadProfile profile;
+
+        private final @Nullable WorkloadProfile previous;
+
+        private ProfileOverride(ConfigDatabase config, WorkloadProfile profile,
+                @Nullable WorkloadProfile previous) {
+            this.config = config;
+            this.profile = profile;
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (previous == null) {
+                OVERRIDES.remove(config, profile);
+            } else {
+                OVERRIDES.replace(config, profile, previous);
+            }
+        }
+    }
+
+    /**
+     * @return the profile {@link #override overridden} in this process, or else the one set by
+     *         the config
+     */
+    static WorkloadProfile select(ConfigDatabase config) {
+        WorkloadProfile profile = OVERRIDES.get(config);
+        return profile == null ? fromConfig(config) : profile;
+    }
+
+    /**
+     * @return the profile set by the {@link #CONFIG_KEY} config key, or {@link #DEFAULT}
+     */
+    static WorkloadProfile fromConfig(ConfigDatabase config) {
+        Optional<String> value = config.get(CONFIG_KEY);
+        if (!value.isPresent()) {
+            value = config.getGlobal(CONFIG_KEY);
+        }
+        if (!value.isPresent()) {
+            return DEFAULT;
+        }
+        try {
+            return valueOf(value.get().trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Unknown {} '{}', using the default profile", CONFIG_KEY, value.get());
+            return DEFAULT;
+        }
+    }
+
+    /**
+     * Tracks the profile {@link #select selected} for a database, reading the config at most once per second,
+     * and applies it to the database's environment when it changes
+     */
+    static class Selector {
+
+        private static final long CHECK_INTERVAL_MILLIS = 1000;
+
+        private final ConfigDatabase config;
+
+        private volatile WorkloadProfile current = DEFAULT;
+
+        private volatile long lastCheck;
+
+        private Environment appliedTo;
+
+        Selector(ConfigDatabase config) {
+            this.config = config;
+        }
+
+        /**
+         * Applies the configured profile to a newly open environment
+         */
+        synchronized WorkloadProfile apply(Environment env) {
+            current = select(config);
+            lastCheck = System.currentTimeMillis();
+            current.apply(env);
+            appliedTo = env;
+            return current;
+        }
+
+        /**
+         * @return the configured profile, applying it to the environment if it changed since the
+         *         last check
+         */
+        WorkloadProfile get(@Nullable Environment env) {
+            final long now = System.currentTimeMillis();
+            if (now - lastCheck < CHECK_INTERVAL_MILLIS) {
+                return current;
+            }
+            synchronized (this) {
+                if (now - lastCheck >= CHECK_INTERVAL_MILLIS) {
+                    WorkloadProfile profile = select(config);
+                    lastCheck = now;
+                    if (profile != current || env != appliedTo) {
+                        if (env != null) {
+                            LOGGER.debug("Switching {} to the {} workload profile",
+                                    env.getHome(), profile);
+                            profile.apply(env);
+                        }
+                        current = profile;
+                        appliedTo = env;
+                    }
+                }
+                return current;
+            }
+        }
+    }
+}
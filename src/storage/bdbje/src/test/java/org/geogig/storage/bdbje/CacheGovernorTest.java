@@ -0,0 +1,108 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.locationtech.geogig.storage.ConfigDatabase;
+
+import com.google.common.base.Optional;
+import com.sleepycat.je.CacheMode;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+
+public class CacheGovernorTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Environment env1, env2;
+
+    private CacheGovernor governor;
+
+    @Before
+    public void before() throws Exception {
+        env1 = open(tmp.newFolder("env1"));
+        env2 = open(tmp.newFolder("env2"));
+        governor = new CacheGovernor();
+    }
+
+    @After
+    public void after() {
+        env1.close();
+        env2.close();
+    }
+
+    private Environment open(File dir) {
+        EnvironmentConfig config = new EnvironmentConfig();
+        config.setAllowCreate(true);
+        config.setSharedCache(true);
+        return new Environment(dir, config);
+    }
+
+    private ConfigDatabase config(Long quota, Integer priority) {
+        ConfigDatabase config = mock(ConfigDatabase.class);
+        doReturn(Optional.absent()).when(config).get(anyString(), any(Class.class));
+        doReturn(Optional.absent()).when(config).getGlobal(anyString(), any(Class.class));
+        doReturn(Optional.fromNullable(quota)).when(config).get(CacheGovernor.QUOTA_CONFIG_KEY,
+                Long.class);
+        doReturn(Optional.fromNullable(priority)).when(config)
+                .get(CacheGovernor.PRIORITY_CONFIG_KEY, Integer.class);
+        return config;
+    }
+
+    @Test
+    public void testQuota() {
+        governor.register(env1, config(1L, null));
+        governor.register(env2, config(null, null));
+        governor.check();
+
+        assertEquals(2, governor.getCacheUsage().size());
+        assertTrue(governor.getSharedCacheBytes() > 0);
+        assertTrue(governor.getSharedCacheMaxBytes() > 0);
+        assertTrue(governor.isThrottled(env1));
+        assertFalse(governor.isThrottled(env2));
+        assertEquals(CacheMode.EVICT_LN, env1.getMutableConfig().getCacheMode());
+        assertArrayEquals(new String[] { env1.getHome().getAbsolutePath() },
+                governor.getThrottledEnvironments());
+        assertEquals(1, governor.getThrottleCount());
+
+        // unregistering releases the throttle
+        governor.unregister(env1);
+        assertFalse(governor.isThrottled(env1));
+        assertEquals(CacheMode.DEFAULT, env1.getMutableConfig().getCacheMode());
+        assertEquals(1, governor.getCacheUsage().size());
+    }
+
+    @Test
+    public void testSharedEnvironmentRegisteredTwice() {
+        governor.register(env1, config(1L, null));
+        governor.register(env1, config(1L, null));
+        governor.check();
+        governor.unregister(env1);
+        assertTrue(governor.isThrottled(env1));
+        governor.unregister(env1);
+        assertFalse(governor.isThrottled(env1));
+    }
+}
@@ -0,0 +1,286 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.geogig.model.ObjectId;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+public class CommitGraphIndexTest {
+
+    private final ObjectId root = ObjectId.forString("root");
+
+    private final ObjectId a = ObjectId.forString("a");
+
+    private final ObjectId b = ObjectId.forString("b");
+
+    private final ObjectId c = ObjectId.forString("c");
+
+    private final ObjectId d = ObjectId.forString("d");
+
+    private final ObjectId merge = ObjectId.forString("merge");
+
+    /**
+     * The nodes as the graph database would store them
+     */
+    private Map<ObjectId, NodeData> nodes;
+
+    @Before
+    public void before() {
+        nodes = new LinkedHashMap<>();
+        // root - a - b - merge
+        // root - c - d -/
+        put(root);
+        put(a, root);
+        put(b, a);
+        put(c, root);
+        put(d, c);
+        put(merge, b, d);
+    }
+
+    private void put(ObjectId commit, ObjectId... parents) {
+        NodeData node = nodes.get(commit);
+        if (node == null) {
+            node = new NodeData(commit, ImmutableList.<ObjectId> of());
+            nodes.put(commit, node);
+        }
+        for (ObjectId parent : parents) {
+            node.outgoing.add(parent);
+            NodeData parentNode = nodes.get(parent);
+            if (parentNode == null) {
+                parentNode = new NodeData(parent, ImmutableList.<ObjectId> of());
+                nodes.put(parent, parentNode);
+            }
+            parentNode.incoming.add(commit);
+        }
+    }
+
+    private CommitGraphIndex load() {
+        CommitGraphIndex index = new CommitGraphIndex();
+        for (NodeData node : nodes.values()) {
+            index.load(node);
+        }
+        index.loaded();
+        return index;
+    }
+
+    @Test
+    public void testLoad() {
+        CommitGraphIndex index = load();
+        assertEquals(6, index.size());
+        assertTrue(index.contains(merge));
+        assertFalse(index.contains(ObjectId.forString("missing")));
+
+        assertEquals(ImmutableList.of(b, d), index.getParents(merge));
+        assertEquals(ImmutableList.of(a, c), index.getChildren(root));
+        assertEquals(ImmutableList.of(), index.getParents(root));
+        assertNull(index.getParents(ObjectId.forString("missing")));
+
+        assertEquals(0, index.getDepth(root));
+        assertEquals(2, index.getDepth(d));
+        assertEquals(3, index.getDepth(merge));
+        assertEquals(-1, index.getDepth(ObjectId.forString("missing")));
+    }
+
+    @Test
+    public void testPutAfterLoad() {
+        CommitGraphIndex index = load();
+        final ObjectId e = ObjectId.forString("e");
+        final ObjectId newRoot = ObjectId.forString("newRoot");
+        index.put(e, ImmutableList.of(merge, a));
+        assertEquals(ImmutableList.of(merge, a), index.getParents(e));
+        assertEquals(ImmutableList.of(b, e), index.getChildren(a));
+        assertEquals(2, index.getDepth(e));
+
+        // giving the root a parent moves all its descendants one level down
+        index.put(root, ImmutableList.of(newRoot));
+        assertEquals(0, index.getDepth(newRoot));
+        assertEquals(1, index.getDepth(root));
+        assertEquals(4, index.getDepth(merge));
+        assertEquals(3, index.getDepth(e));
+
+        // already known edges are not added twice
+        index.put(e, ImmutableList.of(merge));
+        assertEquals(ImmutableList.of(merge, a), index.getParents(e));
+    }
+
+    @Test
+    public void testPutAfterPartialLoad() {
+        // a load racing a write sees the new commit but not the child of its parent yet
+        final ObjectId e = ObjectId.forString("e");
+        NodeData node = new NodeData(e, ImmutableList.<ObjectId> of());
+        node.outgoing.add(merge);
+        nodes.put(e, node);
+        CommitGraphIndex index = load();
+
+        index.put(e, ImmutableList.of(merge));
+        assertEquals(ImmutableList.of(e), index.getChildren(merge));
+        assertEquals(4, index.getDepth(e));
+        assertTrue(index.isAncestor(root, e));
+    }
+
+    @Test
+    public void testCompaction() {
+        CommitGraphIndex index = load();
+        final int count = 5000;
+        ObjectId parent = merge;
+        for (int i = 0; i < count; i++) {
+            ObjectId commit = ObjectId.forString("commit-" + i);
+            index.put(commit, ImmutableList.of(parent, root));
+            parent = commit;
+        }
+        assertEquals(6 + count, index.size());
+        ObjectId last = ObjectId.forString("commit-" + (count - 1));
+        assertEquals(ImmutableList.of(ObjectId.forString("commit-" + (count - 2)), root),
+                index.getParents(last));
+        assertEquals(1, index.getDepth(last));
+        List<ObjectId> rootChildren = index.getChildren(root);
+        assertEquals(2 + count, rootChildren.size());
+        assertEquals(ImmutableList.of(a, c), rootChildren.subList(0, 2));
+        assertEquals(merge, index.findLowestCommonAncestor(last, merge).get());
+    }
+
+    @Test
+    public void testLoadGrowing() {
+        // loading adds nodes past the initial capacity of the index
+        final int count = 1000;
+        ObjectId parent = merge;
+        for (int i = 0; i < count; i++) {
+            ObjectId commit = ObjectId.forString("commit-" + i);
+            put(commit, parent);
+            parent = commit;
+        }
+        CommitGraphIndex index = load();
+        assertEquals(6 + count, index.size());
+        assertEquals(3 + count, index.getDepth(parent));
+        assertEquals(ImmutableList.of(ObjectId.forString("commit-0")), index.getChildren(merge));
+        assertTrue(index.isAncestor(root, parent));
+        assertEquals(d, index.findLowestCommonAncestor(parent, d).get());
+    }
+
+    @Test
+    public void testFindLowestCommonAncestor() {
+        CommitGraphIndex index = load();
+        assertEquals(root, index.findLowestCommonAncestor(b, d).get());
+        assertEquals(d, index.findLowestCommonAncestor(merge, d).get());
+        assertEquals(b, index.findLowestCommonAncestor(b, merge).get());
+        assertEquals(a, index.findLowestCommonAncestor(a, a).get());
+        assertEquals(Optional.absent(),
+                index.findLowestCommonAncestor(a, ObjectId.forString("missing")));
+
+        ObjectId other = ObjectId.forString("other");
+        index.put(other, ImmutableList.<ObjectId> of());
+        assertEquals(Optional.absent(), index.findLowestCommonAncestor(other, merge));
+    }
+
+    @Test
+    public void testFindLowestCommonAncestorCrissCross() {
+        final ObjectId x1 = ObjectId.forString("x1");
+        final ObjectId x2 = ObjectId.forString("x2");
+        final ObjectId y = ObjectId.forString("y");
+        put(x1, b, d);
+        put(x2, d, b);
+        // a deeper common ancestor on one side
+        put(y, x1);
+        CommitGraphIndex index = load();
+        // b and d are both lowest, as deep as each other: the first one found from the right
+        assertEquals(d, index.findLowestCommonAncestor(x1, x2).get());
+        assertEquals(b, index.findLowestCommonAncestor(x2, x1).get());
+        assertEquals(x1, index.findLowestCommonAncestor(y, x1).get());
+    }
+
+    @Test
+    public void testIsAncestor() {
+        CommitGraphIndex index = load();
+        assertTrue(index.isAncestor(root, merge));
+        assertTrue(index.isAncestor(c, merge));
+        assertTrue(index.isAncestor(merge, merge));
+        assertFalse(index.isAncestor(merge, root));
+        assertFalse(index.isAncestor(a, d));
+        assertFalse(index.isAncestor(ObjectId.forString("missing"), merge));
+
+        // generations grow when a commit known only as a parent gets parents
+        final ObjectId e = ObjectId.forString("e");
+        final ObjectId f = ObjectId.forString("f");
+        index.put(e, ImmutableList.of(f));
+        assertFalse(index.isAncestor(merge, e));
+        index.put(f, ImmutableList.of(merge));
+        assertTrue(index.isAncestor(merge, e));
+        assertTrue(index.isAncestor(root, e));
+        assertFalse(index.isAncestor(e, merge));
+    }
+
+    @Test
+    public void testChains() {
+        CommitGraphIndex index = load();
+        // merge continues the chain of its first parent, the other branch has its own
+        final long chain = index.getLabel(root).chain;
+        assertEquals(chain, index.getLabel(b).chain);
+        assertEquals(chain, index.getLabel(merge).chain);
+        assertEquals(3, index.getLabel(merge).position);
+        assertEquals(index.getLabel(c).chain, index.getLabel(d).chain);
+        assertFalse(chain == index.getLabel(d).chain);
+        assertEquals(4, index.getLabel(merge).generation);
+        assertNull(index.getLabel(ObjectId.forString("missing")));
+
+        // only one child continues a chain
+        final ObjectId e = ObjectId.forString("e");
+        final ObjectId f = ObjectId.forString("f");
+        index.put(e, ImmutableList.of(merge));
+        index.put(f, ImmutableList.of(merge));
+        assertEquals(chain, index.getLabel(e).chain);
+        assertEquals(4, index.getLabel(e).position);
+        assertFalse(chain == index.getLabel(f).chain);
+        assertTrue(index.isAncestor(root, f));
+        assertFalse(index.isAncestor(e, f));
+
+        // a commit known only as a parent keeps the chain its child continues once added
+        final ObjectId g = ObjectId.forString("g");
+        final ObjectId h = ObjectId.forString("h");
+        index.put(h, ImmutableList.of(g));
+        index.put(g, ImmutableList.of(e));
+        assertEquals(index.getLabel(g).chain, index.getLabel(h).chain);
+        assertEquals(0, index.getLabel(g).position);
+        assertTrue(index.isAncestor(g, h));
+        assertTrue(index.isAncestor(root, h));
+        assertFalse(index.isAncestor(f, h));
+    }
+
+    @Test
+    public void testLinearHistory() {
+        CommitGraphIndex index = load();
+        final int count = 5000;
+        ObjectId parent = merge;
+        for (int i = 0; i < count; i++) {
+            ObjectId commit = ObjectId.forString("commit-" + i);
+            index.put(commit, ImmutableList.of(parent));
+            parent = commit;
+        }
+        // all on the same chain, answered without walking the history
+        final long chain = index.getLabel(root).chain;
+        assertEquals(chain, index.getLabel(parent).chain);
+        assertEquals(count + 3, index.getLabel(parent).position);
+        assertTrue(index.isAncestor(root, parent));
+        assertTrue(index.isAncestor(d, parent));
+        assertFalse(index.isAncestor(parent, root));
+    }
+}
@@ -0,0 +1,155 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.locationtech.geogig.model.ObjectId;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+
+public class CommitIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Environment env;
+
+    private CommitIndex index;
+
+    private final ObjectId a = ObjectId.forString("a");
+
+    private final ObjectId b = ObjectId.forString("b");
+
+    private final ObjectId c = ObjectId.forString("c");
+
+    @Before
+    public void before() throws Exception {
+        EnvironmentConfig envConfig = new EnvironmentConfig();
+        envConfig.setAllowCreate(true);
+        envConfig.setTransactional(true);
+        env = new Environment(tmp.newFolder("graph"), envConfig);
+        DatabaseConfig graphConfig = new DatabaseConfig();
+        graphConfig.setTransactional(true);
+        index = CommitIndex.open(env, "GraphDatabaseCommitIndex", graphConfig);
+    }
+
+    @After
+    public void after() {
+        if (index != null) {
+            index.close();
+        }
+        if (env != null) {
+            env.close();
+        }
+    }
+
+    @Test
+    public void testFindByTimestamp() {
+        index.put(null, CommitIndex.TIMESTAMP, 3000L, a);
+        index.put(null, CommitIndex.TIMESTAMP, 1000L, b);
+        index.put(null, CommitIndex.TIMESTAMP, 2000L, c);
+
+        assertEquals(ImmutableList.of(b, c, a), index.find(CommitIndex.TIMESTAMP, 0, 5000));
+        assertEquals(ImmutableList.of(b, c), index.find(CommitIndex.TIMESTAMP, 1000, 3000));
+        assertEquals(ImmutableList.of(a), index.find(CommitIndex.TIMESTAMP, 2001, 3001));
+        assertTrue(index.find(CommitIndex.TIMESTAMP, 3001, 5000).isEmpty());
+        assertTrue(index.find(CommitIndex.TIMESTAMP, 3000, 3000).isEmpty());
+    }
+
+    @Test
+    public void testNegativeValues() {
+        index.put(null, CommitIndex.TIMESTAMP, -5L, a);
+        index.put(null, CommitIndex.TIMESTAMP, 5L, b);
+        index.put(null, CommitIndex.TIMESTAMP, Long.MIN_VALUE, c);
+
+        assertEquals(ImmutableList.of(c, a, b),
+                index.find(CommitIndex.TIMESTAMP, Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(ImmutableList.of(a), index.find(CommitIndex.TIMESTAMP, -10, 0));
+    }
+
+    @Test
+    public void testPropertiesApart() {
+        index.put(null, "changeset", 10L, a);
+        index.put(null, "changeset", 11L, b);
+        index.put(null, "changeset2", 10L, c);
+        index.put(null, CommitIndex.TIMESTAMP, 10L, c);
+
+        assertEquals(ImmutableList.of(a, b), index.find("changeset", 0, 100));
+        assertEquals(ImmutableList.of(c), index.find("changeset2", 0, 100));
+        assertEquals(ImmutableList.of(c), index.find(CommitIndex.TIMESTAMP, 0, 100));
+        assertTrue(index.find("missing", 0, 100).isEmpty());
+
+        index.delete(null, "changeset", 10L, a);
+        assertEquals(ImmutableList.of(b), index.find("changeset", 0, 100));
+    }
+
+    @Test
+    public void testCompleteness() {
+        assertFalse(index.isComplete());
+        index.markComplete(null, ImmutableSet.of("changeset"));
+        index.put(null, CommitIndex.TIMESTAMP, 10L, a);
+        assertTrue(index.isComplete(CommitIndex.TIMESTAMP));
+        assertTrue(index.hasTimestamp(a));
+        assertFalse(index.hasTimestamp(b));
+        assertTrue(index.isComplete("changeset"));
+        assertFalse(index.isComplete("other"));
+        assertFalse(index.isComplete(ImmutableSet.of("changeset", "other")));
+        // the marker is not an entry
+        assertEquals(ImmutableList.of(a),
+                index.find(CommitIndex.TIMESTAMP, Long.MIN_VALUE, Long.MAX_VALUE));
+
+        DatabaseConfig graphConfig = new DatabaseConfig();
+        graphConfig.setTransactional(true);
+        CommitIndex copy = CommitIndex.open(env, "copy", graphConfig);
+        try {
+            assertEquals(1, index.copyTo(copy, null));
+            assertTrue(copy.isComplete("changeset"));
+            assertTrue(copy.hasTimestamp(a));
+        } finally {
+            copy.close();
+        }
+
+        index.close();
+        index = CommitIndex.open(env, "GraphDatabaseCommitIndex", graphConfig);
+        assertTrue(index.isComplete("changeset"));
+        index.markIncomplete(null);
+        assertFalse(index.isComplete());
+        index.close();
+        index = CommitIndex.open(env, "GraphDatabaseCommitIndex", graphConfig);
+        assertFalse(index.isComplete());
+    }
+
+    @Test
+    public void testParse() {
+        assertEquals(Long.valueOf(42), CommitIndex.parse(" 42 ").get());
+        assertFalse(CommitIndex.parse("true").isPresent());
+        assertFalse(CommitIndex.parse(null).isPresent());
+    }
+
+    @Test
+    public void testReadOnlyMissing() {
+        DatabaseConfig graphConfig = new DatabaseConfig();
+        graphConfig.setReadOnly(true);
+        assertNull(CommitIndex.open(env, "missing", graphConfig));
+    }
+}
@@ -0,0 +1,124 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+
+public class EnvironmentMetricsTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Environment env;
+
+    private ObjectName objectName;
+
+    @Before
+    public void before() throws Exception {
+        EnvironmentConfig config = new EnvironmentConfig();
+        config.setAllowCreate(true);
+        env = new Environment(tmp.newFolder("env"), config);
+        objectName = new ObjectName("org.geogig.storage.bdbje:type=Environment,name="
+                + ObjectName.quote(env.getHome().getAbsolutePath()));
+    }
+
+    @After
+    public void after() {
+        env.close();
+    }
+
+    @Test
+    public void testRegistration() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        EnvironmentMetrics metrics = EnvironmentMetrics.register(env, "objects");
+        assertSame(metrics, EnvironmentMetrics.register(env, "graph"));
+        assertTrue(server.isRegistered(objectName));
+        assertEquals("graph,objects", server.getAttribute(objectName, "Databases"));
+
+        EnvironmentMetrics.unregister(env);
+        assertTrue(server.isRegistered(objectName));
+        EnvironmentMetrics.unregister(env);
+        assertFalse(server.isRegistered(objectName));
+    }
+
+    @Test
+    public void testSample() {
+        EnvironmentMetrics metrics = EnvironmentMetrics.register(env, "objects");
+        try {
+            assertEquals(-1, metrics.getSampleAgeMillis());
+            DatabaseConfig dbConfig = new DatabaseConfig();
+            dbConfig.setAllowCreate(true);
+            Database db = env.openDatabase(null, "test", dbConfig);
+            try {
+                for (int i = 0; i < 1000; i++) {
+                    db.put(null, new DatabaseEntry(String.valueOf(i).getBytes()),
+                            new DatabaseEntry(new byte[100]));
+                }
+                metrics.sample();
+                for (int i = 0; i < 1000; i++) {
+                    db.get(null, new DatabaseEntry(String.valueOf(i).getBytes()),
+                            new DatabaseEntry(), null);
+                }
+                env.flushLog(false);
+                metrics.sample();
+            } finally {
+                db.close();
+            }
+            assertTrue(metrics.getSampleAgeMillis() >= 0);
+            assertTrue(metrics.getCacheBytes() > 0);
+            assertTrue(metrics.getLogSize() > 0);
+            // everything was cached
+            assertEquals(1d, metrics.getCacheHitRatio(), 0.01);
+        } finally {
+            EnvironmentMetrics.unregister(env);
+        }
+    }
+
+    @Test
+    public void testCounters() {
+        EnvironmentMetrics metrics = EnvironmentMetrics.register(env, "objects");
+        try {
+            metrics.recordInsert(1000, 100 * 1000, TimeUnit.MILLISECONDS.toNanos(500));
+            metrics.recordInsert(1000, 100 * 1000, TimeUnit.MILLISECONDS.toNanos(500));
+            assertEquals(2000, metrics.getInsertedObjects());
+            assertEquals(200 * 1000, metrics.getInsertedBytes());
+            assertEquals(2000d, metrics.getInsertThroughput(), 0.1);
+
+            metrics.recordLogFlush(TimeUnit.MILLISECONDS.toNanos(10));
+            metrics.recordLogFlush(TimeUnit.MILLISECONDS.toNanos(30));
+            assertEquals(2, metrics.getLogFlushes());
+            assertEquals(20d, metrics.getAverageLogFlushMillis(), 0.01);
+            assertEquals(30, metrics.getMaxLogFlushMillis());
+        } finally {
+            EnvironmentMetrics.unregister(env);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+
+public class EnvironmentPoolTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private EnvironmentPool pool;
+
+    @Before
+    public void before() {
+        pool = new EnvironmentPool(60_000);
+    }
+
+    @After
+    public void after() {
+        pool.evictIdle();
+    }
+
+    private Callable<Environment> opener(final File dir) {
+        return new Callable<Environment>() {
+            @Override
+            public Environment call() {
+                EnvironmentConfig config = new EnvironmentConfig();
+                config.setAllowCreate(true);
+                return new Environment(dir, config);
+            }
+        };
+    }
+
+    @Test
+    public void testAcquireRelease() throws Exception {
+        File dir = tmp.newFolder("env");
+        Environment env1 = pool.acquire(dir, false, opener(dir));
+        Environment env2 = pool.acquire(new File(dir, "../env"), true, opener(dir));
+        assertSame(env1, env2);
+        assertEquals(1, pool.getMisses());
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getActiveEnvironments());
+
+        assertTrue(pool.release(env1));
+        assertEquals(0, pool.evictIdle());
+        assertTrue(pool.release(env2));
+        assertEquals(0, pool.getActiveEnvironments());
+        assertEquals(1, pool.getPooledEnvironments());
+
+        // idle environments are reused
+        assertSame(env1, pool.acquire(dir, false, opener(dir)));
+        assertTrue(pool.release(env1));
+
+        assertEquals(1, pool.evictIdle());
+        assertFalse(env1.isValid());
+        assertEquals(0, pool.getPooledEnvironments());
+        assertEquals(1, pool.getEvictions());
+    }
+
+    @Test
+    public void testDifferentDirectories() throws Exception {
+        File dir1 = tmp.newFolder("env1");
+        File dir2 = tmp.newFolder("env2");
+        Environment env1 = pool.acquire(dir1, false, opener(dir1));
+        Environment env2 = pool.acquire(dir2, false, opener(dir2));
+        assertNotSame(env1, env2);
+        assertEquals(2, pool.getMisses());
+        assertEquals(2, pool.getPooledEnvironments());
+        pool.release(env1);
+        pool.release(env2);
+    }
+
+    @Test
+    public void testEvictExpired() throws Exception {
+        pool = new EnvironmentPool(0);
+        File dir = tmp.newFolder("env");
+        Environment env = pool.acquire(dir, false, opener(dir));
+        pool.evictExpired();
+        assertTrue(env.isValid());
+        pool.release(env);
+        pool.evictExpired();
+        assertFalse(env.isValid());
+    }
+
+    @Test
+    public void testReleaseNotPooled() throws Exception {
+        File dir = tmp.newFolder("env");
+        Environment env = opener(dir).call();
+        try {
+            assertFalse(pool.release(env));
+        } finally {
+            env.close();
+        }
+    }
+
+    @Test
+    public void testOpenOutsideLock() throws Exception {
+        final File slowDir = tmp.newFolder("slow");
+        final File dir = tmp.newFolder("env");
+        final CountDownLatch opening = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final Callable<Environment> slowOpener = new Callable<Environment>() {
+            @Override
+            public Environment call() throws Exception {
+                opening.countDown();
+                proceed.await();
+                return opener(slowDir).call();
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Callable<Environment> acquire = new Callable<Environment>() {
+                @Override
+                public Environment call() {
+                    return pool.acquire(slowDir, false, slowOpener);
+                }
+            };
+            Future<Environment> first = executor.submit(acquire);
+            assertTrue(opening.await(10, TimeUnit.SECONDS));
+            Future<Environment> second = executor.submit(acquire);
+
+            // other directories and the pool stats don't wait for the slow open
+            Environment env = pool.acquire(dir, false, opener(dir));
+            assertEquals(2, pool.getActiveEnvironments());
+            pool.release(env);
+            assertFalse(second.isDone());
+
+            proceed.countDown();
+            Environment slow = first.get(10, TimeUnit.SECONDS);
+            assertSame(slow, second.get(10, TimeUnit.SECONDS));
+            assertEquals(2, pool.getMisses());
+            pool.release(slow);
+            pool.release(slow);
+        } finally {
+            proceed.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testOpenFailure() throws Exception {
+        File dir = tmp.newFolder("env");
+        try {
+            pool.acquire(dir, false, new Callable<Environment>() {
+                @Override
+                public Environment call() {
+                    throw new IllegalStateException("can't open");
+                }
+            });
+            fail("expected exception");
+        } catch (IllegalStateException expected) {
+            assertEquals("can't open", expected.getMessage());
+        }
+        assertEquals(0, pool.getPooledEnvironments());
+        Environment env = pool.acquire(dir, false, opener(dir));
+        assertTrue(env.isValid());
+        pool.release(env);
+    }
+}
@@ -0,0 +1,122 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+import org.locationtech.geogig.model.ObjectId;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+public class GraphEdgeSorterTest {
+
+    private final ObjectId root = ObjectId.forString("root");
+
+    private final ObjectId left = ObjectId.forString("left");
+
+    private final ObjectId right = ObjectId.forString("right");
+
+    private final ObjectId merge = ObjectId.forString("merge");
+
+    private GraphEdgeSorter sorter;
+
+    @After
+    public void after() {
+        if (sorter != null) {
+            sorter.close();
+        }
+    }
+
+    @Test
+    public void testNodes() {
+        // a run size small enough to spill several runs
+        sorter = new GraphEdgeSorter(3);
+        sorter.add(merge, ImmutableList.of(right, left));
+        sorter.add(left, ImmutableList.of(root));
+        sorter.add(root, ImmutableList.<ObjectId> of());
+        sorter.add(right, ImmutableList.of(root));
+        // added twice, as if both in the database and in a pack file
+        sorter.add(left, ImmutableList.of(root));
+        sorter.finish();
+
+        List<NodeData> nodes = Lists.newArrayList(sorter.nodes());
+        assertEquals(4, nodes.size());
+        for (int i = 1; i < nodes.size(); i++) {
+            assertTrue(nodes.get(i - 1).id.compareTo(nodes.get(i).id) < 0);
+        }
+        NodeData mergeNode = find(nodes, merge);
+        // parents keep their order
+        assertEquals(ImmutableList.of(right, left), mergeNode.outgoing);
+        assertTrue(mergeNode.incoming.isEmpty());
+        assertEquals(ImmutableList.of(root), find(nodes, left).outgoing);
+        assertEquals(ImmutableList.of(merge), find(nodes, left).incoming);
+        assertEquals(ImmutableSet.of(left, right), ImmutableSet.copyOf(find(nodes, root).incoming));
+        assertTrue(find(nodes, root).outgoing.isEmpty());
+
+        // can be iterated again
+        assertEquals(4, Lists.newArrayList(sorter.nodes()).size());
+    }
+
+    @Test
+    public void testMissingParent() {
+        sorter = new GraphEdgeSorter(100);
+        sorter.add(left, ImmutableList.of(root));
+        sorter.finish();
+
+        List<NodeData> nodes = Lists.newArrayList(sorter.nodes());
+        assertEquals(2, nodes.size());
+        assertTrue(find(nodes, root).outgoing.isEmpty());
+        assertEquals(ImmutableList.of(left), find(nodes, root).incoming);
+    }
+
+    @Test
+    public void testManyRuns() {
+        sorter = new GraphEdgeSorter(64);
+        Random random = new Random(1);
+        List<ObjectId> commits = new ArrayList<>();
+        ObjectId parent = null;
+        for (int i = 0; i < 1000; i++) {
+            byte[] raw = new byte[ObjectId.NUM_BYTES];
+            random.nextBytes(raw);
+            ObjectId commit = ObjectId.createNoClone(raw);
+            sorter.add(commit, parent == null ? ImmutableList.<ObjectId> of()
+                    : ImmutableList.of(parent));
+            commits.add(commit);
+            parent = commit;
+        }
+        sorter.finish();
+        assertEquals(1000 + 2 * 999, sorter.size());
+
+        List<NodeData> nodes = Lists.newArrayList(sorter.nodes());
+        assertEquals(1000, nodes.size());
+        for (int i = 1; i < commits.size(); i++) {
+            assertEquals(ImmutableList.of(commits.get(i - 1)),
+                    find(nodes, commits.get(i)).outgoing);
+        }
+    }
+
+    private static NodeData find(List<NodeData> nodes, ObjectId id) {
+        for (NodeData node : nodes) {
+            if (node.id.equals(id)) {
+                return node;
+            }
+        }
+        throw new AssertionError("not found: " + id);
+    }
+}
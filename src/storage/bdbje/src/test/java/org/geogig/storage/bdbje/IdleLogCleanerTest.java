@@ -0,0 +1,124 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+
+public class IdleLogCleanerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Environment env;
+
+    private EnvironmentMetrics metrics;
+
+    private OperationMetrics operations;
+
+    private IdleLogCleaner cleaner;
+
+    @Before
+    public void before() throws Exception {
+        cleaner = new IdleLogCleaner(1, 10 * 1000);
+        operations = new OperationMetrics("objects", "put");
+        EnvironmentConfig config = new EnvironmentConfig();
+        config.setAllowCreate(true);
+        // small log files and no JE cleaner threads, for the test to do the cleaning
+        config.setConfigParam(EnvironmentConfig.LOG_FILE_MAX, String.valueOf(1000 * 1000));
+        config.setConfigParam(EnvironmentConfig.ENV_RUN_CLEANER, "false");
+        env = new Environment(tmp.newFolder("env"), config);
+        metrics = new EnvironmentMetrics(env);
+        writeObsoleteData();
+    }
+
+    @After
+    public void after() {
+        cleaner.unregister(env, operations);
+        env.close();
+    }
+
+    /**
+     * Overwrites the same records several times so most of the log is obsolete
+     */
+    private void writeObsoleteData() {
+        DatabaseConfig dbConfig = new DatabaseConfig();
+        dbConfig.setAllowCreate(true);
+        Database db = env.openDatabase(null, "test", dbConfig);
+        try {
+            byte[] value = new byte[2048];
+            for (int round = 0; round < 10; round++) {
+                for (int i = 0; i < 1000; i++) {
+                    value[0] = (byte) round;
+                    db.put(null, new DatabaseEntry(String.valueOf(i).getBytes()),
+                            new DatabaseEntry(value));
+                }
+            }
+        } finally {
+            db.close();
+        }
+        env.flushLog(true);
+    }
+
+    @Test
+    public void testCleansIdleEnvironment() throws Exception {
+        final long logSize = EnvironmentMetrics.logSize(env.getHome());
+        final int utilization = IdleLogCleaner.logUtilization(env);
+        assertTrue("utilization: " + utilization, utilization < 50);
+
+        cleaner.register(env, operations, metrics);
+        Thread.sleep(100);
+        cleaner.check();
+
+        assertTrue(metrics.getIdleCleanedLogFiles() > 0);
+        assertTrue(metrics.getLogUtilization() > utilization);
+        assertTrue(EnvironmentMetrics.logSize(env.getHome()) < logSize);
+    }
+
+    @Test
+    public void testBusyEnvironmentIsNotCleaned() throws Exception {
+        cleaner.register(env, operations, metrics);
+        for (int i = 0; i < 1000; i++) {
+            operations.recordElapsed("put", 1000, 1, 10);
+        }
+        cleaner.check();
+        assertEquals(0, metrics.getIdleCleanedLogFiles());
+        assertEquals(-1, metrics.getLogUtilization());
+    }
+
+    @Test
+    public void testReadOnlyEnvironmentIsIgnored() throws Exception {
+        File home = env.getHome();
+        env.close();
+        EnvironmentConfig config = new EnvironmentConfig();
+        config.setReadOnly(true);
+        env = new Environment(home, config);
+        metrics = new EnvironmentMetrics(env);
+
+        cleaner.register(env, operations, metrics);
+        Thread.sleep(100);
+        cleaner.check();
+        assertEquals(0, metrics.getIdleCleanedLogFiles());
+    }
+}
@@ -0,0 +1,162 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.model.RevCommit;
+import org.locationtech.geogig.model.impl.CommitBuilder;
+import org.locationtech.geogig.repository.Hints;
+import org.locationtech.geogig.storage.ConfigDatabase;
+import org.locationtech.geogig.storage.fs.IniFileConfigDatabase;
+import org.locationtech.geogig.test.TestPlatform;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class JEGraphDatabaseCommitIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private TestPlatform platform;
+
+    private ConfigDatabase config;
+
+    private JEGraphDatabase db;
+
+    private final ObjectId root = ObjectId.forString("root");
+
+    private final ObjectId first = ObjectId.forString("first");
+
+    private final ObjectId second = ObjectId.forString("second");
+
+    @Before
+    public void before() throws Exception {
+        File repo = tmp.newFolder("repo");
+        new File(repo, ".geogig").mkdir();
+        platform = new TestPlatform(repo);
+        config = new IniFileConfigDatabase(platform);
+        config.put(CommitIndex.CONFIG_KEY, true);
+        config.put(CommitIndex.PROPERTIES_CONFIG_KEY, "changeset");
+        db = new JEGraphDatabase_v0_2(config, new EnvironmentBuilder(platform, null),
+                new Hints());
+        db.open();
+    }
+
+    @After
+    public void after() {
+        if (db != null) {
+            db.close();
+        }
+    }
+
+    @Test
+    public void testCommitIndex() {
+        db.put(root, ImmutableList.<ObjectId> of(), 1000L);
+        db.put(first, ImmutableList.of(root), 2000L);
+        db.put(second, ImmutableList.of(first), 3000L);
+        db.setProperty(first, "changeset", "41");
+        db.setProperty(second, "changeset", "42");
+
+        assertEquals(ImmutableList.of(first, second), db.findCommitsByTimestamp(1500L, 3001L));
+        assertEquals(ImmutableList.of(root), db.findCommitsByTimestamp(0L, 2000L));
+        assertEquals(ImmutableList.of(second), db.findCommitsByProperty("changeset", 42L, 43L));
+
+        // the previous value is no longer indexed
+        db.setProperty(second, "changeset", "50");
+        assertTrue(db.findCommitsByProperty("changeset", 42L, 43L).isEmpty());
+        assertEquals(ImmutableList.of(first, second),
+                db.findCommitsByProperty("changeset", 0L, 100L));
+    }
+
+    @Test
+    public void testIncomplete() {
+        db.put(root, ImmutableList.<ObjectId> of(), 1000L);
+        assertEquals(ImmutableList.of(root), db.findCommitsByTimestamp(0L, 2000L));
+
+        // put without its timestamp
+        db.put(first, ImmutableList.of(root));
+        db.setProperty(first, "changeset", "41");
+        try {
+            db.findCommitsByTimestamp(0L, 3000L);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage().contains("incomplete"));
+        }
+        db.close();
+        db.open();
+        try {
+            db.findCommitsByProperty("changeset", 0L, 100L);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage().contains("incomplete"));
+        }
+
+        // as JEGraphRebuildOp does
+        db.indexTimestamps(ImmutableMap.of(root, 1000L, first, 2000L));
+        try (GraphEdgeSorter sorter = new GraphEdgeSorter(2)) {
+            sorter.add(first, ImmutableList.of(root));
+            sorter.add(root, ImmutableList.<ObjectId> of());
+            sorter.finish();
+            db.rebuild(sorter.nodes(), true, true);
+        }
+        assertEquals(ImmutableList.of(root, first), db.findCommitsByTimestamp(0L, 3000L));
+        assertEquals(ImmutableList.of(first), db.findCommitsByProperty("changeset", 0L, 100L));
+
+        // putting an indexed commit again keeps the index complete
+        db.put(first, ImmutableList.of(root));
+        assertEquals(ImmutableList.of(root, first), db.findCommitsByTimestamp(0L, 3000L));
+    }
+
+    @Test
+    public void testIndexedByObjectDatabase() {
+        JEObjectDatabase objects = new JEObjectDatabase_v0_2(config,
+                new EnvironmentBuilder(platform, null), new Hints());
+        objects.open();
+        try {
+            RevCommit rootCommit = commit(1000L);
+            RevCommit firstCommit = commit(2000L, rootCommit.getId());
+            RevCommit secondCommit = commit(3000L, firstCommit.getId());
+            objects.put(rootCommit);
+            objects.putAll(Arrays.asList(firstCommit, secondCommit).iterator());
+
+            // as geogig adds the commits to the graph once stored
+            for (RevCommit commit : Arrays.asList(rootCommit, firstCommit, secondCommit)) {
+                db.put(commit.getId(), commit.getParentIds());
+            }
+            assertEquals(ImmutableList.of(firstCommit.getId(), secondCommit.getId()),
+                    db.findCommitsByTimestamp(1500L, 3001L));
+        } finally {
+            objects.close();
+        }
+    }
+
+    private RevCommit commit(long timestamp, ObjectId... parents) {
+        CommitBuilder builder = new CommitBuilder();
+        builder.setTreeId(ObjectId.forString("tree"));
+        builder.setParentIds(Arrays.asList(parents));
+        builder.setCommitter("committer");
+        builder.setCommitterTimestamp(timestamp);
+        builder.setMessage("commit " + timestamp);
+        return builder.build();
+    }
+}
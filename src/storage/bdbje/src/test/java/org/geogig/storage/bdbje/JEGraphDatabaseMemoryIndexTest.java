@@ -0,0 +1,159 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.repository.Hints;
+import org.locationtech.geogig.storage.ConfigDatabase;
+import org.locationtech.geogig.storage.fs.IniFileConfigDatabase;
+import org.locationtech.geogig.test.TestPlatform;
+
+import com.google.common.collect.ImmutableList;
+
+public class JEGraphDatabaseMemoryIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private ConfigDatabase config;
+
+    private EnvironmentBuilder envProvider;
+
+    private JEGraphDatabase db;
+
+    private final ObjectId root = ObjectId.forString("root");
+
+    private final ObjectId left = ObjectId.forString("left");
+
+    private final ObjectId right = ObjectId.forString("right");
+
+    private final ObjectId merge = ObjectId.forString("merge");
+
+    @Before
+    public void before() throws Exception {
+        File repo = tmp.newFolder("repo");
+        new File(repo, ".geogig").mkdir();
+        TestPlatform platform = new TestPlatform(repo);
+        config = new IniFileConfigDatabase(platform);
+        envProvider = new EnvironmentBuilder(platform, null);
+        db = new JEGraphDatabase_v0_2(config, envProvider, new Hints());
+        db.open();
+    }
+
+    @After
+    public void after() {
+        if (db != null) {
+            db.close();
+        }
+    }
+
+    /**
+     * Enables the memory index and reopens the database, waiting for the index to load
+     */
+    private void enableMemoryIndex() {
+        config.put(CommitGraphIndex.CONFIG_KEY, true);
+        db.close();
+        db.open();
+        assertTrue(db.awaitMemoryIndex());
+    }
+
+    @Test
+    public void testMemoryIndex() {
+        db.put(root, ImmutableList.<ObjectId> of());
+        db.put(left, ImmutableList.of(root));
+        db.put(right, ImmutableList.of(root));
+        assertEquals(root, db.findLowestCommonAncestor(left, right).get());
+
+        enableMemoryIndex();
+        assertTrue(db.exists(left));
+        assertEquals(ImmutableList.of(root), db.getParents(right));
+        assertEquals(root, db.findLowestCommonAncestor(left, right).get());
+
+        // writes after the index is loaded are seen by it
+        db.put(merge, ImmutableList.of(left, right));
+        assertEquals(ImmutableList.of(left, right), db.getParents(merge));
+        assertEquals(ImmutableList.of(merge), db.getChildren(left));
+        assertEquals(2, db.getDepth(merge));
+        assertEquals(left, db.findLowestCommonAncestor(merge, left).get());
+        assertFalse(db.exists(ObjectId.forString("missing")));
+    }
+
+    @Test
+    public void testIsAncestor() {
+        ObjectId tip = ObjectId.forString("tip");
+        // the tip parent is known only as a parent until its own parents are added
+        db.put(tip, ImmutableList.of(merge));
+        db.put(root, ImmutableList.<ObjectId> of());
+        db.put(left, ImmutableList.of(root));
+        db.put(right, ImmutableList.of(root));
+        db.put(merge, ImmutableList.of(left, right));
+
+        enableMemoryIndex();
+        assertTrue(db.isAncestor(root, tip));
+        assertTrue(db.isAncestor(right, merge));
+        assertFalse(db.isAncestor(left, right));
+        assertFalse(db.isAncestor(merge, left));
+    }
+
+    @Test
+    public void testWritesWhileLoading() {
+        db.put(root, ImmutableList.<ObjectId> of());
+        enableMemoryIndex();
+        ObjectId parent = root;
+        for (int i = 0; i < 20; i++) {
+            db.close();
+            db.open();
+            // may be applied before, during or after the load
+            ObjectId commit = ObjectId.forString("commit" + i);
+            db.put(commit, ImmutableList.of(parent));
+            assertTrue(db.awaitMemoryIndex());
+            assertEquals(ImmutableList.of(parent), db.getParents(commit));
+            assertEquals(i + 1, db.getDepth(commit));
+            assertTrue(db.isAncestor(root, commit));
+            parent = commit;
+        }
+    }
+
+    @Test
+    public void testCopyTo() {
+        db.put(root, ImmutableList.<ObjectId> of());
+        db.put(left, ImmutableList.of(root));
+        db.put(right, ImmutableList.of(root));
+        db.put(merge, ImmutableList.of(left, right));
+        enableMemoryIndex();
+        // several batches, the index of the target reloaded once the last one is imported
+        config.put(JEGraphDatabase.BATCH_SIZE_CONFIG_KEY, 2);
+
+        // as JEGraphMigration does
+        JEGraphDatabase target = new JEGraphDatabase_v0_3(config, envProvider, new Hints());
+        target.open();
+        try {
+            assertEquals(4, db.copyTo(target));
+            assertTrue(target.awaitMemoryIndex());
+            assertEquals(ImmutableList.of(left, right), target.getParents(merge));
+            assertEquals(2, target.getDepth(merge));
+            assertTrue(target.isAncestor(root, merge));
+            assertFalse(target.isAncestor(left, right));
+        } finally {
+            target.close();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+import org.locationtech.geogig.repository.Hints;
+import org.locationtech.geogig.repository.Platform;
+import org.locationtech.geogig.storage.ConfigDatabase;
+import org.locationtech.geogig.storage.GraphDatabase;
+import org.locationtech.geogig.storage.fs.IniFileConfigDatabase;
+import org.locationtech.geogig.storage.impl.GraphDatabaseTest;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Runs the graph database conformance tests with the graph hosted in the objects environment.
+ */
+public class JEGraphDatabaseSharedEnvironmentTest extends GraphDatabaseTest {
+
+    private File geogigDir;
+
+    @Override
+    protected GraphDatabase createDatabase(Platform platform) throws Exception {
+        File root = platform.pwd();
+        geogigDir = new File(root, ".geogig");
+        Preconditions.checkState(geogigDir.exists());
+
+        EnvironmentBuilder envProvider = new EnvironmentBuilder(platform, null);
+
+        ConfigDatabase configDB = new IniFileConfigDatabase(platform);
+        configDB.put(JEGraphDatabase.SHARED_ENVIRONMENT_CONFIG_KEY, Boolean.TRUE);
+        return new JEGraphDatabase_v0_2(configDB, envProvider, new Hints());
+    }
+
+    @Test
+    public void testGraphHostedInObjectsEnvironment() {
+        assertFalse(new File(geogigDir, JEGraphDatabase.ENVIRONMENT_NAME).exists());
+        assertTrue(new File(geogigDir, JEObjectDatabase.ENVIRONMENT_NAME).exists());
+    }
+}
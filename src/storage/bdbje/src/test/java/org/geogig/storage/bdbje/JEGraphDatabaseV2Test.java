@@ -9,8 +9,16 @@
  */
 package org.geogig.storage.bdbje;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import org.junit.Test;
+import org.locationtech.geogig.model.ObjectId;
 import org.locationtech.geogig.repository.Hints;
 import org.locationtech.geogig.repository.Platform;
 import org.locationtech.geogig.storage.ConfigDatabase;
@@ -19,12 +27,19 @@ import org.locationtech.geogig.storage.fs.IniFileConfigDatabase;
 import org.locationtech.geogig.storage.impl.GraphDatabaseTest;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
 
 public class JEGraphDatabaseV2Test extends GraphDatabaseTest {
 
     // instance variable so its reused as if it were the singleton in the guice config
     private EnvironmentBuilder envProvider;
 
+    private ConfigDatabase configDB;
+
     @Override
     protected GraphDatabase createDatabase(Platform platform) throws Exception {
         File root = platform.pwd();
@@ -32,7 +47,251 @@ public class JEGraphDatabaseV2Test extends GraphDatabaseTest {
 
         envProvider = new EnvironmentBuilder(platform, null);
 
-        ConfigDatabase configDB = new IniFileConfigDatabase(platform);
+        configDB = new IniFileConfigDatabase(platform);
         return new JEGraphDatabase_v0_2(configDB, envProvider, new Hints());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testPutAll() {
+        final JEGraphDatabase db = (JEGraphDatabase) database;
+        ObjectId root = ObjectId.forString("root");
+        ObjectId left = ObjectId.forString("left");
+        ObjectId right = ObjectId.forString("right");
+        ObjectId merge = ObjectId.forString("merge");
+
+        Map<ObjectId, ImmutableList<ObjectId>> commits = new LinkedHashMap<>();
+        commits.put(root, ImmutableList.<ObjectId> of());
+        commits.put(left, ImmutableList.of(root));
+        commits.put(right, ImmutableList.of(root));
+        commits.put(merge, ImmutableList.of(left, right));
+        assertEquals(4, db.putAll(commits.entrySet().iterator()));
+
+        assertEquals(ImmutableList.of(left, right), db.getParents(merge));
+        assertEquals(ImmutableSet.of(left, right), ImmutableSet.copyOf(db.getChildren(root)));
+        assertEquals(ImmutableList.of(merge), db.getChildren(left));
+        assertEquals(2, db.getDepth(merge));
+
+        // already there
+        assertEquals(0, db.putAll(commits.entrySet().iterator()));
+    }
+
+    @Test
+    public void testPutAllAcrossBatches() {
+        final JEGraphDatabase db = (JEGraphDatabase) database;
+        configDB.put(JEGraphDatabase.BATCH_SIZE_CONFIG_KEY, 3);
+
+        Map<ObjectId, ImmutableList<ObjectId>> commits = new LinkedHashMap<>();
+        ObjectId parent = null;
+        for (int i = 0; i < 10; i++) {
+            ObjectId commit = ObjectId.forString("commit" + i);
+            commits.put(commit, parent == null ? ImmutableList.<ObjectId> of()
+                    : ImmutableList.of(parent));
+            parent = commit;
+        }
+        assertEquals(10, db.putAll(commits.entrySet().iterator()));
+        assertEquals(9, db.getDepth(parent));
+
+        Map<ObjectId, ImmutableList<ObjectId>> parents = db.getParentsAll(commits.keySet());
+        assertEquals(commits, parents);
+    }
+
+    @Test
+    public void testGetParentsAll() {
+        final JEGraphDatabase db = (JEGraphDatabase) database;
+        ObjectId root = ObjectId.forString("root");
+        ObjectId child = ObjectId.forString("child");
+        ObjectId missing = ObjectId.forString("missing");
+        db.put(root, ImmutableList.<ObjectId> of());
+        db.put(child, ImmutableList.of(root));
+
+        Map<ObjectId, ImmutableList<ObjectId>> parents = db
+                .getParentsAll(ImmutableList.of(missing, child, root, child));
+        assertEquals(2, parents.size());
+        assertEquals(ImmutableList.of(root), parents.get(child));
+        assertTrue(parents.get(root).isEmpty());
+        assertFalse(parents.containsKey(missing));
+    }
+
+    @Test
+    public void testDepths() {
+        // not stored in this format, but computed by walking the history
+        final JEGraphDatabase db = (JEGraphDatabase) database;
+        ObjectId root = ObjectId.forString("root");
+        ObjectId a = ObjectId.forString("a");
+        ObjectId b = ObjectId.forString("b");
+        ObjectId c = ObjectId.forString("c");
+        ObjectId merge = ObjectId.forString("merge");
+
+        // children first, b is only known as a parent until its own parent is added
+        db.put(c, ImmutableList.of(b));
+        db.put(merge, ImmutableList.of(c, a));
+        assertEquals(1, db.getDepth(c));
+        assertEquals(0, db.getDepth(b));
+        db.put(a, ImmutableList.of(root));
+        assertEquals(2, db.getDepth(merge));
+
+        db.put(b, ImmutableList.of(a));
+        db.put(root, ImmutableList.<ObjectId> of());
+        assertEquals(0, db.getDepth(root));
+        assertEquals(1, db.getDepth(a));
+        assertEquals(2, db.getDepth(b));
+        assertEquals(3, db.getDepth(c));
+        // nearest root through a
+        assertEquals(2, db.getDepth(merge));
+
+        // nothing to store
+        assertEquals(0, db.rebuildDepths());
+        assertEquals(3, db.getDepth(c));
+    }
+
+    @Test
+    public void testIsAncestor() {
+        final JEGraphDatabase db = (JEGraphDatabase) database;
+        ObjectId root = ObjectId.forString("root");
+        ObjectId left = ObjectId.forString("left");
+        ObjectId right = ObjectId.forString("right");
+        ObjectId merge = ObjectId.forString("merge");
+        ObjectId tip = ObjectId.forString("tip");
+        // the tip parent is known only as a parent until its own parents are added
+        db.put(tip, ImmutableList.of(merge));
+        db.put(root, ImmutableList.<ObjectId> of());
+        db.put(left, ImmutableList.of(root));
+        db.put(right, ImmutableList.of(root));
+        db.put(merge, ImmutableList.of(left, right));
+
+        assertTrue(db.isAncestor(root, tip));
+        assertTrue(db.isAncestor(right, merge));
+        assertTrue(db.isAncestor(tip, tip));
+        assertFalse(db.isAncestor(left, right));
+        assertFalse(db.isAncestor(merge, left));
+        assertFalse(db.isAncestor(ObjectId.forString("missing"), tip));
+    }
+
+    @Test
+    public void testIsAncestorLinearHistory() {
+        final JEGraphDatabase db = (JEGraphDatabase) database;
+        final int count = 2000;
+        Map<ObjectId, ImmutableList<ObjectId>> commits = new LinkedHashMap<>();
+        ObjectId root = ObjectId.forString("commit-0");
+        commits.put(root, ImmutableList.<ObjectId> of());
+        for (int i = 1; i < count; i++) {
+            commits.put(ObjectId.forString("commit-" + i),
+                    ImmutableList.of(ObjectId.forString("commit-" + (i - 1))));
+        }
+        db.putAll(commits.entrySet().iterator());
+        ObjectId middle = ObjectId.forString("commit-" + (count / 2));
+        ObjectId tip = ObjectId.forString("commit-" + (count - 1));
+        // a branch off the middle of the history, on a chain of its own
+        ObjectId branch = ObjectId.forString("branch");
+        db.put(branch, ImmutableList.of(middle));
+
+        assertTrue(db.isAncestor(root, tip));
+        assertTrue(db.isAncestor(middle, tip));
+        assertTrue(db.isAncestor(root, branch));
+        assertFalse(db.isAncestor(tip, root));
+        assertFalse(db.isAncestor(tip, branch));
+        assertFalse(db.isAncestor(branch, tip));
+
+        db.close();
+        db.open();
+        assertTrue(db.isAncestor(root, tip));
+        assertTrue(db.isAncestor(middle, branch));
+        assertFalse(db.isAncestor(ObjectId.forString("commit-" + (count / 2 + 1)), branch));
+    }
+
+    @Test
+    public void testRebuild() {
+        final JEGraphDatabase db = (JEGraphDatabase) database;
+        ObjectId root = ObjectId.forString("root");
+        ObjectId left = ObjectId.forString("left");
+        ObjectId right = ObjectId.forString("right");
+        ObjectId merge = ObjectId.forString("merge");
+        ObjectId mapped = ObjectId.forString("mapped");
+        ObjectId original = ObjectId.forString("original");
+        db.put(root, ImmutableList.<ObjectId> of());
+        db.put(left, ImmutableList.of(root));
+        db.setProperty(left, GraphDatabase.SPARSE_FLAG, "true");
+        db.map(mapped, original);
+        db.put(ObjectId.forString("stale"), ImmutableList.of(root));
+
+        try (GraphEdgeSorter sorter = new GraphEdgeSorter(2)) {
+            sorter.add(merge, ImmutableList.of(left, right));
+            sorter.add(right, ImmutableList.of(root));
+            sorter.add(left, ImmutableList.of(root));
+            sorter.add(root, ImmutableList.<ObjectId> of());
+            sorter.finish();
+            assertEquals(5, db.rebuild(sorter.nodes(), true, false));
+        }
+        assertFalse(db.exists(ObjectId.forString("stale")));
+        assertEquals(ImmutableList.of(left, right), db.getParents(merge));
+        assertEquals(ImmutableSet.of(left, right), ImmutableSet.copyOf(db.getChildren(root)));
+        assertEquals(2, db.getDepth(merge));
+        assertTrue(db.isAncestor(root, merge));
+        assertFalse(db.isAncestor(left, right));
+        // mappings and properties are kept
+        assertEquals(original, db.getMapping(mapped));
+        assertTrue(db.getNode(left).isSparse());
+
+        db.close();
+        db.open();
+        assertEquals(ImmutableList.of(merge), db.getChildren(right));
+    }
+
+    @Test
+    public void testRecoverInterruptedRebuild() {
+        final JEGraphDatabase db = (JEGraphDatabase) database;
+        ObjectId root = ObjectId.forString("root");
+        ObjectId child = ObjectId.forString("child");
+        db.put(root, ImmutableList.<ObjectId> of());
+        db.put(child, ImmutableList.of(root));
+        db.close();
+
+        // crashed after renaming the database to the backup, with no complete rebuilt one
+        Environment env = openEnvironment();
+        env.renameDatabase(null, "GraphDatabase", "GraphDatabaseBackup");
+        env.close();
+        db.open();
+        assertTrue(db.exists(child));
+        db.close();
+
+        // crashed right before renaming the rebuilt database
+        env = openEnvironment();
+        env.renameDatabase(null, "GraphDatabase", "GraphDatabaseBackup");
+        createEmptyDatabase(env, "GraphDatabaseRebuild");
+        env.close();
+        db.open();
+        assertFalse(db.exists(child));
+        db.put(child, ImmutableList.of(root));
+        db.close();
+
+        // crashed while rebuilding
+        env = openEnvironment();
+        createEmptyDatabase(env, "GraphDatabaseRebuild");
+        env.close();
+        db.open();
+        assertTrue(db.exists(child));
+        db.close();
+
+        env = openEnvironment();
+        try {
+            assertFalse(env.getDatabaseNames().contains("GraphDatabaseBackup"));
+            assertFalse(env.getDatabaseNames().contains("GraphDatabaseRebuild"));
+        } finally {
+            env.close();
+        }
+        db.open();
+    }
+
+    private Environment openEnvironment() {
+        EnvironmentConfig envConfig = new EnvironmentConfig();
+        envConfig.setTransactional(true);
+        return new Environment(new File(envProvider.getGeoGigDirectory(), "graph"), envConfig);
+    }
+
+    private void createEmptyDatabase(Environment env, String name) {
+        DatabaseConfig dbConfig = new DatabaseConfig();
+        dbConfig.setAllowCreate(true);
+        dbConfig.setTransactional(true);
+        env.openDatabase(null, name, dbConfig).close();
+    }
+}
@@ -0,0 +1,126 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.repository.Hints;
+import org.locationtech.geogig.repository.Platform;
+import org.locationtech.geogig.storage.ConfigDatabase;
+import org.locationtech.geogig.storage.GraphDatabase;
+import org.locationtech.geogig.storage.fs.IniFileConfigDatabase;
+import org.locationtech.geogig.storage.impl.GraphDatabaseTest;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.sleepycat.bind.tuple.TupleBinding;
+import com.sleepycat.je.DatabaseEntry;
+
+public class JEGraphDatabaseV3Test extends GraphDatabaseTest {
+
+    // instance variable so its reused as if it were the singleton in the guice config
+    private EnvironmentBuilder envProvider;
+
+    @Override
+    protected GraphDatabase createDatabase(Platform platform) throws Exception {
+        File root = platform.pwd();
+        Preconditions.checkState(new File(root, ".geogig").exists());
+
+        envProvider = new EnvironmentBuilder(platform, null);
+
+        ConfigDatabase configDB = new IniFileConfigDatabase(platform);
+        return new JEGraphDatabase_v0_3(configDB, envProvider, new Hints());
+    }
+
+    @Test
+    public void testCompactEncoding() {
+        TupleBinding<NodeData> binding = new JEGraphDatabase_v0_3.GraphNodeBinding();
+        ObjectId id = ObjectId.forString("commit");
+        ObjectId parent = ObjectId.forString("parent");
+        ObjectId child = ObjectId.forString("child");
+
+        NodeData node = new NodeData(id, ImmutableList.of(parent));
+        node.incoming.add(child);
+        node.depth = 3;
+        DatabaseEntry entry = new DatabaseEntry();
+        binding.objectToEntry(node, entry);
+        // flags, parent with no count, child count and child, depth
+        assertEquals(1 + 20 + 1 + 20 + 1, entry.getSize());
+
+        NodeData read = binding.entryToObject(entry);
+        assertNull(read.id);
+        assertEquals(ObjectId.NULL, read.mappedTo);
+        assertEquals(ImmutableList.of(parent), read.outgoing);
+        assertEquals(ImmutableList.of(child), read.incoming);
+        assertEquals(3, read.depth);
+
+        NodeData merge = new NodeData(id, ImmutableList.of(parent, child));
+        merge.mappedTo = ObjectId.forString("mapped");
+        binding.objectToEntry(merge, entry);
+        read = binding.entryToObject(entry);
+        assertEquals(merge.mappedTo, read.mappedTo);
+        assertEquals(ImmutableList.of(parent, child), read.outgoing);
+        assertTrue(read.incoming.isEmpty());
+        assertFalse(read.hasDepth());
+    }
+
+    @Test
+    public void testStoredDepths() {
+        final JEGraphDatabase db = (JEGraphDatabase) database;
+        ObjectId root = ObjectId.forString("root");
+        ObjectId a = ObjectId.forString("a");
+        ObjectId b = ObjectId.forString("b");
+        ObjectId c = ObjectId.forString("c");
+        ObjectId merge = ObjectId.forString("merge");
+
+        // children first, b is only known as a parent until its own parent is added
+        db.put(c, ImmutableList.of(b));
+        db.put(merge, ImmutableList.of(c, a));
+        assertEquals(1, db.getDepth(c));
+        assertEquals(0, db.getDepth(b));
+        db.put(a, ImmutableList.of(root));
+        assertEquals(2, db.getDepth(merge));
+
+        db.put(b, ImmutableList.of(a));
+        db.put(root, ImmutableList.<ObjectId> of());
+        assertEquals(0, db.getDepth(root));
+        assertEquals(1, db.getDepth(a));
+        assertEquals(2, db.getDepth(b));
+        assertEquals(3, db.getDepth(c));
+        // nearest root through a
+        assertEquals(2, db.getDepth(merge));
+
+        // already up to date
+        assertEquals(0, db.rebuildDepths());
+        assertEquals(3, db.getDepth(c));
+    }
+
+    @Test
+    public void testPropertiesStoredApart() {
+        ObjectId root = ObjectId.forString("root");
+        ObjectId commit = ObjectId.forString("commit");
+        database.put(root, ImmutableList.<ObjectId> of());
+        database.put(commit, ImmutableList.of(root));
+        database.setProperty(commit, GraphDatabase.SPARSE_FLAG, "true");
+
+        assertTrue(database.getNode(commit).isSparse());
+        assertFalse(database.getNode(root).isSparse());
+        // adding edges to the node keeps its properties
+        database.put(ObjectId.forString("child"), ImmutableList.of(commit));
+        assertTrue(database.getNode(commit).isSparse());
+    }
+}
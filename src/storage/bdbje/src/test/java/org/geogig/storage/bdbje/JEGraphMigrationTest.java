@@ -0,0 +1,120 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.repository.Hints;
+import org.locationtech.geogig.storage.ConfigDatabase;
+import org.locationtech.geogig.storage.GraphDatabase;
+import org.locationtech.geogig.storage.fs.IniFileConfigDatabase;
+import org.locationtech.geogig.test.TestPlatform;
+
+import com.google.common.collect.ImmutableList;
+
+public class JEGraphMigrationTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private TestPlatform platform;
+
+    private ConfigDatabase config;
+
+    @Before
+    public void before() throws Exception {
+        File root = tmp.newFolder("repo");
+        new File(root, ".geogig").mkdir();
+        platform = new TestPlatform(root);
+        config = new IniFileConfigDatabase(platform);
+    }
+
+    @Test
+    public void testMigrate() throws Exception {
+        ObjectId root = ObjectId.forString("root");
+        ObjectId left = ObjectId.forString("left");
+        ObjectId right = ObjectId.forString("right");
+        ObjectId merge = ObjectId.forString("merge");
+        ObjectId mapped = ObjectId.forString("mapped");
+
+        JEGraphDatabase v2 = new JEGraphDatabase_v0_2(config,
+                new EnvironmentBuilder(platform, null), new Hints());
+        v2.open();
+        v2.configure();
+        v2.put(root, ImmutableList.<ObjectId> of());
+        v2.put(left, ImmutableList.of(root));
+        v2.put(right, ImmutableList.of(root));
+        v2.put(merge, ImmutableList.of(left, right));
+        v2.map(mapped, merge);
+        v2.setProperty(left, GraphDatabase.SPARSE_FLAG, "true");
+        v2.close();
+
+        assertEquals(5, JEGraphMigration.migrate(config, new EnvironmentBuilder(platform, null)));
+        assertEquals("0.3", config.get(JEGraphMigration.VERSION_CONFIG_KEY).get());
+
+        JEGraphDatabase v3 = new JEGraphDatabase_v0_3(config,
+                new EnvironmentBuilder(platform, null), new Hints());
+        v3.open();
+        try {
+            v3.checkConfig();
+            assertEquals(ImmutableList.of(left, right), v3.getParents(merge));
+            assertEquals(2, v3.getChildren(root).size());
+            assertEquals(merge, v3.getMapping(mapped));
+            assertEquals(2, v3.getDepth(merge));
+            assertTrue(v3.getNode(left).isSparse());
+            assertFalse(v3.getNode(right).isSparse());
+            assertTrue(v3.isAncestor(root, merge));
+            assertFalse(v3.isAncestor(left, right));
+
+            List<String> names = v3.getEnvironment().getDatabaseNames();
+            assertFalse(names.contains(JEGraphDatabase.DATABASE_NAME));
+            assertTrue(names.contains(JEGraphDatabase_v0_3.DATABASE_NAME));
+        } finally {
+            v3.close();
+        }
+
+        // already migrated
+        assertEquals(0, JEGraphMigration.migrate(config, new EnvironmentBuilder(platform, null)));
+    }
+
+    @Test
+    public void testRemoveLeftOverSource() throws Exception {
+        // interrupted after switching to the 0.3 format but before removing the 0.2 graph
+        JEGraphDatabase v2 = new JEGraphDatabase_v0_2(config,
+                new EnvironmentBuilder(platform, null), new Hints());
+        v2.open();
+        v2.configure();
+        v2.put(ObjectId.forString("root"), ImmutableList.<ObjectId> of());
+        v2.close();
+        config.put(JEGraphMigration.VERSION_CONFIG_KEY, "0.3");
+
+        assertEquals(0, JEGraphMigration.migrate(config, new EnvironmentBuilder(platform, null)));
+
+        JEGraphDatabase v3 = new JEGraphDatabase_v0_3(config,
+                new EnvironmentBuilder(platform, null), new Hints());
+        v3.open();
+        try {
+            List<String> names = v3.getEnvironment().getDatabaseNames();
+            assertFalse(names.contains(JEGraphDatabase.DATABASE_NAME));
+        } finally {
+            v3.close();
+        }
+    }
+}
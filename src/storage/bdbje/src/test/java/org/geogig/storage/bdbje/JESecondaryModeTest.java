@@ -0,0 +1,106 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import java.util.Iterator;
+
+import org.geogig.test.integration.je.JETestContextBuilder;
+import org.junit.Test;
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.model.RevCommit;
+import org.locationtech.geogig.model.RevObject;
+import org.locationtech.geogig.porcelain.CommitOp;
+import org.locationtech.geogig.repository.Context;
+import org.locationtech.geogig.repository.Hints;
+import org.locationtech.geogig.repository.Platform;
+import org.locationtech.geogig.storage.ConfigDatabase;
+import org.locationtech.geogig.storage.fs.IniFileConfigDatabase;
+import org.locationtech.geogig.test.integration.RepositoryTestCase;
+
+import com.google.common.collect.ImmutableList;
+
+public class JESecondaryModeTest extends RepositoryTestCase {
+
+    private RevCommit commit;
+
+    private ObjectId featureId;
+
+    @Override
+    protected Context createInjector() {
+        Hints hints = new Hints().uri(repositoryDirectory.toURI()).platform(createPlatform());
+        return new JETestContextBuilder().build(hints);
+    }
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        featureId = insertAndAdd(points1);
+        commit = geogig.command(CommitOp.class).setMessage("commit").call();
+        // the writer has to be closed for a secondary to open in the same process
+        geogig.close();
+    }
+
+    private EnvironmentBuilder secondaryEnvironment() {
+        Platform platform = createPlatform();
+        Hints hints = new Hints().uri(repositoryDirectory.toURI()).platform(platform);
+        hints.set(EnvironmentBuilder.SECONDARY_HINT, Boolean.TRUE);
+        return new EnvironmentBuilder(platform, hints);
+    }
+
+    @Test
+    public void testObjectDatabase() {
+        EnvironmentBuilder envProvider = secondaryEnvironment();
+        assertTrue(envProvider.isSecondary());
+        ConfigDatabase configDB = new IniFileConfigDatabase(createPlatform());
+        JEObjectDatabase db = new JEObjectDatabase_v0_2(configDB, envProvider, false,
+                JEObjectDatabase.ENVIRONMENT_NAME);
+        db.open();
+        try {
+            assertTrue(db.isSecondary());
+            assertTrue(db.isReadOnly());
+            assertEquals(commit, db.getCommit(commit.getId()));
+            assertTrue(db.exists(featureId));
+            assertTrue(db.getStalenessMillis() >= 0);
+
+            SecondaryRefresher refresher = db.getSecondaryRefresher();
+            assertNotNull(refresher);
+            assertTrue(refresher.refresh());
+            assertTrue(db.exists(featureId));
+
+            Iterator<RevObject> iterator = db.getAll(ImmutableList.of(commit.getId(),
+                    commit.getTreeId(), featureId));
+            assertNotNull(iterator.next());
+            // refresh is deferred while an iterator is open
+            assertFalse(refresher.refresh());
+            assertNotNull(iterator.next());
+            assertNotNull(iterator.next());
+            assertFalse(iterator.hasNext());
+            assertTrue(refresher.refresh());
+            assertEquals(commit, db.getCommit(commit.getId()));
+        } finally {
+            db.close();
+        }
+        assertNull(db.getSecondaryRefresher());
+    }
+
+    @Test
+    public void testGraphDatabase() {
+        EnvironmentBuilder envProvider = secondaryEnvironment();
+        ConfigDatabase configDB = new IniFileConfigDatabase(createPlatform());
+        JEGraphDatabase db = new JEGraphDatabase_v0_2(configDB, envProvider, new Hints());
+        db.open();
+        try {
+            assertTrue(db.isSecondary());
+            assertTrue(db.exists(commit.getId()));
+            assertTrue(db.getStalenessMillis() >= 0);
+        } finally {
+            db.close();
+        }
+    }
+}
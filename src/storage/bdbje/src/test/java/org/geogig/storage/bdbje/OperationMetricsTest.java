@@ -0,0 +1,128 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.locationtech.geogig.storage.ConfigDatabase;
+
+import com.google.common.base.Optional;
+
+public class OperationMetricsTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private ConfigDatabase config;
+
+    @Before
+    public void before() {
+        config = mock(ConfigDatabase.class);
+        when(config.get(OperationMetrics.SLOW_OPERATION_THRESHOLD_CONFIG_KEY, Long.class))
+                .thenReturn(Optional.<Long> absent());
+        when(config.getGlobal(OperationMetrics.SLOW_OPERATION_THRESHOLD_CONFIG_KEY, Long.class))
+                .thenReturn(Optional.<Long> absent());
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        for (long micros : new long[] { 0, 1, 7, 8, 9, 15, 16, 100, 1000, 123456, 1L << 30 }) {
+            int index = LatencyHistogram.bucketIndex(micros);
+            long upper = LatencyHistogram.bucketUpperBound(index);
+            assertTrue(micros + " > " + upper, micros <= upper);
+            // within 1/8th of the value
+            assertTrue(micros + " vs " + upper, upper - micros <= micros / 8);
+            if (index > 0) {
+                assertTrue(LatencyHistogram.bucketUpperBound(index - 1) < micros);
+            }
+        }
+        assertEquals(LatencyHistogram.bucketIndex(Long.MAX_VALUE),
+                LatencyHistogram.bucketIndex(1L << 50));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileMillis(99), 0);
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMeanMillis(), 0.01);
+        assertEquals(100, histogram.getMaxMillis(), 0);
+        assertEquals(50, histogram.getPercentileMillis(50), 50 / 8d);
+        assertEquals(99, histogram.getPercentileMillis(99), 99 / 8d);
+        assertEquals(100, histogram.getPercentileMillis(100), 0);
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxMillis(), 0);
+    }
+
+    @Test
+    public void testSlowOperations() {
+        OperationMetrics metrics = new OperationMetrics("objects", "get", "put");
+        metrics.setSlowOperationThresholdMillis(10);
+
+        metrics.recordElapsed("get", TimeUnit.MILLISECONDS.toNanos(1), 1, 100);
+        metrics.recordElapsed("put", TimeUnit.MILLISECONDS.toNanos(20), 1, 100);
+        assertEquals(1, metrics.getSlowOperations());
+        assertEquals(Long.valueOf(1), metrics.getCounts().get("get"));
+        assertEquals(Long.valueOf(1), metrics.getCounts().get("put"));
+        assertEquals(20, metrics.getMaxMillis().get("put"), 20 / 8d);
+
+        // disabled
+        metrics.setSlowOperationThresholdMillis(0);
+        metrics.recordElapsed("put", TimeUnit.SECONDS.toNanos(20), 1, 100);
+        assertEquals(1, metrics.getSlowOperations());
+
+        metrics.reset();
+        assertEquals(0, metrics.getSlowOperations());
+        assertEquals(Long.valueOf(0), metrics.getCounts().get("put"));
+    }
+
+    @Test
+    public void testRegistration() throws Exception {
+        when(config.get(OperationMetrics.SLOW_OPERATION_THRESHOLD_CONFIG_KEY, Long.class))
+                .thenReturn(Optional.of(Long.valueOf(250)));
+        final File home = tmp.newFolder("env");
+        final ObjectName name = new ObjectName(
+                "org.geogig.storage.bdbje:type=Operations,database=objects,name="
+                        + ObjectName.quote(home.getAbsolutePath()));
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        OperationMetrics metrics = new OperationMetrics("objects", "get");
+        metrics.register(home, config);
+        try {
+            assertEquals(250, metrics.getSlowOperationThresholdMillis());
+            assertTrue(server.isRegistered(name));
+            assertEquals(Long.valueOf(250),
+                    server.getAttribute(name, "SlowOperationThresholdMillis"));
+        } finally {
+            metrics.unregister();
+        }
+        assertFalse(server.isRegistered(name));
+    }
+}
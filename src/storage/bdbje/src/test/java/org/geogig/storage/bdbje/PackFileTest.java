@@ -0,0 +1,168 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.locationtech.geogig.model.ObjectId;
+
+public class PackFileTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    private TreeMap<ObjectId, byte[]> createObjects(int count) {
+        Random random = new Random(1);
+        TreeMap<ObjectId, byte[]> objects = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            byte[] raw = new byte[ObjectId.NUM_BYTES];
+            random.nextBytes(raw);
+            byte[] data = new byte[random.nextInt(200)];
+            random.nextBytes(data);
+            objects.put(ObjectId.createNoClone(raw), data);
+        }
+        return objects;
+    }
+
+    private PackFile write(File file, TreeMap<ObjectId, byte[]> objects) throws Exception {
+        try (PackWriter writer = new PackWriter(file)) {
+            for (ObjectId id : objects.keySet()) {
+                byte[] data = objects.get(id);
+                writer.add(id, data, 0, data.length);
+            }
+            assertEquals(file, writer.finish());
+        }
+        return PackFile.open(file);
+    }
+
+    @Test
+    public void testEmptyPack() throws Exception {
+        PackFile pack = write(tmp.newFile("empty.pack"), new TreeMap<ObjectId, byte[]>());
+        assertEquals(0, pack.size());
+        ObjectId id = ObjectId.valueOf("abc123000000000000001234567890abcdef0000");
+        assertFalse(pack.contains(id));
+        assertNull(pack.get(id));
+    }
+
+    @Test
+    public void testReadBack() throws Exception {
+        TreeMap<ObjectId, byte[]> objects = createObjects(10_000);
+        PackFile pack = write(tmp.newFile("test.pack"), objects);
+        assertEquals(objects.size(), pack.size());
+
+        int index = 0;
+        for (ObjectId id : objects.keySet()) {
+            assertTrue(pack.contains(id));
+            assertArrayEquals(objects.get(id), pack.get(id));
+            assertEquals(id, pack.idAt(index++));
+        }
+        Random random = new Random(2);
+        for (int i = 0; i < 1000; i++) {
+            byte[] raw = new byte[ObjectId.NUM_BYTES];
+            random.nextBytes(raw);
+            ObjectId id = ObjectId.createNoClone(raw);
+            assertEquals(objects.containsKey(id), pack.contains(id));
+        }
+    }
+
+    @Test
+    public void testLookUp() throws Exception {
+        TreeMap<ObjectId, byte[]> objects = createObjects(1000);
+        PackFile pack = write(tmp.newFile("test.pack"), objects);
+        for (ObjectId id : objects.keySet()) {
+            byte[] partial = new byte[3];
+            System.arraycopy(id.getRawValue(), 0, partial, 0, partial.length);
+            List<ObjectId> found = new ArrayList<>();
+            pack.lookUp(partial, found);
+            assertTrue(found.contains(id));
+            for (ObjectId match : found) {
+                assertTrue(match.toString().startsWith(id.toString().substring(0, 6)));
+            }
+        }
+    }
+
+    @Test
+    public void testUnsortedInput() throws Exception {
+        ObjectId id1 = ObjectId.valueOf("abc123000000000000001234567890abcdef0000");
+        ObjectId id2 = ObjectId.valueOf("0bc123000000000000001234567890abcdef0000");
+        try (PackWriter writer = new PackWriter(tmp.newFile("test.pack"))) {
+            writer.add(id1, new byte[1], 0, 1);
+            exception.expect(IllegalArgumentException.class);
+            writer.add(id2, new byte[1], 0, 1);
+        }
+    }
+
+    @Test
+    public void testPackIsFull() throws Exception {
+        TreeMap<ObjectId, byte[]> objects = createObjects(10);
+        try (PackWriter writer = new PackWriter(tmp.newFile("test.pack"), Integer.MAX_VALUE, 5)) {
+            for (ObjectId id : objects.keySet()) {
+                if (writer.isFull()) {
+                    break;
+                }
+                byte[] data = objects.get(id);
+                writer.add(id, data, 0, data.length);
+            }
+            assertEquals(5, writer.size());
+        }
+    }
+
+    @Test
+    public void testDeletePackedObjects() throws Exception {
+        TreeMap<ObjectId, byte[]> objects = createObjects(100);
+        PackedObjectStore store = new PackedObjectStore(tmp.newFolder("packs"));
+        store.open();
+        write(store.newPackFile(), objects);
+        store.open();
+
+        ObjectId deleted = objects.firstKey();
+        ObjectId kept = objects.lastKey();
+        assertTrue(store.delete(deleted));
+        assertFalse(store.delete(deleted));
+        assertFalse(store.contains(deleted));
+        assertNull(store.get(deleted));
+        assertTrue(store.contains(kept));
+        List<ObjectId> found = new ArrayList<>();
+        store.lookUp(Arrays.copyOf(deleted.getRawValue(), 4), found);
+        assertTrue(found.isEmpty());
+
+        // survives reopening
+        store.open();
+        assertFalse(store.contains(deleted));
+        assertTrue(store.contains(kept));
+
+        // packed again, as when written again after the deletion
+        TreeMap<ObjectId, byte[]> again = new TreeMap<>();
+        again.put(deleted, objects.get(deleted));
+        File repacked = store.newPackFile();
+        write(repacked, again);
+        store.add(repacked);
+        assertTrue(store.contains(deleted));
+        assertFalse(store.getDeletionsFile().exists());
+    }
+}
@@ -0,0 +1,152 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.storage.bdbje;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.locationtech.geogig.storage.ConfigDatabase;
+
+import com.google.common.base.Optional;
+import com.sleepycat.je.CacheMode;
+import com.sleepycat.je.Durability;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+
+public class WorkloadProfileTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Environment env;
+
+    private ConfigDatabase config;
+
+    @Before
+    public void before() throws Exception {
+        EnvironmentConfig envConfig = new EnvironmentConfig();
+        envConfig.setAllowCreate(true);
+        envConfig.setTransactional(true);
+        env = new Environment(tmp.newFolder("env"), envConfig);
+        config = mock(ConfigDatabase.class);
+        when(config.get(WorkloadProfile.CONFIG_KEY)).thenReturn(Optional.<String> absent());
+        when(config.getGlobal(WorkloadProfile.CONFIG_KEY)).thenReturn(Optional.<String> absent());
+    }
+
+    @After
+    public void after() {
+        env.close();
+    }
+
+    @Test
+    public void testFromConfig() {
+        assertSame(WorkloadProfile.DEFAULT, WorkloadProfile.fromConfig(config));
+
+        when(config.getGlobal(WorkloadProfile.CONFIG_KEY)).thenReturn(Optional.of("low_memory"));
+        assertSame(WorkloadProfile.LOW_MEMORY, WorkloadProfile.fromConfig(config));
+
+        when(config.get(WorkloadProfile.CONFIG_KEY)).thenReturn(Optional.of("bulk_import"));
+        assertSame(WorkloadProfile.BULK_IMPORT, WorkloadProfile.fromConfig(config));
+
+        when(config.get(WorkloadProfile.CONFIG_KEY)).thenReturn(Optional.of("nonexistent"));
+        assertSame(WorkloadProfile.DEFAULT, WorkloadProfile.fromConfig(config));
+    }
+
+    @Test
+    public void testApply() {
+        // the tuning EnvironmentBuilder used before profiles existed
+        WorkloadProfile.DEFAULT.apply(env);
+        assertEquals(CacheMode.MAKE_COLD, env.getMutableConfig().getCacheMode());
+        assertEquals(Durability.COMMIT_SYNC, env.getMutableConfig().getDurability());
+        assertEquals(Durability.COMMIT_WRITE_NO_SYNC, WorkloadProfile.DEFAULT.getDurability());
+
+        WorkloadProfile.BULK_IMPORT.apply(env);
+        assertEquals(CacheMode.EVICT_LN, env.getMutableConfig().getCacheMode());
+        assertEquals(Durability.COMMIT_NO_SYNC, env.getMutableConfig().getDurability());
+
+        WorkloadProfile.INTERACTIVE.apply(env);
+        assertEquals(CacheMode.DEFAULT, env.getMutableConfig().getCacheMode());
+        assertEquals(Durability.COMMIT_WRITE_NO_SYNC, env.getMutableConfig().getDurability());
+    }
+
+    @Test
+    public void testPerOperationCacheModes() {
+        WorkloadProfile profile = WorkloadProfile.INTERACTIVE;
+        assertEquals(CacheMode.EVICT_LN, profile.getCacheMode(WorkloadProfile.Access.BULK_WRITE));
+        assertEquals(CacheMode.MAKE_COLD, profile.getCacheMode(WorkloadProfile.Access.SCAN));
+        assertEquals(CacheMode.KEEP_HOT, profile.getCacheMode(WorkloadProfile.Access.HOT_READ));
+        assertEquals(CacheMode.DEFAULT, profile.getCacheMode(WorkloadProfile.Access.POINT_READ));
+
+        // the environment's default applies to all operations
+        for (WorkloadProfile.Access access : WorkloadProfile.Access.values()) {
+            assertNull(WorkloadProfile.DEFAULT.getCacheMode(access));
+            assertNull(WorkloadProfile.BULK_IMPORT.getCacheMode(access));
+            assertNull(WorkloadProfile.LOW_MEMORY.getCacheMode(access));
+        }
+    }
+
+    @Test
+    public void testSelector() throws Exception {
+        WorkloadProfile.Selector selector = new WorkloadProfile.Selector(config);
+        assertSame(WorkloadProfile.DEFAULT, selector.apply(env));
+        assertEquals(CacheMode.MAKE_COLD, env.getMutableConfig().getCacheMode());
+
+        when(config.get(WorkloadProfile.CONFIG_KEY)).thenReturn(Optional.of("bulk_import"));
+        // the config is read at most once per second
+        assertSame(WorkloadProfile.DEFAULT, selector.get(env));
+        Thread.sleep(1100);
+        assertSame(WorkloadProfile.BULK_IMPORT, selector.get(env));
+        assertEquals(CacheMode.EVICT_LN, env.getMutableConfig().getCacheMode());
+    }
+
+    @Test
+    public void testOverride() throws Exception {
+        WorkloadProfile.Selector selector = new WorkloadProfile.Selector(config);
+        assertSame(WorkloadProfile.DEFAULT, selector.apply(env));
+
+        WorkloadProfile.ProfileOverride bulkImport = WorkloadProfile.override(config,
+                WorkloadProfile.BULK_IMPORT);
+        Thread.sleep(1100);
+        assertSame(WorkloadProfile.BULK_IMPORT, selector.get(env));
+        assertEquals(Durability.COMMIT_NO_SYNC, env.getMutableConfig().getDurability());
+        // the override is never written to the config
+        verify(config, never()).put(anyString(), any());
+
+        // nested overrides restore the one before them
+        WorkloadProfile.ProfileOverride lowMemory = WorkloadProfile.override(config,
+                WorkloadProfile.LOW_MEMORY);
+        assertSame(WorkloadProfile.LOW_MEMORY, WorkloadProfile.select(config));
+        lowMemory.close();
+        assertSame(WorkloadProfile.BULK_IMPORT, WorkloadProfile.select(config));
+        bulkImport.close();
+        assertSame(WorkloadProfile.DEFAULT, WorkloadProfile.select(config));
+
+        // other repositories are not affected
+        ConfigDatabase other = mock(ConfigDatabase.class);
+        when(other.get(WorkloadProfile.CONFIG_KEY)).thenReturn(Optional.<String> absent());
+        when(other.getGlobal(WorkloadProfile.CONFIG_KEY)).thenReturn(Optional.<String> absent());
+        try (WorkloadProfile.ProfileOverride override = WorkloadProfile.override(config,
+                WorkloadProfile.BULK_IMPORT)) {
+            assertSame(WorkloadProfile.DEFAULT, WorkloadProfile.select(other));
+        }
+    }
+}
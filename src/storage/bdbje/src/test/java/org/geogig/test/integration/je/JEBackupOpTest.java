@@ -0,0 +1,92 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.test.integration.je;
+
+import java.io.File;
+
+import org.geogig.storage.bdbje.JEBackupOp;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.model.RevCommit;
+import org.locationtech.geogig.porcelain.CommitOp;
+import org.locationtech.geogig.repository.Context;
+import org.locationtech.geogig.repository.Hints;
+import org.locationtech.geogig.test.integration.RepositoryTestCase;
+
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
+
+public class JEBackupOpTest extends RepositoryTestCase {
+
+    @Rule
+    public TemporaryFolder backupFolder = new TemporaryFolder();
+
+    @Override
+    protected Context createInjector() {
+        Hints hints = new Hints().uri(repositoryDirectory.toURI()).platform(createPlatform());
+        return new JETestContextBuilder().build(hints);
+    }
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        // nothing to do
+    }
+
+    @Test
+    public void testBackup() throws Exception {
+        ObjectId featureId = insertAndAdd(points1);
+        RevCommit commit = geogig.command(CommitOp.class).setMessage("commit").call();
+
+        File target = new File(backupFolder.getRoot(), "backup");
+        File result = geogig.command(JEBackupOp.class).setTarget(target).call();
+        assertEquals(target.getAbsoluteFile(), result);
+
+        assertTrue(new File(target, "objects").isDirectory());
+        assertTrue(new File(target, "graph").isDirectory());
+        assertTrue(new File(target, "refs").isDirectory());
+        assertFalse(new File(new File(target, "objects"), "je.lck").exists());
+
+        EnvironmentConfig envConfig = new EnvironmentConfig();
+        envConfig.setReadOnly(true);
+        Environment env = new Environment(new File(target, "objects"), envConfig);
+        try {
+            DatabaseConfig dbConfig = new DatabaseConfig();
+            dbConfig.setReadOnly(true);
+            Database db = env.openDatabase(null, "ObjectDatabase", dbConfig);
+            try {
+                for (ObjectId id : new ObjectId[] { featureId, commit.getId(),
+                        commit.getTreeId() }) {
+                    OperationStatus status = db.get(null, new DatabaseEntry(id.getRawValue()),
+                            new DatabaseEntry(), LockMode.READ_UNCOMMITTED);
+                    assertEquals(OperationStatus.SUCCESS, status);
+                }
+            } finally {
+                db.close();
+            }
+        } finally {
+            env.close();
+        }
+    }
+
+    @Test
+    public void testTargetNotEmpty() throws Exception {
+        File target = backupFolder.newFolder("backup");
+        new File(target, "somefile").createNewFile();
+        exception.expect(IllegalArgumentException.class);
+        geogig.command(JEBackupOp.class).setTarget(target).call();
+    }
+}
@@ -0,0 +1,131 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.test.integration.je;
+
+import org.geogig.storage.bdbje.JEGarbageCollectOp;
+import org.geogig.storage.bdbje.JEPackObjectsOp;
+import org.junit.Test;
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.model.RevCommit;
+import org.locationtech.geogig.porcelain.BranchCreateOp;
+import org.locationtech.geogig.porcelain.BranchDeleteOp;
+import org.locationtech.geogig.porcelain.CheckoutOp;
+import org.locationtech.geogig.porcelain.CommitOp;
+import org.locationtech.geogig.repository.Context;
+import org.locationtech.geogig.repository.Hints;
+import org.locationtech.geogig.repository.impl.GeoGIG;
+import org.locationtech.geogig.storage.ObjectDatabase;
+import org.locationtech.geogig.test.integration.RepositoryTestCase;
+
+public class JEGarbageCollectOpTest extends RepositoryTestCase {
+
+    private ObjectId reachableFeature;
+
+    private RevCommit reachableCommit;
+
+    private ObjectId unreachableFeature;
+
+    private RevCommit unreachableCommit;
+
+    @Override
+    protected Context createInjector() {
+        Hints hints = new Hints().uri(repositoryDirectory.toURI()).platform(createPlatform());
+        return new JETestContextBuilder().build(hints);
+    }
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        reachableFeature = insertAndAdd(points1);
+        reachableCommit = geogig.command(CommitOp.class).setMessage("reachable").call();
+
+        geogig.command(BranchCreateOp.class).setName("dangling").setAutoCheckout(true).call();
+        unreachableFeature = insertAndAdd(points2);
+        unreachableCommit = geogig.command(CommitOp.class).setMessage("unreachable").call();
+        geogig.command(CheckoutOp.class).setSource("master").call();
+        geogig.command(BranchDeleteOp.class).setName("dangling").call();
+    }
+
+    @Test
+    public void testCollect() {
+        ObjectDatabase db = geogig.getRepository().objectDatabase();
+        assertTrue(db.exists(unreachableCommit.getId()));
+        assertTrue(db.exists(unreachableFeature));
+
+        JEGarbageCollectOp.Report report = geogig.command(JEGarbageCollectOp.class).call();
+
+        assertTrue(report.isComplete());
+        assertTrue(report.getDeletedObjects() >= 3);// commit, root tree, and feature at least
+        assertTrue(report.getReclaimedBytes() > 0);
+        assertFalse(db.exists(unreachableCommit.getId()));
+        assertFalse(db.exists(unreachableCommit.getTreeId()));
+        assertFalse(db.exists(unreachableFeature));
+        assertTrue(db.exists(reachableCommit.getId()));
+        assertTrue(db.exists(reachableCommit.getTreeId()));
+        assertTrue(db.exists(reachableFeature));
+
+        report = geogig.command(JEGarbageCollectOp.class).call();
+        assertEquals(0, report.getDeletedObjects());
+    }
+
+    @Test
+    public void testCollectPackedObjects() {
+        ObjectDatabase db = geogig.getRepository().objectDatabase();
+        // only committed objects are packed, so pack the dangling commit while still referenced
+        geogig.command(BranchCreateOp.class).setName("dangling")
+                .setSource(unreachableCommit.getId().toString()).call();
+        long packed = geogig.command(JEPackObjectsOp.class).call().longValue();
+        assertTrue(packed > 0);
+        geogig.command(BranchDeleteOp.class).setName("dangling").call();
+
+        JEGarbageCollectOp.Report report = geogig.command(JEGarbageCollectOp.class).call();
+
+        assertTrue(report.isComplete());
+        assertEquals(1, report.getRewrittenPacks());
+        assertFalse(db.exists(unreachableCommit.getId()));
+        assertFalse(db.exists(unreachableFeature));
+        assertTrue(db.exists(reachableCommit.getId()));
+        assertTrue(db.exists(reachableCommit.getTreeId()));
+        assertTrue(db.exists(reachableFeature));
+    }
+
+    @Test
+    public void testPackOnlyCommittedObjects() {
+        ObjectDatabase db = geogig.getRepository().objectDatabase();
+        geogig.command(JEPackObjectsOp.class).call();
+
+        JEGarbageCollectOp.Report report = geogig.command(JEGarbageCollectOp.class).call();
+
+        // the dangling commit was left in the JE database and swept from there
+        assertEquals(0, report.getRewrittenPacks());
+        assertTrue(report.getDeletedObjects() >= 3);
+        assertFalse(db.exists(unreachableCommit.getId()));
+        assertTrue(db.exists(reachableCommit.getId()));
+    }
+
+    @Test
+    public void testDeletePackedObject() {
+        ObjectDatabase db = geogig.getRepository().objectDatabase();
+        geogig.command(JEPackObjectsOp.class).call();
+        assertTrue(db.exists(reachableFeature));
+
+        db.delete(reachableFeature);
+        assertFalse(db.exists(reachableFeature));
+        assertNull(db.getIfPresent(reachableFeature));
+
+        geogig.close();
+
+        GeoGIG reopened = new GeoGIG(createInjector());
+        try {
+            assertFalse(reopened.getRepository().objectDatabase().exists(reachableFeature));
+        } finally {
+            reopened.close();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.test.integration.je;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.model.RevCommit;
+import org.locationtech.geogig.porcelain.CommitOp;
+import org.locationtech.geogig.porcelain.LogOp;
+import org.locationtech.geogig.repository.Context;
+import org.locationtech.geogig.repository.Hints;
+import org.locationtech.geogig.repository.Repository;
+import org.locationtech.geogig.repository.impl.GeoGIG;
+import org.locationtech.geogig.test.integration.RepositoryTestCase;
+
+public class JELazyOpenTest extends RepositoryTestCase {
+
+    @Override
+    protected Context createInjector() {
+        Hints hints = new Hints().uri(repositoryDirectory.toURI()).platform(createPlatform());
+        return new JETestContextBuilder().build(hints);
+    }
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        repo.configDatabase().put("bdbje.lazy_open", "true");
+    }
+
+    @Test
+    public void testReopenLazily() throws Exception {
+        ObjectId featureId = insertAndAdd(points1);
+        RevCommit commit = geogig.command(CommitOp.class).setMessage("commit").call();
+        geogig.close();
+
+        GeoGIG reopened = new GeoGIG(createInjector());
+        try {
+            Repository repository = reopened.getRepository();
+            assertTrue(repository.objectDatabase().isOpen());
+            assertTrue(repository.graphDatabase().isOpen());
+            assertTrue(repository.objectDatabase().exists(featureId));
+            assertTrue(repository.graphDatabase().exists(commit.getId()));
+
+            Iterator<RevCommit> log = reopened.command(LogOp.class).call();
+            assertEquals(commit, log.next());
+            assertFalse(log.hasNext());
+        } finally {
+            reopened.close();
+        }
+    }
+}
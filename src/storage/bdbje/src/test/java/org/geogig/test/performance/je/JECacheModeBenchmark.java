@@ -0,0 +1,137 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.test.performance.je;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.geogig.storage.bdbje.WorkloadProfile;
+import org.geogig.test.integration.je.JETestContextBuilder;
+import org.junit.Assume;
+import org.junit.Test;
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.porcelain.CommitOp;
+import org.locationtech.geogig.porcelain.DiffOp;
+import org.locationtech.geogig.repository.AutoCloseableIterator;
+import org.locationtech.geogig.repository.Context;
+import org.locationtech.geogig.repository.DiffEntry;
+import org.locationtech.geogig.repository.Hints;
+import org.locationtech.geogig.storage.ObjectDatabase;
+import org.locationtech.geogig.test.integration.RepositoryTestCase;
+import org.opengis.feature.Feature;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Iterators;
+
+/**
+ * Runs the same diff over and over while features are read in between, and reports the cache hit
+ * ratio of the object database under each {@link WorkloadProfile}. The profiles with per operation
+ * cache modes keep the trees hot while the feature reads go through. Run with
+ * {@code -Dgeogig.runPerformanceTests=true}.
+ */
+public class JECacheModeBenchmark extends RepositoryTestCase {
+
+    private static final int NUM_FEATURES = 100 * 1000;
+
+    private static final int NUM_DIFFS = 20;
+
+    private List<ObjectId> featureIds;
+
+    @Override
+    protected Context createInjector() {
+        Hints hints = new Hints().uri(repositoryDirectory.toURI()).platform(createPlatform());
+        return new JETestContextBuilder().build(hints);
+    }
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("geogig.runPerformanceTests"));
+
+        featureIds = insertAndAdd(createFeatures(0, NUM_FEATURES, "v1"));
+        geogig.command(CommitOp.class).setMessage("first").call();
+        // modify one in ten features
+        List<Feature> modified = new ArrayList<>();
+        for (int i = 0; i < NUM_FEATURES; i += 10) {
+            modified.add(createFeature(i, "v2"));
+        }
+        insertAndAdd(modified.toArray(new Feature[modified.size()]));
+        geogig.command(CommitOp.class).setMessage("second").call();
+    }
+
+    @Test
+    public void compareProfiles() throws Exception {
+        final ObjectDatabase db = geogig.getRepository().objectDatabase();
+        final ObjectName objects = objectsEnvironment();
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        System.err.printf("%-12s %12s %12s%n", "profile", "diff ms", "hit ratio");
+        for (WorkloadProfile profile : WorkloadProfile.values()) {
+            geogig.getRepository().configDatabase().put(WorkloadProfile.CONFIG_KEY,
+                    profile.configValue());
+            // the databases pick up profile changes within a second
+            Thread.sleep(1100);
+
+            server.invoke(objects, "sample", null, null);
+            Stopwatch sw = Stopwatch.createUnstarted();
+            for (int i = 0; i < NUM_DIFFS; i++) {
+                sw.start();
+                int changes;
+                try (AutoCloseableIterator<DiffEntry> diffs = geogig.command(DiffOp.class)
+                        .setOldVersion("HEAD~1").setNewVersion("HEAD").call()) {
+                    changes = Iterators.size(diffs);
+                }
+                sw.stop();
+                assertEquals(NUM_FEATURES / 10, changes);
+                // one-off feature reads competing for the cache
+                for (int j = i; j < featureIds.size(); j += NUM_DIFFS) {
+                    assertNotNull(db.getFeature(featureIds.get(j)));
+                }
+            }
+            server.invoke(objects, "sample", null, null);
+            double hitRatio = ((Double) server.getAttribute(objects, "CacheHitRatio"))
+                    .doubleValue();
+            System.err.printf("%-12s %,12d %12.3f%n", profile,
+                    sw.elapsed(TimeUnit.MILLISECONDS) / NUM_DIFFS, hitRatio);
+        }
+    }
+
+    private ObjectName objectsEnvironment() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : server
+                .queryNames(new ObjectName("org.geogig.storage.bdbje:type=Environment,*"), null)) {
+            String home = (String) server.getAttribute(name, "EnvironmentHome");
+            String databases = (String) server.getAttribute(name, "Databases");
+            if (home.startsWith(repositoryDirectory.getAbsolutePath())
+                    && databases.contains("objects")) {
+                return name;
+            }
+        }
+        throw new IllegalStateException("object database environment not registered with JMX");
+    }
+
+    private Feature[] createFeatures(int from, int count, String version) throws Exception {
+        Feature[] features = new Feature[count];
+        for (int i = 0; i < count; i++) {
+            features[i] = createFeature(from + i, version);
+        }
+        return features;
+    }
+
+    private Feature createFeature(int i, String version) throws Exception {
+        String id = String.valueOf(i);
+        return feature(pointsType, id, "StringProp1_" + id + "_" + version, Integer.valueOf(i),
+                "POINT(" + (i % 180) + " " + (i % 90) + ")");
+    }
+}
@@ -0,0 +1,134 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.test.performance.je;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.geogig.storage.bdbje.EnvironmentBuilder;
+import org.geogig.storage.bdbje.JEGraphDatabase_v0_2;
+import org.geogig.storage.bdbje.JEGraphDatabase_v0_3;
+import org.geogig.storage.bdbje.LatencyHistogram;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.repository.Hints;
+import org.locationtech.geogig.storage.ConfigDatabase;
+import org.locationtech.geogig.storage.GraphDatabase;
+import org.locationtech.geogig.storage.fs.IniFileConfigDatabase;
+import org.locationtech.geogig.test.TestPlatform;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Compares the on disk size and the latencies of the {@code 0.2} and {@code 0.3} graph formats
+ * for the same history, mostly single parent commits with some merges and some sparse commits.
+ * Run with {@code -Dgeogig.runPerformanceTests=true}.
+ */
+public class JEGraphFormatComparisonTest {
+
+    private static final int NUM_COMMITS = 200 * 1000;
+
+    private static final int NUM_READS = 200 * 1000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private List<ObjectId> commits;
+
+    @Before
+    public void before() {
+        Assume.assumeTrue(Boolean.getBoolean("geogig.runPerformanceTests"));
+        Random random = new Random(1);
+        commits = new ArrayList<>(NUM_COMMITS);
+        for (int i = 0; i < NUM_COMMITS; i++) {
+            byte[] raw = new byte[ObjectId.NUM_BYTES];
+            random.nextBytes(raw);
+            commits.add(ObjectId.createNoClone(raw));
+        }
+    }
+
+    @Test
+    public void compareFormats() throws Exception {
+        System.err.printf("%-7s %10s %10s %12s %12s %12s %12s%n", "format", "size MB",
+                "puts/s", "parents p50", "parents p99", "setprop p50", "setprop p99");
+        run("0.2");
+        run("0.3");
+    }
+
+    private void run(final String format) throws Exception {
+        File root = tmp.newFolder("repo-" + format);
+        new File(root, ".geogig").mkdir();
+        TestPlatform platform = new TestPlatform(root);
+        ConfigDatabase config = new IniFileConfigDatabase(platform);
+        EnvironmentBuilder envProvider = new EnvironmentBuilder(platform, null);
+        GraphDatabase graph = "0.2".equals(format)
+                ? new JEGraphDatabase_v0_2(config, envProvider, new Hints())
+                : new JEGraphDatabase_v0_3(config, envProvider, new Hints());
+        graph.open();
+        final Random random = new Random(2);
+        final LatencyHistogram parents = new LatencyHistogram();
+        final LatencyHistogram setProperty = new LatencyHistogram();
+        final double putsPerSecond;
+        try {
+            final long start = System.nanoTime();
+            for (int i = 0; i < NUM_COMMITS; i++) {
+                ImmutableList<ObjectId> parentIds;
+                if (i == 0) {
+                    parentIds = ImmutableList.of();
+                } else if (i > 10 && random.nextInt(10) == 0) {
+                    parentIds = ImmutableList.of(commits.get(i - 1),
+                            commits.get(i - 2 - random.nextInt(9)));
+                } else {
+                    parentIds = ImmutableList.of(commits.get(i - 1));
+                }
+                graph.put(commits.get(i), parentIds);
+            }
+            putsPerSecond = NUM_COMMITS
+                    / ((System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1));
+
+            for (int i = 0; i < NUM_COMMITS / 20; i++) {
+                ObjectId commit = commits.get(random.nextInt(NUM_COMMITS));
+                long t = System.nanoTime();
+                graph.setProperty(commit, GraphDatabase.SPARSE_FLAG, "true");
+                setProperty.record(System.nanoTime() - t);
+            }
+            for (int i = 0; i < NUM_READS; i++) {
+                ObjectId commit = commits.get(random.nextInt(NUM_COMMITS));
+                long t = System.nanoTime();
+                graph.getParents(commit);
+                parents.record(System.nanoTime() - t);
+            }
+        } finally {
+            graph.close();
+        }
+        final double sizeMB = size(new File(root, ".geogig/graph")) / (1024d * 1024d);
+        System.err.printf("%-7s %,10.1f %,10.0f %12.3f %12.3f %12.3f %12.3f%n", format, sizeMB,
+                putsPerSecond, parents.getPercentileMillis(50), parents.getPercentileMillis(99),
+                setProperty.getPercentileMillis(50), setProperty.getPercentileMillis(99));
+    }
+
+    private static long size(File dir) {
+        long size = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.isDirectory() ? size(file) : file.length();
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,175 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.test.performance.je;
+
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.geogig.storage.bdbje.EnvironmentBuilder;
+import org.geogig.storage.bdbje.JEGraphDatabase_v0_2;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.repository.Hints;
+import org.locationtech.geogig.storage.GraphDatabase;
+import org.locationtech.geogig.storage.fs.IniFileConfigDatabase;
+import org.locationtech.geogig.test.TestPlatform;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Measures the graph database read throughput with an increasing number of reader threads, while
+ * a writer keeps adding commits, to show reads scale instead of serializing on a lock. Run with
+ * {@code -Dgeogig.runPerformanceTests=true}.
+ */
+public class JEGraphReadScalingBenchmark {
+
+    private static final int NUM_COMMITS = 100 * 1000;
+
+    private static final int[] THREADS = { 1, 2, 4, 8 };
+
+    private static final long RUN_MILLIS = 5000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private GraphDatabase graph;
+
+    private List<ObjectId> commits;
+
+    @Before
+    public void before() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("geogig.runPerformanceTests"));
+        File root = tmp.newFolder("repo");
+        new File(root, ".geogig").mkdir();
+        TestPlatform platform = new TestPlatform(root);
+        graph = new JEGraphDatabase_v0_2(new IniFileConfigDatabase(platform),
+                new EnvironmentBuilder(platform, null), new Hints());
+        graph.open();
+
+        Random random = new Random(1);
+        commits = new ArrayList<>(NUM_COMMITS);
+        ObjectId parent = null;
+        for (int i = 0; i < NUM_COMMITS; i++) {
+            ObjectId commit = randomId(random);
+            graph.put(commit, parent == null ? ImmutableList.<ObjectId> of()
+                    : ImmutableList.of(parent));
+            commits.add(commit);
+            parent = commit;
+        }
+    }
+
+    @After
+    public void after() {
+        if (graph != null) {
+            graph.close();
+        }
+    }
+
+    @Test
+    public void readScaling() throws Exception {
+        System.err.printf("%8s %14s %10s %12s%n", "readers", "reads/s", "speedup", "writes/s");
+        double single = 0;
+        for (int threads : THREADS) {
+            double[] rates = run(threads);
+            if (single == 0) {
+                single = rates[0];
+            }
+            System.err.printf("%8d %,14.0f %10.2f %,12.0f%n", threads, rates[0],
+                    rates[0] / single, rates[1]);
+        }
+    }
+
+    /**
+     * @return the reads and writes per second
+     */
+    private double[] run(final int readers) throws Exception {
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicLong reads = new AtomicLong();
+        final AtomicLong writes = new AtomicLong();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < readers; i++) {
+            final Random random = new Random(i);
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        long count = 0;
+                        while (!stop.get()) {
+                            ObjectId id = commits.get(random.nextInt(commits.size()));
+                            switch (random.nextInt(3)) {
+                            case 0:
+                                graph.getParents(id);
+                                break;
+                            case 1:
+                                graph.getChildren(id);
+                                break;
+                            default:
+                                graph.exists(id);
+                            }
+                            count++;
+                        }
+                        reads.addAndGet(count);
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }, "graph-reader-" + i));
+        }
+        final Random random = new Random(readers + 1000);
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!stop.get()) {
+                        ObjectId parent = commits.get(random.nextInt(commits.size()));
+                        graph.put(randomId(random), ImmutableList.of(parent));
+                        writes.incrementAndGet();
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        }, "graph-writer"));
+
+        final long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(RUN_MILLIS);
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        final double seconds = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+        assertNull("Run failed: " + failure.get(), failure.get());
+        return new double[] { reads.get() / seconds, writes.get() / seconds };
+    }
+
+    private static ObjectId randomId(Random random) {
+        byte[] raw = new byte[ObjectId.NUM_BYTES];
+        random.nextBytes(raw);
+        return ObjectId.createNoClone(raw);
+    }
+}
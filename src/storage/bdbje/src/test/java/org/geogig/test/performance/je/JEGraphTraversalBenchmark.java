@@ -0,0 +1,182 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.test.performance.je;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.geogig.storage.bdbje.EnvironmentBuilder;
+import org.geogig.storage.bdbje.JEGraphDatabase_v0_2;
+import org.geogig.storage.bdbje.LatencyHistogram;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.repository.Hints;
+import org.locationtech.geogig.storage.GraphDatabase;
+import org.locationtech.geogig.storage.GraphDatabase.Direction;
+import org.locationtech.geogig.storage.GraphDatabase.GraphEdge;
+import org.locationtech.geogig.storage.GraphDatabase.GraphNode;
+import org.locationtech.geogig.storage.fs.IniFileConfigDatabase;
+import org.locationtech.geogig.test.TestPlatform;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Measures the common ancestor search the way {@code FindCommonAncestor} does it, walking
+ * {@link GraphNode#getEdges(Direction) outgoing edges} from both commits breadth first and
+ * checking {@link GraphNode#isSparse()} on the way, over a history where many branches fork from
+ * the same base commit. Run with {@code -Dgeogig.runPerformanceTests=true}.
+ */
+public class JEGraphTraversalBenchmark {
+
+    private static final int TRUNK_LENGTH = 10 * 1000;
+
+    private static final int NUM_BRANCHES = 2000;
+
+    private static final int BRANCH_LENGTH = 20;
+
+    private static final int NUM_SEARCHES = 2000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private GraphDatabase graph;
+
+    private ObjectId base;
+
+    private List<ObjectId> tips;
+
+    @Before
+    public void before() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("geogig.runPerformanceTests"));
+        File root = tmp.newFolder("repo");
+        new File(root, ".geogig").mkdir();
+        TestPlatform platform = new TestPlatform(root);
+        graph = new JEGraphDatabase_v0_2(new IniFileConfigDatabase(platform),
+                new EnvironmentBuilder(platform, null), new Hints());
+        graph.open();
+
+        Random random = new Random(1);
+        ObjectId parent = null;
+        for (int i = 0; i < TRUNK_LENGTH; i++) {
+            ObjectId commit = randomId(random);
+            graph.put(commit, parent == null ? ImmutableList.<ObjectId> of()
+                    : ImmutableList.of(parent));
+            parent = commit;
+        }
+        base = parent;
+        tips = new ArrayList<>(NUM_BRANCHES);
+        for (int b = 0; b < NUM_BRANCHES; b++) {
+            parent = base;
+            for (int i = 0; i < BRANCH_LENGTH; i++) {
+                ObjectId commit = randomId(random);
+                graph.put(commit, ImmutableList.of(parent));
+                parent = commit;
+            }
+            tips.add(parent);
+        }
+    }
+
+    @After
+    public void after() {
+        if (graph != null) {
+            graph.close();
+        }
+    }
+
+    @Test
+    public void findCommonAncestor() {
+        final Random random = new Random(2);
+        final LatencyHistogram latency = new LatencyHistogram();
+        final long start = System.nanoTime();
+        for (int i = 0; i < NUM_SEARCHES; i++) {
+            ObjectId left = tips.get(random.nextInt(NUM_BRANCHES));
+            ObjectId right = tips.get(random.nextInt(NUM_BRANCHES));
+            long t = System.nanoTime();
+            ObjectId ancestor = findCommonAncestor(left, right);
+            latency.record(System.nanoTime() - t);
+            if (!left.equals(right)) {
+                assertEquals(base, ancestor);
+            }
+        }
+        final double seconds = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+        System.err.printf("%,d searches over %,d branches forking from one commit: %,.0f/s, "
+                + "p50 %.3f ms, p99 %.3f ms, max %.3f ms%n", NUM_SEARCHES, NUM_BRANCHES,
+                NUM_SEARCHES / seconds, latency.getPercentileMillis(50),
+                latency.getPercentileMillis(99), latency.getMaxMillis());
+    }
+
+    /**
+     * Alternates one breadth first step from each side until a commit is reached from both
+     */
+    private ObjectId findCommonAncestor(ObjectId left, ObjectId right) {
+        final Set<ObjectId> leftVisited = new HashSet<>();
+        final Set<ObjectId> rightVisited = new HashSet<>();
+        final Queue<GraphNode> leftQueue = new ArrayDeque<>();
+        final Queue<GraphNode> rightQueue = new ArrayDeque<>();
+        leftQueue.add(graph.getNode(left));
+        rightQueue.add(graph.getNode(right));
+        leftVisited.add(left);
+        rightVisited.add(right);
+        if (left.equals(right)) {
+            return left;
+        }
+        while (!leftQueue.isEmpty() || !rightQueue.isEmpty()) {
+            ObjectId found = step(leftQueue, leftVisited, rightVisited);
+            if (found == null) {
+                found = step(rightQueue, rightVisited, leftVisited);
+            }
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    private ObjectId step(Queue<GraphNode> queue, Set<ObjectId> visited, Set<ObjectId> other) {
+        GraphNode node = queue.poll();
+        if (node == null) {
+            return null;
+        }
+        node.isSparse();
+        Iterator<GraphEdge> edges = node.getEdges(Direction.OUT);
+        while (edges.hasNext()) {
+            GraphNode parent = edges.next().getToNode();
+            ObjectId id = parent.getIdentifier();
+            if (other.contains(id)) {
+                return id;
+            }
+            if (visited.add(id)) {
+                queue.add(parent);
+            }
+        }
+        return null;
+    }
+
+    private static ObjectId randomId(Random random) {
+        byte[] raw = new byte[ObjectId.NUM_BYTES];
+        random.nextBytes(raw);
+        return ObjectId.createNoClone(raw);
+    }
+}
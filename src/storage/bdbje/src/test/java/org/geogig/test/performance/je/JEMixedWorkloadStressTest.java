@@ -0,0 +1,427 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.test.performance.je;
+
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.geogig.storage.bdbje.EnvironmentBuilder;
+import org.geogig.storage.bdbje.JEGraphDatabase_v0_2;
+import org.geogig.storage.bdbje.JEObjectDatabase_v0_2;
+import org.geogig.storage.bdbje.LatencyHistogram;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.model.RevFeature;
+import org.locationtech.geogig.model.RevObject;
+import org.locationtech.geogig.model.impl.RevFeatureBuilder;
+import org.locationtech.geogig.repository.Hints;
+import org.locationtech.geogig.storage.BulkOpListener;
+import org.locationtech.geogig.storage.ConfigDatabase;
+import org.locationtech.geogig.storage.GraphDatabase;
+import org.locationtech.geogig.storage.ObjectDatabase;
+import org.locationtech.geogig.storage.fs.IniFileConfigDatabase;
+import org.locationtech.geogig.test.TestPlatform;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Drives concurrent reader and writer threads against the object and graph databases and reports
+ * throughput and latency percentiles per operation over time, to catch contention regressions
+ * such as writes serialized on a single thread or the graph database's global lock.
+ * <p>
+ * Run as a test with {@code -Dgeogig.runPerformanceTests=true}, or from the command line through
+ * {@link #main(String[])} with {@code name=value} arguments. The settings, as system properties
+ * or arguments, are:
+ * <ul>
+ * <li>{@code stress.readers}: number of reader threads, 4 by default
+ * <li>{@code stress.writers}: number of writer threads, 2 by default
+ * <li>{@code stress.seconds}: duration of each run, 30 by default
+ * <li>{@code stress.interval}: seconds between reports, 5 by default
+ * <li>{@code stress.preload}: objects and commits stored before starting, 100000 by default
+ * <li>{@code stress.batch}: ids per {@code getAll}/{@code putAll} call, 100 by default
+ * </ul>
+ */
+public class JEMixedWorkloadStressTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final int readers = Integer.getInteger("stress.readers", 4);
+
+    private final int writers = Integer.getInteger("stress.writers", 2);
+
+    private final int seconds = Integer.getInteger("stress.seconds", 30);
+
+    private final int interval = Integer.getInteger("stress.interval", 5);
+
+    private final int preload = Integer.getInteger("stress.preload", 100 * 1000);
+
+    private final int batchSize = Integer.getInteger("stress.batch", 100);
+
+    private TestPlatform platform;
+
+    private ConfigDatabase config;
+
+    private EnvironmentBuilder envProvider;
+
+    private ObjectDatabase objects;
+
+    private GraphDatabase graph;
+
+    public static void main(String[] args) {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                System.err.println("Expected name=value, got " + arg);
+                System.exit(1);
+            }
+            String name = arg.substring(0, eq);
+            System.setProperty(name.startsWith("stress.") ? name : "stress." + name,
+                    arg.substring(eq + 1));
+        }
+        System.setProperty("geogig.runPerformanceTests", "true");
+        Result result = JUnitCore.runClasses(JEMixedWorkloadStressTest.class);
+        System.exit(result.wasSuccessful() ? 0 : 1);
+    }
+
+    @Before
+    public void before() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("geogig.runPerformanceTests"));
+        File root = tmp.newFolder("repo");
+        new File(root, ".geogig").mkdir();
+        platform = new TestPlatform(root);
+        config = new IniFileConfigDatabase(platform);
+        // shared as the guice singleton would be
+        envProvider = new EnvironmentBuilder(platform, null);
+    }
+
+    @After
+    public void after() {
+        if (objects != null) {
+            objects.close();
+        }
+        if (graph != null) {
+            graph.close();
+        }
+    }
+
+    @Test
+    public void objectDatabase() throws Exception {
+        objects = new JEObjectDatabase_v0_2(config, envProvider, false, "objects");
+        objects.open();
+
+        final List<ObjectId> stored = new ArrayList<>(preload);
+        Random random = new Random(1);
+        for (int loaded = 0; loaded < preload; loaded += 10_000) {
+            List<RevObject> batch = new ArrayList<>();
+            for (int i = 0; i < Math.min(10_000, preload - loaded); i++) {
+                batch.add(feature(random));
+            }
+            objects.putAll(batch.iterator(), BulkOpListener.NOOP_LISTENER);
+            for (RevObject o : batch) {
+                stored.add(o.getId());
+            }
+        }
+
+        Workload workload = new Workload("objects") {
+
+            @Override
+            long read(Worker worker) {
+                final Random random = worker.random;
+                switch (random.nextInt(3)) {
+                case 0: {
+                    ObjectId id = stored.get(random.nextInt(stored.size()));
+                    long start = System.nanoTime();
+                    objects.getIfPresent(id);
+                    return worker.done("get", start);
+                }
+                case 1: {
+                    List<ObjectId> ids = new ArrayList<>(batchSize);
+                    for (int i = 0; i < batchSize; i++) {
+                        ids.add(stored.get(random.nextInt(stored.size())));
+                    }
+                    long start = System.nanoTime();
+                    Iterator<RevObject> all = objects.getAll(ids);
+                    while (all.hasNext()) {
+                        all.next();
+                    }
+                    return worker.done("getAll", start);
+                }
+                default: {
+                    // half hits, half misses
+                    ObjectId id = random.nextBoolean() ? stored.get(random.nextInt(stored.size()))
+                            : randomId(random);
+                    long start = System.nanoTime();
+                    objects.exists(id);
+                    return worker.done("exists", start);
+                }
+                }
+            }
+
+            @Override
+            long write(Worker worker) {
+                final Random random = worker.random;
+                final int op = random.nextInt(3);
+                if (op == 0) {
+                    RevFeature feature = feature(random);
+                    long start = System.nanoTime();
+                    objects.put(feature);
+                    long elapsed = worker.done("put", start);
+                    worker.written.add(feature.getId());
+                    return elapsed;
+                } else if (op == 1 || worker.written.isEmpty()) {
+                    List<RevObject> batch = new ArrayList<>(batchSize);
+                    for (int i = 0; i < batchSize; i++) {
+                        batch.add(feature(random));
+                    }
+                    long start = System.nanoTime();
+                    objects.putAll(batch.iterator(), BulkOpListener.NOOP_LISTENER);
+                    long elapsed = worker.done("putAll", start);
+                    for (RevObject o : batch) {
+                        worker.written.add(o.getId());
+                    }
+                    return elapsed;
+                } else {
+                    // only this worker's own objects, so readers always find the preloaded ones
+                    ObjectId id = worker.written.remove(worker.written.size() - 1);
+                    long start = System.nanoTime();
+                    objects.delete(id);
+                    return worker.done("delete", start);
+                }
+            }
+        };
+        workload.run();
+    }
+
+    @Test
+    public void graphDatabase() throws Exception {
+        graph = new JEGraphDatabase_v0_2(config, envProvider, new Hints());
+        graph.open();
+
+        // a linear history with a merge every hundred commits
+        final List<ObjectId> commits = new ArrayList<>(preload);
+        Random random = new Random(1);
+        ObjectId parent = null;
+        for (int i = 0; i < preload; i++) {
+            ObjectId commit = randomId(random);
+            ImmutableList<ObjectId> parents;
+            if (parent == null) {
+                parents = ImmutableList.of();
+            } else if (i % 100 == 0) {
+                parents = ImmutableList.of(parent, commits.get(random.nextInt(commits.size())));
+            } else {
+                parents = ImmutableList.of(parent);
+            }
+            graph.put(commit, parents);
+            commits.add(commit);
+            parent = commit;
+        }
+
+        Workload workload = new Workload("graph") {
+
+            @Override
+            long read(Worker worker) {
+                final Random random = worker.random;
+                final ObjectId id = commits.get(random.nextInt(commits.size()));
+                final long start;
+                switch (random.nextInt(3)) {
+                case 0:
+                    start = System.nanoTime();
+                    graph.getParents(id);
+                    return worker.done("getParents", start);
+                case 1:
+                    start = System.nanoTime();
+                    graph.getChildren(id);
+                    return worker.done("getChildren", start);
+                default:
+                    start = System.nanoTime();
+                    graph.exists(id);
+                    return worker.done("exists", start);
+                }
+            }
+
+            @Override
+            long write(Worker worker) {
+                final Random random = worker.random;
+                ObjectId commit = randomId(random);
+                ImmutableList<ObjectId> parents = ImmutableList
+                        .of(commits.get(random.nextInt(commits.size())));
+                long start = System.nanoTime();
+                graph.put(commit, parents);
+                return worker.done("put", start);
+            }
+        };
+        workload.run();
+    }
+
+    private static RevFeature feature(Random random) {
+        return RevFeatureBuilder.builder().addValue(Long.valueOf(random.nextLong()))
+                .addValue(Integer.valueOf(random.nextInt())).addValue("value " + random.nextInt())
+                .build();
+    }
+
+    private static ObjectId randomId(Random random) {
+        byte[] raw = new byte[ObjectId.NUM_BYTES];
+        random.nextBytes(raw);
+        return ObjectId.createNoClone(raw);
+    }
+
+    /**
+     * Latencies of an operation since the last report and since the start
+     */
+    private static class OperationStats {
+
+        final AtomicReference<LatencyHistogram> current = new AtomicReference<>(
+                new LatencyHistogram());
+
+        final LatencyHistogram total = new LatencyHistogram();
+
+        void record(long nanos) {
+            current.get().record(nanos);
+            total.record(nanos);
+        }
+    }
+
+    private static class Worker {
+
+        final Random random;
+
+        final Map<String, OperationStats> stats;
+
+        final List<ObjectId> written = new ArrayList<>();
+
+        Worker(long seed, Map<String, OperationStats> stats) {
+            this.random = new Random(seed);
+            this.stats = stats;
+        }
+
+        /**
+         * Records the latency of an operation started at {@code start}
+         */
+        long done(String operation, long start) {
+            long elapsed = System.nanoTime() - start;
+            stats.get(operation).record(elapsed);
+            return elapsed;
+        }
+    }
+
+    private abstract class Workload {
+
+        private final String name;
+
+        private final Map<String, OperationStats> stats = new LinkedHashMap<>();
+
+        private long lastReport;
+
+        Workload(String name) {
+            this.name = name;
+            for (String op : new String[] { "get", "getAll", "exists", "put", "putAll", "delete",
+                    "getParents", "getChildren" }) {
+                stats.put(op, new OperationStats());
+            }
+        }
+
+        abstract long read(Worker worker);
+
+        abstract long write(Worker worker);
+
+        void run() throws Exception {
+            System.err.printf("%s: %d readers, %d writers, %d seconds, %,d preloaded%n", name,
+                    readers, writers, seconds, preload);
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            final CountDownLatch finished = new CountDownLatch(readers + writers);
+
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < readers + writers; i++) {
+                final boolean reader = i < readers;
+                final Worker worker = new Worker(i + 1, stats);
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            while (System.nanoTime() < deadline && failure.get() == null) {
+                                if (reader) {
+                                    read(worker);
+                                } else {
+                                    write(worker);
+                                }
+                            }
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            finished.countDown();
+                        }
+                    }
+                }, (reader ? "stress-reader-" : "stress-writer-") + i);
+                threads.add(thread);
+            }
+            final long start = System.nanoTime();
+            lastReport = start;
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            while (!finished.await(interval, TimeUnit.SECONDS)) {
+                report(start, false);
+            }
+            report(start, false);
+            report(start, true);
+            assertNull("Workload failed: " + failure.get(), failure.get());
+        }
+
+        private void report(long start, boolean totals) {
+            final long now = System.nanoTime();
+            final double elapsed = (now - start) / 1e9;
+            final double sinceLast = (now - lastReport) / 1e9;
+            if (!totals) {
+                lastReport = now;
+            }
+            System.err.printf("%s %s at %.1fs%n", name, totals ? "totals" : "interval", elapsed);
+            System.err.printf("  %-12s %12s %10s %10s %10s %10s%n", "operation", "ops/s",
+                    "p50 ms", "p99 ms", "p999 ms", "max ms");
+            for (Map.Entry<String, OperationStats> e : stats.entrySet()) {
+                OperationStats stats = e.getValue();
+                LatencyHistogram histogram;
+                double period;
+                if (totals) {
+                    histogram = stats.total;
+                    period = elapsed;
+                } else {
+                    histogram = stats.current.getAndSet(new LatencyHistogram());
+                    period = sinceLast;
+                }
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+                System.err.printf("  %-12s %,12.0f %10.3f %10.3f %10.3f %10.3f%n", e.getKey(),
+                        histogram.getCount() / period, histogram.getPercentileMillis(50),
+                        histogram.getPercentileMillis(99), histogram.getPercentileMillis(99.9),
+                        histogram.getMaxMillis());
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.test.performance.je;
+
+import java.util.concurrent.TimeUnit;
+
+import org.geogig.test.integration.je.JETestContextBuilder;
+import org.junit.Assume;
+import org.junit.Test;
+import org.locationtech.geogig.model.Ref;
+import org.locationtech.geogig.plumbing.RefParse;
+import org.locationtech.geogig.porcelain.CommitOp;
+import org.locationtech.geogig.porcelain.LogOp;
+import org.locationtech.geogig.repository.Context;
+import org.locationtech.geogig.repository.Hints;
+import org.locationtech.geogig.repository.impl.GeoGIG;
+import org.locationtech.geogig.test.integration.RepositoryTestCase;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Iterators;
+
+/**
+ * Measures the latency of opening a JE repository and running a short command, like a CLI
+ * invocation does, with and without {@code bdbje.lazy_open}. Cold opens are measured first, with no
+ * environment open in the process, then warm ones, with the environments kept open by the
+ * {@code bdbje.environment_pool}. Run with {@code -Dgeogig.runPerformanceTests=true}.
+ */
+public class JEOpenLatencyBenchmark extends RepositoryTestCase {
+
+    private static final int WARM_RUNS = 20;
+
+    @Override
+    protected Context createInjector() {
+        Hints hints = new Hints().uri(repositoryDirectory.toURI()).platform(createPlatform());
+        return new JETestContextBuilder().build(hints);
+    }
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("geogig.runPerformanceTests"));
+        insertAndAdd(points1, points2, points3, lines1);
+        geogig.command(CommitOp.class).setMessage("commit").call();
+    }
+
+    @Test
+    public void openLatency() throws Exception {
+        geogig.close();
+        final String[] commands = { "rev-parse", "log" };
+        final boolean[] lazyModes = { false, true };
+
+        // cold runs first, pooled environments stay open until they expire
+        double[][] cold = new double[lazyModes.length][commands.length];
+        for (int l = 0; l < lazyModes.length; l++) {
+            setLazyOpen(lazyModes[l]);
+            for (int c = 0; c < commands.length; c++) {
+                cold[l][c] = openAndRun(commands[c]);
+            }
+        }
+
+        System.err.printf("%-10s %-8s %12s %12s %12s%n", "command", "lazy", "cold ms",
+                "warm avg ms", "warm max ms");
+        System.setProperty("bdbje.environment_pool", "true");
+        try {
+            for (int l = 0; l < lazyModes.length; l++) {
+                setLazyOpen(lazyModes[l]);
+                for (int c = 0; c < commands.length; c++) {
+                    double total = 0, max = 0;
+                    for (int i = 0; i < WARM_RUNS; i++) {
+                        double millis = openAndRun(commands[c]);
+                        total += millis;
+                        max = Math.max(max, millis);
+                    }
+                    System.err.printf("%-10s %-8s %,12.2f %,12.2f %,12.2f%n", commands[c],
+                            lazyModes[l], cold[l][c], total / WARM_RUNS, max);
+                }
+            }
+        } finally {
+            System.clearProperty("bdbje.environment_pool");
+        }
+    }
+
+    private void setLazyOpen(boolean lazy) {
+        GeoGIG gig = new GeoGIG(createInjector());
+        try {
+            gig.getRepository().configDatabase().put("bdbje.lazy_open", String.valueOf(lazy));
+        } finally {
+            gig.close();
+        }
+    }
+
+    private double openAndRun(String command) {
+        Stopwatch sw = Stopwatch.createStarted();
+        GeoGIG gig = new GeoGIG(createInjector());
+        try {
+            gig.getRepository();
+            if ("log".equals(command)) {
+                assertEquals(1, Iterators.size(gig.command(LogOp.class).call()));
+            } else {
+                assertTrue(gig.command(RefParse.class).setName(Ref.HEAD).call().isPresent());
+            }
+        } finally {
+            gig.close();
+        }
+        return sw.stop().elapsed(TimeUnit.MICROSECONDS) / 1000d;
+    }
+}
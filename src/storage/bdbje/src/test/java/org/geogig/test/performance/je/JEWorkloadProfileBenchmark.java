@@ -0,0 +1,110 @@
+/* Copyright (c) 2016 Boundless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Distribution License v1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/edl-v10.html
+ *
+ * Contributors:
+ * Gabriel Roldan (Boundless) - initial implementation
+ */
+package org.geogig.test.performance.je;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.geogig.storage.bdbje.WorkloadProfile;
+import org.geogig.test.integration.je.JETestContextBuilder;
+import org.junit.Assume;
+import org.junit.Test;
+import org.locationtech.geogig.model.ObjectId;
+import org.locationtech.geogig.model.RevFeature;
+import org.locationtech.geogig.model.impl.RevFeatureBuilder;
+import org.locationtech.geogig.repository.Context;
+import org.locationtech.geogig.repository.Hints;
+import org.locationtech.geogig.storage.BulkOpListener;
+import org.locationtech.geogig.storage.ObjectDatabase;
+import org.locationtech.geogig.test.integration.RepositoryTestCase;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Iterators;
+
+/**
+ * Compares bulk insert and random read throughput of the object database under each
+ * {@link WorkloadProfile}. Run with {@code -Dgeogig.runPerformanceTests=true}.
+ */
+public class JEWorkloadProfileBenchmark extends RepositoryTestCase {
+
+    private static final int NUM_FEATURES = 200 * 1000;
+
+    private static final int NUM_READS = 20 * 1000;
+
+    @Override
+    protected Context createInjector() {
+        Hints hints = new Hints().uri(repositoryDirectory.toURI()).platform(createPlatform());
+        return new JETestContextBuilder().build(hints);
+    }
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("geogig.runPerformanceTests"));
+    }
+
+    @Test
+    public void compareProfiles() throws Exception {
+        final ObjectDatabase db = geogig.getRepository().objectDatabase();
+        System.err.printf("%-12s %12s %12s%n", "profile", "inserts/s", "reads/s");
+        int seed = 0;
+        for (WorkloadProfile profile : WorkloadProfile.values()) {
+            geogig.getRepository().configDatabase().put(WorkloadProfile.CONFIG_KEY,
+                    profile.configValue());
+            // the databases pick up profile changes within a second
+            Thread.sleep(1100);
+
+            List<RevFeature> features = createFeatures(seed, NUM_FEATURES);
+            seed += NUM_FEATURES;
+
+            Stopwatch sw = Stopwatch.createStarted();
+            db.putAll(features.iterator(), BulkOpListener.NOOP_LISTENER);
+            final double insertsPerSec = rate(NUM_FEATURES, sw.stop());
+
+            List<ObjectId> ids = new ArrayList<>(NUM_READS);
+            for (int i = 0; i < NUM_READS; i++) {
+                ids.add(features.get(i * (NUM_FEATURES / NUM_READS)).getId());
+            }
+            Collections.shuffle(ids, new Random(seed));
+            sw = Stopwatch.createStarted();
+            for (ObjectId id : ids) {
+                assertNotNull(db.get(id));
+            }
+            final double readsPerSec = rate(NUM_READS, sw.stop());
+
+            System.err.printf("%-12s %,12.0f %,12.0f%n", profile, insertsPerSec, readsPerSec);
+            assertEquals(NUM_FEATURES, Iterators.size(db.getAll(ids(features))));
+        }
+    }
+
+    private static double rate(int count, Stopwatch sw) {
+        return count / (sw.elapsed(TimeUnit.MICROSECONDS) / 1000000d);
+    }
+
+    private List<RevFeature> createFeatures(int from, int count) throws Exception {
+        List<RevFeature> features = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++) {
+            String id = String.valueOf(i);
+            features.add(RevFeatureBuilder.build(feature(pointsType, id, "StringProp1_" + id,
+                    Integer.valueOf(i), "POINT(" + (i % 180) + " " + (i % 90) + ")")));
+        }
+        return features;
+    }
+
+    private static List<ObjectId> ids(List<RevFeature> features) {
+        List<ObjectId> ids = new ArrayList<>(features.size());
+        for (RevFeature f : features) {
+            ids.add(f.getId());
+        }
+        return ids;
+    }
+}